@@ -0,0 +1,228 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+
+/**
+ * A detector that compares the attributes of every file named by the
+ * keystore's description with the attributes recorded at the time of the
+ * previous load.
+ *
+ * @see CMKeyStoreChangeDetectors#attributes(CMKeyStoreHandle, Path)
+ */
+
+@ThreadSafe
+final class CMKeyStoreAttributeDetector
+  implements CMKeyStoreChangeDetectorType
+{
+  private final CMKeyStoreHandle keystore;
+  private final Path indexFile;
+  @GuardedBy("this")
+  private Map<Path, Optional<CMKeyStoreEntryVersion>> recorded;
+
+  CMKeyStoreAttributeDetector(
+    final CMKeyStoreHandle inKeystore,
+    final Path inIndexFile)
+  {
+    this.keystore = inKeystore;
+    this.indexFile = inIndexFile.toAbsolutePath();
+    this.recorded = Map.of();
+  }
+
+  @Override
+  public CMKeyStoreHandle keystore()
+  {
+    return this.keystore;
+  }
+
+  @Override
+  public synchronized boolean check()
+    throws IOException
+  {
+    /*
+     * The files are examined before the keystore is loaded, so that a file
+     * that changes while the keystore is being loaded is seen as changed by
+     * the next check.
+     */
+
+    final var parallelism =
+      this.keystore.loadOptions().parallelism();
+    final var current =
+      versions(List.copyOf(this.recorded.keySet()), parallelism);
+
+    if (!this.recorded.isEmpty() && isUnchanged(this.recorded, current)) {
+      return false;
+    }
+
+    /*
+     * The keystore is reloaded with its current options and with the
+     * password given to its most recent load.
+     */
+
+    try {
+      this.keystore.loadFileWith(this.indexFile, UnaryOperator.identity());
+    } catch (final IOException | RuntimeException e) {
+      try {
+        this.record(current, parallelism);
+      } catch (final IOException | RuntimeException ex) {
+        e.addSuppressed(ex);
+      }
+      throw e;
+    }
+
+    this.record(current, parallelism);
+    return true;
+  }
+
+  @GuardedBy("this")
+  private void record(
+    final Map<Path, Optional<CMKeyStoreEntryVersion>> current,
+    final int parallelism)
+    throws IOException
+  {
+    /*
+     * Files that were not named by the previous description can only be
+     * examined now that the new description is known.
+     */
+
+    final var files = new ArrayList<Path>();
+    files.add(this.indexFile);
+    this.keystore.description()
+      .ifPresent(description -> files.addAll(description.files()));
+
+    final var added =
+      files.stream()
+        .filter(file -> !current.containsKey(file))
+        .toList();
+
+    final var next =
+      new HashMap<>(versions(added, parallelism));
+    for (final var file : files) {
+      final var version = current.get(file);
+      if (version != null) {
+        next.put(file, version);
+      }
+    }
+
+    this.recorded = Map.copyOf(next);
+  }
+
+  private static boolean isUnchanged(
+    final Map<Path, Optional<CMKeyStoreEntryVersion>> recorded,
+    final Map<Path, Optional<CMKeyStoreEntryVersion>> current)
+  {
+    for (final var entry : recorded.entrySet()) {
+      final var before = entry.getValue();
+      final var after = current.get(entry.getKey());
+      if (before.isPresent() != after.isPresent()) {
+        return false;
+      }
+      if (before.isPresent() && !before.get().isUnchangedIn(after.get())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Optional<CMKeyStoreEntryVersion> version(
+    final Path file)
+    throws IOException
+  {
+    try {
+      return Optional.of(CMKeyStoreEntryVersion.ofFile(file));
+    } catch (final NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Examine the given files. On filesystems such as NFS, each examination
+   * may be a round trip to a server, and so the files are examined in
+   * parallel.
+   */
+
+  private static Map<Path, Optional<CMKeyStoreEntryVersion>> versions(
+    final List<Path> files,
+    final int parallelism)
+    throws IOException
+  {
+    final var results =
+      new HashMap<Path, Optional<CMKeyStoreEntryVersion>>(files.size());
+
+    if (parallelism == 1 || files.size() <= 1) {
+      for (final var file : files) {
+        results.put(file, version(file));
+      }
+      return results;
+    }
+
+    final var threads =
+      Thread.ofVirtual()
+        .name("com.io7m.canonmill.poll-", 0L)
+        .factory();
+
+    try (var executor = Executors.newFixedThreadPool(parallelism, threads)) {
+      final var tasks =
+        new ArrayList<Callable<Optional<CMKeyStoreEntryVersion>>>(files.size());
+      for (final var file : files) {
+        tasks.add(() -> version(file));
+      }
+
+      final var futures = executor.invokeAll(tasks);
+      for (int index = 0; index < files.size(); ++index) {
+        results.put(files.get(index), futures.get(index).get());
+      }
+      return results;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (final ExecutionException e) {
+      final var cause = e.getCause();
+      if (cause instanceof final IOException ex) {
+        throw ex;
+      }
+      if (cause instanceof final RuntimeException ex) {
+        throw ex;
+      }
+      throw new IOException(Objects.requireNonNullElse(cause, e));
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[CMKeyStoreAttributeDetector %s]".formatted(this.indexFile);
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core;
+
+/**
+ * The policy that determines how a load reuses the entries decoded by the
+ * previous load.
+ */
+
+public enum CMKeyStoreCachePolicy
+{
+  /**
+   * Decode every file on every load. Entries decoded by the previous load
+   * are never reused. This is useful for validating keystores, where every
+   * file must actually be decoded.
+   */
+
+  NONE,
+
+  /**
+   * Read every file on every load, but reuse the entries decoded by the
+   * previous load for any file whose contents have a known digest (either
+   * from the index, or computed for encrypted keys) that is unchanged. This
+   * is the default.
+   */
+
+  CONTENT_DIGEST,
+
+  /**
+   * <p>Reuse the entries decoded by the previous load for any file whose
+   * file key, size, and modification time are unchanged, without reading
+   * the file at all. For entry sources other than the filesystem, the
+   * {@link CMKeyStoreEntryVersion} supplied by the source is compared
+   * instead. When loading from a file with a
+   * {@link CMKeyStoreLoadParameter}, the index itself is not reparsed if
+   * its attributes are unchanged and it includes no fragments. Otherwise,
+   * this behaves as {@link #CONTENT_DIGEST}.</p>
+   *
+   * <p>This is the cheapest policy, but a file that is rewritten in place
+   * with identical size within the timestamp resolution of the filesystem
+   * will not be noticed.</p>
+   */
+
+  FILE_ATTRIBUTES
+}
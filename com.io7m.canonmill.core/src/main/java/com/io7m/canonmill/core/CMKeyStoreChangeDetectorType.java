@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import java.io.IOException;
+
+/**
+ * <p>A detector of changes to the files from which a keystore is loaded.
+ * Each call to {@link #check()} examines the files and, if they have
+ * changed, reloads the keystore.</p>
+ *
+ * <p>Detectors do not schedule checks themselves: Applications either call
+ * {@link #check()} periodically, or use a {@link CMKeyStoreChangePoller}.
+ * Concurrent calls are serialized.</p>
+ *
+ * @see CMKeyStoreChangeDetectors
+ */
+
+public interface CMKeyStoreChangeDetectorType
+{
+  /**
+   * @return The keystore reloaded by this detector
+   */
+
+  CMKeyStoreHandle keystore();
+
+  /**
+   * Check for changes, and reload the keystore if necessary. The first
+   * check always reloads the keystore.
+   *
+   * @return {@code true} if the keystore was reloaded
+   *
+   * @throws IOException On errors
+   */
+
+  boolean check()
+    throws IOException;
+}
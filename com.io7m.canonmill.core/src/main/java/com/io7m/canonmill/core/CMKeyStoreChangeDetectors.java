@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Standard change detectors.
+ *
+ * @see CMKeyStoreChangeDetectorType
+ */
+
+public final class CMKeyStoreChangeDetectors
+{
+  private CMKeyStoreChangeDetectors()
+  {
+
+  }
+
+  /**
+   * <p>A detector for directories that are published atomically by
+   * replacing a symbolic link, in the manner of the {@code ..data} link
+   * that Kubernetes maintains for mounted secrets and config maps. Each new
+   * version of the files is written to a new directory, and the link is
+   * then swapped to point at that directory.</p>
+   *
+   * <p>Each check reads the target of {@code link}; if {@code link} is not
+   * itself a symbolic link, its real path is resolved instead. If the
+   * target is unchanged, nothing else is read. If the target has changed,
+   * the keystore is reloaded with every file within {@code link}, including
+   * the index if it is within {@code link}, read from the new target
+   * directly. A load is therefore never a mixture of files from two
+   * versions, even if the link is swapped again during the load.</p>
+   *
+   * <p>For this to be effective, the index must name the files of entries,
+   * and any fragments and bundles, by way of the link; typically the
+   * index's base directory is the link itself.</p>
+   *
+   * @param keystore  The keystore
+   * @param indexFile The index file
+   * @param link      The symbolic link
+   *
+   * @return A detector
+   */
+
+  public static CMKeyStoreChangeDetectorType symlinkSwap(
+    final CMKeyStoreHandle keystore,
+    final Path indexFile,
+    final Path link)
+  {
+    return new CMKeyStoreSymlinkSwapDetector(
+      Objects.requireNonNull(keystore, "keystore"),
+      Objects.requireNonNull(indexFile, "indexFile"),
+      Objects.requireNonNull(link, "link")
+    );
+  }
+
+  /**
+   * <p>A detector that compares the attributes (the file key, size, and
+   * modification time) of the index and of every file named by the index
+   * with the attributes recorded when the keystore was last loaded, and
+   * reloads the keystore only if any file has changed. The files are
+   * examined in parallel, using the parallelism of the keystore's load
+   * options.</p>
+   *
+   * <p>This detector is suitable for filesystems, such as NFS, on which
+   * file change notifications are not delivered. Combined with the
+   * {@link CMKeyStoreCachePolicy#FILE_ATTRIBUTES} cache policy, a reload
+   * decodes only those files that have changed.</p>
+   *
+   * <p>The keystore is reloaded with its current load options and with the
+   * password given to its most recent load. If a reload fails, the
+   * attributes observed by the failing check are recorded nonetheless, so
+   * the reload is retried only when the index or a file named by the most
+   * recently loaded index changes again, rather than on every check.</p>
+   *
+   * @param keystore  The keystore
+   * @param indexFile The index file
+   *
+   * @return A detector
+   */
+
+  public static CMKeyStoreChangeDetectorType attributes(
+    final CMKeyStoreHandle keystore,
+    final Path indexFile)
+  {
+    return new CMKeyStoreAttributeDetector(
+      Objects.requireNonNull(keystore, "keystore"),
+      Objects.requireNonNull(indexFile, "indexFile")
+    );
+  }
+
+  /**
+   * Start running the given detector periodically on a background thread.
+   * The first check is performed immediately. The interval between checks
+   * adapts to the rate of change, between the given bounds.
+   *
+   * @param detector The detector
+   * @param minimum  The minimum interval between checks
+   * @param maximum  The maximum interval between checks
+   *
+   * @return A poller that must be closed to stop polling
+   *
+   * @see CMKeyStoreChangePoller
+   */
+
+  public static CMKeyStoreChangePoller poll(
+    final CMKeyStoreChangeDetectorType detector,
+    final Duration minimum,
+    final Duration maximum)
+  {
+    return CMKeyStoreChangePoller.start(detector, minimum, maximum);
+  }
+}
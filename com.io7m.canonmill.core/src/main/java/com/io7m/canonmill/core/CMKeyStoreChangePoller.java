@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A poller that runs a change detector periodically on a background
+ * thread.</p>
+ *
+ * <p>The interval between checks adapts to the rate of change: After a
+ * check that reloads the keystore, the interval drops to the minimum, as
+ * files that have just changed are likely to change again shortly. Each
+ * subsequent check that finds nothing doubles the interval, up to the
+ * maximum.</p>
+ *
+ * @see CMKeyStoreChangeDetectors#poll(CMKeyStoreChangeDetectorType, Duration, Duration)
+ */
+
+public final class CMKeyStoreChangePoller implements AutoCloseable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(CMKeyStoreChangePoller.class);
+
+  private final CMKeyStoreChangeDetectorType detector;
+  private final Duration minimum;
+  private final Duration maximum;
+  private final ScheduledThreadPoolExecutor executor;
+  private volatile Duration interval;
+
+  private CMKeyStoreChangePoller(
+    final CMKeyStoreChangeDetectorType inDetector,
+    final Duration inMinimum,
+    final Duration inMaximum)
+  {
+    this.detector = inDetector;
+    this.minimum = inMinimum;
+    this.maximum = inMaximum;
+    this.interval = inMinimum;
+
+    final var threads =
+      Thread.ofVirtual()
+        .name("com.io7m.canonmill.poller-", 0L)
+        .factory();
+
+    this.executor = new ScheduledThreadPoolExecutor(1, threads);
+    this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  static CMKeyStoreChangePoller start(
+    final CMKeyStoreChangeDetectorType detector,
+    final Duration minimum,
+    final Duration maximum)
+  {
+    Objects.requireNonNull(detector, "detector");
+    Objects.requireNonNull(minimum, "minimum");
+    Objects.requireNonNull(maximum, "maximum");
+
+    if (minimum.isNegative() || minimum.isZero()) {
+      throw new IllegalArgumentException(
+        "Minimum interval %s must be positive.".formatted(minimum)
+      );
+    }
+    if (maximum.compareTo(minimum) < 0) {
+      throw new IllegalArgumentException(
+        "Maximum interval %s must not be less than the minimum interval %s."
+          .formatted(maximum, minimum)
+      );
+    }
+
+    final var poller = new CMKeyStoreChangePoller(detector, minimum, maximum);
+    poller.executor.execute(poller::run);
+    return poller;
+  }
+
+  /**
+   * @return The detector
+   */
+
+  public CMKeyStoreChangeDetectorType detector()
+  {
+    return this.detector;
+  }
+
+  /**
+   * @return The current interval between checks
+   */
+
+  public Duration interval()
+  {
+    return this.interval;
+  }
+
+  private void run()
+  {
+    boolean changed;
+    try {
+      changed = this.detector.check();
+    } catch (final IOException | RuntimeException e) {
+      LOG.warn(
+        "Change detection failed: {}: {}",
+        this.detector,
+        e.getMessage()
+      );
+      changed = false;
+    }
+
+    if (changed) {
+      this.interval = this.minimum;
+    } else {
+      final var doubled = this.interval.multipliedBy(2L);
+      this.interval =
+        doubled.compareTo(this.maximum) > 0 ? this.maximum : doubled;
+    }
+
+    try {
+      this.executor.schedule(
+        this::run,
+        this.interval.toNanos(),
+        TimeUnit.NANOSECONDS
+      );
+    } catch (final RejectedExecutionException e) {
+      LOG.trace("Poller closed: {}", this.detector);
+    }
+  }
+
+  /**
+   * Stop polling. A check that is in progress is allowed to complete.
+   */
+
+  @Override
+  public void close()
+  {
+    this.executor.shutdown();
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>The set of aliases that changed between two consecutive loads of a
+ * keystore.</p>
+ *
+ * <p>An alias is considered to have changed if the private key or the
+ * resolved certificate chain associated with it differs between the two
+ * loads. Changes to file timestamps alone are not reported.</p>
+ *
+ * @param added   The aliases that are present now but were not previously
+ * @param removed The aliases that were present previously but are not now
+ * @param changed The aliases that are present in both, but whose contents
+ *                changed
+ */
+
+public record CMKeyStoreChangeSet(
+  Set<String> added,
+  Set<String> removed,
+  Set<String> changed)
+{
+  /**
+   * <p>The set of aliases that changed between two consecutive loads of a
+   * keystore.</p>
+   *
+   * @param added   The aliases that are present now but were not previously
+   * @param removed The aliases that were present previously but are not now
+   * @param changed The aliases that are present in both, but whose contents
+   *                changed
+   */
+
+  public CMKeyStoreChangeSet
+  {
+    added = Set.copyOf(Objects.requireNonNull(added, "added"));
+    removed = Set.copyOf(Objects.requireNonNull(removed, "removed"));
+    changed = Set.copyOf(Objects.requireNonNull(changed, "changed"));
+  }
+
+  /**
+   * @return {@code true} if nothing changed
+   */
+
+  public boolean isEmpty()
+  {
+    return this.added.isEmpty()
+      && this.removed.isEmpty()
+      && this.changed.isEmpty();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * <p>A source of the data of keystore entries.</p>
+ *
+ * <p>The index names a file for each entry, resolved against the index's
+ * base directory. A source maps each entry to its data: The default source
+ * reads the named file, but a source may equally treat the path as the name
+ * of a classpath resource or as a key into an in-memory table.</p>
+ *
+ * <p>The version of an entry is examined on every load, and so should be
+ * cheap to obtain. If the {@link CMKeyStoreCachePolicy#FILE_ATTRIBUTES}
+ * cache policy is used, an entry whose version is unchanged since the
+ * previous load is not read at all.</p>
+ *
+ * <p>Sources may be called concurrently from any number of threads.</p>
+ *
+ * @see CMKeyStoreEntrySources
+ * @see CMKeyStoreLoadOptions.Builder#setEntrySource(CMKeyStoreEntrySourceType)
+ */
+
+public interface CMKeyStoreEntrySourceType
+{
+  /**
+   * Obtain the version of the data of an entry.
+   *
+   * @param kind  The kind of entry
+   * @param alias The alias
+   * @param file  The file named by the index
+   *
+   * @return The version
+   *
+   * @throws IOException On errors, including if the entry does not exist
+   */
+
+  CMKeyStoreEntryVersion version(
+    CMKeyStoreEntryKind kind,
+    String alias,
+    Path file)
+    throws IOException;
+
+  /**
+   * Read the data of an entry.
+   *
+   * @param kind  The kind of entry
+   * @param alias The alias
+   * @param file  The file named by the index
+   *
+   * @return The data
+   *
+   * @throws IOException On errors, including if the entry does not exist
+   */
+
+  byte[] read(
+    CMKeyStoreEntryKind kind,
+    String alias,
+    Path file)
+    throws IOException;
+
+  /**
+   * Locate the file from which the index fragment or bundle named by an
+   * index is read. Fragments and bundles are always read from the
+   * filesystem rather than through the source, but a source that reads
+   * entries from somewhere other than the files named by the index may
+   * move fragments and bundles in the same way. The default implementation
+   * returns the file unchanged.
+   *
+   * @param file The file named by the index
+   *
+   * @return The file that is read
+   */
+
+  default Path locate(
+    final Path file)
+  {
+    return file;
+  }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Standard entry sources.
+ *
+ * @see CMKeyStoreEntrySourceType
+ */
+
+public final class CMKeyStoreEntrySources
+{
+  private static final CMKeyStoreEntrySourceType FILESYSTEM =
+    new Filesystem();
+
+  private CMKeyStoreEntrySources()
+  {
+
+  }
+
+  /**
+   * The default source, which reads entries from the filesystem. The
+   * version of an entry is the file key, size, and modification time of its
+   * file.
+   *
+   * @return The filesystem source
+   */
+
+  public static CMKeyStoreEntrySourceType filesystem()
+  {
+    return FILESYSTEM;
+  }
+
+  /**
+   * A source that reads entries from classpath resources. The name of the
+   * resource for an entry is the path of its file without the leading
+   * separator, and so an index with a base directory of
+   * {@code /com/example/keys} reads the resources in the
+   * {@code com.example.keys} package.
+   *
+   * @param loader The class loader used to find resources
+   *
+   * @return A classpath source
+   */
+
+  public static CMKeyStoreEntrySourceType classpath(
+    final ClassLoader loader)
+  {
+    return new Classpath(Objects.requireNonNull(loader, "loader"));
+  }
+
+  /**
+   * A source that reads entries from the given in-memory data, by the
+   * absolute path of each entry's file. The data is copied. The version of
+   * an entry changes whenever a new source is created, and so the
+   * {@link CMKeyStoreCachePolicy#FILE_ATTRIBUTES} cache policy only avoids
+   * decoding entries again when the same source is used for every load.
+   *
+   * @param files The data of each file
+   *
+   * @return An in-memory source
+   */
+
+  public static CMKeyStoreEntrySourceType memory(
+    final Map<Path, byte[]> files)
+  {
+    return new Memory(Objects.requireNonNull(files, "files"));
+  }
+
+  /**
+   * A source that reads the entries whose files are within {@code from}
+   * from the corresponding files within {@code to} instead, using the given
+   * source. The files of entries are otherwise unchanged. Index fragments
+   * and bundles within {@code from} are located within {@code to} in the
+   * same way.
+   */
+
+  static CMKeyStoreEntrySourceType redirected(
+    final CMKeyStoreEntrySourceType source,
+    final Path from,
+    final Path to)
+  {
+    return new Redirected(
+      Objects.requireNonNull(source, "source"),
+      from.toAbsolutePath().normalize(),
+      to.toAbsolutePath().normalize()
+    );
+  }
+
+  private static final class Filesystem
+    implements CMKeyStoreEntrySourceType
+  {
+    Filesystem()
+    {
+
+    }
+
+    @Override
+    public CMKeyStoreEntryVersion version(
+      final CMKeyStoreEntryKind kind,
+      final String alias,
+      final Path file)
+      throws IOException
+    {
+      return CMKeyStoreEntryVersion.ofFile(file);
+    }
+
+    @Override
+    public byte[] read(
+      final CMKeyStoreEntryKind kind,
+      final String alias,
+      final Path file)
+      throws IOException
+    {
+      return Files.readAllBytes(file);
+    }
+
+    @Override
+    public String toString()
+    {
+      return "[CMKeyStoreEntrySources.filesystem]";
+    }
+  }
+
+  private static final class Classpath
+    implements CMKeyStoreEntrySourceType
+  {
+    private final ClassLoader loader;
+
+    Classpath(
+      final ClassLoader inLoader)
+    {
+      this.loader = inLoader;
+    }
+
+    private URL resource(
+      final Path file)
+      throws NoSuchFileException
+    {
+      final var name =
+        file.toString()
+          .replace(file.getFileSystem().getSeparator(), "/")
+          .replaceFirst("^/+", "");
+
+      final var url = this.loader.getResource(name);
+      if (url == null) {
+        throw new NoSuchFileException(
+          "No classpath resource named '%s'".formatted(name)
+        );
+      }
+      return url;
+    }
+
+    @Override
+    public CMKeyStoreEntryVersion version(
+      final CMKeyStoreEntryKind kind,
+      final String alias,
+      final Path file)
+      throws IOException
+    {
+      final var url = this.resource(file);
+
+      /*
+       * Resources that are plain files are versioned in the same way as
+       * the filesystem source, without opening them.
+       */
+
+      if ("file".equals(url.getProtocol())) {
+        try {
+          return CMKeyStoreEntryVersion.ofFile(Path.of(url.toURI()));
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+          throw new IOException(e);
+        }
+      }
+
+      /*
+       * Querying the attributes of a connection connects it, which opens
+       * the resource, and so the stream must be closed afterwards.
+       */
+
+      final var connection = url.openConnection();
+      try {
+        final var time = Instant.ofEpochMilli(connection.getLastModified());
+        return new CMKeyStoreEntryVersion(
+          Optional.of(url.toString()),
+          connection.getContentLengthLong(),
+          time,
+          time
+        );
+      } finally {
+        connection.getInputStream().close();
+      }
+    }
+
+    @Override
+    public byte[] read(
+      final CMKeyStoreEntryKind kind,
+      final String alias,
+      final Path file)
+      throws IOException
+    {
+      try (var stream = this.resource(file).openStream()) {
+        return stream.readAllBytes();
+      }
+    }
+
+    @Override
+    public String toString()
+    {
+      return "[CMKeyStoreEntrySources.classpath %s]".formatted(this.loader);
+    }
+  }
+
+  private static final class Memory
+    implements CMKeyStoreEntrySourceType
+  {
+    private final Map<Path, byte[]> files;
+    private final Instant created;
+
+    Memory(
+      final Map<Path, byte[]> inFiles)
+    {
+      final var copy = new HashMap<Path, byte[]>(inFiles.size());
+      for (final var entry : inFiles.entrySet()) {
+        copy.put(
+          entry.getKey().toAbsolutePath(),
+          entry.getValue().clone()
+        );
+      }
+      this.files = Map.copyOf(copy);
+      this.created = Instant.now();
+    }
+
+    private byte[] data(
+      final Path file)
+      throws NoSuchFileException
+    {
+      final var data = this.files.get(file.toAbsolutePath());
+      if (data == null) {
+        throw new NoSuchFileException(file.toString());
+      }
+      return data;
+    }
+
+    /**
+     * The identity of an entry is its (private) array, which is only equal
+     * to itself.
+     */
+
+    @Override
+    public CMKeyStoreEntryVersion version(
+      final CMKeyStoreEntryKind kind,
+      final String alias,
+      final Path file)
+      throws IOException
+    {
+      final var data = this.data(file);
+      return new CMKeyStoreEntryVersion(
+        Optional.of(data),
+        data.length,
+        this.created,
+        this.created
+      );
+    }
+
+    @Override
+    public byte[] read(
+      final CMKeyStoreEntryKind kind,
+      final String alias,
+      final Path file)
+      throws IOException
+    {
+      return this.data(file).clone();
+    }
+
+    @Override
+    public String toString()
+    {
+      return "[CMKeyStoreEntrySources.memory %d]"
+        .formatted(Integer.valueOf(this.files.size()));
+    }
+  }
+
+  private static final class Redirected
+    implements CMKeyStoreEntrySourceType
+  {
+    private final CMKeyStoreEntrySourceType source;
+    private final Path from;
+    private final Path to;
+
+    Redirected(
+      final CMKeyStoreEntrySourceType inSource,
+      final Path inFrom,
+      final Path inTo)
+    {
+      this.source = inSource;
+      this.from = inFrom;
+      this.to = inTo;
+    }
+
+    private Path redirect(
+      final Path file)
+    {
+      final var normal = file.toAbsolutePath().normalize();
+      if (normal.startsWith(this.from)) {
+        return this.to.resolve(this.from.relativize(normal));
+      }
+      return file;
+    }
+
+    @Override
+    public CMKeyStoreEntryVersion version(
+      final CMKeyStoreEntryKind kind,
+      final String alias,
+      final Path file)
+      throws IOException
+    {
+      return this.source.version(kind, alias, this.redirect(file));
+    }
+
+    @Override
+    public byte[] read(
+      final CMKeyStoreEntryKind kind,
+      final String alias,
+      final Path file)
+      throws IOException
+    {
+      return this.source.read(kind, alias, this.redirect(file));
+    }
+
+    @Override
+    public Path locate(
+      final Path file)
+    {
+      return this.redirect(this.source.locate(file));
+    }
+
+    @Override
+    public String toString()
+    {
+      return "[CMKeyStoreEntrySources.redirected %s %s -> %s]"
+        .formatted(this.source, this.from, this.to);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The identity and version of the data of an entry, used to decide, without
+ * reading the data, whether the data has changed.
+ *
+ * @param identity     The identity of the data (such as the device and
+ *                     inode of a file), if the source provides one
+ * @param size         The size of the data
+ * @param lastModified The time the data was last modified
+ * @param creationTime The time the data was created
+ *
+ * @see CMKeyStoreEntrySourceType
+ */
+
+public record CMKeyStoreEntryVersion(
+  Optional<Object> identity,
+  long size,
+  Instant lastModified,
+  Instant creationTime)
+{
+  /**
+   * The identity and version of the data of an entry.
+   *
+   * @param identity     The identity of the data, if the source provides one
+   * @param size         The size of the data
+   * @param lastModified The time the data was last modified
+   * @param creationTime The time the data was created
+   */
+
+  public CMKeyStoreEntryVersion
+  {
+    Objects.requireNonNull(identity, "identity");
+    Objects.requireNonNull(lastModified, "lastModified");
+    Objects.requireNonNull(creationTime, "creationTime");
+  }
+
+  /**
+   * Read the version of the given file. The identity is the file key
+   * provided by the filesystem, if any.
+   *
+   * @param file The file
+   *
+   * @return The version
+   *
+   * @throws IOException On errors
+   */
+
+  public static CMKeyStoreEntryVersion ofFile(
+    final Path file)
+    throws IOException
+  {
+    final var attributes =
+      Files.readAttributes(file, BasicFileAttributes.class);
+
+    return new CMKeyStoreEntryVersion(
+      Optional.ofNullable(attributes.fileKey()),
+      attributes.size(),
+      attributes.lastModifiedTime().toInstant(),
+      attributes.creationTime().toInstant()
+    );
+  }
+
+  /**
+   * @param other The other version
+   *
+   * @return {@code true} if the data described by this version is unchanged
+   * in the other version
+   */
+
+  public boolean isUnchangedIn(
+    final CMKeyStoreEntryVersion other)
+  {
+    return this.size == other.size
+      && this.identity.equals(other.identity)
+      && this.lastModified.equals(other.lastModified);
+  }
+
+  /**
+   * @return The creation time as a date
+   */
+
+  public OffsetDateTime creationDate()
+  {
+    return OffsetDateTime.ofInstant(this.creationTime, ZoneId.systemDefault());
+  }
+}
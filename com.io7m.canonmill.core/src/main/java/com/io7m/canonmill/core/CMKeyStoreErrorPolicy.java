@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+/**
+ * The policy that determines how errors in individual keystore entries
+ * are handled during a load.
+ */
+
+public enum CMKeyStoreErrorPolicy
+{
+  /**
+   * Attempt to load every entry, collecting all errors, and then fail the
+   * entire load if any entry could not be loaded. The contents of the
+   * keystore are unchanged by a failed load. This is the default.
+   */
+
+  FAIL_ON_ANY_ERROR,
+
+  /**
+   * Publish every entry that loaded successfully. An entry that failed to
+   * load retains the value it had in the previous contents of the keystore
+   * (if any), and the failure is reported as a
+   * {@link CMKeyStoreLoadFailure}. Failures to parse the index itself still
+   * fail the entire load.
+   */
+
+  KEEP_LAST_KNOWN_GOOD,
+
+  /**
+   * Fail the entire load as soon as any entry cannot be loaded. When entries
+   * are being decoded in parallel, all outstanding decoding work is
+   * cancelled. Only the first error is reported. This is useful for
+   * validating large keystores, where reporting every error is less
+   * important than reporting an error quickly.
+   *
+   * @see CMKeyStoreLoadOptions#parallelism()
+   */
+
+  FAIL_FAST
+}
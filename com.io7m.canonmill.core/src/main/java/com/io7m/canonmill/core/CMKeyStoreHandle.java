@@ -0,0 +1,363 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import com.io7m.canonmill.core.internal.CMKeyStore;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionParameter;
+import com.io7m.canonmill.core.internal.CMKeyStoreGeneration;
+import com.io7m.canonmill.core.internal.CMKeyStoreReloadParameter;
+import com.io7m.canonmill.core.internal.CMKeyStoreSharedSnapshotParameter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * <p>A {@code canonmill} keystore that additionally exposes functionality
+ * that cannot be expressed through the standard {@link KeyStore} API.</p>
+ *
+ * <p>Keystores created with {@link CMKeyStores} are always instances of
+ * this class.</p>
+ *
+ * @see CMKeyStores#handle(KeyStore)
+ */
+
+public final class CMKeyStoreHandle extends KeyStore
+{
+  private final CMKeyStore spi;
+
+  CMKeyStoreHandle(
+    final CMKeyStore inSpi,
+    final CMKeyStoreProvider provider)
+  {
+    super(
+      Objects.requireNonNull(inSpi, "spi"),
+      Objects.requireNonNull(provider, "provider"),
+      CMKeyStoreProvider.keystoreType()
+    );
+    this.spi = inSpi;
+  }
+
+  /**
+   * <p>A publisher of the changes made to the keystore by each load. A change
+   * set is published after each load that adds, removes, or changes at least
+   * one alias, allowing consumers to invalidate only those cached values
+   * that depend on the affected aliases.</p>
+   *
+   * <p>The publisher respects backpressure without ever blocking a load:
+   * Change sets published before a subscriber requests them are merged
+   * into a single pending change set for that subscriber, so a subscriber
+   * that falls behind receives fewer change sets, but every added, removed,
+   * or changed alias is still reported.</p>
+   *
+   * @return The change publisher
+   *
+   * @see #closeChanges()
+   */
+
+  public Flow.Publisher<CMKeyStoreChangeSet> changes()
+  {
+    return this.spi.changes();
+  }
+
+  /**
+   * Close the change publisher. Subscribers receive {@code onComplete} after
+   * their pending change sets, and no further change sets are published;
+   * the keystore itself remains usable. The publisher is closed
+   * automatically when the keystore becomes unreachable, but applications
+   * that discard a keystore should close it explicitly so that subscribers
+   * complete promptly.
+   */
+
+  public void closeChanges()
+  {
+    this.spi.closeChanges();
+  }
+
+  /**
+   * <p>Reload only the files of the given aliases. The index file is not
+   * reread; the files named for each alias by the most recently loaded
+   * index are reread, and only the indexes affected by those files are
+   * rebuilt. All other entries are carried over from the current contents
+   * of the keystore unchanged.</p>
+   *
+   * <p>If loading any of the files fails, the keystore is left unchanged,
+   * unless the error policy specifies otherwise.</p>
+   *
+   * @param aliases The aliases
+   *
+   * @throws IOException              On I/O errors
+   * @throws IllegalArgumentException If any of the aliases are not present
+   *                                  in the keystore
+   * @throws IllegalStateException    If the keystore has not been loaded
+   */
+
+  public void reloadAliases(
+    final Set<String> aliases)
+    throws IOException
+  {
+    this.spi.reloadAliases(aliases);
+  }
+
+  /**
+   * @return The options used for subsequent loads
+   */
+
+  public CMKeyStoreLoadOptions loadOptions()
+  {
+    return this.spi.loadOptions();
+  }
+
+  /**
+   * Set the options used for subsequent loads, including partial reloads.
+   *
+   * @param options The options
+   */
+
+  public void setLoadOptions(
+    final CMKeyStoreLoadOptions options)
+  {
+    this.spi.setLoadOptions(options);
+  }
+
+  /**
+   * <p>The entries that failed to load during the most recent load. If the
+   * error policy is {@link CMKeyStoreErrorPolicy#KEEP_LAST_KNOWN_GOOD}, the
+   * load completes in spite of these failures, and the failed aliases can
+   * subsequently be retried individually with {@link #reloadAliases(Set)}.
+   * </p>
+   *
+   * @return The failures of the most recent load
+   */
+
+  public List<CMKeyStoreLoadFailure> failures()
+  {
+    return this.spi.failures();
+  }
+
+  /**
+   * The number of the most recently published generation of the keystore.
+   * Each successful load, including partial reloads, publishes a new
+   * generation; the keystore has generation {@code 0} before it is loaded.
+   *
+   * @return The current generation
+   */
+
+  public long generation()
+  {
+    return this.spi.generation().number();
+  }
+
+  /**
+   * <p>Asynchronously reload the keystore from the given index file, using
+   * the keystore's current options and the password given to its most
+   * recent load. The load is performed on the given executor, and the
+   * calling thread is never blocked. The keystore continues to serve the
+   * contents of the current generation until the load completes.</p>
+   *
+   * <p>The returned future fails with a {@link CompletionException} whose
+   * cause is the underlying error if the load fails.</p>
+   *
+   * @param file     The index file
+   * @param executor The executor used to perform the load
+   *
+   * @return The operation in progress
+   */
+
+  public CompletableFuture<CMKeyStoreReloadResult> reloadAsync(
+    final Path file,
+    final Executor executor)
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(executor, "executor");
+
+    return CompletableFuture.supplyAsync(() -> {
+      final CMKeyStoreGeneration loaded;
+      try {
+        loaded = this.reload(file);
+      } catch (final IOException e) {
+        throw new CompletionException(e);
+      }
+      return new CMKeyStoreReloadResult(
+        this,
+        loaded.number(),
+        loaded.failures()
+      );
+    }, executor);
+  }
+
+  /**
+   * Reload the index in the given file using the keystore's current options
+   * and the password given to its most recent load.
+   *
+   * @return The generation published by the load
+   */
+
+  CMKeyStoreGeneration reload(
+    final Path file)
+    throws IOException
+  {
+    final var generation = new AtomicReference<CMKeyStoreGeneration>();
+    try {
+      this.load(new CMKeyStoreReloadParameter(file, generation));
+    } catch (final GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+    return generation.get();
+  }
+
+  /**
+   * @return The number of modifications that have not yet been committed
+   *
+   * @see #commit()
+   */
+
+  public int pendingChanges()
+  {
+    return this.spi.pendingChanges();
+  }
+
+  /**
+   * <p>Commit the modifications made to a writable keystore since the
+   * previous commit. Modifications made with methods such as
+   * {@link #setKeyEntry(String, java.security.Key, char[],
+   * java.security.cert.Certificate[])} are buffered, and are neither
+   * visible nor written to disk until they are committed.</p>
+   *
+   * <p>A commit writes the PEM file of each new key and certificate
+   * atomically (to a temporary file that is synced to disk and then
+   * renamed), rewrites the index file once for the whole batch, and then
+   * publishes a new generation in which only the modified aliases have been
+   * decoded. Files are named by their contents, and so files named by the
+   * previous index are never modified; the files of deleted entries are not
+   * removed.</p>
+   *
+   * <p>Key files are readable only by their owner. The rewritten index file
+   * keeps the permissions of the index file that it replaces.</p>
+   *
+   * <p>Every committed entry records the digest of its file, and digests
+   * can only be expressed in the version 2 index format. The first commit
+   * therefore rewrites a version 1 index in the version 2 format, after
+   * which the index can no longer be read by releases that only support
+   * version 1.</p>
+   *
+   * <p>If the commit fails, the keystore and the index file are unchanged,
+   * and the modifications are included in the next commit.</p>
+   *
+   * @throws IOException On errors, or if the keystore was not loaded from
+   *                     an index file with a
+   *                     {@link CMKeyStoreLoadParameter}
+   * @see CMKeyStoreLoadOptions.Builder#setWritable(boolean)
+   */
+
+  public void commit()
+    throws IOException
+  {
+    this.spi.commit();
+  }
+
+  /**
+   * @return The description of the most recently published generation
+   */
+
+  Optional<CMKeyStoreDescription> description()
+  {
+    return this.spi.generation().description();
+  }
+
+  /**
+   * Load the index in the given file, using options derived from the
+   * keystore's options for this load only.
+   */
+
+  void loadFileWith(
+    final Path file,
+    final UnaryOperator<CMKeyStoreLoadOptions> adjust)
+    throws IOException
+  {
+    this.spi.loadFileWith(file, adjust);
+  }
+
+  /**
+   * <p>Load the keystore from the given index. The index is used directly;
+   * nothing is serialized or parsed. The keystore's current load options
+   * apply, except that snapshots are not used.</p>
+   *
+   * @param index The index
+   *
+   * @throws IOException On I/O errors
+   * @see CMKeyStoreIndex#builder(Path)
+   */
+
+  public void loadIndex(
+    final CMKeyStoreIndex index)
+    throws IOException
+  {
+    Objects.requireNonNull(index, "index");
+
+    try {
+      this.load(new CMKeyStoreDescriptionParameter(index.description()));
+    } catch (final GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * <p>Load the keystore from the shared snapshot in the given file, if the
+   * snapshot has changed since this keystore last loaded it. Only the
+   * sequence number in the snapshot header is read if the snapshot is
+   * unchanged, so this method is cheap enough to be called
+   * periodically.</p>
+   *
+   * <p>Shared snapshots are self-contained, and the index from which the
+   * snapshot was compiled is not read. Entries whose files have changed
+   * since the snapshot was compiled are decoded from their files.</p>
+   *
+   * @param file The shared snapshot file
+   *
+   * @return {@code true} if a new generation was loaded
+   *
+   * @throws IOException On I/O errors
+   * @see CMKeyStoreSnapshotCompiler
+   */
+
+  public boolean refreshFromSharedSnapshot(
+    final Path file)
+    throws IOException
+  {
+    final var before = this.generation();
+    try {
+      this.load(new CMKeyStoreSharedSnapshotParameter(file));
+    } catch (final GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+    return this.generation() != before;
+  }
+}
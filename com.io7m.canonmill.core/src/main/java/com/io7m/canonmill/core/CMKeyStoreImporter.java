@@ -0,0 +1,577 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import com.io7m.anethum.api.SerializationException;
+import com.io7m.canonmill.core.internal.CMKeyStoreAtomicFiles;
+import com.io7m.canonmill.core.internal.CMKeyStoreBatch;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionSerializers;
+import com.io7m.canonmill.core.internal.CMKeyStoreEntryDigest;
+import com.io7m.canonmill.core.internal.CMKeyStorePEM;
+import com.io7m.jdeferthrow.core.ExceptionTracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static com.io7m.canonmill.core.internal.CMKeyStoreAtomicFiles.FileKind.PUBLIC;
+import static com.io7m.canonmill.core.internal.CMKeyStoreAtomicFiles.FileKind.SECRET;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * <p>An importer of the entries of an existing keystore, of any type, into
+ * a directory of key and certificate files and an index.</p>
+ *
+ * <p>Entries are read from the source keystore and written in parallel on
+ * virtual threads. Every certificate is written to a file of its own, named
+ * by the digest of the certificate, and so a certificate that appears in
+ * many chains (such as an intermediate certificate authority) is written
+ * exactly once. The certificate entry for each alias names the file of the
+ * first certificate in the alias's chain; the remaining certificates of
+ * chains are found by the keystore by subject name. Any such certificate
+ * that is not itself the certificate of some alias is given an alias of
+ * the form {@code chain-HEX} so that the index refers to it.</p>
+ *
+ * <p>Private keys are written unencrypted, and so the directory must be
+ * protected accordingly. Files are written atomically, and files that
+ * already exist are not written again, so an interrupted import can simply
+ * be repeated.</p>
+ */
+
+public final class CMKeyStoreImporter
+{
+  private final KeyStore source;
+  private final Path directory;
+  private final Path indexFile;
+  private final Function<String, char[]> passwords;
+  private final CMKeyStoreImportFormat format;
+  private final int parallelism;
+
+  private CMKeyStoreImporter(
+    final Builder builder)
+  {
+    this.source = builder.source;
+    this.directory = builder.directory.toAbsolutePath();
+    this.indexFile = builder.indexFile.toAbsolutePath();
+    this.passwords = builder.passwords;
+    this.format = builder.format;
+    this.parallelism = builder.parallelism;
+  }
+
+  /**
+   * Create a builder for an importer.
+   *
+   * @param source    The keystore from which entries are read
+   * @param directory The directory to which files are written
+   * @param indexFile The index file to be written
+   *
+   * @return A new builder
+   */
+
+  public static Builder builder(
+    final KeyStore source,
+    final Path directory,
+    final Path indexFile)
+  {
+    return new Builder(source, directory, indexFile);
+  }
+
+  /**
+   * Import every entry of the source keystore. The index file is written
+   * last, and only if every entry was imported successfully.
+   *
+   * @return The index that was written
+   *
+   * @throws IOException On errors; the exception carries the failures of
+   *                     all entries that could not be imported
+   */
+
+  public CMKeyStoreIndex execute()
+    throws IOException
+  {
+    final List<String> aliases;
+    try {
+      aliases = Collections.list(this.source.aliases());
+    } catch (final GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+    Collections.sort(aliases);
+
+    Files.createDirectories(this.directory);
+
+    final var run = new Run();
+    final var imported = new ArrayList<Imported>(aliases.size());
+    final var exceptions = new ExceptionTracker<IOException>();
+
+    final var threads =
+      Thread.ofVirtual()
+        .name("com.io7m.canonmill.import-", 0L)
+        .factory();
+
+    try (var executor =
+           Executors.newFixedThreadPool(this.parallelism, threads)) {
+      final var futures = new ArrayList<Future<Imported>>(aliases.size());
+      for (final var alias : aliases) {
+        futures.add(executor.submit(() -> run.importEntry(alias)));
+      }
+
+      for (final var future : futures) {
+        try {
+          imported.add(future.get());
+        } catch (final ExecutionException e) {
+          exceptions.addException(asIOException(e.getCause()));
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    }
+
+    exceptions.throwIfNecessary();
+
+    final var description = this.describe(imported);
+    final var data = new ByteArrayOutputStream();
+    try {
+      new CMKeyStoreDescriptionSerializers()
+        .serialize(this.indexFile.toUri(), data, description);
+    } catch (final SerializationException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+
+    Files.createDirectories(this.indexFile.getParent());
+    CMKeyStoreAtomicFiles.write(this.indexFile, PUBLIC, data.toByteArray());
+    return new CMKeyStoreIndex(description);
+  }
+
+  private CMKeyStoreDescription describe(
+    final List<Imported> imported)
+  {
+    final var keys =
+      new HashMap<String, Path>();
+    final var keyDigests =
+      new HashMap<String, CMKeyStoreEntryDigest>();
+    final var certificates =
+      new HashMap<String, Path>();
+    final var certificateDigests =
+      new HashMap<String, CMKeyStoreEntryDigest>();
+
+    final var aliased = new HashSet<Path>();
+    for (final var entry : imported) {
+      entry.key.ifPresent(key -> {
+        keys.put(entry.alias, key.file);
+        keyDigests.put(entry.alias, key.digest);
+      });
+      if (!entry.certificates.isEmpty()) {
+        final var first = entry.certificates.get(0);
+        certificates.put(entry.alias, first.file);
+        certificateDigests.put(entry.alias, first.digest);
+        aliased.add(first.file);
+      }
+    }
+
+    /*
+     * The remaining certificates of chains must be named by the index in
+     * order to be loaded, so any that are not already the certificate of
+     * some alias are given aliases of their own.
+     */
+
+    final var unaliased = new LinkedHashMap<Path, Written>();
+    for (final var entry : imported) {
+      final var chain = entry.certificates;
+      for (int index = 1; index < chain.size(); ++index) {
+        final var certificate = chain.get(index);
+        if (!aliased.contains(certificate.file)) {
+          unaliased.putIfAbsent(certificate.file, certificate);
+        }
+      }
+    }
+
+    for (final var certificate : unaliased.values()) {
+      var alias = "chain-" + certificate.name.substring(0, 16);
+      if (certificates.containsKey(alias) || keys.containsKey(alias)) {
+        alias = "chain-" + certificate.name;
+      }
+      certificates.put(alias, certificate.file);
+      certificateDigests.put(alias, certificate.digest);
+    }
+
+    return new CMKeyStoreDescription(
+      this.directory,
+      keys,
+      certificates,
+      keyDigests,
+      certificateDigests,
+      List.of(),
+      List.of()
+    );
+  }
+
+  private static IOException asIOException(
+    final Throwable e)
+  {
+    if (e instanceof final IOException ex) {
+      return ex;
+    }
+    if (e instanceof final RuntimeException ex) {
+      throw ex;
+    }
+    if (e instanceof final Error ex) {
+      throw ex;
+    }
+    return new IOException(e);
+  }
+
+  /**
+   * A file that was written.
+   *
+   * @param file   The file
+   * @param digest The digest of the contents of the file
+   * @param name   The digest that identifies the entry written to the file
+   */
+
+  private record Written(
+    Path file,
+    CMKeyStoreEntryDigest digest,
+    String name)
+  {
+
+  }
+
+  private record Imported(
+    String alias,
+    Optional<Written> key,
+    List<Written> certificates)
+  {
+
+  }
+
+  /**
+   * The state of a single import.
+   */
+
+  private final class Run
+  {
+    private final ConcurrentHashMap<String, CompletableFuture<Written>> certificates;
+
+    Run()
+    {
+      this.certificates = new ConcurrentHashMap<>();
+    }
+
+    Imported importEntry(
+      final String alias)
+      throws IOException
+    {
+      final var importer = CMKeyStoreImporter.this;
+      try {
+        if (importer.source.isKeyEntry(alias)) {
+          final var password = importer.passwords.apply(alias);
+          final var key = importer.source.getKey(alias, password);
+          if (!(key instanceof final PrivateKey privateKey)) {
+            throw new IOException(
+              "Alias '%s' does not hold a private key, and cannot be imported."
+                .formatted(alias)
+            );
+          }
+
+          final var chain = importer.source.getCertificateChain(alias);
+          return new Imported(
+            alias,
+            Optional.of(this.writeKey(alias, privateKey)),
+            this.writeCertificates(
+              chain == null ? List.of() : Arrays.asList(chain)
+            )
+          );
+        }
+
+        final var certificate = importer.source.getCertificate(alias);
+        return new Imported(
+          alias,
+          Optional.empty(),
+          this.writeCertificates(
+            certificate == null ? List.of() : List.of(certificate)
+          )
+        );
+      } catch (final GeneralSecurityException e) {
+        throw new IOException(
+          "Could not import alias '%s': %s".formatted(alias, e.getMessage()),
+          e
+        );
+      }
+    }
+
+    private Written writeKey(
+      final String alias,
+      final PrivateKey key)
+      throws IOException
+    {
+      final var encoded = key.getEncoded();
+      if (!"PKCS#8".equals(key.getFormat()) || encoded == null) {
+        throw new IOException(
+          "Key for alias '%s' cannot be encoded as PKCS#8 (format %s)"
+            .formatted(alias, key.getFormat())
+        );
+      }
+
+      final var importer = CMKeyStoreImporter.this;
+      final var data =
+        switch (importer.format) {
+          case PEM -> CMKeyStorePEM.encode("PRIVATE KEY", encoded)
+            .getBytes(US_ASCII);
+          case DER -> encoded;
+        };
+      final var suffix =
+        switch (importer.format) {
+          case PEM -> "key.pem";
+          case DER -> "pk8";
+        };
+
+      final var digest = digestOf(data);
+      final var file =
+        importer.directory.resolve(
+          CMKeyStoreBatch.entryFileName(alias, digest, suffix)
+        );
+      writeIfAbsent(file, SECRET, data);
+      return new Written(file, digest, digest.value());
+    }
+
+    private List<Written> writeCertificates(
+      final List<Certificate> chain)
+      throws IOException, GeneralSecurityException
+    {
+      final var results = new ArrayList<Written>(chain.size());
+      for (final var certificate : chain) {
+        results.add(this.writeCertificate(certificate.getEncoded()));
+      }
+      return List.copyOf(results);
+    }
+
+    /**
+     * Write a certificate, unless a certificate with the same encoding has
+     * already been written (or is being written by another thread).
+     */
+
+    private Written writeCertificate(
+      final byte[] encoded)
+      throws IOException
+    {
+      final var name =
+        digestOf(encoded).value();
+      final var ours =
+        new CompletableFuture<Written>();
+      final var existing =
+        this.certificates.putIfAbsent(name, ours);
+
+      if (existing != null) {
+        try {
+          return existing.join();
+        } catch (final CompletionException e) {
+          throw asIOException(e.getCause());
+        }
+      }
+
+      try {
+        final var importer = CMKeyStoreImporter.this;
+        final var data =
+          switch (importer.format) {
+            case PEM -> CMKeyStorePEM.encode("CERTIFICATE", encoded)
+              .getBytes(US_ASCII);
+            case DER -> encoded;
+          };
+        final var suffix =
+          switch (importer.format) {
+            case PEM -> "crt.pem";
+            case DER -> "der";
+          };
+
+        final var file =
+          importer.directory.resolve("%s.%s".formatted(name, suffix));
+        writeIfAbsent(file, PUBLIC, data);
+
+        final var written = new Written(file, digestOf(data), name);
+        ours.complete(written);
+        return written;
+      } catch (final IOException | RuntimeException e) {
+        ours.completeExceptionally(e);
+        throw e;
+      }
+    }
+  }
+
+  private static void writeIfAbsent(
+    final Path file,
+    final CMKeyStoreAtomicFiles.FileKind kind,
+    final byte[] data)
+    throws IOException
+  {
+    if (!Files.exists(file)) {
+      CMKeyStoreAtomicFiles.write(file, kind, data);
+    }
+  }
+
+  private static CMKeyStoreEntryDigest digestOf(
+    final byte[] data)
+  {
+    try {
+      return CMKeyStoreEntryDigest.of(
+        CMKeyStoreEntryDigest.DEFAULT_ALGORITHM,
+        data
+      );
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * A builder for importers.
+   */
+
+  public static final class Builder
+  {
+    private final KeyStore source;
+    private final Path directory;
+    private final Path indexFile;
+    private Function<String, char[]> passwords;
+    private CMKeyStoreImportFormat format;
+    private int parallelism;
+
+    private Builder(
+      final KeyStore inSource,
+      final Path inDirectory,
+      final Path inIndexFile)
+    {
+      this.source =
+        Objects.requireNonNull(inSource, "source");
+      this.directory =
+        Objects.requireNonNull(inDirectory, "directory");
+      this.indexFile =
+        Objects.requireNonNull(inIndexFile, "indexFile");
+      this.passwords =
+        alias -> new char[0];
+      this.format =
+        CMKeyStoreImportFormat.PEM;
+      this.parallelism =
+        Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Set the password used to read every private key from the source
+     * keystore. By default, an empty password is used.
+     *
+     * @param password The password
+     *
+     * @return this
+     */
+
+    public Builder setPassword(
+      final char[] password)
+    {
+      final var copy = Objects.requireNonNull(password, "password").clone();
+      this.passwords = alias -> copy.clone();
+      return this;
+    }
+
+    /**
+     * Set the function that provides the password used to read the private
+     * key of each alias from the source keystore.
+     *
+     * @param provider The password provider
+     *
+     * @return this
+     */
+
+    public Builder setPasswords(
+      final Function<String, char[]> provider)
+    {
+      this.passwords = Objects.requireNonNull(provider, "provider");
+      return this;
+    }
+
+    /**
+     * Set the encoding of the files that are written. The default is
+     * {@link CMKeyStoreImportFormat#PEM}.
+     *
+     * @param inFormat The format
+     *
+     * @return this
+     */
+
+    public Builder setFormat(
+      final CMKeyStoreImportFormat inFormat)
+    {
+      this.format = Objects.requireNonNull(inFormat, "format");
+      return this;
+    }
+
+    /**
+     * Set the maximum number of entries imported concurrently. The default
+     * is the number of available processors; reading private keys from
+     * password-protected keystores is typically dominated by key
+     * derivation, and so benefits from parallelism.
+     *
+     * @param inParallelism The parallelism
+     *
+     * @return this
+     */
+
+    public Builder setParallelism(
+      final int inParallelism)
+    {
+      if (inParallelism < 1) {
+        throw new IllegalArgumentException(
+          "Parallelism %d must be at least 1".formatted(inParallelism)
+        );
+      }
+      this.parallelism = inParallelism;
+      return this;
+    }
+
+    /**
+     * @return An importer
+     */
+
+    public CMKeyStoreImporter build()
+    {
+      return new CMKeyStoreImporter(this);
+    }
+  }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
+import com.io7m.canonmill.core.internal.CMKeyStoreEntryDigest;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>A keystore index constructed in memory.</p>
+ *
+ * <p>An index describes the same keys, certificates, digests, and bundles
+ * as an XML index file, but a keystore can be loaded from it directly
+ * using {@link CMKeyStoreHandle#loadIndex(CMKeyStoreIndex)} or
+ * {@link CMKeyStores#openKeyStore(CMKeyStoreIndex, CMKeyStoreProvider)},
+ * without the index being serialized, validated, and parsed.</p>
+ *
+ * @see #builder(Path)
+ */
+
+public final class CMKeyStoreIndex
+{
+  private final CMKeyStoreDescription description;
+
+  CMKeyStoreIndex(
+    final CMKeyStoreDescription inDescription)
+  {
+    this.description =
+      Objects.requireNonNull(inDescription, "description");
+  }
+
+  CMKeyStoreDescription description()
+  {
+    return this.description;
+  }
+
+  /**
+   * Create a new index builder. The base directory is made absolute, and
+   * the relative files of entries are resolved against it.
+   *
+   * @param baseDirectory The base directory
+   *
+   * @return A new builder
+   */
+
+  public static Builder builder(
+    final Path baseDirectory)
+  {
+    return new Builder(baseDirectory);
+  }
+
+  /**
+   * @return The base directory
+   */
+
+  public Path baseDirectory()
+  {
+    return this.description.baseDirectory();
+  }
+
+  /**
+   * @return The absolute key files, by alias
+   */
+
+  public Map<String, Path> keys()
+  {
+    return this.description.keys();
+  }
+
+  /**
+   * @return The absolute certificate files, by alias
+   */
+
+  public Map<String, Path> certificates()
+  {
+    return this.description.certificates();
+  }
+
+  /**
+   * @return The absolute bundle files
+   */
+
+  public List<Path> bundles()
+  {
+    return this.description.bundles();
+  }
+
+  @Override
+  public boolean equals(
+    final Object other)
+  {
+    if (this == other) {
+      return true;
+    }
+    return other instanceof final CMKeyStoreIndex index
+           && this.description.equals(index.description);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return this.description.hashCode();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[CMKeyStoreIndex %s]".formatted(this.description);
+  }
+
+  /**
+   * A builder for indexes. Adding an entry with an alias that is already
+   * present replaces the existing entry.
+   */
+
+  public static final class Builder
+  {
+    private final Path baseDirectory;
+    private final HashMap<String, Path> keys;
+    private final HashMap<String, Path> certificates;
+    private final HashMap<String, CMKeyStoreEntryDigest> keyDigests;
+    private final HashMap<String, CMKeyStoreEntryDigest> certificateDigests;
+    private final ArrayList<Path> bundles;
+
+    private Builder(
+      final Path inBaseDirectory)
+    {
+      this.baseDirectory =
+        Objects.requireNonNull(inBaseDirectory, "baseDirectory")
+          .toAbsolutePath();
+      this.keys = new HashMap<>();
+      this.certificates = new HashMap<>();
+      this.keyDigests = new HashMap<>();
+      this.certificateDigests = new HashMap<>();
+      this.bundles = new ArrayList<>();
+    }
+
+    /**
+     * Add a private key.
+     *
+     * @param alias The alias
+     * @param file  The key file
+     *
+     * @return this
+     */
+
+    public Builder addKey(
+      final String alias,
+      final Path file)
+    {
+      Objects.requireNonNull(alias, "alias");
+      Objects.requireNonNull(file, "file");
+      this.keys.put(alias, file);
+      this.keyDigests.remove(alias);
+      return this;
+    }
+
+    /**
+     * Add a private key whose file must have the given digest.
+     *
+     * @param alias  The alias
+     * @param file   The key file
+     * @param digest The digest, in {@code ALGORITHM:HEX} form
+     *
+     * @return this
+     *
+     * @throws IllegalArgumentException If the digest is malformed
+     */
+
+    public Builder addKey(
+      final String alias,
+      final Path file,
+      final String digest)
+    {
+      final var parsed = CMKeyStoreEntryDigest.parse(digest);
+      this.addKey(alias, file);
+      this.keyDigests.put(alias, parsed);
+      return this;
+    }
+
+    /**
+     * Add a certificate file. The file may contain a certificate chain.
+     *
+     * @param alias The alias
+     * @param file  The certificate file
+     *
+     * @return this
+     */
+
+    public Builder addCertificate(
+      final String alias,
+      final Path file)
+    {
+      Objects.requireNonNull(alias, "alias");
+      Objects.requireNonNull(file, "file");
+      this.certificates.put(alias, file);
+      this.certificateDigests.remove(alias);
+      return this;
+    }
+
+    /**
+     * Add a certificate file whose contents must have the given digest.
+     *
+     * @param alias  The alias
+     * @param file   The certificate file
+     * @param digest The digest, in {@code ALGORITHM:HEX} form
+     *
+     * @return this
+     *
+     * @throws IllegalArgumentException If the digest is malformed
+     */
+
+    public Builder addCertificate(
+      final String alias,
+      final Path file,
+      final String digest)
+    {
+      final var parsed = CMKeyStoreEntryDigest.parse(digest);
+      this.addCertificate(alias, file);
+      this.certificateDigests.put(alias, parsed);
+      return this;
+    }
+
+    /**
+     * Add a packed bundle. Each member of the bundle becomes an entry, and
+     * a member may not have the same alias as any other entry of the same
+     * kind.
+     *
+     * @param file The bundle file
+     *
+     * @return this
+     */
+
+    public Builder addBundle(
+      final Path file)
+    {
+      this.bundles.add(Objects.requireNonNull(file, "file"));
+      return this;
+    }
+
+    /**
+     * @return An index
+     */
+
+    public CMKeyStoreIndex build()
+    {
+      return new CMKeyStoreIndex(
+        new CMKeyStoreDescription(
+          this.baseDirectory,
+          this.keys,
+          this.certificates,
+          this.keyDigests,
+          this.certificateDigests,
+          List.of(),
+          this.bundles
+        )
+      );
+    }
+  }
+}
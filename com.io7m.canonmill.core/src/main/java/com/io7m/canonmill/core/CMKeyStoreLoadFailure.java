@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * A failure to load a single keystore entry.
+ *
+ * @param alias     The alias of the entry
+ * @param kind      The kind of the entry
+ * @param file      The file from which the entry was being loaded
+ * @param retained  {@code true} if the keystore retained the entry's
+ *                  previous value
+ * @param exception The exception raised
+ */
+
+public record CMKeyStoreLoadFailure(
+  String alias,
+  CMKeyStoreEntryKind kind,
+  Path file,
+  boolean retained,
+  IOException exception)
+{
+  /**
+   * A failure to load a single keystore entry.
+   *
+   * @param alias     The alias of the entry
+   * @param kind      The kind of the entry
+   * @param file      The file from which the entry was being loaded
+   * @param retained  {@code true} if the keystore retained the entry's
+   *                  previous value
+   * @param exception The exception raised
+   */
+
+  public CMKeyStoreLoadFailure
+  {
+    Objects.requireNonNull(alias, "alias");
+    Objects.requireNonNull(kind, "kind");
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(exception, "exception");
+  }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Options that control how keystores are loaded.
+ *
+ * @param errorPolicy         The policy for errors in individual entries
+ * @param parallelism         The maximum number of files decoded concurrently
+ * @param snapshotFile        The snapshot file, if snapshots are enabled
+ * @param snapshotPrivateKeys {@code true} if private keys may be written to
+ *                            snapshots
+ * @param validateIndex       {@code true} if index files are validated
+ *                            against the schema
+ * @param streamIndex         {@code true} if files are decoded while the
+ *                            index is being parsed
+ * @param passwords           The provider of passwords for encrypted keys
+ * @param lazyKeys            {@code true} if private keys are decoded when
+ *                            first accessed, rather than during the load
+ * @param cachePolicy         The policy for reusing previously decoded
+ *                            entries
+ * @param entrySource         The source of the data of entries
+ * @param writable            {@code true} if the keystore accepts
+ *                            modifications
+ */
+
+public record CMKeyStoreLoadOptions(
+  CMKeyStoreErrorPolicy errorPolicy,
+  int parallelism,
+  Optional<Path> snapshotFile,
+  boolean snapshotPrivateKeys,
+  boolean validateIndex,
+  boolean streamIndex,
+  CMKeyStorePasswordProviderType passwords,
+  boolean lazyKeys,
+  CMKeyStoreCachePolicy cachePolicy,
+  CMKeyStoreEntrySourceType entrySource,
+  boolean writable)
+{
+  private static final CMKeyStoreLoadOptions DEFAULTS =
+    builder().build();
+
+  /**
+   * Options that control how keystores are loaded.
+   *
+   * @param errorPolicy         The policy for errors in individual entries
+   * @param parallelism         The maximum number of files decoded concurrently
+   * @param snapshotFile        The snapshot file, if snapshots are enabled
+   * @param snapshotPrivateKeys {@code true} if private keys may be written to
+   *                            snapshots
+   * @param validateIndex       {@code true} if index files are validated
+   *                            against the schema
+   * @param streamIndex         {@code true} if files are decoded while the
+   *                            index is being parsed
+   * @param passwords           The provider of passwords for encrypted keys
+   * @param lazyKeys            {@code true} if private keys are decoded when
+   *                            first accessed, rather than during the load
+   * @param cachePolicy         The policy for reusing previously decoded
+   *                            entries
+   * @param entrySource         The source of the data of entries
+   * @param writable            {@code true} if the keystore accepts
+   *                            modifications
+   */
+
+  public CMKeyStoreLoadOptions
+  {
+    Objects.requireNonNull(errorPolicy, "errorPolicy");
+    Objects.requireNonNull(snapshotFile, "snapshotFile");
+    Objects.requireNonNull(passwords, "passwords");
+    Objects.requireNonNull(cachePolicy, "cachePolicy");
+    Objects.requireNonNull(entrySource, "entrySource");
+    if (parallelism < 1) {
+      throw new IllegalArgumentException(
+        "Parallelism %d must be at least 1".formatted(parallelism)
+      );
+    }
+  }
+
+  /**
+   * @return The default options
+   */
+
+  public static CMKeyStoreLoadOptions defaults()
+  {
+    return DEFAULTS;
+  }
+
+  /**
+   * Derive options that use the given password for any encrypted key for
+   * which the current password provider has no password.
+   *
+   * @param password The password
+   *
+   * @return The options
+   */
+
+  public CMKeyStoreLoadOptions withFallbackPassword(
+    final char[] password)
+  {
+    return new CMKeyStoreLoadOptions(
+      this.errorPolicy,
+      this.parallelism,
+      this.snapshotFile,
+      this.snapshotPrivateKeys,
+      this.validateIndex,
+      this.streamIndex,
+      this.passwords.orElse(CMKeyStorePasswordProviderType.constant(password)),
+      this.lazyKeys,
+      this.cachePolicy,
+      this.entrySource,
+      this.writable
+    );
+  }
+
+  /**
+   * Derive options that use the given entry source.
+   *
+   * @param source The entry source
+   *
+   * @return The options
+   */
+
+  public CMKeyStoreLoadOptions withEntrySource(
+    final CMKeyStoreEntrySourceType source)
+  {
+    return new CMKeyStoreLoadOptions(
+      this.errorPolicy,
+      this.parallelism,
+      this.snapshotFile,
+      this.snapshotPrivateKeys,
+      this.validateIndex,
+      this.streamIndex,
+      this.passwords,
+      this.lazyKeys,
+      this.cachePolicy,
+      source,
+      this.writable
+    );
+  }
+
+  /**
+   * @return A new builder, initialized with the default options
+   */
+
+  public static Builder builder()
+  {
+    return new Builder();
+  }
+
+  /**
+   * A builder for options.
+   */
+
+  public static final class Builder
+  {
+    private CMKeyStoreErrorPolicy errorPolicy;
+    private int parallelism;
+    private Optional<Path> snapshotFile;
+    private boolean snapshotPrivateKeys;
+    private boolean validateIndex;
+    private boolean streamIndex;
+    private CMKeyStorePasswordProviderType passwords;
+    private boolean lazyKeys;
+    private CMKeyStoreCachePolicy cachePolicy;
+    private CMKeyStoreEntrySourceType entrySource;
+    private boolean writable;
+
+    private Builder()
+    {
+      this.errorPolicy = CMKeyStoreErrorPolicy.FAIL_ON_ANY_ERROR;
+      this.parallelism = 1;
+      this.snapshotFile = Optional.empty();
+      this.snapshotPrivateKeys = false;
+      this.validateIndex = true;
+      this.streamIndex = false;
+      this.passwords = CMKeyStorePasswordProviderType.none();
+      this.lazyKeys = false;
+      this.cachePolicy = CMKeyStoreCachePolicy.CONTENT_DIGEST;
+      this.entrySource = CMKeyStoreEntrySources.filesystem();
+      this.writable = false;
+    }
+
+    /**
+     * Set the error policy.
+     *
+     * @param policy The policy
+     *
+     * @return this
+     */
+
+    public Builder setErrorPolicy(
+      final CMKeyStoreErrorPolicy policy)
+    {
+      this.errorPolicy = Objects.requireNonNull(policy, "policy");
+      return this;
+    }
+
+    /**
+     * Set the maximum number of files that will be decoded concurrently.
+     * The default is {@code 1}, meaning that files are decoded sequentially
+     * on the loading thread.
+     *
+     * @param newParallelism The parallelism
+     *
+     * @return this
+     */
+
+    public Builder setParallelism(
+      final int newParallelism)
+    {
+      this.parallelism = newParallelism;
+      return this;
+    }
+
+    /**
+     * <p>Enable warm-start snapshots, using the given snapshot file.</p>
+     *
+     * <p>After a load in which every entry was loaded successfully, a
+     * binary snapshot of the decoded entries is written to the snapshot
+     * file, along with the size and modification time of every file that
+     * was read. On subsequent loads, the snapshot is memory-mapped, and the
+     * entries of any file whose size and modification time are unchanged
+     * are taken from the snapshot instead of being decoded again. If the
+     * index is also unchanged, the index is not parsed.</p>
+     *
+     * @param file The snapshot file
+     *
+     * @return this
+     *
+     * @see #setSnapshotFileNextTo(Path)
+     */
+
+    public Builder setSnapshotFile(
+      final Path file)
+    {
+      this.snapshotFile =
+        Optional.of(Objects.requireNonNull(file, "file").toAbsolutePath());
+      return this;
+    }
+
+    /**
+     * Enable warm-start snapshots, using a snapshot file with the suffix
+     * {@code .snapshot} in the same directory as the given index file.
+     *
+     * @param indexFile The index file
+     *
+     * @return this
+     *
+     * @see #setSnapshotFile(Path)
+     */
+
+    public Builder setSnapshotFileNextTo(
+      final Path indexFile)
+    {
+      Objects.requireNonNull(indexFile, "indexFile");
+      return this.setSnapshotFile(
+        indexFile.resolveSibling(indexFile.getFileName() + ".snapshot")
+      );
+    }
+
+    /**
+     * Set whether private keys may be written to snapshots. Private keys are
+     * not written by default, and are decoded from their files on every
+     * load. If private keys are written, they are written unencrypted, and
+     * the snapshot file must be protected as carefully as the key files.
+     *
+     * @param allowed {@code true} if private keys may be written
+     *
+     * @return this
+     */
+
+    public Builder setSnapshotPrivateKeys(
+      final boolean allowed)
+    {
+      this.snapshotPrivateKeys = allowed;
+      return this;
+    }
+
+    /**
+     * Set whether index files are validated against the schema. Index files
+     * are validated by default. Disabling validation makes parsing the
+     * index considerably cheaper, but malformed index files may then be
+     * partially accepted rather than rejected, so validation should only be
+     * disabled for index files that are produced by trusted tooling.
+     *
+     * @param validate {@code true} if index files are validated
+     *
+     * @return this
+     */
+
+    public Builder setValidateIndex(
+      final boolean validate)
+    {
+      this.validateIndex = validate;
+      return this;
+    }
+
+    /**
+     * Set whether files are decoded while the index is being parsed. By
+     * default, the complete index is parsed before any files are decoded.
+     * If streaming is enabled, each file is handed to the decoding threads
+     * (of which there are {@link #setParallelism(int)}) as soon as its entry
+     * has been parsed, and parsing blocks if the decoding threads fall too
+     * far behind. This is mostly beneficial for very large index files.
+     *
+     * @param stream {@code true} if files are decoded during parsing
+     *
+     * @return this
+     */
+
+    public Builder setStreamIndex(
+      final boolean stream)
+    {
+      this.streamIndex = stream;
+      return this;
+    }
+
+    /**
+     * <p>Set the provider of passwords for encrypted private keys. By
+     * default, no passwords are provided, although the password passed to
+     * {@link java.security.KeyStore#load(java.io.InputStream, char[])} is
+     * used for any key for which the provider has no password.</p>
+     *
+     * <p>Deriving a key from a password is deliberately expensive, and so
+     * decrypted keys are retained across loads: An encrypted key file whose
+     * contents are unchanged since the previous load is not decrypted again,
+     * and the provider is not consulted for it.</p>
+     *
+     * @param provider The password provider
+     *
+     * @return this
+     */
+
+    public Builder setPasswords(
+      final CMKeyStorePasswordProviderType provider)
+    {
+      this.passwords = Objects.requireNonNull(provider, "provider");
+      return this;
+    }
+
+    /**
+     * <p>Set whether private keys are decoded lazily. By default, every
+     * private key is decoded during the load. If lazy decoding is enabled,
+     * each key file is read during the load, but the key is only decoded
+     * (and decrypted, if necessary) when it is first accessed. This makes
+     * loading keystores with many keys, of which only a few are used,
+     * considerably cheaper.</p>
+     *
+     * <p>Note that a key file that cannot be decoded is then only reported
+     * when the key is accessed, rather than failing the load, and so the
+     * error policy does not apply to it.</p>
+     *
+     * @param lazy {@code true} if keys are decoded lazily
+     *
+     * @return this
+     */
+
+    public Builder setLazyKeys(
+      final boolean lazy)
+    {
+      this.lazyKeys = lazy;
+      return this;
+    }
+
+    /**
+     * Set the policy for reusing entries decoded by the previous load. The
+     * default is {@link CMKeyStoreCachePolicy#CONTENT_DIGEST}.
+     *
+     * @param policy The policy
+     *
+     * @return this
+     */
+
+    public Builder setCachePolicy(
+      final CMKeyStoreCachePolicy policy)
+    {
+      this.cachePolicy = Objects.requireNonNull(policy, "policy");
+      return this;
+    }
+
+    /**
+     * Set the source of the data of entries. The default is
+     * {@link CMKeyStoreEntrySources#filesystem()}. Index files, fragments,
+     * bundles, and snapshots are always read from the filesystem.
+     *
+     * @param source The source
+     *
+     * @return this
+     */
+
+    public Builder setEntrySource(
+      final CMKeyStoreEntrySourceType source)
+    {
+      this.entrySource = Objects.requireNonNull(source, "source");
+      return this;
+    }
+
+    /**
+     * <p>Set whether the keystore accepts modifications. By default,
+     * keystores are read-only, and the methods that modify a
+     * {@link java.security.KeyStore} throw
+     * {@link UnsupportedOperationException}.</p>
+     *
+     * <p>Modifications made to a writable keystore are buffered, and are
+     * neither visible nor written to disk until they are committed with
+     * {@link CMKeyStoreHandle#commit()}. The keystore must have been loaded
+     * from an index file with a {@link CMKeyStoreLoadParameter}. Note that
+     * the first commit upgrades a version 1 index file to the version 2
+     * format.</p>
+     *
+     * @param enabled {@code true} if the keystore accepts modifications
+     *
+     * @return this
+     */
+
+    public Builder setWritable(
+      final boolean enabled)
+    {
+      this.writable = enabled;
+      return this;
+    }
+
+    /**
+     * @return The options
+     */
+
+    public CMKeyStoreLoadOptions build()
+    {
+      return new CMKeyStoreLoadOptions(
+        this.errorPolicy,
+        this.parallelism,
+        this.snapshotFile,
+        this.snapshotPrivateKeys,
+        this.validateIndex,
+        this.streamIndex,
+        this.passwords,
+        this.lazyKeys,
+        this.cachePolicy,
+        this.entrySource,
+        this.writable
+      );
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core;
+
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * <p>A parameter that instructs a {@code canonmill} keystore to load the
+ * index in the given file.</p>
+ *
+ * <p>Unlike {@link KeyStore#load(java.io.InputStream, char[])}, loading from
+ * a parameter tells the keystore which file it is reading. A relative
+ * {@code BaseDirectory} in the index is resolved against the directory
+ * containing the index, errors name the index file, and the
+ * {@link CMKeyStoreCachePolicy#FILE_ATTRIBUTES} cache policy can avoid
+ * reparsing an unchanged index.</p>
+ *
+ * <p>If options are given, they become the options used for this load and
+ * all subsequent loads of the keystore, as if they had been set with
+ * {@link CMKeyStoreHandle#setLoadOptions(CMKeyStoreLoadOptions)}. Otherwise,
+ * the keystore's current options are used.</p>
+ *
+ * @param file       The index file
+ * @param options    The load options, if any
+ * @param protection The password used for encrypted keys, if any
+ */
+
+public record CMKeyStoreLoadParameter(
+  Path file,
+  Optional<CMKeyStoreLoadOptions> options,
+  Optional<KeyStore.PasswordProtection> protection)
+  implements KeyStore.LoadStoreParameter
+{
+  /**
+   * A parameter that instructs a keystore to load an index file.
+   *
+   * @param file       The index file
+   * @param options    The load options, if any
+   * @param protection The password used for encrypted keys, if any
+   */
+
+  public CMKeyStoreLoadParameter
+  {
+    file = Objects.requireNonNull(file, "file").toAbsolutePath();
+    Objects.requireNonNull(options, "options");
+    Objects.requireNonNull(protection, "protection");
+  }
+
+  /**
+   * A parameter that instructs a keystore to load an index file using the
+   * given options.
+   *
+   * @param file    The index file
+   * @param options The load options
+   */
+
+  public CMKeyStoreLoadParameter(
+    final Path file,
+    final CMKeyStoreLoadOptions options)
+  {
+    this(file, Optional.of(options), Optional.empty());
+  }
+
+  /**
+   * A parameter that instructs a keystore to load an index file using the
+   * keystore's current options.
+   *
+   * @param file The index file
+   */
+
+  public CMKeyStoreLoadParameter(
+    final Path file)
+  {
+    this(file, Optional.empty(), Optional.empty());
+  }
+
+  @Override
+  public KeyStore.ProtectionParameter getProtectionParameter()
+  {
+    return this.protection.orElse(null);
+  }
+}
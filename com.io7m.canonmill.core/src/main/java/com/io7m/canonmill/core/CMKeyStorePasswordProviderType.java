@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * <p>A provider of passwords for encrypted private keys.</p>
+ *
+ * <p>A provider is only consulted for keys that are actually encrypted, and
+ * is not consulted at all for an encrypted key file whose contents are
+ * unchanged since the key was last decrypted. Providers may be called from
+ * multiple threads concurrently when files are decoded in parallel.</p>
+ *
+ * @see CMKeyStoreLoadOptions#passwords()
+ */
+
+@FunctionalInterface
+public interface CMKeyStorePasswordProviderType
+{
+  /**
+   * Find the password for the key with the given alias. The returned array
+   * is cleared after use, and so a provider must return a fresh array on
+   * each call.
+   *
+   * @param alias The key alias
+   * @param file  The key file
+   *
+   * @return The password, if one is available
+   */
+
+  Optional<char[]> passwordFor(
+    String alias,
+    Path file);
+
+  /**
+   * @return A provider that never provides a password
+   */
+
+  static CMKeyStorePasswordProviderType none()
+  {
+    return (alias, file) -> Optional.empty();
+  }
+
+  /**
+   * @param password The password
+   *
+   * @return A provider that provides the same password for every key
+   */
+
+  static CMKeyStorePasswordProviderType constant(
+    final char[] password)
+  {
+    final var copy =
+      Objects.requireNonNull(password, "password").clone();
+    return (alias, file) -> Optional.of(copy.clone());
+  }
+
+  /**
+   * @param other The provider consulted if this provider has no password
+   *
+   * @return A provider that consults this provider, and then the given
+   * provider
+   */
+
+  default CMKeyStorePasswordProviderType orElse(
+    final CMKeyStorePasswordProviderType other)
+  {
+    Objects.requireNonNull(other, "other");
+    return (alias, file) -> {
+      final var password = this.passwordFor(alias, file);
+      if (password.isPresent()) {
+        return password;
+      }
+      return other.passwordFor(alias, file);
+    };
+  }
+}
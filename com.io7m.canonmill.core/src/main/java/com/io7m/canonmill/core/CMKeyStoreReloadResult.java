@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The result of an asynchronous load of a keystore.
+ *
+ * @param keyStore   The keystore that was loaded
+ * @param generation The generation published by the load
+ * @param failures   The entries that failed to load
+ *
+ * @see CMKeyStoreHandle#generation()
+ * @see CMKeyStoreHandle#failures()
+ */
+
+public record CMKeyStoreReloadResult(
+  CMKeyStoreHandle keyStore,
+  long generation,
+  List<CMKeyStoreLoadFailure> failures)
+{
+  /**
+   * The result of an asynchronous load of a keystore.
+   *
+   * @param keyStore   The keystore that was loaded
+   * @param generation The generation published by the load
+   * @param failures   The entries that failed to load
+   */
+
+  public CMKeyStoreReloadResult
+  {
+    Objects.requireNonNull(keyStore, "keyStore");
+    failures = List.copyOf(Objects.requireNonNull(failures, "failures"));
+  }
+}
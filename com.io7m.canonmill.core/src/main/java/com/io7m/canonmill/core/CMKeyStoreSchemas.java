@@ -35,9 +35,18 @@ public final class CMKeyStoreSchemas
       .setNamespace(URI.create("urn:com.io7m.canonmill.keystore:1"))
       .build();
 
+  private static final JXESchemaDefinition SCHEMA_2 =
+    JXESchemaDefinition.builder()
+      .setFileIdentifier("keystore-2.xsd")
+      .setLocation(CMKeyStoreSchemas.class.getResource(
+        "/com/io7m/canonmill/core/internal/keystore-2.xsd"))
+      .setNamespace(URI.create("urn:com.io7m.canonmill.keystore:2"))
+      .build();
+
   private static final JXESchemaResolutionMappings SCHEMA_MAPPINGS =
     JXESchemaResolutionMappings.builder()
       .putMappings(SCHEMA_1.namespace(), SCHEMA_1)
+      .putMappings(SCHEMA_2.namespace(), SCHEMA_2)
       .build();
 
   /**
@@ -49,6 +58,15 @@ public final class CMKeyStoreSchemas
     return SCHEMA_1;
   }
 
+  /**
+   * @return The v2 schema
+   */
+
+  public static JXESchemaDefinition schema2()
+  {
+    return SCHEMA_2;
+  }
+
   /**
    * @return The set of supported schemas.
    */
@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import com.io7m.anethum.api.ParsingException;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionListenerType;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionParsers;
+import com.io7m.canonmill.core.internal.CMKeyStoreFragments;
+import com.io7m.canonmill.core.internal.CMKeyStoreInstance;
+import com.io7m.canonmill.core.internal.CMKeyStoreSnapshots;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>A compiler of shared snapshots.</p>
+ *
+ * <p>A shared snapshot is a versioned binary file containing the fully
+ * decoded contents of a keystore. A single process (or this class, run as a
+ * command-line tool) compiles the snapshot, and any number of processes on
+ * the same host map it read-only using
+ * {@link CMKeyStores#openSharedSnapshot(Path, CMKeyStoreProvider)}. When the
+ * snapshot is recompiled, the new snapshot atomically replaces the old one
+ * and receives a higher sequence number; processes observe the new sequence
+ * number using {@link CMKeyStoreHandle#refreshFromSharedSnapshot(Path)}.
+ * Concurrent compilations of the same snapshot are serialized, and so
+ * always receive distinct sequence numbers. If the existing snapshot file is
+ * corrupt, it is replaced, and the sequence number restarts at {@code 1};
+ * a process that last loaded a snapshot with sequence number {@code 1} from
+ * the same file does not observe the replacement until the snapshot is
+ * compiled again.
+ * Any fragments included by the index are merged into the snapshot when it
+ * is compiled, so the snapshot must be recompiled when a fragment
+ * changes.</p>
+ *
+ * <p>Usage: {@code CMKeyStoreSnapshotCompiler index-file snapshot-file
+ * [--private-keys]}</p>
+ */
+
+public final class CMKeyStoreSnapshotCompiler
+{
+  private CMKeyStoreSnapshotCompiler()
+  {
+
+  }
+
+  /**
+   * Compile the keystore described by the given index file into a shared
+   * snapshot. Private keys are only written into the snapshot if
+   * {@code includePrivateKeys} is {@code true}; processes reading the
+   * snapshot will otherwise decode private keys from their files.
+   *
+   * @param indexFile          The index file
+   * @param snapshotFile       The shared snapshot file
+   * @param includePrivateKeys {@code true} if private keys should be written
+   *
+   * @return The sequence number of the new snapshot
+   *
+   * @throws IOException On I/O errors, or if any entry cannot be loaded
+   */
+
+  public static long compile(
+    final Path indexFile,
+    final Path snapshotFile,
+    final boolean includePrivateKeys)
+    throws IOException
+  {
+    Objects.requireNonNull(indexFile, "indexFile");
+    Objects.requireNonNull(snapshotFile, "snapshotFile");
+
+    final var data =
+      Files.readAllBytes(indexFile);
+
+    final var parsers = new CMKeyStoreDescriptionParsers();
+    try (var stream = new ByteArrayInputStream(data)) {
+      final var description =
+        new CMKeyStoreFragments().merge(
+          parsers.parse(indexFile.toUri(), stream),
+          parsers,
+          CMKeyStoreDescriptionListenerType.IGNORE
+        );
+      final var instance =
+        CMKeyStoreInstance.create(description);
+
+      return CMKeyStoreSnapshots.writeShared(
+        snapshotFile,
+        CMKeyStoreSnapshots.digest(ByteBuffer.wrap(data)),
+        description,
+        instance,
+        includePrivateKeys
+      );
+    } catch (final ParsingException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * The command-line entry point.
+   *
+   * @param args The command-line arguments
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void main(
+    final String[] args)
+    throws IOException
+  {
+    final var arguments = List.of(args);
+    if (arguments.size() < 2 || arguments.size() > 3) {
+      usage();
+      return;
+    }
+
+    final var includePrivateKeys =
+      arguments.size() == 3 && arguments.get(2).equals("--private-keys");
+    if (arguments.size() == 3 && !includePrivateKeys) {
+      usage();
+      return;
+    }
+
+    final var sequence =
+      compile(
+        Path.of(arguments.get(0)),
+        Path.of(arguments.get(1)),
+        includePrivateKeys
+      );
+
+    System.out.printf("Compiled snapshot %s (sequence %d)%n",
+                      arguments.get(1),
+                      Long.valueOf(sequence));
+  }
+
+  private static void usage()
+  {
+    System.err.println(
+      "usage: CMKeyStoreSnapshotCompiler index-file snapshot-file [--private-keys]"
+    );
+    System.exit(1);
+  }
+}
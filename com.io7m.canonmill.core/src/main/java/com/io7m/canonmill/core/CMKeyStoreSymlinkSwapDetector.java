@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NotLinkException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * A detector that watches the target of a symbolic link.
+ *
+ * @see CMKeyStoreChangeDetectors#symlinkSwap(CMKeyStoreHandle, Path, Path)
+ */
+
+@ThreadSafe
+final class CMKeyStoreSymlinkSwapDetector
+  implements CMKeyStoreChangeDetectorType
+{
+  private final CMKeyStoreHandle keystore;
+  private final Path indexFile;
+  private final Path link;
+  @GuardedBy("this")
+  private Optional<Path> target;
+
+  CMKeyStoreSymlinkSwapDetector(
+    final CMKeyStoreHandle inKeystore,
+    final Path inIndexFile,
+    final Path inLink)
+  {
+    this.keystore = inKeystore;
+    this.indexFile = inIndexFile.toAbsolutePath().normalize();
+    this.link = inLink.toAbsolutePath().normalize();
+    this.target = Optional.empty();
+  }
+
+  /**
+   * Resolve the target of the link. A single {@code readlink} suffices in
+   * the common case; the link is swapped by replacing it, and so the target
+   * it names is always a complete directory.
+   */
+
+  private Path resolveTarget()
+    throws IOException
+  {
+    try {
+      return this.link.resolveSibling(Files.readSymbolicLink(this.link))
+        .normalize();
+    } catch (final NotLinkException e) {
+      return this.link.toRealPath();
+    }
+  }
+
+  @Override
+  public CMKeyStoreHandle keystore()
+  {
+    return this.keystore;
+  }
+
+  @Override
+  public synchronized boolean check()
+    throws IOException
+  {
+    final var current = this.resolveTarget();
+    if (this.target.isPresent() && this.target.get().equals(current)) {
+      return false;
+    }
+
+    final var index =
+      this.indexFile.startsWith(this.link)
+        ? current.resolve(this.link.relativize(this.indexFile))
+        : this.indexFile;
+
+    this.keystore.loadFileWith(index, options -> {
+      return options.withEntrySource(
+        CMKeyStoreEntrySources.redirected(
+          options.entrySource(),
+          this.link,
+          current
+        )
+      );
+    });
+
+    this.target = Optional.of(current);
+    return true;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[CMKeyStoreSymlinkSwapDetector %s %s]"
+      .formatted(this.link, this.target);
+  }
+}
@@ -17,21 +17,32 @@
 
 package com.io7m.canonmill.core;
 
+import com.io7m.canonmill.core.internal.CMKeyStore;
+
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
+import java.security.Security;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * Convenience methods for keystores.
@@ -39,6 +50,13 @@ import java.util.Objects;
 
 public final class CMKeyStores
 {
+  private static final ExecutorService DEFAULT_EXECUTOR =
+    Executors.newThreadPerTaskExecutor(
+      Thread.ofVirtual()
+        .name("com.io7m.canonmill.async-", 0L)
+        .factory()
+    );
+
   private CMKeyStores()
   {
 
@@ -56,9 +74,16 @@ public final class CMKeyStores
   public static KeyStore createKeyStore()
     throws KeyStoreException, NoSuchProviderException
   {
-    return KeyStore.getInstance(
-      CMKeyStoreProvider.keystoreType(),
-      CMKeyStoreProvider.providerName()
+    final var provider =
+      Security.getProvider(CMKeyStoreProvider.providerName());
+
+    if (provider instanceof final CMKeyStoreProvider cmProvider) {
+      return createKeyStore(cmProvider);
+    }
+
+    throw new NoSuchProviderException(
+      "No provider named %s is registered."
+        .formatted(CMKeyStoreProvider.providerName())
     );
   }
 
@@ -77,15 +102,45 @@ public final class CMKeyStores
     throws KeyStoreException
   {
     Objects.requireNonNull(provider, "provider");
+    return new CMKeyStoreHandle(new CMKeyStore(), provider);
+  }
 
-    return KeyStore.getInstance(
-      CMKeyStoreProvider.keystoreType(),
-      provider
+  /**
+   * Access the {@code canonmill}-specific functionality of the given keystore.
+   * The keystore must have been created by one of the methods in this class.
+   *
+   * @param keyStore The keystore
+   *
+   * @return The keystore handle
+   *
+   * @throws IllegalArgumentException If the keystore was not created by this
+   *                                  class
+   */
+
+  public static CMKeyStoreHandle handle(
+    final KeyStore keyStore)
+  {
+    Objects.requireNonNull(keyStore, "keyStore");
+
+    if (keyStore instanceof final CMKeyStoreHandle handle) {
+      return handle;
+    }
+
+    throw new IllegalArgumentException(
+      "Keystore of type %s (provider %s) is not a %s keystore handle."
+        .formatted(
+          keyStore.getType(),
+          keyStore.getProvider().getName(),
+          CMKeyStoreProvider.providerName()
+        )
     );
   }
 
   /**
-   * Reload the given keystore from the given file.
+   * Reload the given keystore from the given file. If the keystore is a
+   * {@code canonmill} keystore, it is reloaded using its current options
+   * and the password given to its most recent load, so that the keystore
+   * knows which file it is reading and can still decrypt encrypted keys.
    *
    * @param file     The file
    * @param keyStore The keystore
@@ -106,11 +161,34 @@ public final class CMKeyStores
     Objects.requireNonNull(keyStore, "keyStore");
     Objects.requireNonNull(file, "file");
 
+    if (keyStore instanceof final CMKeyStoreHandle handle) {
+      handle.reload(file);
+      return;
+    }
+
     try (var stream = Files.newInputStream(file)) {
       keyStore.load(stream, null);
     }
   }
 
+  /**
+   * Reload only the files of the given aliases in the given keystore.
+   *
+   * @param keyStore The keystore
+   * @param aliases  The aliases
+   *
+   * @throws IOException On I/O errors
+   * @see CMKeyStoreHandle#reloadAliases(Set)
+   */
+
+  public static void reloadAliases(
+    final KeyStore keyStore,
+    final Set<String> aliases)
+    throws IOException
+  {
+    handle(keyStore).reloadAliases(aliases);
+  }
+
   /**
    * Create an SSL context using the given keystore and truststore.
    *
@@ -300,6 +378,82 @@ public final class CMKeyStores
     return keystore;
   }
 
+  /**
+   * Open a {@code canonmill} keystore from the given in-memory index.
+   *
+   * @param index    The index
+   * @param provider The specific provider
+   *
+   * @return A keystore
+   *
+   * @throws KeyStoreException On keystore exceptions
+   * @throws IOException       On I/O errors
+   * @see CMKeyStoreHandle#loadIndex(CMKeyStoreIndex)
+   */
+
+  public static KeyStore openKeyStore(
+    final CMKeyStoreIndex index,
+    final CMKeyStoreProvider provider)
+    throws KeyStoreException, IOException
+  {
+    final var keystore = createKeyStore(provider);
+    handle(keystore).loadIndex(index);
+    return keystore;
+  }
+
+  /**
+   * Open a {@code canonmill} keystore from the given in-memory index.
+   *
+   * @param index The index
+   *
+   * @return A keystore
+   *
+   * @throws KeyStoreException       On keystore exceptions
+   * @throws IOException             On I/O errors
+   * @throws NoSuchProviderException If the {@code canonmill} provider is not loaded
+   * @see CMKeyStoreHandle#loadIndex(CMKeyStoreIndex)
+   */
+
+  public static KeyStore openKeyStore(
+    final CMKeyStoreIndex index)
+    throws KeyStoreException, IOException, NoSuchProviderException
+  {
+    final var keystore = createKeyStore();
+    handle(keystore).loadIndex(index);
+    return keystore;
+  }
+
+  /**
+   * Open a {@code canonmill} keystore from the given file using the given
+   * load options. The options are retained for subsequent loads.
+   *
+   * @param file    The file
+   * @param options The load options
+   *
+   * @return A keystore
+   *
+   * @throws NoSuchAlgorithmException On missing algorithms
+   * @throws KeyStoreException        On keystore exceptions
+   * @throws CertificateException     On certificate exceptions
+   * @throws IOException              On I/O errors
+   * @throws NoSuchProviderException  If the {@code canonmill} provider is not loaded
+   */
+
+  public static KeyStore openKeyStore(
+    final Path file,
+    final CMKeyStoreLoadOptions options)
+    throws
+    KeyStoreException,
+    CertificateException,
+    IOException,
+    NoSuchAlgorithmException,
+    NoSuchProviderException
+  {
+    final var keystore = createKeyStore();
+    keystore.load(new CMKeyStoreLoadParameter(file, options));
+    return keystore;
+  }
+
   /**
    * Open a {@code canonmill} keystore from the given file.
    *
@@ -327,4 +481,211 @@ public final class CMKeyStores
     reloadKeystoreFromFile(keystore, file);
     return keystore;
   }
+
+  /**
+   * Asynchronously reload the given keystore from the given file. The load
+   * is performed on a new virtual thread.
+   *
+   * @param keyStore The keystore
+   * @param file     The file
+   *
+   * @return The operation in progress
+   *
+   * @see CMKeyStoreHandle#reloadAsync(Path, Executor)
+   */
+
+  public static CompletableFuture<CMKeyStoreReloadResult> reloadKeystoreFromFileAsync(
+    final KeyStore keyStore,
+    final Path file)
+  {
+    return reloadKeystoreFromFileAsync(keyStore, file, DEFAULT_EXECUTOR);
+  }
+
+  /**
+   * Asynchronously reload the given keystore from the given file.
+   *
+   * @param keyStore The keystore
+   * @param file     The file
+   * @param executor The executor used to perform the load
+   *
+   * @return The operation in progress
+   *
+   * @see CMKeyStoreHandle#reloadAsync(Path, Executor)
+   */
+
+  public static CompletableFuture<CMKeyStoreReloadResult> reloadKeystoreFromFileAsync(
+    final KeyStore keyStore,
+    final Path file,
+    final Executor executor)
+  {
+    return handle(keyStore).reloadAsync(file, executor);
+  }
+
+  /**
+   * Asynchronously open a {@code canonmill} keystore from the given file.
+   * The load is performed on a new virtual thread.
+   *
+   * @param file The file
+   *
+   * @return The operation in progress
+   */
+
+  public static CompletableFuture<CMKeyStoreReloadResult> openKeyStoreAsync(
+    final Path file)
+  {
+    return openKeyStoreAsync(file, DEFAULT_EXECUTOR);
+  }
+
+  /**
+   * Asynchronously open a {@code canonmill} keystore from the given file.
+   * If the {@code canonmill} provider is not loaded, the returned future
+   * fails with a {@link NoSuchProviderException}.
+   *
+   * @param file     The file
+   * @param executor The executor used to perform the load
+   *
+   * @return The operation in progress
+   */
+
+  public static CompletableFuture<CMKeyStoreReloadResult> openKeyStoreAsync(
+    final Path file,
+    final Executor executor)
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(executor, "executor");
+
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return handle(createKeyStore());
+      } catch (final GeneralSecurityException e) {
+        throw new CompletionException(e);
+      }
+    }, executor).thenCompose(h -> h.reloadAsync(file, executor));
+  }
+
+  /**
+   * Asynchronously open a {@code canonmill} keystore from the given file.
+   *
+   * @param file     The file
+   * @param provider The specific provider
+   * @param executor The executor used to perform the load
+   *
+   * @return The operation in progress
+   */
+
+  public static CompletableFuture<CMKeyStoreReloadResult> openKeyStoreAsync(
+    final Path file,
+    final CMKeyStoreProvider provider,
+    final Executor executor)
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(provider, "provider");
+    Objects.requireNonNull(executor, "executor");
+
+    return new CMKeyStoreHandle(new CMKeyStore(), provider)
+      .reloadAsync(file, executor);
+  }
+
+  /**
+   * <p>Asynchronously reload the given keystore from the given file and,
+   * when the load has completed, create a new SSL context from the
+   * reloaded keystore and the given truststore and pass it to
+   * {@code swap}. The {@code swap} function is typically used to atomically
+   * replace the SSL context used by a server, so that new connections use
+   * the new keys and certificates, and existing connections are
+   * unaffected.</p>
+   *
+   * <p>If the load fails, {@code swap} is not called, and the returned
+   * future fails.</p>
+   *
+   * @param keyStore   The keystore
+   * @param file       The file
+   * @param trustStore The truststore
+   * @param protocol   The protocol (such as "TLSv1.3")
+   * @param swap       A function that installs the new SSL context
+   * @param executor   The executor used to perform the load
+   *
+   * @return The operation in progress, yielding the new SSL context
+   */
+
+  public static CompletableFuture<SSLContext> reloadSSLContextAsync(
+    final KeyStore keyStore,
+    final Path file,
+    final KeyStore trustStore,
+    final String protocol,
+    final Consumer<? super SSLContext> swap,
+    final Executor executor)
+  {
+    Objects.requireNonNull(trustStore, "trustStore");
+    Objects.requireNonNull(protocol, "protocol");
+    Objects.requireNonNull(swap, "swap");
+
+    return reloadKeystoreFromFileAsync(keyStore, file, executor)
+      .thenApplyAsync(result -> {
+        final SSLContext context;
+        try {
+          context = createSSLContext(result.keyStore(), trustStore, protocol);
+        } catch (final GeneralSecurityException e) {
+          throw new CompletionException(e);
+        }
+        swap.accept(context);
+        return context;
+      }, executor);
+  }
+
+  /**
+   * Asynchronously reload the given keystore from the given file and swap
+   * the SSL context. The work is performed on new virtual threads.
+   *
+   * @param keyStore   The keystore
+   * @param file       The file
+   * @param trustStore The truststore
+   * @param protocol   The protocol (such as "TLSv1.3")
+   * @param swap       A function that installs the new SSL context
+   *
+   * @return The operation in progress, yielding the new SSL context
+   *
+   * @see #reloadSSLContextAsync(KeyStore, Path, KeyStore, String, Consumer, Executor)
+   */
+
+  public static CompletableFuture<SSLContext> reloadSSLContextAsync(
+    final KeyStore keyStore,
+    final Path file,
+    final KeyStore trustStore,
+    final String protocol,
+    final Consumer<? super SSLContext> swap)
+  {
+    return reloadSSLContextAsync(
+      keyStore,
+      file,
+      trustStore,
+      protocol,
+      swap,
+      DEFAULT_EXECUTOR
+    );
+  }
+
+  /**
+   * Open a {@code canonmill} keystore from the given shared snapshot.
+   *
+   * @param file     The shared snapshot file
+   * @param provider The specific provider
+   *
+   * @return A keystore
+   *
+   * @throws KeyStoreException On keystore exceptions
+   * @throws IOException       On I/O errors
+   * @see CMKeyStoreHandle#refreshFromSharedSnapshot(Path)
+   * @see CMKeyStoreSnapshotCompiler
+   */
+
+  public static CMKeyStoreHandle openSharedSnapshot(
+    final Path file,
+    final CMKeyStoreProvider provider)
+    throws KeyStoreException, IOException
+  {
+    final var keystore = handle(createKeyStore(provider));
+    keystore.refreshFromSharedSnapshot(file);
+    return keystore;
+  }
 }
@@ -18,23 +18,53 @@ package com.io7m.canonmill.core.internal;
 
 import com.io7m.anethum.api.ParsingException;
 import com.io7m.anethum.api.SerializationException;
+import com.io7m.canonmill.core.CMKeyStoreCachePolicy;
+import com.io7m.canonmill.core.CMKeyStoreChangeSet;
+import com.io7m.canonmill.core.CMKeyStoreEntryVersion;
+import com.io7m.canonmill.core.CMKeyStoreLoadFailure;
+import com.io7m.canonmill.core.CMKeyStoreLoadOptions;
+import com.io7m.canonmill.core.CMKeyStoreLoadParameter;
 import com.io7m.canonmill.core.CMKeyStoreProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
 import java.security.KeyStoreSpi;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
-import java.util.ArrayList;
+import java.security.cert.CertificateException;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
 
 /**
  * The main keystore implementation.
@@ -45,10 +75,21 @@ public final class CMKeyStore extends KeyStoreSpi
   private static final Logger LOG =
     LoggerFactory.getLogger(CMKeyStore.class);
 
+  private static final Cleaner CLEANER =
+    Cleaner.create();
+
   private final CMKeyStoreDescriptionParsers parsers;
+  private final CMKeyStoreDescriptionParsers parsersNonValidating;
   private final CMKeyStoreDescriptionSerializers serializers;
-  private volatile CMKeyStoreInstance store;
-  private volatile CMKeyStoreDescription description;
+  private final CMKeyStoreFragments fragments;
+  private final CMKeyStoreChangePublisher changes;
+  private final AtomicReference<CMKeyStoreGeneration> generation;
+  private final ConcurrentHashMap<LoadKey, CompletableFuture<CMKeyStoreGeneration>> loadsInFlight;
+  private final CMKeyStoreBatch batch;
+  private final ReentrantReadWriteLock loadLock;
+  private volatile CMKeyStoreLoadOptions loadOptions;
+  private volatile Optional<char[]> loadPassword;
+  private volatile Optional<SharedSnapshotLoaded> sharedSnapshotLoaded;
 
   /**
    * The main keystore implementation.
@@ -58,10 +99,216 @@ public final class CMKeyStore extends KeyStoreSpi
   {
     this.parsers =
       new CMKeyStoreDescriptionParsers();
+    this.parsersNonValidating =
+      CMKeyStoreDescriptionParsers.nonValidating();
     this.serializers =
       new CMKeyStoreDescriptionSerializers();
-    this.store =
-      CMKeyStoreInstance.empty();
+    this.fragments =
+      new CMKeyStoreFragments();
+    this.changes =
+      new CMKeyStoreChangePublisher(ForkJoinPool.commonPool());
+    CLEANER.register(this, this.changes::close);
+    this.generation =
+      new AtomicReference<>(CMKeyStoreGeneration.empty());
+    this.loadsInFlight =
+      new ConcurrentHashMap<>();
+    this.loadOptions =
+      CMKeyStoreLoadOptions.defaults();
+    this.loadPassword =
+      Optional.empty();
+    this.sharedSnapshotLoaded =
+      Optional.empty();
+    this.batch =
+      new CMKeyStoreBatch();
+    this.loadLock =
+      new ReentrantReadWriteLock();
+  }
+
+  private CMKeyStoreInstance store()
+  {
+    return this.generation.get().instance();
+  }
+
+  /**
+   * The options for a load. The password most recently passed to
+   * {@link #engineLoad(InputStream, char[])} is used for any encrypted key
+   * for which the configured password provider has no password.
+   */
+
+  private CMKeyStoreLoadOptions effectiveLoadOptions()
+  {
+    return withPassword(this.loadOptions, this.loadPassword);
+  }
+
+  private static CMKeyStoreLoadOptions withPassword(
+    final CMKeyStoreLoadOptions options,
+    final Optional<char[]> password)
+  {
+    return password
+      .map(options::withFallbackPassword)
+      .orElse(options);
+  }
+
+  /**
+   * @return The options used for subsequent loads
+   */
+
+  public CMKeyStoreLoadOptions loadOptions()
+  {
+    return this.loadOptions;
+  }
+
+  /**
+   * Set the options used for subsequent loads.
+   *
+   * @param options The options
+   */
+
+  public void setLoadOptions(
+    final CMKeyStoreLoadOptions options)
+  {
+    this.loadOptions = Objects.requireNonNull(options, "options");
+  }
+
+  /**
+   * @return The entries that failed to load during the most recent load
+   */
+
+  public List<CMKeyStoreLoadFailure> failures()
+  {
+    return this.generation.get().failures();
+  }
+
+  /**
+   * @return The most recently published generation
+   */
+
+  public CMKeyStoreGeneration generation()
+  {
+    return this.generation.get();
+  }
+
+  /**
+   * <p>A publisher of the changes made to the keystore by each load. A change
+   * set is published after each load that adds, removes, or changes at least
+   * one alias.</p>
+   *
+   * <p>Publishing never blocks a load. Change sets that a subscriber has not
+   * yet requested are merged into a single pending change set, so no change
+   * is lost. The publisher is closed by {@link #closeChanges()}, or when the
+   * keystore becomes unreachable.</p>
+   *
+   * @return The change publisher
+   */
+
+  public Flow.Publisher<CMKeyStoreChangeSet> changes()
+  {
+    return this.changes;
+  }
+
+  /**
+   * Close the change publisher. Subscribers receive {@code onComplete} after
+   * their pending change sets, and no further change sets are published.
+   */
+
+  public void closeChanges()
+  {
+    this.changes.close();
+  }
+
+  private void publishChanges(
+    final CMKeyStoreInstance previous,
+    final CMKeyStoreInstance current)
+  {
+    if (this.changes.isClosed() || !this.changes.hasSubscribers()) {
+      return;
+    }
+
+    final var changeSet =
+      CMKeyStoreChangeSets.compute(previous, current);
+
+    if (changeSet.isEmpty()) {
+      return;
+    }
+
+    LOG.debug(
+      "Changes: {} added, {} removed, {} changed",
+      Integer.valueOf(changeSet.added().size()),
+      Integer.valueOf(changeSet.removed().size()),
+      Integer.valueOf(changeSet.changed().size())
+    );
+    this.changes.publish(changeSet);
+  }
+
+  /**
+   * Reload only the files of the given aliases, using the most recently
+   * loaded keystore description. The index file is not reread.
+   *
+   * @param aliases The aliases
+   *
+   * @throws IOException On errors
+   * @see CMKeyStoreInstance#withReloadedAliases(CMKeyStoreDescription, Set)
+   */
+
+  public void reloadAliases(
+    final Set<String> aliases)
+    throws IOException
+  {
+    Objects.requireNonNull(aliases, "aliases");
+
+    LOG.trace("reloadAliases: {}", aliases);
+
+    final var lock = this.loadLock.readLock();
+    lock.lock();
+    try {
+      /*
+       * The new generation is derived from the current one. If another load
+       * publishes a generation while the files are being read, the work is
+       * repeated against the newly published generation so that the results
+       * of that load are not discarded.
+       */
+
+      while (true) {
+        final var previous =
+          this.generation.get();
+        final var currentDescription =
+          previous.description()
+            .orElseThrow(() -> {
+              return new IllegalStateException("The keystore has not been loaded.");
+            });
+
+        final var result =
+          previous.instance()
+            .withReloadedAliases(
+              currentDescription,
+              aliases,
+              this.effectiveLoadOptions()
+            );
+
+        final var next =
+          previous.next(
+            previous.description(),
+            previous.index(),
+            result.instance(),
+            result.failures()
+          );
+
+        if (this.generation.compareAndSet(previous, next)) {
+          this.publishChanges(previous.instance(), next.instance());
+          return;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private CMKeyStoreBatch writableBatch()
+  {
+    if (!this.loadOptions.writable()) {
+      throw readOnly();
+    }
+    return this.batch;
   }
 
   private static UnsupportedOperationException readOnly()
@@ -75,14 +322,22 @@ public final class CMKeyStore extends KeyStoreSpi
   public Key engineGetKey(
     final String alias,
     final char[] password)
+    throws UnrecoverableKeyException
   {
     LOG.trace("engineGetKey: {}", alias);
 
-    final var e = this.store.keyEntries().get(alias);
+    final var e = this.store().keyEntries().get(alias);
     if (e == null) {
       return null;
     }
-    return e.privateKey();
+
+    try {
+      return e.privateKey();
+    } catch (final UncheckedIOException ex) {
+      final var error = new UnrecoverableKeyException(ex.getMessage());
+      error.initCause(ex.getCause());
+      throw error;
+    }
   }
 
   @Override
@@ -91,43 +346,12 @@ public final class CMKeyStore extends KeyStoreSpi
   {
     LOG.trace("engineGetCertificateChain: {}", alias);
 
-    final var certificates = new ArrayList<Certificate>();
-    final var e = this.store.certEntriesByAlias().get(alias);
-    if (e == null) {
+    final var chain = this.store().certificateChain(alias);
+    if (chain.isEmpty()) {
       return null;
     }
 
-    certificates.add(e.certificate());
-
-    var eNow = e;
-    while (true) {
-      final var issuerPrincipal =
-        eNow.certificate().getIssuerX500Principal();
-      final var currentPrincipal =
-        eNow.certificate().getSubjectX500Principal();
-
-      final var issuerName =
-        issuerPrincipal.getName();
-      final var currentName =
-        currentPrincipal.getName();
-
-      if (Objects.equals(issuerName, currentName)) {
-        break;
-      }
-
-      final var eIssuer =
-        this.store.certEntriesByCN().get(issuerName);
-
-      if (eIssuer != null) {
-        certificates.add(eIssuer.certificate());
-        eNow = eIssuer;
-      } else {
-        break;
-      }
-    }
-
-    final var results = new Certificate[certificates.size()];
-    certificates.toArray(results);
+    final var results = chain.get().toArray(new Certificate[0]);
     LOG.trace("engineGetCertificateChain: return {} certificates", results.length);
     return results;
   }
@@ -138,7 +362,7 @@ public final class CMKeyStore extends KeyStoreSpi
   {
     LOG.trace("engineGetCertificate: {}", alias);
 
-    final var e = this.store.certEntriesByAlias().get(alias);
+    final var e = this.store().certEntriesByAlias().get(alias);
     if (e == null) {
       return null;
     }
@@ -151,25 +375,42 @@ public final class CMKeyStore extends KeyStoreSpi
   {
     LOG.trace("engineGetCreationDate: {}", alias);
 
-    final var ek = this.store.keyEntries().get(alias);
+    final var current = this.store();
+    final var ek = current.keyEntries().get(alias);
     if (ek != null) {
       return Date.from(ek.creationTime().toInstant());
     }
-    final var ec = this.store.certEntriesByAlias().get(alias);
+    final var ec = current.certEntriesByAlias().get(alias);
     if (ec != null) {
       return Date.from(ec.creationTime().toInstant());
     }
     return null;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Keys are written unencrypted, and the password is ignored.</p>
+   */
+
   @Override
   public void engineSetKeyEntry(
     final String alias,
     final Key key,
     final char[] password,
     final Certificate[] chain)
+    throws KeyStoreException
   {
-    throw readOnly();
+    Objects.requireNonNull(key, "key");
+
+    final var writable = this.writableBatch();
+    if (!(key instanceof final PrivateKey privateKey)) {
+      throw new KeyStoreException(
+        "Only private keys can be stored (received %s)"
+          .formatted(key.getClass().getName())
+      );
+    }
+    writable.setKey(alias, privateKey, chain);
   }
 
   @Override
@@ -177,31 +418,174 @@ public final class CMKeyStore extends KeyStoreSpi
     final String alias,
     final byte[] key,
     final Certificate[] chain)
+    throws KeyStoreException
   {
-    throw readOnly();
+    this.writableBatch().setEncryptedKey(alias, key, chain);
   }
 
   @Override
   public void engineSetCertificateEntry(
     final String alias,
     final Certificate cert)
+    throws KeyStoreException
   {
-    throw readOnly();
+    this.writableBatch().setCertificate(alias, cert);
   }
 
   @Override
   public void engineDeleteEntry(
     final String alias)
   {
-    throw readOnly();
+    this.writableBatch().delete(alias);
+  }
+
+  /**
+   * @return The number of modifications that have not been committed
+   */
+
+  public int pendingChanges()
+  {
+    return this.batch.size();
+  }
+
+  /**
+   * <p>Commit all modifications made since the previous commit. The files
+   * of new entries are written atomically, the index is rewritten once,
+   * and a new generation is published in which only the modified aliases
+   * are decoded.</p>
+   *
+   * <p>Commits are serialized: Modifications made while a commit is in
+   * progress are committed together by the next commit. If a commit fails,
+   * its modifications are retained and are included in the next
+   * commit.</p>
+   *
+   * <p>Commits are also serialized against loads. Loads may run
+   * concurrently with each other, but a commit waits for any loads in
+   * progress to finish, and no load starts until the commit has published
+   * its generation. A load therefore never publishes a generation read
+   * from the index before a commit rewrote it, and a commit never
+   * publishes a generation derived from one that a load has since
+   * replaced.</p>
+   *
+   * @throws IOException On errors
+   */
+
+  public void commit()
+    throws IOException
+  {
+    final var lock = this.loadLock.writeLock();
+    lock.lock();
+    try {
+      final var operations = this.batch.drain();
+      if (operations.isEmpty()) {
+        return;
+      }
+
+      LOG.debug(
+        "Committing {} modifications",
+        Integer.valueOf(operations.size())
+      );
+
+      try {
+        this.commitOperations(operations);
+      } catch (final IOException | RuntimeException e) {
+        this.batch.restore(operations);
+        throw e;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void commitOperations(
+    final List<CMKeyStoreBatch.OperationType> operations)
+    throws IOException
+  {
+    final var current =
+      this.generation.get();
+    final var index =
+      current.index()
+        .orElseThrow(() -> {
+          return new IOException(
+            "The keystore was not loaded from an index file with a CMKeyStoreLoadParameter."
+          );
+        });
+    final var description =
+      current.description()
+        .orElseThrow(() -> {
+          return new IOException("The keystore has not been loaded.");
+        });
+
+    /*
+     * The files of the new entries are written and decoded before the index
+     * is replaced, and so a failure at any point before the index is
+     * replaced leaves the keystore unchanged, both on disk and in memory.
+     */
+
+    final var applied =
+      CMKeyStoreBatch.apply(description, operations);
+    final var newDescription =
+      applied.description();
+
+    final var existing = current.instance().aliases();
+    final var aliases = new HashSet<String>();
+    for (final var alias : applied.aliases()) {
+      if (existing.contains(alias)
+          || newDescription.keys().containsKey(alias)
+          || newDescription.certificates().containsKey(alias)) {
+        aliases.add(alias);
+      }
+    }
+
+    final var result =
+      current.instance()
+        .withReloadedAliases(
+          newDescription,
+          aliases,
+          this.effectiveLoadOptions()
+        );
+
+    final var data = new ByteArrayOutputStream();
+    try {
+      this.serializers.serialize(index.file().toUri(), data, newDescription);
+    } catch (final SerializationException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+
+    CMKeyStoreAtomicFiles.write(
+      index.file(),
+      CMKeyStoreAtomicFiles.FileKind.PUBLIC,
+      data.toByteArray()
+    );
+
+    /*
+     * Loads are excluded for the duration of a commit, and so the generation
+     * from which this generation was derived is still the current one.
+     */
+
+    final var next =
+      current.next(
+        Optional.of(newDescription),
+        Optional.of(
+          new CMKeyStoreGeneration.Index(
+            index.file(),
+            CMKeyStoreEntryVersion.ofFile(index.file())
+          )
+        ),
+        result.instance(),
+        result.failures()
+      );
+    this.generation.set(next);
+    this.publishChanges(current.instance(), next.instance());
   }
 
   @Override
   public Enumeration<String> engineAliases()
   {
+    final var current = this.store();
     final var s = new HashSet<String>();
-    s.addAll(this.store.keyEntries().keySet());
-    s.addAll(this.store.certEntriesByAlias().keySet());
+    s.addAll(current.keyEntries().keySet());
+    s.addAll(current.certEntriesByAlias().keySet());
     return Collections.enumeration(s);
   }
 
@@ -209,35 +593,37 @@ public final class CMKeyStore extends KeyStoreSpi
   public boolean engineContainsAlias(
     final String alias)
   {
-    return this.store.certEntriesByAlias().containsKey(alias)
-      || this.store.keyEntries().containsKey(alias);
+    final var current = this.store();
+    return current.certEntriesByAlias().containsKey(alias)
+      || current.keyEntries().containsKey(alias);
   }
 
   @Override
   public int engineSize()
   {
-    return this.store.certEntriesByAlias().size() + this.store.keyEntries().size();
+    final var current = this.store();
+    return current.certEntriesByAlias().size() + current.keyEntries().size();
   }
 
   @Override
   public boolean engineIsKeyEntry(
     final String alias)
   {
-    return this.store.keyEntries().containsKey(alias);
+    return this.store().keyEntries().containsKey(alias);
   }
 
   @Override
   public boolean engineIsCertificateEntry(
     final String alias)
   {
-    return this.store.certEntriesByAlias().containsKey(alias);
+    return this.store().certEntriesByAlias().containsKey(alias);
   }
 
   @Override
   public String engineGetCertificateAlias(
     final Certificate cert)
   {
-    return this.store.certEntriesByAlias()
+    return this.store().certEntriesByAlias()
       .values()
       .stream()
       .filter(p -> Objects.equals(p.certificate(), cert))
@@ -254,17 +640,45 @@ public final class CMKeyStore extends KeyStoreSpi
   {
     LOG.trace("engineStore");
 
+    final var description =
+      this.generation.get()
+        .description()
+        .orElseThrow(() -> {
+          return new IOException("The keystore has not been loaded.");
+        });
+
     try {
       this.serializers.serialize(
         URI.create("urn:output"),
         stream,
-        this.description
+        this.fragments.unmerge(
+          description,
+          this.parsersFor(this.loadOptions)
+        )
       );
     } catch (final SerializationException e) {
       throw new IOException(e.getMessage(), e);
     }
   }
 
+  /**
+   * Determine whether the stream appears to contain an index, so that
+   * {@link KeyStore#getInstance(java.io.File, char[])} can select this
+   * keystore type. Only the first few bytes of the stream are examined, and
+   * nothing is validated or loaded.
+   *
+   * @see CMKeyStoreDescriptionFastParser#probe(InputStream)
+   */
+
+  @Override
+  public boolean engineProbe(
+    final InputStream stream)
+    throws IOException
+  {
+    LOG.trace("engineProbe");
+    return CMKeyStoreDescriptionFastParser.probe(stream);
+  }
+
   @Override
   public void engineLoad(
     final InputStream stream,
@@ -273,13 +687,490 @@ public final class CMKeyStore extends KeyStoreSpi
   {
     LOG.trace("engineLoad");
 
+    Objects.requireNonNull(stream, "stream");
+
+    final var lock = this.loadLock.readLock();
+    lock.lock();
     try {
-      this.description =
-        this.parsers.parse(URI.create("urn:source"), stream);
+      final var ownPassword =
+        Optional.ofNullable(password).map(char[]::clone);
+      this.loadPassword = ownPassword;
+
+      this.loadShared(
+        this.loadOptions,
+        ownPassword,
+        URI.create("urn:source"),
+        Optional.empty(),
+        ByteBuffer.wrap(stream.readAllBytes())
+      );
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Load the keystore from the given index data, using the given options
+   * with the given password as the fallback password. The given index, if
+   * any, is the file from which the data was read, and is published along
+   * with the description.
+   *
+   * @return The generation published by the load, or by the identical load
+   * that this load joined
+   */
+
+  private CMKeyStoreGeneration loadShared(
+    final CMKeyStoreLoadOptions options,
+    final Optional<char[]> password,
+    final URI source,
+    final Optional<CMKeyStoreGeneration.Index> index,
+    final ByteBuffer data)
+    throws IOException
+  {
+    /*
+     * Loads of identical index data are coalesced: If a load of the same
+     * data from the same source, with the same options and password, is
+     * already in progress, this thread waits for it and shares its result
+     * rather than parsing and decoding everything a second time. Options
+     * are compared before the password is applied, as the password
+     * provider derived from a password is a new value each time.
+     */
+
+    final var key =
+      new LoadKey(source, data, options, password.map(CharBuffer::wrap));
+    final var ours =
+      new CompletableFuture<CMKeyStoreGeneration>();
+    final var existing =
+      this.loadsInFlight.putIfAbsent(key, ours);
+
+    if (existing != null) {
+      LOG.debug("engineLoad: joining load already in progress");
+      return joinLoad(existing);
+    }
+
+    try {
+      final var generation =
+        this.loadAndPublish(
+          withPassword(options, password),
+          source,
+          index,
+          data
+        );
+      ours.complete(generation);
+      return generation;
+    } catch (final IOException | RuntimeException e) {
+      ours.completeExceptionally(e);
+      throw e;
+    } finally {
+      this.loadsInFlight.remove(key, ours);
+    }
+  }
+
+  private CMKeyStoreDescription parseDescription(
+    final CMKeyStoreLoadOptions options,
+    final URI source,
+    final ByteBuffer data,
+    final CMKeyStoreDescriptionListenerType listener)
+    throws IOException
+  {
+    final CMKeyStoreDescription description;
+    try (var input = new ByteArrayInputStream(
+      data.array(), data.arrayOffset(), data.remaining())) {
+      description =
+        this.parsersFor(options).parseStreaming(source, input, listener);
     } catch (final ParsingException e) {
+      if ("file".equals(source.getScheme())) {
+        throw new IOException(
+          "Could not parse the index file '%s': %s"
+            .formatted(Path.of(source), e.getMessage()),
+          e
+        );
+      }
       throw new IOException(e.getMessage(), e);
     }
-    this.store =
-      CMKeyStoreInstance.create(this.description);
+
+    return this.fragments.merge(
+      description,
+      this.parsersFor(options),
+      options.entrySource(),
+      listener
+    );
+  }
+
+  private CMKeyStoreDescriptionParsers parsersFor(
+    final CMKeyStoreLoadOptions options)
+  {
+    return options.validateIndex() ? this.parsers : this.parsersNonValidating;
+  }
+
+  private static CMKeyStoreGeneration joinLoad(
+    final CompletableFuture<CMKeyStoreGeneration> existing)
+    throws IOException
+  {
+    try {
+      return existing.join();
+    } catch (final CompletionException e) {
+      final var cause = e.getCause();
+      if (cause instanceof final IOException ex) {
+        throw new IOException(ex.getMessage(), ex);
+      }
+      if (cause instanceof final RuntimeException ex) {
+        throw ex;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private CMKeyStoreGeneration loadAndPublish(
+    final CMKeyStoreLoadOptions options,
+    final URI source,
+    final Optional<CMKeyStoreGeneration.Index> index,
+    final ByteBuffer data)
+    throws IOException
+  {
+    final var snapshotFile =
+      options.snapshotFile();
+
+    final byte[] digest;
+    final Optional<CMKeyStoreSnapshot> snapshot;
+    if (snapshotFile.isPresent()) {
+      digest = CMKeyStoreSnapshots.digest(data);
+      snapshot = CMKeyStoreSnapshots.read(
+        snapshotFile.get(),
+        digest,
+        options.snapshotPrivateKeys()
+      );
+    } else {
+      digest = null;
+      snapshot = Optional.empty();
+    }
+
+    /*
+     * The description held in a snapshot does not reflect any changes to
+     * the fragments included by the index, so the description is only
+     * taken from the snapshot if the index includes no fragments.
+     */
+
+    final var snapshotDescription =
+      snapshot.flatMap(CMKeyStoreSnapshot::description)
+        .filter(d -> !d.hasIncludes());
+
+    final var predecoded =
+      snapshot.map(CMKeyStoreSnapshot::entries)
+        .orElse(CMKeyStorePredecoded.empty());
+
+    final CMKeyStoreDescription newDescription;
+    final CMKeyStoreLoadResult result;
+    if (snapshotDescription.isPresent()) {
+      newDescription = snapshotDescription.get();
+      result = CMKeyStoreInstance.load(
+        newDescription,
+        this.store(),
+        options,
+        predecoded
+      );
+    } else if (options.streamIndex()) {
+      try (var streaming =
+             CMKeyStoreInstance.loadStreaming(
+               this.store(), options, predecoded)) {
+        newDescription =
+          this.parseDescription(options, source, data, streaming);
+        result = streaming.finish(newDescription);
+      }
+    } else {
+      newDescription = this.parseDescription(
+        options,
+        source,
+        data,
+        CMKeyStoreDescriptionListenerType.IGNORE
+      );
+      result = CMKeyStoreInstance.load(
+        newDescription,
+        this.store(),
+        options,
+        predecoded
+      );
+    }
+
+    final var snapshotCurrent =
+      snapshot.map(s -> {
+        return Boolean.valueOf(
+          s.current()
+            && s.description()
+            .map(d -> Boolean.valueOf(d.equals(newDescription)))
+            .orElse(Boolean.TRUE)
+            .booleanValue()
+        );
+      }).orElse(Boolean.FALSE);
+
+    if (snapshotFile.isPresent()
+        && !snapshotCurrent.booleanValue()
+        && result.failures().isEmpty()) {
+      try {
+        CMKeyStoreSnapshots.write(
+          snapshotFile.get(),
+          digest,
+          newDescription,
+          result.instance(),
+          options.snapshotPrivateKeys()
+        );
+      } catch (final IOException e) {
+        LOG.warn(
+          "Failed to write snapshot {}: {}",
+          snapshotFile.get(),
+          e.getMessage()
+        );
+      }
+    }
+
+    return this.publish(newDescription, index, result);
+  }
+
+  private CMKeyStoreGeneration publish(
+    final CMKeyStoreDescription newDescription,
+    final Optional<CMKeyStoreGeneration.Index> newIndex,
+    final CMKeyStoreLoadResult result)
+  {
+    while (true) {
+      final var previous =
+        this.generation.get();
+      final var next =
+        previous.next(
+          Optional.of(newDescription),
+          newIndex,
+          result.instance(),
+          result.failures()
+        );
+
+      if (this.generation.compareAndSet(previous, next)) {
+        this.publishChanges(previous.instance(), next.instance());
+        return next;
+      }
+    }
+  }
+
+  @Override
+  public void engineLoad(
+    final KeyStore.LoadStoreParameter param)
+    throws IOException, NoSuchAlgorithmException, CertificateException
+  {
+    final var lock = this.loadLock.readLock();
+    lock.lock();
+    try {
+      if (param instanceof final CMKeyStoreSharedSnapshotParameter shared) {
+        this.loadSharedSnapshot(shared.file());
+        return;
+      }
+      if (param instanceof final CMKeyStoreLoadParameter load) {
+        this.loadFile(load);
+        return;
+      }
+      if (param instanceof final CMKeyStoreReloadParameter reload) {
+        reload.generation().set(
+          this.loadFileWith(reload.file(), UnaryOperator.identity())
+        );
+        return;
+      }
+      if (param instanceof final CMKeyStoreDescriptionParameter direct) {
+        this.loadDescription(direct.description());
+        return;
+      }
+      super.engineLoad(param);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Load a description that was constructed in memory. There is no index
+   * data from which to derive a snapshot digest, and so snapshots are not
+   * used.
+   */
+
+  private void loadDescription(
+    final CMKeyStoreDescription description)
+    throws IOException
+  {
+    LOG.trace("loadDescription");
+
+    this.publish(
+      description,
+      Optional.empty(),
+      CMKeyStoreInstance.load(
+        description,
+        this.store(),
+        this.effectiveLoadOptions(),
+        CMKeyStorePredecoded.empty()
+      )
+    );
+  }
+
+  private CMKeyStoreGeneration loadFile(
+    final CMKeyStoreLoadParameter parameter)
+    throws IOException
+  {
+    final var file = parameter.file();
+    LOG.trace("loadFile: {}", file);
+
+    parameter.options().ifPresent(this::setLoadOptions);
+    this.loadPassword =
+      parameter.protection()
+        .map(KeyStore.PasswordProtection::getPassword)
+        .map(char[]::clone);
+
+    return this.loadFileWith(file, UnaryOperator.identity());
+  }
+
+  /**
+   * Load the index in the given file. The given function is applied to the
+   * keystore's options to obtain the options used for this load only; the
+   * keystore's options are not changed.
+   *
+   * @param file   The index file
+   * @param adjust A function applied to the options
+   *
+   * @return The generation published by the load
+   *
+   * @throws IOException On errors
+   */
+
+  public CMKeyStoreGeneration loadFileWith(
+    final Path file,
+    final UnaryOperator<CMKeyStoreLoadOptions> adjust)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(adjust, "adjust");
+
+    final var lock = this.loadLock.readLock();
+    lock.lock();
+    try {
+      /*
+       * The attributes of the index are read before the index itself, so that
+       * a change made while the index is being read is seen by the next load.
+       */
+
+      final var index =
+        Optional.of(
+          new CMKeyStoreGeneration.Index(
+            file,
+            CMKeyStoreEntryVersion.ofFile(file)
+          )
+        );
+      final var password =
+        this.loadPassword;
+      final var baseOptions =
+        adjust.apply(this.loadOptions);
+      final var options =
+        withPassword(baseOptions, password);
+
+      if (options.cachePolicy() == CMKeyStoreCachePolicy.FILE_ATTRIBUTES) {
+        final var unchanged = this.unchangedDescription(index.get());
+        if (unchanged.isPresent()) {
+          LOG.debug("Index {} is unchanged; not parsing it again", file);
+          return this.publish(
+            unchanged.get(),
+            index,
+            CMKeyStoreInstance.load(
+              unchanged.get(),
+              this.store(),
+              options,
+              CMKeyStorePredecoded.empty()
+            )
+          );
+        }
+      }
+
+      return this.loadShared(
+        baseOptions,
+        password,
+        file.toUri(),
+        index,
+        ByteBuffer.wrap(Files.readAllBytes(file))
+      );
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The description of the most recent load, if that load was of the same
+   * index file and the file is unchanged. The merged description does not
+   * reflect changes to any included fragments, so an index with includes
+   * is always parsed again.
+   */
+
+  private Optional<CMKeyStoreDescription> unchangedDescription(
+    final CMKeyStoreGeneration.Index index)
+  {
+    final var current = this.generation.get();
+    final var loaded = current.index();
+    if (loaded.isEmpty()) {
+      return Optional.empty();
+    }
+
+    final var previous = loaded.get();
+    if (!previous.file().equals(index.file())
+        || !previous.stamp().isUnchangedIn(index.stamp())) {
+      return Optional.empty();
+    }
+
+    return current.description()
+      .filter(d -> !d.hasIncludes());
+  }
+
+  private void loadSharedSnapshot(
+    final Path file)
+    throws IOException
+  {
+    LOG.trace("loadSharedSnapshot: {}", file);
+
+    final var sequence =
+      CMKeyStoreSnapshots.readSharedSequence(file);
+    final var loaded =
+      this.sharedSnapshotLoaded;
+
+    if (loaded.isPresent()
+        && loaded.get().file().equals(file)
+        && loaded.get().sequence() == sequence) {
+      LOG.debug("Shared snapshot {} is unchanged (sequence {})", file, sequence);
+      return;
+    }
+
+    final var options =
+      this.effectiveLoadOptions();
+    final var shared =
+      CMKeyStoreSnapshots.readShared(file, options.snapshotPrivateKeys());
+    final var snapshot =
+      shared.snapshot();
+    final var newDescription =
+      snapshot.description().orElseThrow();
+
+    final var result =
+      CMKeyStoreInstance.load(
+        newDescription,
+        this.store(),
+        options,
+        snapshot.entries()
+      );
+
+    this.publish(newDescription, Optional.empty(), result);
+    this.sharedSnapshotLoaded =
+      Optional.of(new SharedSnapshotLoaded(file, shared.sequence()));
+  }
+
+  private record SharedSnapshotLoaded(
+    Path file,
+    long sequence)
+  {
+
+  }
+
+  private record LoadKey(
+    URI source,
+    ByteBuffer data,
+    CMKeyStoreLoadOptions options,
+    Optional<CharBuffer> password)
+  {
+
   }
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Objects;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Functions to replace files atomically. Data is written to a temporary
+ * file in the same directory as the target file, the temporary file is
+ * synced to disk, the temporary file is renamed over the target file, and
+ * the directory is then synced to disk so that the rename itself survives
+ * a crash. Readers see either the old file or the new file, and never a
+ * partially written file.
+ */
+
+public final class CMKeyStoreAtomicFiles
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(CMKeyStoreAtomicFiles.class);
+
+  private static final SecureRandom RANDOM =
+    new SecureRandom();
+
+  private CMKeyStoreAtomicFiles()
+  {
+
+  }
+
+  /**
+   * The kind of file being written, which determines the permissions of the
+   * new file.
+   */
+
+  public enum FileKind
+  {
+    /**
+     * The file contains secrets, such as private keys, and is readable and
+     * writable only by its owner.
+     */
+
+    SECRET,
+
+    /**
+     * The file contains no secrets. A file that replaces an existing file
+     * keeps the permissions of the existing file, and a new file is created
+     * with the default permissions of the process.
+     */
+
+    PUBLIC
+  }
+
+  /**
+   * A function that writes the contents of a file.
+   */
+
+  public interface WriterType
+  {
+    /**
+     * Write the contents of the file.
+     *
+     * @param output The output stream
+     *
+     * @throws IOException On errors
+     */
+
+    void write(OutputStream output)
+      throws IOException;
+  }
+
+  /**
+   * Atomically replace the given file with the given data.
+   *
+   * @param file The file
+   * @param kind The kind of file
+   * @param data The data
+   *
+   * @throws IOException On errors
+   */
+
+  public static void write(
+    final Path file,
+    final FileKind kind,
+    final byte[] data)
+    throws IOException
+  {
+    Objects.requireNonNull(data, "data");
+    write(file, kind, output -> output.write(data));
+  }
+
+  /**
+   * Atomically replace the given file with the data written by the given
+   * writer.
+   *
+   * @param file   The file
+   * @param kind   The kind of file
+   * @param writer The writer
+   *
+   * @throws IOException On errors
+   */
+
+  public static void write(
+    final Path file,
+    final FileKind kind,
+    final WriterType writer)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(kind, "kind");
+    Objects.requireNonNull(writer, "writer");
+
+    final var directory =
+      file.toAbsolutePath().getParent();
+    final var temporary =
+      createTemporaryFile(directory, file, kind);
+
+    try {
+      try (var channel = FileChannel.open(temporary, WRITE)) {
+        final var output =
+          new BufferedOutputStream(Channels.newOutputStream(channel));
+
+        writer.write(output);
+        output.flush();
+        channel.force(true);
+      }
+      Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+
+    syncDirectory(directory);
+  }
+
+  /**
+   * Sync the given directory so that a rename within it is durable. Not
+   * all platforms allow directories to be opened, and so failing to open
+   * the directory is not an error.
+   */
+
+  private static void syncDirectory(
+    final Path directory)
+    throws IOException
+  {
+    final FileChannel channel;
+    try {
+      channel = FileChannel.open(directory, READ);
+    } catch (final IOException e) {
+      LOG.debug("Directory {} cannot be synced: {}", directory, e.getMessage());
+      return;
+    }
+
+    try (channel) {
+      channel.force(true);
+    }
+  }
+
+  private static Path createTemporaryFile(
+    final Path directory,
+    final Path file,
+    final FileKind kind)
+    throws IOException
+  {
+    final var name =
+      file.getFileName().toString();
+    final var posix =
+      directory.getFileSystem()
+        .supportedFileAttributeViews()
+        .contains("posix");
+
+    return switch (kind) {
+      case SECRET -> {
+        if (posix) {
+          yield Files.createTempFile(
+            directory,
+            name,
+            ".tmp",
+            PosixFilePermissions.asFileAttribute(
+              PosixFilePermissions.fromString("rw-------")
+            )
+          );
+        }
+        yield Files.createTempFile(directory, name, ".tmp");
+      }
+      case PUBLIC -> {
+        final var temporary = createPublicFile(directory, name);
+        if (posix) {
+          copyPermissions(file, temporary);
+        }
+        yield temporary;
+      }
+    };
+  }
+
+  /**
+   * Create a new file with the default permissions of the process.
+   * {@link Files#createTempFile(Path, String, String,
+   * java.nio.file.attribute.FileAttribute[])} cannot be used here, as it
+   * always restricts the file to its owner.
+   */
+
+  private static Path createPublicFile(
+    final Path directory,
+    final String name)
+    throws IOException
+  {
+    final var hex = HexFormat.of();
+    final var suffix = new byte[8];
+
+    while (true) {
+      RANDOM.nextBytes(suffix);
+      final var temporary =
+        directory.resolve("%s%s.tmp".formatted(name, hex.formatHex(suffix)));
+      try {
+        return Files.createFile(temporary);
+      } catch (final FileAlreadyExistsException e) {
+        // Try another name.
+      }
+    }
+  }
+
+  private static void copyPermissions(
+    final Path file,
+    final Path temporary)
+    throws IOException
+  {
+    try {
+      final var permissions =
+        Files.getFileAttributeView(file, PosixFileAttributeView.class)
+          .readAttributes()
+          .permissions();
+      Files.setPosixFilePermissions(temporary, permissions);
+    } catch (final NoSuchFileException e) {
+      // A new file keeps the default permissions.
+    }
+  }
+}
@@ -0,0 +1,501 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static com.io7m.canonmill.core.internal.CMKeyStoreAtomicFiles.FileKind.PUBLIC;
+import static com.io7m.canonmill.core.internal.CMKeyStoreAtomicFiles.FileKind.SECRET;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * <p>A batch of modifications to a writable keystore.</p>
+ *
+ * <p>Keys and certificates are encoded as PEM when the modification is
+ * made, so that values that cannot be encoded are rejected immediately.
+ * Files are only written when the batch is committed.</p>
+ *
+ * <p>Files are named by the alias and the digest of their contents, and so
+ * an existing file is never modified: A file named by the current index is
+ * never replaced, and the rewritten index is the single point at which a
+ * commit takes effect. A commit that fails before the index is replaced
+ * leaves, at worst, unreferenced files behind.</p>
+ */
+
+@ThreadSafe
+public final class CMKeyStoreBatch
+{
+  private static final Pattern UNSAFE_FILE_CHARACTERS =
+    Pattern.compile("[^A-Za-z0-9._-]");
+
+  @GuardedBy("this")
+  private final ArrayList<OperationType> operations;
+
+  /**
+   * An empty batch.
+   */
+
+  public CMKeyStoreBatch()
+  {
+    this.operations = new ArrayList<>();
+  }
+
+  /**
+   * A modification.
+   */
+
+  public sealed interface OperationType
+    permits SetKey, SetCertificate, Delete
+  {
+    /**
+     * @return The alias affected by the modification
+     */
+
+    String alias();
+  }
+
+  /**
+   * Set the key (and optionally the certificate chain) of an alias.
+   *
+   * @param alias        The alias
+   * @param key          The PEM-encoded key
+   * @param certificates The PEM-encoded certificates, if any
+   */
+
+  public record SetKey(
+    String alias,
+    byte[] key,
+    Optional<byte[]> certificates)
+    implements OperationType
+  {
+    /**
+     * Set the key (and optionally the certificate chain) of an alias.
+     *
+     * @param alias        The alias
+     * @param key          The PEM-encoded key
+     * @param certificates The PEM-encoded certificates, if any
+     */
+
+    public SetKey
+    {
+      Objects.requireNonNull(alias, "alias");
+      Objects.requireNonNull(key, "key");
+      Objects.requireNonNull(certificates, "certificates");
+    }
+  }
+
+  /**
+   * Set the certificates of an alias.
+   *
+   * @param alias        The alias
+   * @param certificates The PEM-encoded certificates
+   */
+
+  public record SetCertificate(
+    String alias,
+    byte[] certificates)
+    implements OperationType
+  {
+    /**
+     * Set the certificates of an alias.
+     *
+     * @param alias        The alias
+     * @param certificates The PEM-encoded certificates
+     */
+
+    public SetCertificate
+    {
+      Objects.requireNonNull(alias, "alias");
+      Objects.requireNonNull(certificates, "certificates");
+    }
+  }
+
+  /**
+   * Delete the key and certificates of an alias.
+   *
+   * @param alias The alias
+   */
+
+  public record Delete(
+    String alias)
+    implements OperationType
+  {
+    /**
+     * Delete the key and certificates of an alias.
+     *
+     * @param alias The alias
+     */
+
+    public Delete
+    {
+      Objects.requireNonNull(alias, "alias");
+    }
+  }
+
+  /**
+   * Set the key and certificate chain of an alias.
+   *
+   * @param alias The alias
+   * @param key   The key
+   * @param chain The certificate chain, if any
+   *
+   * @throws KeyStoreException If the key or certificates cannot be encoded
+   */
+
+  public void setKey(
+    final String alias,
+    final PrivateKey key,
+    final Certificate[] chain)
+    throws KeyStoreException
+  {
+    Objects.requireNonNull(alias, "alias");
+    Objects.requireNonNull(key, "key");
+
+    final var encoded = key.getEncoded();
+    if (!"PKCS#8".equals(key.getFormat()) || encoded == null) {
+      throw new KeyStoreException(
+        "Key for alias '%s' cannot be encoded as PKCS#8 (format %s)"
+          .formatted(alias, key.getFormat())
+      );
+    }
+
+    this.add(new SetKey(
+      alias,
+      CMKeyStorePEM.encode("PRIVATE KEY", encoded).getBytes(US_ASCII),
+      encodeChain(alias, chain)
+    ));
+  }
+
+  /**
+   * Set the encrypted key and certificate chain of an alias.
+   *
+   * @param alias The alias
+   * @param key   The PKCS#8 {@code EncryptedPrivateKeyInfo}
+   * @param chain The certificate chain, if any
+   *
+   * @throws KeyStoreException If the certificates cannot be encoded
+   */
+
+  public void setEncryptedKey(
+    final String alias,
+    final byte[] key,
+    final Certificate[] chain)
+    throws KeyStoreException
+  {
+    Objects.requireNonNull(alias, "alias");
+    Objects.requireNonNull(key, "key");
+
+    this.add(new SetKey(
+      alias,
+      CMKeyStorePEM.encode("ENCRYPTED PRIVATE KEY", key).getBytes(US_ASCII),
+      encodeChain(alias, chain)
+    ));
+  }
+
+  /**
+   * Set the certificate of an alias.
+   *
+   * @param alias       The alias
+   * @param certificate The certificate
+   *
+   * @throws KeyStoreException If the certificate cannot be encoded
+   */
+
+  public void setCertificate(
+    final String alias,
+    final Certificate certificate)
+    throws KeyStoreException
+  {
+    Objects.requireNonNull(alias, "alias");
+    Objects.requireNonNull(certificate, "certificate");
+
+    this.add(new SetCertificate(
+      alias,
+      encodeChain(alias, new Certificate[]{certificate}).orElseThrow()
+    ));
+  }
+
+  /**
+   * Delete the key and certificates of an alias.
+   *
+   * @param alias The alias
+   */
+
+  public void delete(
+    final String alias)
+  {
+    this.add(new Delete(alias));
+  }
+
+  private synchronized void add(
+    final OperationType operation)
+  {
+    this.operations.add(operation);
+  }
+
+  /**
+   * @return The number of modifications in the batch
+   */
+
+  public synchronized int size()
+  {
+    return this.operations.size();
+  }
+
+  /**
+   * Remove and return all modifications in the batch.
+   *
+   * @return The modifications, in the order they were made
+   */
+
+  public synchronized List<OperationType> drain()
+  {
+    final var results = List.copyOf(this.operations);
+    this.operations.clear();
+    return results;
+  }
+
+  /**
+   * Return modifications removed by {@link #drain()} to the batch, ahead
+   * of any modifications made since. This is used when a commit fails.
+   *
+   * @param drained The modifications
+   */
+
+  public synchronized void restore(
+    final List<OperationType> drained)
+  {
+    this.operations.addAll(0, drained);
+  }
+
+  private static Optional<byte[]> encodeChain(
+    final String alias,
+    final Certificate[] chain)
+    throws KeyStoreException
+  {
+    if (chain == null || chain.length == 0) {
+      return Optional.empty();
+    }
+
+    final var text = new StringBuilder();
+    for (final var certificate : chain) {
+      try {
+        final var encoded = certificate.getEncoded();
+        text.append(CMKeyStorePEM.encode("CERTIFICATE", encoded));
+      } catch (final CertificateEncodingException e) {
+        throw new KeyStoreException(
+          "Certificate for alias '%s' cannot be encoded: %s"
+            .formatted(alias, e.getMessage()),
+          e
+        );
+      }
+    }
+    return Optional.of(text.toString().getBytes(US_ASCII));
+  }
+
+  /**
+   * The result of applying modifications.
+   *
+   * @param description The description with the modifications applied
+   * @param aliases     The aliases affected by the modifications
+   */
+
+  public record Applied(
+    CMKeyStoreDescription description,
+    Set<String> aliases)
+  {
+    /**
+     * The result of applying modifications.
+     *
+     * @param description The description with the modifications applied
+     * @param aliases     The aliases affected by the modifications
+     */
+
+    public Applied
+    {
+      Objects.requireNonNull(description, "description");
+      aliases = Set.copyOf(aliases);
+    }
+  }
+
+  /**
+   * Write the files for the given modifications to the base directory of
+   * the given description, and return the description with the
+   * modifications applied. Each file is written atomically, and files
+   * that already exist are not written again.
+   *
+   * @param description The description
+   * @param operations  The modifications
+   *
+   * @return The result
+   *
+   * @throws IOException On errors
+   */
+
+  public static Applied apply(
+    final CMKeyStoreDescription description,
+    final List<OperationType> operations)
+    throws IOException
+  {
+    Objects.requireNonNull(description, "description");
+    Objects.requireNonNull(operations, "operations");
+
+    if (description.hasIncludes() || description.hasBundles()) {
+      throw new IOException(
+        "Keystores whose indexes include fragments or bundles cannot be modified."
+      );
+    }
+
+    final var base =
+      description.baseDirectory();
+    final var keys =
+      new HashMap<>(description.keys());
+    final var certificates =
+      new HashMap<>(description.certificates());
+    final var keyDigests =
+      new HashMap<>(description.keyDigests());
+    final var certificateDigests =
+      new HashMap<>(description.certificateDigests());
+    final var aliases =
+      new HashSet<String>();
+
+    Files.createDirectories(base);
+
+    for (final var operation : operations) {
+      final var alias = operation.alias();
+      aliases.add(alias);
+
+      switch (operation) {
+        case final SetKey set -> {
+          final var key = writeEntry(base, alias, "key", SECRET, set.key());
+          keys.put(alias, key.file());
+          keyDigests.put(alias, key.digest());
+
+          if (set.certificates().isPresent()) {
+            final var certificate =
+              writeEntry(base, alias, "crt", PUBLIC, set.certificates().get());
+            certificates.put(alias, certificate.file());
+            certificateDigests.put(alias, certificate.digest());
+          } else {
+            certificates.remove(alias);
+            certificateDigests.remove(alias);
+          }
+        }
+        case final SetCertificate set -> {
+          final var certificate =
+            writeEntry(base, alias, "crt", PUBLIC, set.certificates());
+          certificates.put(alias, certificate.file());
+          certificateDigests.put(alias, certificate.digest());
+        }
+        case final Delete delete -> {
+          keys.remove(alias);
+          keyDigests.remove(alias);
+          certificates.remove(alias);
+          certificateDigests.remove(alias);
+        }
+      }
+    }
+
+    return new Applied(
+      new CMKeyStoreDescription(
+        base,
+        keys,
+        certificates,
+        keyDigests,
+        certificateDigests,
+        List.of(),
+        List.of()
+      ),
+      aliases
+    );
+  }
+
+  /**
+   * The name of the file that holds an entry with the given contents. Files
+   * are named by the alias (with any characters that are not safe in file
+   * names replaced) and the digest of their contents.
+   *
+   * @param alias  The alias
+   * @param digest The digest of the contents of the file
+   * @param suffix The file suffix
+   *
+   * @return The file name
+   */
+
+  public static String entryFileName(
+    final String alias,
+    final CMKeyStoreEntryDigest digest,
+    final String suffix)
+  {
+    return "%s-%s.%s".formatted(
+      UNSAFE_FILE_CHARACTERS.matcher(alias).replaceAll("_"),
+      digest.value(),
+      suffix
+    );
+  }
+
+  private record Written(
+    Path file,
+    CMKeyStoreEntryDigest digest)
+  {
+
+  }
+
+  private static Written writeEntry(
+    final Path base,
+    final String alias,
+    final String suffix,
+    final CMKeyStoreAtomicFiles.FileKind kind,
+    final byte[] data)
+    throws IOException
+  {
+    final CMKeyStoreEntryDigest digest;
+    try {
+      digest = CMKeyStoreEntryDigest.of(
+        CMKeyStoreEntryDigest.DEFAULT_ALGORITHM,
+        data
+      );
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    final var file = base.resolve(entryFileName(alias, digest, suffix));
+    if (!Files.exists(file)) {
+      CMKeyStoreAtomicFiles.write(file, kind, data);
+    }
+    return new Written(file, digest);
+  }
+}
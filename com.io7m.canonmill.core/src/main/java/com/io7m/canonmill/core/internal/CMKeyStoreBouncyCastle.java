@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.EncryptionException;
+import org.bouncycastle.openssl.PEMEncryptedKeyPair;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.openssl.jcajce.JcePEMDecryptorProviderBuilder;
+import org.bouncycastle.pkcs.PKCS8EncryptedPrivateKeyInfo;
+import org.bouncycastle.pkcs.PKCSException;
+import org.bouncycastle.pkcs.jcajce.JcePKCSPBEInputDecryptorProviderBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Private key decoding using Bouncy Castle. All references to Bouncy Castle
+ * are confined to this class so that Bouncy Castle is only loaded when a
+ * key is encountered that the JDK cannot decode.
+ *
+ * @see CMKeyStorePrivateKeys
+ */
+
+final class CMKeyStoreBouncyCastle
+{
+  private static final BouncyCastleProvider PROVIDER =
+    new BouncyCastleProvider();
+
+  private CMKeyStoreBouncyCastle()
+  {
+
+  }
+
+  static PrivateKey decodePrivateKeyPEM(
+    final Path keyFile,
+    final byte[] data)
+    throws IOException
+  {
+    final var converter =
+      new JcaPEMKeyConverter();
+
+    try (var stream = new ByteArrayInputStream(data)) {
+      try (var reader = new PEMParser(new InputStreamReader(stream, UTF_8))) {
+        final var object = reader.readObject();
+        if (object == null) {
+          throw new IOException(
+            "Could not load anything from file '%s'".formatted(keyFile)
+          );
+        }
+
+        if (object instanceof final PEMKeyPair pair) {
+          if (pair.getPublicKeyInfo() == null) {
+            return converter.getPrivateKey(pair.getPrivateKeyInfo());
+          }
+          return converter.getKeyPair(pair).getPrivate();
+        }
+
+        if (object instanceof final PrivateKeyInfo keyInfo) {
+          return converter.getPrivateKey(keyInfo);
+        }
+
+        throw new IOException(
+          "Expected a private key, received: %s".formatted(object)
+        );
+      }
+    }
+  }
+
+  /**
+   * Decrypt a legacy OpenSSL encrypted private key (a PEM block with
+   * {@code Proc-Type} and {@code DEK-Info} headers).
+   */
+
+  static PrivateKey decryptPrivateKeyPEM(
+    final Path keyFile,
+    final byte[] data,
+    final char[] password)
+    throws IOException
+  {
+    final var converter =
+      new JcaPEMKeyConverter();
+
+    try (var stream = new ByteArrayInputStream(data)) {
+      try (var reader = new PEMParser(new InputStreamReader(stream, UTF_8))) {
+        final var object = reader.readObject();
+        if (object instanceof final PEMEncryptedKeyPair pair) {
+          final var decryptor =
+            new JcePEMDecryptorProviderBuilder()
+              .setProvider(PROVIDER)
+              .build(password);
+          final var decrypted =
+            pair.decryptKeyPair(decryptor);
+          if (decrypted.getPublicKeyInfo() == null) {
+            return converter.getPrivateKey(decrypted.getPrivateKeyInfo());
+          }
+          return converter.getKeyPair(decrypted).getPrivate();
+        }
+
+        throw new IOException(
+          "Expected an encrypted private key, received: %s".formatted(object)
+        );
+      }
+    } catch (final EncryptionException e) {
+      throw new IOException(
+        "Could not decrypt the private key in file '%s': %s"
+          .formatted(keyFile, e.getMessage()),
+        e
+      );
+    }
+  }
+
+  /**
+   * Decrypt a PKCS#8 {@code EncryptedPrivateKeyInfo} that the JDK cannot
+   * decrypt.
+   */
+
+  static PrivateKey decryptPrivateKeyPKCS8(
+    final Path keyFile,
+    final byte[] data,
+    final char[] password)
+    throws IOException
+  {
+    try {
+      final var info =
+        new PKCS8EncryptedPrivateKeyInfo(data);
+      final var decryptor =
+        new JcePKCSPBEInputDecryptorProviderBuilder()
+          .setProvider(PROVIDER)
+          .build(password);
+      return new JcaPEMKeyConverter()
+        .getPrivateKey(info.decryptPrivateKeyInfo(decryptor));
+    } catch (final PKCSException e) {
+      throw new IOException(
+        "Could not decrypt the private key in file '%s': %s"
+          .formatted(keyFile, e.getMessage()),
+        e
+      );
+    }
+  }
+
+  static PrivateKey decodePrivateKeyDER(
+    final Path keyFile,
+    final byte[] data)
+    throws IOException
+  {
+    final PrivateKeyInfo keyInfo;
+    try {
+      keyInfo = PrivateKeyInfo.getInstance(data);
+    } catch (final IllegalArgumentException | IllegalStateException e) {
+      throw new IOException(
+        "Expected an unencrypted PKCS#8 private key in file '%s': %s"
+          .formatted(keyFile, e.getMessage()),
+        e
+      );
+    }
+    return new JcaPEMKeyConverter().getPrivateKey(keyInfo);
+  }
+}
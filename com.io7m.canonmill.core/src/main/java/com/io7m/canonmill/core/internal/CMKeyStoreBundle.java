@@ -0,0 +1,500 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import com.io7m.canonmill.core.CMKeyStoreEntryKind;
+import com.io7m.canonmill.core.CMKeyStoreEntrySourceType;
+import com.io7m.canonmill.core.CMKeyStoreEntryVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.CERTIFICATE;
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.KEY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * <p>A packed bundle of keys and certificates.</p>
+ *
+ * <p>A bundle is a single file holding the contents of any number of key
+ * and certificate files. The file begins with a header that maps each
+ * alias to the kind, offset, length, and SHA-256 digest of its data, and the
+ * data of every member follows the header. Member data is stored exactly as
+ * it would appear in a standalone file, and so may be PEM or DER.</p>
+ *
+ * <p>A bundle is memory-mapped when opened, and only the header is read:
+ * The data of a member is only copied out of the mapping when the member is
+ * decoded. Because the header records the digest of every member, members
+ * that are unchanged since the previous load are not decoded at all.</p>
+ *
+ * <p>A bundle is the entry source for its own members. The version of a
+ * member is identified by the member's digest.</p>
+ */
+
+public final class CMKeyStoreBundle
+  implements CMKeyStoreEntrySourceType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(CMKeyStoreBundle.class);
+
+  private static final int MAGIC = 0x434D4244;
+  private static final int VERSION = 1;
+  private static final int DIGEST_SIZE = 32;
+  private static final byte KIND_KEY = 0;
+  private static final byte KIND_CERTIFICATE = 1;
+
+  private final Path file;
+  private final CMKeyStoreEntryVersion fileVersion;
+  private final ByteBuffer buffer;
+  private final List<Member> members;
+  private final Map<String, Member> keys;
+  private final Map<String, Member> certificates;
+
+  private CMKeyStoreBundle(
+    final Path inFile,
+    final CMKeyStoreEntryVersion inFileVersion,
+    final ByteBuffer inBuffer,
+    final List<Member> inMembers)
+  {
+    this.file =
+      Objects.requireNonNull(inFile, "file");
+    this.fileVersion =
+      Objects.requireNonNull(inFileVersion, "fileVersion");
+    this.buffer =
+      Objects.requireNonNull(inBuffer, "buffer");
+    this.members =
+      List.copyOf(Objects.requireNonNull(inMembers, "members"));
+
+    final var newKeys = new HashMap<String, Member>();
+    final var newCertificates = new HashMap<String, Member>();
+    for (final var member : this.members) {
+      switch (member.kind()) {
+        case KEY -> newKeys.put(member.alias(), member);
+        case CERTIFICATE -> newCertificates.put(member.alias(), member);
+      }
+    }
+    this.keys = Map.copyOf(newKeys);
+    this.certificates = Map.copyOf(newCertificates);
+  }
+
+  /**
+   * A single member of a bundle.
+   *
+   * @param kind   The kind of member
+   * @param alias  The alias
+   * @param offset The offset of the member data from the start of the file
+   * @param length The length of the member data
+   * @param digest The digest of the member data
+   */
+
+  public record Member(
+    CMKeyStoreEntryKind kind,
+    String alias,
+    int offset,
+    int length,
+    CMKeyStoreEntryDigest digest)
+  {
+    /**
+     * A single member of a bundle.
+     *
+     * @param kind   The kind of member
+     * @param alias  The alias
+     * @param offset The offset of the member data from the start of the file
+     * @param length The length of the member data
+     * @param digest The digest of the member data
+     */
+
+    public Member
+    {
+      Objects.requireNonNull(kind, "kind");
+      Objects.requireNonNull(alias, "alias");
+      Objects.requireNonNull(digest, "digest");
+    }
+  }
+
+  /**
+   * Open the bundle in the given file. The file is memory-mapped, and the
+   * header is read and checked.
+   *
+   * @param file The bundle file
+   *
+   * @return The bundle
+   *
+   * @throws IOException On I/O errors, or if the file is not a valid bundle
+   */
+
+  public static CMKeyStoreBundle open(
+    final Path file)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+
+    try (var channel = FileChannel.open(file, READ)) {
+      final var size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException(
+          "Bundle %s is too large (%d bytes)"
+            .formatted(file, Long.valueOf(size))
+        );
+      }
+
+      final var buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+      final var bundle =
+        new CMKeyStoreBundle(
+          file,
+          CMKeyStoreEntryVersion.ofFile(file),
+          buffer,
+          readHeader(buffer.duplicate())
+        );
+
+      LOG.debug(
+        "Opened bundle {} ({} members)",
+        file,
+        Integer.valueOf(bundle.members.size())
+      );
+      return bundle;
+    } catch (final BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException(
+        "Bundle %s is corrupt: %s".formatted(file, e.getMessage()),
+        e
+      );
+    }
+  }
+
+  private static List<Member> readHeader(
+    final ByteBuffer buffer)
+  {
+    if (buffer.getInt() != MAGIC) {
+      throw new IllegalArgumentException("Not a bundle.");
+    }
+
+    final var version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IllegalArgumentException(
+        "Unsupported bundle version %d".formatted(Integer.valueOf(version)));
+    }
+
+    final var count = buffer.getInt();
+    if (count < 0) {
+      throw new IllegalArgumentException(
+        "Invalid member count %d".formatted(Integer.valueOf(count)));
+    }
+
+    final var members = new ArrayList<Member>(Math.min(count, 4096));
+    final var keys = new TreeMap<String, Member>();
+    final var certificates = new TreeMap<String, Member>();
+
+    for (int index = 0; index < count; ++index) {
+      final var kind =
+        switch (buffer.get()) {
+          case KIND_KEY -> KEY;
+          case KIND_CERTIFICATE -> CERTIFICATE;
+          default -> throw new IllegalArgumentException("Invalid member kind.");
+        };
+
+      final var aliasLength = buffer.getInt();
+      if (aliasLength < 0 || aliasLength > buffer.remaining()) {
+        throw new IllegalArgumentException(
+          "Invalid length %d".formatted(Integer.valueOf(aliasLength)));
+      }
+      final var aliasBytes = new byte[aliasLength];
+      buffer.get(aliasBytes);
+      final var alias = new String(aliasBytes, UTF_8);
+
+      final var offset = buffer.getInt();
+      final var length = buffer.getInt();
+      if (offset < 0 || length < 0 || offset > buffer.limit() - length) {
+        throw new IllegalArgumentException(
+          "Member %s lies outside of the bundle".formatted(alias));
+      }
+
+      final var digestBytes = new byte[DIGEST_SIZE];
+      buffer.get(digestBytes);
+      final var digest =
+        new CMKeyStoreEntryDigest(
+          CMKeyStoreEntryDigest.DEFAULT_ALGORITHM,
+          HexFormat.of().formatHex(digestBytes)
+        );
+
+      final var member = new Member(kind, alias, offset, length, digest);
+      final var existing =
+        switch (kind) {
+          case KEY -> keys.put(alias, member);
+          case CERTIFICATE -> certificates.put(alias, member);
+        };
+      if (existing != null) {
+        throw new IllegalArgumentException(
+          "Duplicate %s member %s".formatted(kind, alias));
+      }
+      members.add(member);
+    }
+
+    if (buffer.getInt() != MAGIC) {
+      throw new IllegalArgumentException("Bundle header is truncated.");
+    }
+    return members;
+  }
+
+  /**
+   * @return The bundle file
+   */
+
+  public Path file()
+  {
+    return this.file;
+  }
+
+  /**
+   * @return The members of the bundle, in the order that they appear in the
+   * header
+   */
+
+  public List<Member> members()
+  {
+    return this.members;
+  }
+
+  /**
+   * Find a member of the bundle.
+   *
+   * @param kind  The kind of member
+   * @param alias The alias
+   *
+   * @return The member, if any
+   */
+
+  public Optional<Member> member(
+    final CMKeyStoreEntryKind kind,
+    final String alias)
+  {
+    Objects.requireNonNull(kind, "kind");
+    Objects.requireNonNull(alias, "alias");
+
+    return Optional.ofNullable(
+      switch (kind) {
+        case KEY -> this.keys.get(alias);
+        case CERTIFICATE -> this.certificates.get(alias);
+      }
+    );
+  }
+
+  /**
+   * Copy the data of the given member out of the bundle. This method may be
+   * called concurrently from any number of threads.
+   *
+   * @param member The member
+   *
+   * @return The member data
+   */
+
+  public byte[] read(
+    final Member member)
+  {
+    Objects.requireNonNull(member, "member");
+
+    final var data = new byte[member.length()];
+    this.buffer.get(member.offset(), data);
+    return data;
+  }
+
+  private Member requireMember(
+    final CMKeyStoreEntryKind kind,
+    final String alias)
+    throws NoSuchFileException
+  {
+    final var member = this.member(kind, alias);
+    if (member.isEmpty()) {
+      throw new NoSuchFileException(
+        "Bundle %s has no %s '%s'".formatted(this.file, kind, alias)
+      );
+    }
+    return member.get();
+  }
+
+  @Override
+  public CMKeyStoreEntryVersion version(
+    final CMKeyStoreEntryKind kind,
+    final String alias,
+    final Path memberFile)
+    throws IOException
+  {
+    final var member = this.requireMember(kind, alias);
+    return new CMKeyStoreEntryVersion(
+      Optional.of(member.digest()),
+      member.length(),
+      this.fileVersion.lastModified(),
+      this.fileVersion.creationTime()
+    );
+  }
+
+  @Override
+  public byte[] read(
+    final CMKeyStoreEntryKind kind,
+    final String alias,
+    final Path memberFile)
+    throws IOException
+  {
+    return this.read(this.requireMember(kind, alias));
+  }
+
+  /**
+   * Atomically write a bundle holding the given key and certificate data.
+   *
+   * @param file         The bundle file
+   * @param keys         The data of each key, by alias
+   * @param certificates The data of each certificate file, by alias
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void write(
+    final Path file,
+    final Map<String, byte[]> keys,
+    final Map<String, byte[]> certificates)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(keys, "keys");
+    Objects.requireNonNull(certificates, "certificates");
+
+    final var sortedKeys = new TreeMap<>(keys);
+    final var sortedCertificates = new TreeMap<>(certificates);
+
+    long headerSize = 4L + 4L + 4L + 4L;
+    for (final var alias : sortedKeys.keySet()) {
+      headerSize += memberHeaderSize(alias);
+    }
+    for (final var alias : sortedCertificates.keySet()) {
+      headerSize += memberHeaderSize(alias);
+    }
+
+    long dataSize = 0L;
+    for (final var data : sortedKeys.values()) {
+      dataSize += data.length;
+    }
+    for (final var data : sortedCertificates.values()) {
+      dataSize += data.length;
+    }
+    if (headerSize + dataSize > Integer.MAX_VALUE) {
+      throw new IOException("Bundle %s would be too large.".formatted(file));
+    }
+
+    final var directory =
+      file.toAbsolutePath().getParent();
+    final var temporary =
+      Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+    try {
+      try (var channel = FileChannel.open(temporary, WRITE)) {
+        final var output =
+          new DataOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(channel))
+          );
+
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(sortedKeys.size() + sortedCertificates.size());
+
+        var offset = (int) headerSize;
+        for (final var entry : sortedKeys.entrySet()) {
+          writeMemberHeader(output, KIND_KEY, entry, offset);
+          offset += entry.getValue().length;
+        }
+        for (final var entry : sortedCertificates.entrySet()) {
+          writeMemberHeader(output, KIND_CERTIFICATE, entry, offset);
+          offset += entry.getValue().length;
+        }
+        output.writeInt(MAGIC);
+
+        for (final var data : sortedKeys.values()) {
+          output.write(data);
+        }
+        for (final var data : sortedCertificates.values()) {
+          output.write(data);
+        }
+
+        output.flush();
+        channel.force(true);
+      }
+      Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+
+    LOG.debug(
+      "Wrote bundle {} ({} members)",
+      file,
+      Integer.valueOf(sortedKeys.size() + sortedCertificates.size())
+    );
+  }
+
+  private static long memberHeaderSize(
+    final String alias)
+  {
+    return 1L + 4L + alias.getBytes(UTF_8).length + 4L + 4L + DIGEST_SIZE;
+  }
+
+  private static void writeMemberHeader(
+    final DataOutputStream output,
+    final byte kind,
+    final Map.Entry<String, byte[]> entry,
+    final int offset)
+    throws IOException
+  {
+    final var alias = entry.getKey().getBytes(UTF_8);
+    final var data = entry.getValue();
+
+    output.writeByte(kind);
+    output.writeInt(alias.length);
+    output.write(alias);
+    output.writeInt(offset);
+    output.writeInt(data.length);
+
+    try {
+      final var digest =
+        CMKeyStoreEntryDigest.of(CMKeyStoreEntryDigest.DEFAULT_ALGORITHM, data);
+      output.write(HexFormat.of().parseHex(digest.value()));
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import com.io7m.canonmill.core.CMKeyStoreChangeSet;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+/**
+ * <p>A publisher of change sets that never blocks the publishing thread and
+ * never loses a change.</p>
+ *
+ * <p>Each subscriber holds at most one pending change set. A change set
+ * published while the subscriber already has a pending change set is merged
+ * into it, so a subscriber that does not keep up receives fewer, larger
+ * change sets that together describe every change.</p>
+ */
+
+@ThreadSafe
+public final class CMKeyStoreChangePublisher
+  implements Flow.Publisher<CMKeyStoreChangeSet>
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(CMKeyStoreChangePublisher.class);
+
+  private final Executor executor;
+  private final CopyOnWriteArrayList<Subscription> subscriptions;
+  private volatile boolean closed;
+
+  /**
+   * A publisher of change sets.
+   *
+   * @param inExecutor The executor on which subscribers are signalled
+   */
+
+  public CMKeyStoreChangePublisher(
+    final Executor inExecutor)
+  {
+    this.executor =
+      Objects.requireNonNull(inExecutor, "executor");
+    this.subscriptions =
+      new CopyOnWriteArrayList<>();
+  }
+
+  /**
+   * @return {@code true} if there is at least one subscriber
+   */
+
+  public boolean hasSubscribers()
+  {
+    return !this.subscriptions.isEmpty();
+  }
+
+  /**
+   * @return {@code true} if the publisher has been closed
+   */
+
+  public boolean isClosed()
+  {
+    return this.closed;
+  }
+
+  /**
+   * Publish a change set to every subscriber. The change set is merged into
+   * any change set that a subscriber has not yet received. Nothing is
+   * published if the publisher has been closed.
+   *
+   * @param changeSet The change set
+   */
+
+  public void publish(
+    final CMKeyStoreChangeSet changeSet)
+  {
+    Objects.requireNonNull(changeSet, "changeSet");
+
+    if (this.closed) {
+      return;
+    }
+    for (final var subscription : this.subscriptions) {
+      subscription.offer(changeSet);
+    }
+  }
+
+  /**
+   * Close the publisher. Each subscriber receives {@code onComplete} after
+   * its pending change set, if any.
+   */
+
+  public void close()
+  {
+    this.closed = true;
+    for (final var subscription : this.subscriptions) {
+      subscription.complete();
+    }
+  }
+
+  @Override
+  public void subscribe(
+    final Flow.Subscriber<? super CMKeyStoreChangeSet> subscriber)
+  {
+    Objects.requireNonNull(subscriber, "subscriber");
+
+    final var subscription = new Subscription(subscriber);
+    for (final var existing : this.subscriptions) {
+      if (existing.subscriber == subscriber) {
+        this.executor.execute(() -> {
+          subscriber.onSubscribe(subscription);
+          subscriber.onError(
+            new IllegalStateException("Duplicate subscription.")
+          );
+        });
+        return;
+      }
+    }
+
+    this.subscriptions.add(subscription);
+
+    /*
+     * A subscription that is added concurrently with closing the publisher
+     * may not be seen by close(), so it checks for itself.
+     */
+
+    if (this.closed) {
+      subscription.complete();
+    }
+
+    this.executor.execute(() -> {
+      subscriber.onSubscribe(subscription);
+      subscription.drain();
+    });
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[CMKeyStoreChangePublisher %d]"
+      .formatted(Integer.valueOf(this.subscriptions.size()));
+  }
+
+  private final class Subscription implements Flow.Subscription
+  {
+    private final Flow.Subscriber<? super CMKeyStoreChangeSet> subscriber;
+    @GuardedBy("this")
+    private CMKeyStoreChangeSet pending;
+    @GuardedBy("this")
+    private long demand;
+    @GuardedBy("this")
+    private boolean completing;
+    @GuardedBy("this")
+    private boolean finished;
+    @GuardedBy("this")
+    private Throwable error;
+
+    /*
+     * The subscription is created "draining", so that no signal can be
+     * delivered until onSubscribe has returned.
+     */
+
+    @GuardedBy("this")
+    private boolean draining = true;
+
+    Subscription(
+      final Flow.Subscriber<? super CMKeyStoreChangeSet> inSubscriber)
+    {
+      this.subscriber = inSubscriber;
+    }
+
+    @Override
+    public void request(
+      final long n)
+    {
+      synchronized (this) {
+        if (this.finished) {
+          return;
+        }
+        if (n <= 0L) {
+          this.error = new IllegalArgumentException(
+            "Requested a non-positive number of items (%d)."
+              .formatted(Long.valueOf(n))
+          );
+        } else {
+          final var sum = this.demand + n;
+          this.demand = sum < 0L ? Long.MAX_VALUE : sum;
+        }
+      }
+      this.schedule();
+    }
+
+    @Override
+    public void cancel()
+    {
+      synchronized (this) {
+        this.finished = true;
+        this.pending = null;
+      }
+      CMKeyStoreChangePublisher.this.subscriptions.remove(this);
+    }
+
+    void offer(
+      final CMKeyStoreChangeSet changeSet)
+    {
+      synchronized (this) {
+        if (this.finished || this.completing) {
+          return;
+        }
+        this.pending =
+          this.pending == null
+            ? changeSet
+            : CMKeyStoreChangeSets.merge(this.pending, changeSet);
+      }
+      this.schedule();
+    }
+
+    void complete()
+    {
+      synchronized (this) {
+        this.completing = true;
+      }
+      this.schedule();
+    }
+
+    private void schedule()
+    {
+      synchronized (this) {
+        if (this.draining || !this.isReady()) {
+          return;
+        }
+        this.draining = true;
+      }
+      CMKeyStoreChangePublisher.this.executor.execute(this::drain);
+    }
+
+    @GuardedBy("this")
+    private boolean isReady()
+    {
+      if (this.finished) {
+        return false;
+      }
+      if (this.error != null) {
+        return true;
+      }
+      if (this.pending != null) {
+        return this.demand > 0L;
+      }
+      return this.completing;
+    }
+
+    void drain()
+    {
+      while (true) {
+        final CMKeyStoreChangeSet item;
+        final Throwable failure;
+        synchronized (this) {
+          if (!this.isReady()) {
+            this.draining = false;
+            return;
+          }
+
+          if (this.error != null) {
+            failure = this.error;
+            item = null;
+            this.finished = true;
+          } else if (this.pending != null) {
+            failure = null;
+            item = this.pending;
+            this.pending = null;
+            --this.demand;
+          } else {
+            failure = null;
+            item = null;
+            this.finished = true;
+          }
+        }
+
+        if (item != null) {
+          this.deliver(item);
+        } else {
+          CMKeyStoreChangePublisher.this.subscriptions.remove(this);
+          if (failure != null) {
+            this.subscriber.onError(failure);
+          } else {
+            this.subscriber.onComplete();
+          }
+        }
+      }
+    }
+
+    private void deliver(
+      final CMKeyStoreChangeSet item)
+    {
+      try {
+        this.subscriber.onNext(item);
+      } catch (final RuntimeException e) {
+        LOG.warn(
+          "Subscriber {} failed; cancelling its subscription",
+          this.subscriber,
+          e
+        );
+        this.cancel();
+      }
+    }
+  }
+}
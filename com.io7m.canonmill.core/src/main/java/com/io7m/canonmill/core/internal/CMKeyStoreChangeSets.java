@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import com.io7m.canonmill.core.CMKeyStoreChangeSet;
+
+import java.util.HashSet;
+import java.util.Objects;
+
+/**
+ * Functions to compute change sets between keystore instances.
+ */
+
+public final class CMKeyStoreChangeSets
+{
+  private CMKeyStoreChangeSets()
+  {
+
+  }
+
+  /**
+   * Compute the set of aliases that changed between {@code previous} and
+   * {@code current}.
+   *
+   * @param previous The previous instance
+   * @param current  The current instance
+   *
+   * @return The change set
+   */
+
+  public static CMKeyStoreChangeSet compute(
+    final CMKeyStoreInstance previous,
+    final CMKeyStoreInstance current)
+  {
+    Objects.requireNonNull(previous, "previous");
+    Objects.requireNonNull(current, "current");
+
+    final var aliasesPrevious = previous.aliases();
+    final var aliasesCurrent = current.aliases();
+
+    final var added = new HashSet<String>();
+    final var removed = new HashSet<String>();
+    final var changed = new HashSet<String>();
+
+    for (final var alias : aliasesCurrent) {
+      if (!aliasesPrevious.contains(alias)) {
+        added.add(alias);
+      } else if (!sameContents(previous, current, alias)) {
+        changed.add(alias);
+      }
+    }
+
+    for (final var alias : aliasesPrevious) {
+      if (!aliasesCurrent.contains(alias)) {
+        removed.add(alias);
+      }
+    }
+
+    return new CMKeyStoreChangeSet(added, removed, changed);
+  }
+
+  /**
+   * Merge two consecutive change sets into a single change set that
+   * describes the changes between the state before {@code first} and the
+   * state after {@code second}.
+   *
+   * @param first  The earlier change set
+   * @param second The later change set
+   *
+   * @return The merged change set
+   */
+
+  public static CMKeyStoreChangeSet merge(
+    final CMKeyStoreChangeSet first,
+    final CMKeyStoreChangeSet second)
+  {
+    Objects.requireNonNull(first, "first");
+    Objects.requireNonNull(second, "second");
+
+    final var added = new HashSet<>(first.added());
+    final var removed = new HashSet<>(first.removed());
+    final var changed = new HashSet<>(first.changed());
+
+    for (final var alias : second.added()) {
+      if (removed.remove(alias)) {
+        changed.add(alias);
+      } else {
+        added.add(alias);
+      }
+    }
+
+    for (final var alias : second.removed()) {
+      changed.remove(alias);
+      if (!added.remove(alias)) {
+        removed.add(alias);
+      }
+    }
+
+    for (final var alias : second.changed()) {
+      if (!added.contains(alias)) {
+        changed.add(alias);
+      }
+    }
+
+    return new CMKeyStoreChangeSet(added, removed, changed);
+  }
+
+  private static boolean sameContents(
+    final CMKeyStoreInstance previous,
+    final CMKeyStoreInstance current,
+    final String alias)
+  {
+    final var keyPrevious = previous.keyEntries().get(alias);
+    final var keyCurrent = current.keyEntries().get(alias);
+
+    if (keyPrevious == null || keyCurrent == null) {
+      if (keyPrevious != keyCurrent) {
+        return false;
+      }
+    } else if (!keyPrevious.key().isSameAs(keyCurrent.key())) {
+      return false;
+    }
+
+    return Objects.equals(
+      previous.certificateChain(alias),
+      current.certificateChain(alias)
+    );
+  }
+}
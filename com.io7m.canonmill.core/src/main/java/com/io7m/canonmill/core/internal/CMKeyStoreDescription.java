@@ -16,32 +16,52 @@
 
 package com.io7m.canonmill.core.internal;
 
+import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
  * A description of a keystore.
  *
- * @param baseDirectory The base directory against which keys and certificates
- *                      are resolved
- * @param keys          The keys
- * @param certificates  The certificates
+ * @param baseDirectory      The base directory against which keys and
+ *                           certificates are resolved
+ * @param keys               The keys
+ * @param certificates       The certificates
+ * @param keyDigests         The expected digests of key files, by alias
+ * @param certificateDigests The expected digests of certificate files, by
+ *                           alias
+ * @param includes           The index fragments included by this index
+ * @param bundles            The packed bundles referenced by this index
  */
 
 public record CMKeyStoreDescription(
   Path baseDirectory,
   Map<String, Path> keys,
-  Map<String, Path> certificates)
+  Map<String, Path> certificates,
+  Map<String, CMKeyStoreEntryDigest> keyDigests,
+  Map<String, CMKeyStoreEntryDigest> certificateDigests,
+  List<Path> includes,
+  List<Path> bundles)
 {
   /**
    * A description of a keystore.
    *
-   * @param baseDirectory The base directory against which keys and certificates
-   *                      are resolved
-   * @param keys          The keys
-   * @param certificates  The certificates
+   * @param baseDirectory      The base directory against which keys and
+   *                           certificates are resolved
+   * @param keys               The keys
+   * @param certificates       The certificates
+   * @param keyDigests         The expected digests of key files, by alias
+   * @param certificateDigests The expected digests of certificate files, by
+   *                           alias
+   * @param includes           The index fragments included by this index
+   * @param bundles            The packed bundles referenced by this index
    */
 
   public CMKeyStoreDescription
@@ -74,6 +94,266 @@ public record CMKeyStoreDescription(
           Map.Entry::getKey,
           Map.Entry::getValue)
         );
+
+    keyDigests =
+      Map.copyOf(Objects.requireNonNull(keyDigests, "keyDigests"));
+    certificateDigests =
+      Map.copyOf(Objects.requireNonNull(certificateDigests, "certificateDigests"));
+
+    includes =
+      resolveFiles(baseDirectory, Objects.requireNonNull(includes, "includes"));
+    bundles =
+      resolveFiles(baseDirectory, Objects.requireNonNull(bundles, "bundles"));
+
+    checkDigests("key", keys, keyDigests);
+    checkDigests("certificate", certificates, certificateDigests);
+  }
+
+  /**
+   * A description of a keystore without bundles.
+   *
+   * @param baseDirectory      The base directory against which keys and
+   *                           certificates are resolved
+   * @param keys               The keys
+   * @param certificates       The certificates
+   * @param keyDigests         The expected digests of key files, by alias
+   * @param certificateDigests The expected digests of certificate files, by
+   *                           alias
+   * @param includes           The index fragments included by this index
+   */
+
+  public CMKeyStoreDescription(
+    final Path baseDirectory,
+    final Map<String, Path> keys,
+    final Map<String, Path> certificates,
+    final Map<String, CMKeyStoreEntryDigest> keyDigests,
+    final Map<String, CMKeyStoreEntryDigest> certificateDigests,
+    final List<Path> includes)
+  {
+    this(
+      baseDirectory,
+      keys,
+      certificates,
+      keyDigests,
+      certificateDigests,
+      includes,
+      List.of()
+    );
+  }
+
+  /**
+   * A description of a keystore without included fragments or bundles.
+   *
+   * @param baseDirectory      The base directory against which keys and
+   *                           certificates are resolved
+   * @param keys               The keys
+   * @param certificates       The certificates
+   * @param keyDigests         The expected digests of key files, by alias
+   * @param certificateDigests The expected digests of certificate files, by
+   *                           alias
+   */
+
+  public CMKeyStoreDescription(
+    final Path baseDirectory,
+    final Map<String, Path> keys,
+    final Map<String, Path> certificates,
+    final Map<String, CMKeyStoreEntryDigest> keyDigests,
+    final Map<String, CMKeyStoreEntryDigest> certificateDigests)
+  {
+    this(
+      baseDirectory,
+      keys,
+      certificates,
+      keyDigests,
+      certificateDigests,
+      List.of()
+    );
+  }
+
+  /**
+   * A description of a keystore without digests.
+   *
+   * @param baseDirectory The base directory against which keys and certificates
+   *                      are resolved
+   * @param keys          The keys
+   * @param certificates  The certificates
+   */
+
+  public CMKeyStoreDescription(
+    final Path baseDirectory,
+    final Map<String, Path> keys,
+    final Map<String, Path> certificates)
+  {
+    this(baseDirectory, keys, certificates, Map.of(), Map.of());
+  }
+
+  private static void checkDigests(
+    final String kind,
+    final Map<String, Path> entries,
+    final Map<String, CMKeyStoreEntryDigest> digests)
+  {
+    for (final var alias : digests.keySet()) {
+      if (!entries.containsKey(alias)) {
+        throw new IllegalArgumentException(
+          "A digest is provided for %s '%s', but no such %s exists"
+            .formatted(kind, alias, kind)
+        );
+      }
+    }
+  }
+
+  /**
+   * @return {@code true} if any entry has a digest
+   */
+
+  public boolean hasDigests()
+  {
+    return !this.keyDigests.isEmpty() || !this.certificateDigests.isEmpty();
+  }
+
+  /**
+   * @return {@code true} if the index includes any fragments
+   */
+
+  public boolean hasIncludes()
+  {
+    return !this.includes.isEmpty();
+  }
+
+  /**
+   * @return {@code true} if the index references any bundles
+   */
+
+  public boolean hasBundles()
+  {
+    return !this.bundles.isEmpty();
+  }
+
+  /**
+   * @return Every file named by the description: The files of keys and
+   * certificates, the included fragments, and the bundles
+   */
+
+  public Set<Path> files()
+  {
+    final var files = new HashSet<Path>();
+    files.addAll(this.keys.values());
+    files.addAll(this.certificates.values());
+    files.addAll(this.includes);
+    files.addAll(this.bundles);
+    return Set.copyOf(files);
+  }
+
+  /**
+   * @return {@code true} if the description can only be expressed in the
+   * v2 schema
+   */
+
+  public boolean requiresV2()
+  {
+    return this.hasDigests() || this.hasIncludes() || this.hasBundles();
+  }
+
+  /**
+   * @param newIncludes The included fragments
+   *
+   * @return This description with the given included fragments
+   */
+
+  public CMKeyStoreDescription withIncludes(
+    final List<Path> newIncludes)
+  {
+    return new CMKeyStoreDescription(
+      this.baseDirectory,
+      this.keys,
+      this.certificates,
+      this.keyDigests,
+      this.certificateDigests,
+      newIncludes,
+      this.bundles
+    );
+  }
+
+  /**
+   * Compute digests of every key and certificate file, using the
+   * {@link CMKeyStoreEntryDigest#DEFAULT_ALGORITHM}.
+   *
+   * @return A description with digests for every entry
+   *
+   * @throws IOException If any file cannot be read
+   */
+
+  public CMKeyStoreDescription withComputedDigests()
+    throws IOException
+  {
+    final var newKeyDigests =
+      new HashMap<String, CMKeyStoreEntryDigest>(this.keys.size());
+    final var newCertificateDigests =
+      new HashMap<String, CMKeyStoreEntryDigest>(this.certificates.size());
+
+    for (final var entry : this.keys.entrySet()) {
+      newKeyDigests.put(
+        entry.getKey(),
+        CMKeyStoreEntryDigest.ofFile(entry.getValue())
+      );
+    }
+    for (final var entry : this.certificates.entrySet()) {
+      newCertificateDigests.put(
+        entry.getKey(),
+        CMKeyStoreEntryDigest.ofFile(entry.getValue())
+      );
+    }
+
+    return new CMKeyStoreDescription(
+      this.baseDirectory,
+      this.keys,
+      this.certificates,
+      newKeyDigests,
+      newCertificateDigests,
+      this.includes,
+      this.bundles
+    );
+  }
+
+  /**
+   * Resolve the value of a {@code BaseDirectory} attribute. A relative
+   * directory is resolved against the directory containing the index if the
+   * index was read from a file, and against the current working directory
+   * otherwise.
+   *
+   * @param source The URI of the index
+   * @param base   The value of the attribute
+   *
+   * @return An absolute base directory
+   */
+
+  public static Path resolveBaseDirectory(
+    final URI source,
+    final String base)
+  {
+    Objects.requireNonNull(source, "source");
+    Objects.requireNonNull(base, "base");
+
+    final var path = Path.of(base);
+    if (path.isAbsolute() || !"file".equals(source.getScheme())) {
+      return path.toAbsolutePath();
+    }
+
+    final var parent = Path.of(source).getParent();
+    if (parent == null) {
+      return path.toAbsolutePath();
+    }
+    return parent.resolve(path).toAbsolutePath();
+  }
+
+  private static List<Path> resolveFiles(
+    final Path baseDirectory,
+    final List<Path> files)
+  {
+    return files.stream()
+      .map(p -> baseDirectory.resolve(p).toAbsolutePath())
+      .distinct()
+      .toList();
   }
 
   private static Map.Entry<String, Path> resolveMapEntry(
@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core.internal;
+
+import com.io7m.anethum.api.ParseSeverity;
+import com.io7m.anethum.api.ParseStatus;
+import com.io7m.anethum.api.ParsingException;
+import com.io7m.canonmill.core.CMKeyStoreSchemas;
+import com.io7m.canonmill.core.internal.v1.CM1FastParser;
+import com.io7m.canonmill.core.internal.v2.CM2FastParser;
+import com.io7m.jlexing.core.LexicalPosition;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * A non-validating keystore parser for trusted index files. The namespace of
+ * the root element selects the version-specific parser.
+ *
+ * @see CM1FastParser
+ * @see CM2FastParser
+ */
+
+public final class CMKeyStoreDescriptionFastParser
+  implements CMKeyStoreDescriptionParserType
+{
+  private static final String NAMESPACE_2 =
+    CMKeyStoreSchemas.schema2().namespace().toString();
+
+  private static final XMLInputFactory INPUTS =
+    createInputs();
+
+  /**
+   * The prefix shared by the namespaces of all versions of the index format.
+   */
+
+  private static final String NAMESPACE_PREFIX =
+    "urn:com.io7m.canonmill.keystore:";
+
+  /**
+   * The maximum number of bytes read when probing a stream.
+   */
+
+  public static final int PROBE_SIZE = 1024;
+
+  private final URI source;
+  private final InputStream stream;
+  private final Consumer<ParseStatus> statusConsumer;
+  private final CMKeyStoreDescriptionListenerType listener;
+
+  /**
+   * A non-validating keystore parser.
+   *
+   * @param inSource         The source URI
+   * @param inStream         The stream
+   * @param inStatusConsumer The status consumer
+   * @param inListener       The entry listener
+   */
+
+  public CMKeyStoreDescriptionFastParser(
+    final URI inSource,
+    final InputStream inStream,
+    final Consumer<ParseStatus> inStatusConsumer,
+    final CMKeyStoreDescriptionListenerType inListener)
+  {
+    this.source =
+      Objects.requireNonNull(inSource, "source");
+    this.stream =
+      Objects.requireNonNull(inStream, "stream");
+    this.statusConsumer =
+      Objects.requireNonNull(inStatusConsumer, "statusConsumer");
+    this.listener =
+      Objects.requireNonNull(inListener, "listener");
+  }
+
+  private static XMLInputFactory createInputs()
+  {
+    final var inputs = XMLInputFactory.newDefaultFactory();
+    inputs.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    inputs.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+    inputs.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    inputs.setProperty(
+      XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    return inputs;
+  }
+
+  /**
+   * Determine whether the given stream appears to contain an index. At most
+   * {@link #PROBE_SIZE} bytes are read, and the stream is not closed. The
+   * index is not validated: The stream is accepted if the root element,
+   * which must begin within the bytes read, is in the namespace of any
+   * version of the index format.
+   *
+   * @param stream The stream
+   *
+   * @return {@code true} if the stream appears to contain an index
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static boolean probe(
+    final InputStream stream)
+    throws IOException
+  {
+    Objects.requireNonNull(stream, "stream");
+
+    final var prefix = stream.readNBytes(PROBE_SIZE);
+    try {
+      final var reader =
+        INPUTS.createXMLStreamReader(new ByteArrayInputStream(prefix));
+
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+            final var namespace = reader.getNamespaceURI();
+            return namespace != null && namespace.startsWith(NAMESPACE_PREFIX);
+          }
+        }
+        return false;
+      } finally {
+        reader.close();
+      }
+    } catch (final XMLStreamException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public CMKeyStoreDescription execute()
+    throws ParsingException
+  {
+    final Optional<CMKeyStoreDescription> result;
+    final List<ParseStatus> errors;
+
+    try {
+      final var reader =
+        INPUTS.createXMLStreamReader(this.source.toString(), this.stream);
+
+      try {
+        reader.nextTag();
+
+        if (NAMESPACE_2.equals(reader.getNamespaceURI())) {
+          final var parser = new CM2FastParser(this.source, this.listener);
+          parser.parse(reader);
+          result = parser.result();
+          errors = parser.errors();
+        } else {
+          final var parser = new CM1FastParser(this.source, this.listener);
+          parser.parse(reader);
+          result = parser.result();
+          errors = parser.errors();
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (final XMLStreamException e) {
+      throw this.fail(List.of(this.exceptionStatus(e)));
+    }
+
+    if (result.isPresent()) {
+      return result.get();
+    }
+
+    if (errors.isEmpty()) {
+      throw this.fail(
+        List.of(
+          ParseStatus.builder("parse-error", "No keystore element was found.")
+            .withSeverity(ParseSeverity.PARSE_ERROR)
+            .withLexical(LexicalPosition.of(0, 0, Optional.of(this.source)))
+            .build()
+        )
+      );
+    }
+    throw this.fail(errors);
+  }
+
+  private ParseStatus exceptionStatus(
+    final XMLStreamException e)
+  {
+    final var location = e.getLocation();
+    final var line = location != null ? location.getLineNumber() : 0;
+    final var column = location != null ? location.getColumnNumber() : 0;
+
+    return ParseStatus.builder("parse-error", String.valueOf(e.getMessage()))
+      .withSeverity(ParseSeverity.PARSE_ERROR)
+      .withLexical(
+        LexicalPosition.of(
+          Math.max(0, line),
+          Math.max(0, column),
+          Optional.of(this.source)
+        )
+      )
+      .withException(e)
+      .build();
+  }
+
+  private ParsingException fail(
+    final List<ParseStatus> statuses)
+  {
+    for (final var status : statuses) {
+      this.statusConsumer.accept(status);
+    }
+    return new ParsingException(
+      statuses.get(0).message(),
+      List.copyOf(statuses)
+    );
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    this.stream.close();
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core.internal;
+
+import com.io7m.canonmill.core.CMKeyStoreEntryKind;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * A listener that receives the entries of an index as they are parsed,
+ * before the parse of the complete index has finished. Entries are delivered
+ * in document order on the parsing thread. An index that is later found to
+ * be invalid may already have delivered some entries, and so listeners must
+ * be prepared to discard any work that they have started.
+ */
+
+@FunctionalInterface
+public interface CMKeyStoreDescriptionListenerType
+{
+  /**
+   * A listener that ignores all entries.
+   */
+
+  CMKeyStoreDescriptionListenerType IGNORE = (kind, alias, file, digest) -> {
+
+  };
+
+  /**
+   * An entry was parsed.
+   *
+   * @param kind   The kind of entry
+   * @param alias  The entry alias
+   * @param file   The entry file, resolved against the base directory
+   * @param digest The expected digest of the entry file, if any
+   */
+
+  void onEntry(
+    CMKeyStoreEntryKind kind,
+    String alias,
+    Path file,
+    Optional<CMKeyStoreEntryDigest> digest);
+}
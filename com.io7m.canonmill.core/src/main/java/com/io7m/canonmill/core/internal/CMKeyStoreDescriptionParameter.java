@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import java.security.KeyStore;
+import java.util.Objects;
+
+/**
+ * A parameter that instructs a keystore to load the given description
+ * directly, without an index file.
+ *
+ * @param description The description
+ */
+
+public record CMKeyStoreDescriptionParameter(
+  CMKeyStoreDescription description)
+  implements KeyStore.LoadStoreParameter
+{
+  /**
+   * A parameter that instructs a keystore to load a description.
+   *
+   * @param description The description
+   */
+
+  public CMKeyStoreDescriptionParameter
+  {
+    Objects.requireNonNull(description, "description");
+  }
+
+  @Override
+  public KeyStore.ProtectionParameter getProtectionParameter()
+  {
+    return null;
+  }
+}
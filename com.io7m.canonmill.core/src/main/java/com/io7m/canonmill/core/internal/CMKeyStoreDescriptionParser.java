@@ -19,24 +19,33 @@ package com.io7m.canonmill.core.internal;
 import com.io7m.anethum.api.ParseSeverity;
 import com.io7m.anethum.api.ParseStatus;
 import com.io7m.anethum.api.ParsingException;
-import com.io7m.blackthorne.core.BTException;
+import com.io7m.blackthorne.core.BTContentHandler;
+import com.io7m.blackthorne.core.BTElementHandlerConstructorType;
 import com.io7m.blackthorne.core.BTParseError;
 import com.io7m.blackthorne.core.BTPreserveLexical;
-import com.io7m.blackthorne.jxe.BlackthorneJXE;
-import com.io7m.canonmill.core.CMKeyStoreSchemas;
+import com.io7m.blackthorne.core.BTQualifiedName;
 import com.io7m.canonmill.core.internal.v1.CM1KeystoreParser;
+import com.io7m.canonmill.core.internal.v2.CM2KeystoreParser;
+import com.io7m.jlexing.core.LexicalPosition;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 /**
- * A keystore parser.
+ * A keystore parser. Parsing is performed by a validating parser taken from
+ * a {@link CMKeyStoreParserPool}, with the version-specific element handlers
+ * selected by the namespace of the root element.
  */
 
 public final class CMKeyStoreDescriptionParser
@@ -45,65 +54,125 @@ public final class CMKeyStoreDescriptionParser
   private final URI source;
   private final InputStream stream;
   private final Consumer<ParseStatus> statusConsumer;
+  private final CMKeyStoreDescriptionListenerType listener;
+  private final CMKeyStoreParserPool pool;
 
   /**
    * A keystore parser.
    *
+   * @param inPool           The pool of validating parsers
    * @param inSource         The source URI
    * @param inStream         The stream
    * @param inStatusConsumer The status consumer
+   * @param inListener       The entry listener
    */
 
   public CMKeyStoreDescriptionParser(
+    final CMKeyStoreParserPool inPool,
     final URI inSource,
     final InputStream inStream,
-    final Consumer<ParseStatus> inStatusConsumer)
+    final Consumer<ParseStatus> inStatusConsumer,
+    final CMKeyStoreDescriptionListenerType inListener)
   {
+    this.pool =
+      Objects.requireNonNull(inPool, "pool");
     this.source =
       Objects.requireNonNull(inSource, "source");
     this.stream =
       Objects.requireNonNull(inStream, "stream");
     this.statusConsumer =
       Objects.requireNonNull(inStatusConsumer, "statusConsumer");
+    this.listener =
+      Objects.requireNonNull(inListener, "listener");
   }
 
   @Override
   public CMKeyStoreDescription execute()
     throws ParsingException
   {
-    try {
-      return BlackthorneJXE.parse(
+    final Map<BTQualifiedName,
+      BTElementHandlerConstructorType<?, ? extends CMKeyStoreDescription>>
+      roots =
+      Map.of(
+        CM1KeystoreParser.element("Keystore"),
+        c -> new CM1KeystoreParser(this.source, this.listener, c),
+        CM2KeystoreParser.element("Keystore"),
+        c -> new CM2KeystoreParser(this.source, this.listener, c)
+      );
+
+    final var errors =
+      new ArrayList<ParseStatus>();
+    final var handler =
+      new BTContentHandler<CMKeyStoreDescription>(
         this.source,
-        this.stream,
-        Map.ofEntries(
-          Map.entry(
-            CM1KeystoreParser.element("Keystore"),
-            CM1KeystoreParser::new
-          )
-        ),
-        CMKeyStoreSchemas.schemas(),
+        e -> errors.add(mapParseError(e)),
+        roots,
         BTPreserveLexical.PRESERVE_LEXICAL_INFORMATION
       );
-    } catch (final BTException e) {
-      final var statuses =
-        e.errors()
-          .stream()
-          .map(CMKeyStoreDescriptionParser::mapParseError)
-          .collect(Collectors.toList());
-
-      for (final var status : statuses) {
+    final var filter =
+      new LocatingFilter();
+
+    try {
+      final var parser = this.pool.acquire();
+      try {
+        filter.setParent(parser.getXMLReader());
+        filter.setContentHandler(handler);
+        filter.setErrorHandler(handler);
+
+        final var input = new InputSource(this.stream);
+        input.setSystemId(this.source.toString());
+        filter.parse(input);
+      } finally {
+        this.pool.release(parser);
+      }
+    } catch (final SAXException e) {
+      if (errors.isEmpty()) {
+        errors.add(this.exceptionStatus(e, filter));
+      }
+    } catch (final IOException e) {
+      errors.add(this.exceptionStatus(e, filter));
+    }
+
+    final var result = handler.result();
+    if (!handler.failed() && result.isPresent()) {
+      for (final var status : errors) {
         this.statusConsumer.accept(status);
       }
+      return result.get();
+    }
 
-      throw new ParsingException(e.getMessage(), List.copyOf(statuses));
+    if (errors.isEmpty()) {
+      errors.add(
+        ParseStatus.builder("parse-error", "No keystore element was found.")
+          .withSeverity(ParseSeverity.PARSE_ERROR)
+          .withLexical(filter.position(this.source))
+          .build()
+      );
     }
+    throw this.fail(errors);
   }
 
-  @Override
-  public void close()
-    throws IOException
+  private ParseStatus exceptionStatus(
+    final Exception e,
+    final LocatingFilter filter)
   {
-    this.stream.close();
+    return ParseStatus.builder("parse-error", String.valueOf(e.getMessage()))
+      .withSeverity(ParseSeverity.PARSE_ERROR)
+      .withLexical(filter.position(this.source))
+      .withException(e)
+      .build();
+  }
+
+  private ParsingException fail(
+    final List<ParseStatus> statuses)
+  {
+    for (final var status : statuses) {
+      this.statusConsumer.accept(status);
+    }
+    return new ParsingException(
+      statuses.get(0).message(),
+      List.copyOf(statuses)
+    );
   }
 
   private static ParseStatus mapParseError(
@@ -123,4 +192,48 @@ public final class CMKeyStoreDescriptionParser
       case WARNING -> ParseSeverity.PARSE_WARNING;
     };
   }
+
+  /**
+   * A filter that remembers the document locator, so that errors that are
+   * not reported by the parser itself, such as I/O errors, can still be
+   * given the position at which parsing stopped.
+   */
+
+  private static final class LocatingFilter extends XMLFilterImpl
+  {
+    private Locator locator;
+
+    LocatingFilter()
+    {
+
+    }
+
+    @Override
+    public void setDocumentLocator(
+      final Locator inLocator)
+    {
+      this.locator = inLocator;
+      super.setDocumentLocator(inLocator);
+    }
+
+    LexicalPosition<URI> position(
+      final URI source)
+    {
+      if (this.locator == null) {
+        return LexicalPosition.of(0, 0, Optional.of(source));
+      }
+      return LexicalPosition.of(
+        Math.max(0, this.locator.getLineNumber()),
+        Math.max(0, this.locator.getColumnNumber()),
+        Optional.of(source)
+      );
+    }
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    this.stream.close();
+  }
 }
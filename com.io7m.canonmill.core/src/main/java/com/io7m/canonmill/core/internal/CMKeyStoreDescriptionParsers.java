@@ -18,9 +18,12 @@ package com.io7m.canonmill.core.internal;
 
 import com.io7m.anethum.api.ParseStatus;
 import com.io7m.anethum.api.ParserFactoryType;
+import com.io7m.anethum.api.ParsingException;
 
 import java.io.InputStream;
 import java.net.URI;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.function.Consumer;
 
 /**
@@ -30,13 +33,58 @@ import java.util.function.Consumer;
 public final class CMKeyStoreDescriptionParsers
   implements ParserFactoryType<Void, CMKeyStoreDescription, CMKeyStoreDescriptionParserType>
 {
+  private final Optional<CMKeyStoreParserPool> pool;
+
   /**
-   * Keystore parsers.
+   * Keystore parsers, using the shared pool of validating parsers.
    */
 
   public CMKeyStoreDescriptionParsers()
   {
+    this(CMKeyStoreParserPool.shared());
+  }
 
+  /**
+   * Keystore parsers.
+   *
+   * @param inPool The pool of validating parsers
+   */
+
+  public CMKeyStoreDescriptionParsers(
+    final CMKeyStoreParserPool inPool)
+  {
+    this(Optional.of(inPool));
+  }
+
+  private CMKeyStoreDescriptionParsers(
+    final Optional<CMKeyStoreParserPool> inPool)
+  {
+    this.pool = Objects.requireNonNull(inPool, "pool");
+  }
+
+  /**
+   * Keystore parsers that perform no schema validation. These parsers are
+   * considerably cheaper than the validating parsers, but will accept
+   * malformed index files that the schema would reject, and so should only
+   * be used for index files produced by trusted tooling.
+   *
+   * @return Non-validating keystore parsers
+   *
+   * @see CMKeyStoreDescriptionFastParser
+   */
+
+  public static CMKeyStoreDescriptionParsers nonValidating()
+  {
+    return new CMKeyStoreDescriptionParsers(Optional.empty());
+  }
+
+  /**
+   * @return {@code true} if the parsers validate index files
+   */
+
+  public boolean isValidating()
+  {
+    return this.pool.isPresent();
   }
 
   @Override
@@ -46,6 +94,74 @@ public final class CMKeyStoreDescriptionParsers
     final InputStream stream,
     final Consumer<ParseStatus> statusConsumer)
   {
-    return new CMKeyStoreDescriptionParser(source, stream, statusConsumer);
+    return this.createStreamingParser(
+      source,
+      stream,
+      statusConsumer,
+      CMKeyStoreDescriptionListenerType.IGNORE
+    );
+  }
+
+  /**
+   * Create a parser that delivers entries to the given listener as they are
+   * parsed, in addition to returning the complete description.
+   *
+   * @param source         The source URI
+   * @param stream         The input stream
+   * @param statusConsumer The status consumer
+   * @param listener       The entry listener
+   *
+   * @return A parser
+   */
+
+  public CMKeyStoreDescriptionParserType createStreamingParser(
+    final URI source,
+    final InputStream stream,
+    final Consumer<ParseStatus> statusConsumer,
+    final CMKeyStoreDescriptionListenerType listener)
+  {
+    if (this.pool.isPresent()) {
+      return new CMKeyStoreDescriptionParser(
+        this.pool.get(),
+        source,
+        stream,
+        statusConsumer,
+        listener
+      );
+    }
+    return new CMKeyStoreDescriptionFastParser(
+      source,
+      stream,
+      statusConsumer,
+      listener
+    );
+  }
+
+  /**
+   * Parse a description, delivering entries to the given listener as they
+   * are parsed.
+   *
+   * @param source   The source URI
+   * @param stream   The input stream
+   * @param listener The entry listener
+   *
+   * @return The parsed description
+   *
+   * @throws ParsingException On errors
+   */
+
+  public CMKeyStoreDescription parseStreaming(
+    final URI source,
+    final InputStream stream,
+    final CMKeyStoreDescriptionListenerType listener)
+    throws ParsingException
+  {
+    Objects.requireNonNull(source, "source");
+    Objects.requireNonNull(stream, "stream");
+    Objects.requireNonNull(listener, "listener");
+
+    return this.createStreamingParser(source, stream, status -> {
+
+    }, listener).execute();
   }
 }
@@ -18,6 +18,7 @@ package com.io7m.canonmill.core.internal;
 
 import com.io7m.anethum.api.SerializationException;
 import com.io7m.canonmill.core.internal.v1.CM1Serializer;
+import com.io7m.canonmill.core.internal.v2.CM2Serializer;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
@@ -25,7 +26,11 @@ import java.io.OutputStream;
 import java.util.Objects;
 
 /**
- * A keystore serializer.
+ * A keystore serializer. Descriptions are serialized using the oldest
+ * schema version that can represent them: descriptions with digests,
+ * included fragments, or bundles require the v2 schema, and all other
+ * descriptions are written using the v1 schema so that they remain readable
+ * by older versions.
  */
 
 public final class CMKeyStoreDescriptionSerializer
@@ -52,7 +57,11 @@ public final class CMKeyStoreDescriptionSerializer
     throws SerializationException
   {
     try {
-      new CM1Serializer(this.stream).serialize(value);
+      if (value.requiresV2()) {
+        new CM2Serializer(this.stream).serialize(value);
+      } else {
+        new CM1Serializer(this.stream).serialize(value);
+      }
     } catch (final XMLStreamException e) {
       throw new SerializationException(e.getMessage(), e);
     }
@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core.internal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A digest of the contents of an entry file. Digests are written in index
+ * files as {@code ALGORITHM:HEX}, such as {@code SHA-256:9f86d0...}, where
+ * {@code ALGORITHM} is the name of a {@link MessageDigest} algorithm.
+ *
+ * @param algorithm The digest algorithm
+ * @param value     The digest value, as lowercase hexadecimal
+ */
+
+public record CMKeyStoreEntryDigest(
+  String algorithm,
+  String value)
+{
+  /**
+   * The algorithm used for digests computed by canonmill.
+   */
+
+  public static final String DEFAULT_ALGORITHM = "SHA-256";
+
+  private static final Pattern VALID_ALGORITHM =
+    Pattern.compile("[A-Za-z0-9\\-]+");
+  private static final Pattern VALID_VALUE =
+    Pattern.compile("[0-9a-f]+");
+
+  /**
+   * A digest of the contents of an entry file.
+   *
+   * @param algorithm The digest algorithm
+   * @param value     The digest value, as lowercase hexadecimal
+   */
+
+  public CMKeyStoreEntryDigest
+  {
+    Objects.requireNonNull(algorithm, "algorithm");
+    Objects.requireNonNull(value, "value");
+
+    if (!VALID_ALGORITHM.matcher(algorithm).matches()) {
+      throw new IllegalArgumentException(
+        "Digest algorithm '%s' must match %s"
+          .formatted(algorithm, VALID_ALGORITHM)
+      );
+    }
+
+    value = value.toLowerCase(Locale.ROOT);
+    if (!VALID_VALUE.matcher(value).matches()) {
+      throw new IllegalArgumentException(
+        "Digest value '%s' must match %s".formatted(value, VALID_VALUE)
+      );
+    }
+  }
+
+  /**
+   * Parse a digest in {@code ALGORITHM:HEX} form.
+   *
+   * @param text The text
+   *
+   * @return The digest
+   *
+   * @throws IllegalArgumentException If the text is malformed
+   */
+
+  public static CMKeyStoreEntryDigest parse(
+    final String text)
+  {
+    Objects.requireNonNull(text, "text");
+
+    final var separator = text.lastIndexOf(':');
+    if (separator < 0) {
+      throw new IllegalArgumentException(
+        "Digest '%s' must be of the form ALGORITHM:HEX".formatted(text)
+      );
+    }
+    return new CMKeyStoreEntryDigest(
+      text.substring(0, separator),
+      text.substring(separator + 1)
+    );
+  }
+
+  /**
+   * Compute a digest of the given data.
+   *
+   * @param algorithm The digest algorithm
+   * @param data      The data
+   *
+   * @return The digest
+   *
+   * @throws NoSuchAlgorithmException If the algorithm is not supported
+   */
+
+  public static CMKeyStoreEntryDigest of(
+    final String algorithm,
+    final byte[] data)
+    throws NoSuchAlgorithmException
+  {
+    Objects.requireNonNull(algorithm, "algorithm");
+    Objects.requireNonNull(data, "data");
+
+    final var digest = MessageDigest.getInstance(algorithm);
+    return new CMKeyStoreEntryDigest(
+      algorithm,
+      HexFormat.of().formatHex(digest.digest(data))
+    );
+  }
+
+  /**
+   * Compute a digest of the contents of the given file using the
+   * {@link #DEFAULT_ALGORITHM}.
+   *
+   * @param file The file
+   *
+   * @return The digest
+   *
+   * @throws IOException On errors
+   */
+
+  public static CMKeyStoreEntryDigest ofFile(
+    final Path file)
+    throws IOException
+  {
+    try {
+      return of(DEFAULT_ALGORITHM, Files.readAllBytes(file));
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Check that the given data has this digest.
+   *
+   * @param file The file from which the data was read
+   * @param data The data
+   *
+   * @throws IOException If the data does not match, or the algorithm is not
+   *                     supported
+   */
+
+  public void check(
+    final Path file,
+    final byte[] data)
+    throws IOException
+  {
+    final CMKeyStoreEntryDigest received;
+    try {
+      received = of(this.algorithm, data);
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+
+    if (!this.equals(received)) {
+      throw new IOException(
+        "The contents of file '%s' do not match the expected digest (expected %s, received %s)"
+          .formatted(file, this, received)
+      );
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "%s:%s".formatted(this.algorithm, this.value);
+  }
+}
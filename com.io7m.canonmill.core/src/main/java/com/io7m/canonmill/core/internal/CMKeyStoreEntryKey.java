@@ -26,14 +26,14 @@ import java.util.Objects;
  *
  * @param alias        The alias
  * @param file         The file
- * @param privateKey   The private key
+ * @param key          The private key, which may not yet have been decoded
  * @param creationTime The creation time
  */
 
 public record CMKeyStoreEntryKey(
   String alias,
   Path file,
-  PrivateKey privateKey,
+  CMKeyStoreLazyKey key,
   OffsetDateTime creationTime)
   implements CMKeyStoreEntryType
 {
@@ -42,7 +42,7 @@ public record CMKeyStoreEntryKey(
    *
    * @param alias        The alias
    * @param file         The file
-   * @param privateKey   The private key
+   * @param key          The private key, which may not yet have been decoded
    * @param creationTime The creation time
    */
 
@@ -50,7 +50,7 @@ public record CMKeyStoreEntryKey(
   {
     Objects.requireNonNull(alias, "alias");
     Objects.requireNonNull(file, "file");
-    Objects.requireNonNull(privateKey, "privateKey");
+    Objects.requireNonNull(key, "key");
     Objects.requireNonNull(creationTime, "creationTime");
 
     if (!file.isAbsolute()) {
@@ -59,4 +59,33 @@ public record CMKeyStoreEntryKey(
       );
     }
   }
+
+  /**
+   * A keystore entry for an already-decoded private key.
+   *
+   * @param alias        The alias
+   * @param file         The file
+   * @param privateKey   The private key
+   * @param creationTime The creation time
+   */
+
+  public CMKeyStoreEntryKey(
+    final String alias,
+    final Path file,
+    final PrivateKey privateKey,
+    final OffsetDateTime creationTime)
+  {
+    this(alias, file, CMKeyStoreLazyKey.of(privateKey), creationTime);
+  }
+
+  /**
+   * @return The private key, decoding it if necessary
+   *
+   * @throws java.io.UncheckedIOException If the key cannot be decoded
+   */
+
+  public PrivateKey privateKey()
+  {
+    return this.key.get();
+  }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * <p>The encodings of key and certificate files.</p>
+ *
+ * <p>The format of a file is determined first by the extension of the file
+ * named in the index: Files ending in {@code .der} or {@code .pk8} are
+ * always treated as DER, and files ending in {@code .pem} are always treated
+ * as PEM. The extensions {@code .cer}, {@code .crt}, and {@code .key} are
+ * used for both encodings in practice, so the format of files with these
+ * (or any other) extensions is determined by examining the first bytes of
+ * the file: A file that begins with a DER {@code SEQUENCE} whose encoded
+ * length fits within the file is treated as DER.</p>
+ */
+
+public enum CMKeyStoreFileFormat
+{
+  /**
+   * Base64-encoded data between PEM armour lines.
+   */
+
+  PEM,
+
+  /**
+   * Raw DER-encoded data. Certificate files may contain any number of
+   * concatenated certificates; key files contain a single unencrypted
+   * PKCS#8 {@code PrivateKeyInfo} structure.
+   */
+
+  DER;
+
+  private static final int DER_SEQUENCE = 0x30;
+
+  /**
+   * Determine the format of the given file.
+   *
+   * @param file The file
+   * @param data The contents of the file
+   *
+   * @return The file format
+   */
+
+  public static CMKeyStoreFileFormat detect(
+    final Path file,
+    final byte[] data)
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(data, "data");
+
+    final var fileName = file.getFileName();
+    final var name =
+      fileName == null ? "" : fileName.toString().toLowerCase(Locale.ROOT);
+
+    if (name.endsWith(".der") || name.endsWith(".pk8")) {
+      return DER;
+    }
+    if (name.endsWith(".pem")) {
+      return PEM;
+    }
+    return isDERSequence(data) ? DER : PEM;
+  }
+
+  /**
+   * Determine if the given data begins with a DER-encoded {@code SEQUENCE}
+   * that fits within the data. Text files (such as PEM files) will only
+   * pass this check if they begin with the character {@code 0} followed by
+   * a character whose value, taken as a length, fits within the file; no
+   * PEM encoder produces such files.
+   *
+   * @param data The data
+   *
+   * @return {@code true} if the data appears to be DER
+   */
+
+  public static boolean isDERSequence(
+    final byte[] data)
+  {
+    Objects.requireNonNull(data, "data");
+
+    if (data.length < 2 || (data[0] & 0xff) != DER_SEQUENCE) {
+      return false;
+    }
+
+    final int first = data[1] & 0xff;
+    if (first < 0x80) {
+      return 2L + first <= data.length;
+    }
+
+    final int octets = first & 0x7f;
+    if (octets == 0 || octets > 4 || data.length < 2 + octets) {
+      return false;
+    }
+
+    long length = 0L;
+    for (int index = 0; index < octets; ++index) {
+      length = (length << 8) | (data[2 + index] & 0xff);
+    }
+    return 2L + octets + length <= data.length;
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import com.io7m.anethum.api.ParsingException;
+import com.io7m.canonmill.core.CMKeyStoreEntrySourceType;
+import com.io7m.canonmill.core.CMKeyStoreEntrySources;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.CERTIFICATE;
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.KEY;
+
+/**
+ * <p>A cache of parsed index fragments.</p>
+ *
+ * <p>An index may include any number of fragments, each of which is itself
+ * an index with its own base directory. The keys and certificates of every
+ * fragment are merged into the description of the including index. Each
+ * fragment is parsed separately, and the parsed description is cached
+ * along with a digest of the contents of the fragment: A fragment is only
+ * parsed again when its contents have changed. Fragments may not
+ * themselves include fragments, and an alias may not be defined by more
+ * than one of the index and its fragments. Any bundles referenced by a
+ * fragment are referenced by the merged description.</p>
+ */
+
+public final class CMKeyStoreFragments
+{
+  private final ConcurrentHashMap<Path, Fragment> fragments;
+
+  /**
+   * A cache of parsed index fragments.
+   */
+
+  public CMKeyStoreFragments()
+  {
+    this.fragments = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Merge the fragments included by the given description into the
+   * description. Fragments that are unchanged since they were last parsed
+   * are taken from the cache. The entries of every fragment are delivered to
+   * the given listener, whether or not the fragment was parsed again.
+   * Fragments that are no longer included are removed from the cache.
+   *
+   * @param description The description
+   * @param parsers     The parsers used to parse changed fragments
+   * @param listener    The entry listener
+   *
+   * @return The merged description
+   *
+   * @throws IOException If any fragment cannot be read or parsed, or if
+   *                     any alias is defined more than once
+   */
+
+  public CMKeyStoreDescription merge(
+    final CMKeyStoreDescription description,
+    final CMKeyStoreDescriptionParsers parsers,
+    final CMKeyStoreDescriptionListenerType listener)
+    throws IOException
+  {
+    return this.merge(
+      description,
+      parsers,
+      CMKeyStoreEntrySources.filesystem(),
+      listener
+    );
+  }
+
+  /**
+   * Merge the fragments included by the given description into the
+   * description, as {@link #merge(CMKeyStoreDescription, CMKeyStoreDescriptionParsers, CMKeyStoreDescriptionListenerType)}
+   * does, reading each fragment from the file located by the given source.
+   * Fragments are cached by the file named by the index.
+   *
+   * @param description The description
+   * @param parsers     The parsers used to parse changed fragments
+   * @param source      The source that locates fragment files
+   * @param listener    The entry listener
+   *
+   * @return The merged description
+   *
+   * @throws IOException If any fragment cannot be read or parsed, or if
+   *                     any alias is defined more than once
+   *
+   * @see CMKeyStoreEntrySourceType#locate(Path)
+   */
+
+  public CMKeyStoreDescription merge(
+    final CMKeyStoreDescription description,
+    final CMKeyStoreDescriptionParsers parsers,
+    final CMKeyStoreEntrySourceType source,
+    final CMKeyStoreDescriptionListenerType listener)
+    throws IOException
+  {
+    Objects.requireNonNull(description, "description");
+    Objects.requireNonNull(parsers, "parsers");
+    Objects.requireNonNull(source, "source");
+    Objects.requireNonNull(listener, "listener");
+
+    final var includes = description.includes();
+    this.fragments.keySet().retainAll(new HashSet<>(includes));
+    if (includes.isEmpty()) {
+      return description;
+    }
+
+    final var keys =
+      new HashMap<>(description.keys());
+    final var certificates =
+      new HashMap<>(description.certificates());
+    final var keyDigests =
+      new HashMap<>(description.keyDigests());
+    final var certificateDigests =
+      new HashMap<>(description.certificateDigests());
+    final var bundles =
+      new ArrayList<>(description.bundles());
+
+    for (final var include : includes) {
+      final var fragment =
+        this.fragment(include, parsers, source, listener);
+      mergeEntries(include, "key", keys, fragment.keys());
+      mergeEntries(
+        include,
+        "certificate",
+        certificates,
+        fragment.certificates()
+      );
+      keyDigests.putAll(fragment.keyDigests());
+      certificateDigests.putAll(fragment.certificateDigests());
+      bundles.addAll(fragment.bundles());
+    }
+
+    return new CMKeyStoreDescription(
+      description.baseDirectory(),
+      keys,
+      certificates,
+      keyDigests,
+      certificateDigests,
+      includes,
+      bundles
+    );
+  }
+
+  /**
+   * Remove the entries contributed by fragments from the given merged
+   * description, yielding the description of the including index alone.
+   *
+   * @param description The merged description
+   * @param parsers     The parsers used to parse fragments that are not
+   *                    cached
+   *
+   * @return The description of the including index
+   *
+   * @throws IOException If any fragment cannot be read or parsed
+   */
+
+  public CMKeyStoreDescription unmerge(
+    final CMKeyStoreDescription description,
+    final CMKeyStoreDescriptionParsers parsers)
+    throws IOException
+  {
+    Objects.requireNonNull(description, "description");
+    Objects.requireNonNull(parsers, "parsers");
+
+    if (!description.hasIncludes()) {
+      return description;
+    }
+
+    final var keys =
+      new HashMap<>(description.keys());
+    final var certificates =
+      new HashMap<>(description.certificates());
+    final var keyDigests =
+      new HashMap<>(description.keyDigests());
+    final var certificateDigests =
+      new HashMap<>(description.certificateDigests());
+    final var bundles =
+      new ArrayList<>(description.bundles());
+
+    for (final var include : description.includes()) {
+      final var fragment =
+        this.fragment(
+          include,
+          parsers,
+          CMKeyStoreEntrySources.filesystem(),
+          CMKeyStoreDescriptionListenerType.IGNORE
+        );
+      keys.keySet().removeAll(fragment.keys().keySet());
+      certificates.keySet().removeAll(fragment.certificates().keySet());
+      keyDigests.keySet().removeAll(fragment.keyDigests().keySet());
+      certificateDigests.keySet()
+        .removeAll(fragment.certificateDigests().keySet());
+      bundles.removeAll(fragment.bundles());
+    }
+
+    return new CMKeyStoreDescription(
+      description.baseDirectory(),
+      keys,
+      certificates,
+      keyDigests,
+      certificateDigests,
+      description.includes(),
+      bundles
+    );
+  }
+
+  /**
+   * @param file The fragment file
+   *
+   * @return The cached description of the given fragment, if any
+   */
+
+  public Optional<CMKeyStoreDescription> cached(
+    final Path file)
+  {
+    return Optional.ofNullable(this.fragments.get(file))
+      .map(Fragment::description);
+  }
+
+  private CMKeyStoreDescription fragment(
+    final Path file,
+    final CMKeyStoreDescriptionParsers parsers,
+    final CMKeyStoreEntrySourceType source,
+    final CMKeyStoreDescriptionListenerType listener)
+    throws IOException
+  {
+    final var data =
+      Files.readAllBytes(source.locate(file));
+    final CMKeyStoreEntryDigest digest;
+    try {
+      digest = CMKeyStoreEntryDigest.of(
+        CMKeyStoreEntryDigest.DEFAULT_ALGORITHM,
+        data
+      );
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    final var existing = this.fragments.get(file);
+    if (existing != null && existing.digest().equals(digest)) {
+      replay(existing.description(), listener);
+      return existing.description();
+    }
+
+    final CMKeyStoreDescription description;
+    try (var stream = new ByteArrayInputStream(data)) {
+      description = parsers.parseStreaming(file.toUri(), stream, listener);
+    } catch (final ParsingException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+
+    if (description.hasIncludes()) {
+      throw new IOException(
+        "Index fragment %s includes other fragments; fragments cannot be nested."
+          .formatted(file)
+      );
+    }
+
+    this.fragments.put(file, new Fragment(digest, description));
+    return description;
+  }
+
+  private static void replay(
+    final CMKeyStoreDescription description,
+    final CMKeyStoreDescriptionListenerType listener)
+  {
+    for (final var entry : description.keys().entrySet()) {
+      final var alias = entry.getKey();
+      listener.onEntry(
+        KEY,
+        alias,
+        entry.getValue(),
+        Optional.ofNullable(description.keyDigests().get(alias))
+      );
+    }
+    for (final var entry : description.certificates().entrySet()) {
+      final var alias = entry.getKey();
+      listener.onEntry(
+        CERTIFICATE,
+        alias,
+        entry.getValue(),
+        Optional.ofNullable(description.certificateDigests().get(alias))
+      );
+    }
+  }
+
+  private static void mergeEntries(
+    final Path file,
+    final String kind,
+    final Map<String, Path> into,
+    final Map<String, Path> entries)
+    throws IOException
+  {
+    for (final var entry : entries.entrySet()) {
+      final var alias = entry.getKey();
+      if (into.putIfAbsent(alias, entry.getValue()) != null) {
+        throw new IOException(
+          "Index fragment %s defines %s '%s', but the %s is already defined."
+            .formatted(file, kind, alias, kind)
+        );
+      }
+    }
+  }
+
+  private record Fragment(
+    CMKeyStoreEntryDigest digest,
+    CMKeyStoreDescription description)
+  {
+
+  }
+}
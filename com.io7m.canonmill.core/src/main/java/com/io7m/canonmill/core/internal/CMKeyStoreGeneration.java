@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import com.io7m.canonmill.core.CMKeyStoreEntryVersion;
+import com.io7m.canonmill.core.CMKeyStoreLoadFailure;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A single published generation of a keystore: The description that was
+ * loaded, the index file it was loaded from, and the instance that was
+ * produced from it. Generations are published atomically, so readers never
+ * observe a description, an index, and an instance from different loads.
+ *
+ * @param number      The generation number, incremented by each publication
+ * @param description The description, if one has been loaded
+ * @param index       The index file, if the description was loaded from one
+ * @param instance    The instance
+ * @param failures    The entries that failed to load
+ */
+
+public record CMKeyStoreGeneration(
+  long number,
+  Optional<CMKeyStoreDescription> description,
+  Optional<Index> index,
+  CMKeyStoreInstance instance,
+  List<CMKeyStoreLoadFailure> failures)
+{
+  private static final CMKeyStoreGeneration EMPTY =
+    new CMKeyStoreGeneration(
+      0L,
+      Optional.empty(),
+      Optional.empty(),
+      CMKeyStoreInstance.empty(),
+      List.of()
+    );
+
+  /**
+   * A single published generation of a keystore.
+   *
+   * @param number      The generation number, incremented by each publication
+   * @param description The description, if one has been loaded
+   * @param index       The index file, if the description was loaded from one
+   * @param instance    The instance
+   * @param failures    The entries that failed to load
+   */
+
+  public CMKeyStoreGeneration
+  {
+    Objects.requireNonNull(description, "description");
+    Objects.requireNonNull(index, "index");
+    Objects.requireNonNull(instance, "instance");
+    failures = List.copyOf(Objects.requireNonNull(failures, "failures"));
+  }
+
+  /**
+   * @return The generation that exists before anything has been loaded
+   */
+
+  public static CMKeyStoreGeneration empty()
+  {
+    return EMPTY;
+  }
+
+  /**
+   * Derive the generation that succeeds this generation.
+   *
+   * @param newDescription The description
+   * @param newIndex       The index file
+   * @param newInstance    The instance
+   * @param newFailures    The entries that failed to load
+   *
+   * @return The next generation
+   */
+
+  public CMKeyStoreGeneration next(
+    final Optional<CMKeyStoreDescription> newDescription,
+    final Optional<Index> newIndex,
+    final CMKeyStoreInstance newInstance,
+    final List<CMKeyStoreLoadFailure> newFailures)
+  {
+    return new CMKeyStoreGeneration(
+      this.number + 1L,
+      newDescription,
+      newIndex,
+      newInstance,
+      newFailures
+    );
+  }
+
+  /**
+   * The index file from which a description was loaded.
+   *
+   * @param file  The index file
+   * @param stamp The version of the index file, read before the file itself
+   */
+
+  public record Index(
+    Path file,
+    CMKeyStoreEntryVersion stamp)
+  {
+    /**
+     * The index file from which a description was loaded.
+     *
+     * @param file  The index file
+     * @param stamp The version of the index file, read before the file
+     *              itself
+     */
+
+    public Index
+    {
+      Objects.requireNonNull(file, "file");
+      Objects.requireNonNull(stamp, "stamp");
+    }
+  }
+}
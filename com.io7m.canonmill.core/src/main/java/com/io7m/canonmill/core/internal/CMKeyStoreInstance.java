@@ -16,37 +16,51 @@
 
 package com.io7m.canonmill.core.internal;
 
+import com.io7m.canonmill.core.CMKeyStoreCachePolicy;
+import com.io7m.canonmill.core.CMKeyStoreEntryKind;
+import com.io7m.canonmill.core.CMKeyStoreEntrySourceType;
+import com.io7m.canonmill.core.CMKeyStoreEntryVersion;
+import com.io7m.canonmill.core.CMKeyStoreErrorPolicy;
+import com.io7m.canonmill.core.CMKeyStoreLoadFailure;
+import com.io7m.canonmill.core.CMKeyStoreLoadOptions;
 import com.io7m.jdeferthrow.core.ExceptionTracker;
 import net.jcip.annotations.Immutable;
-import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
-import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.openssl.PEMKeyPair;
-import org.bouncycastle.openssl.PEMParser;
-import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributeView;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.time.OffsetDateTime;
-import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.CERTIFICATE;
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.KEY;
+import static com.io7m.canonmill.core.CMKeyStoreErrorPolicy.FAIL_FAST;
+import static com.io7m.canonmill.core.CMKeyStoreErrorPolicy.KEEP_LAST_KNOWN_GOOD;
+import static com.io7m.canonmill.core.internal.CMKeyStoreFileFormat.DER;
 
 /**
  * <p>A POJO keystore instance.</p>
@@ -60,25 +74,71 @@ public final class CMKeyStoreInstance
   private static final Logger LOG =
     LoggerFactory.getLogger(CMKeyStoreInstance.class);
 
+  /**
+   * The number of files per decoding thread that may be queued during a
+   * streaming load before parsing is blocked.
+   */
+
+  public static final int STREAMING_QUEUE_PER_THREAD = 4;
+
   private final Map<String, CMKeyStoreEntryKey> keyEntries;
   private final Map<String, CMKeyStoreEntryCertificate> certEntriesByAlias;
+  private final Map<String, List<CMKeyStoreEntryCertificate>> certFileEntriesByAlias;
   private final Set<CMKeyStoreEntryCertificate> certificates;
   private final Map<String, CMKeyStoreEntryCertificate> certEntriesByCN;
+  private final Map<String, CMKeyStoreEntryDigest> keyDigests;
+  private final Map<String, CMKeyStoreEntryDigest> certificateDigests;
+  private final Map<CMKeyStoreEntryDigest, CMKeyStoreEntryKey> keysByDigest;
+  private final Map<CMKeyStoreEntryDigest, List<CMKeyStoreEntryCertificate>> certificatesByDigest;
+  private final Map<String, CMKeyStoreEntryVersion> keyVersions;
+  private final Map<String, CMKeyStoreEntryVersion> certificateVersions;
 
   private CMKeyStoreInstance(
     final Map<String, CMKeyStoreEntryKey> inKeyEntries,
     final Map<String, CMKeyStoreEntryCertificate> inCertEntriesByAlias,
+    final Map<String, List<CMKeyStoreEntryCertificate>> inCertFileEntriesByAlias,
     final Map<String, CMKeyStoreEntryCertificate> inCertEntriesByCN,
-    final Set<CMKeyStoreEntryCertificate> inCertificates)
+    final Set<CMKeyStoreEntryCertificate> inCertificates,
+    final Map<String, CMKeyStoreEntryDigest> inKeyDigests,
+    final Map<String, CMKeyStoreEntryDigest> inCertificateDigests,
+    final Map<String, CMKeyStoreEntryVersion> inKeyVersions,
+    final Map<String, CMKeyStoreEntryVersion> inCertificateVersions)
   {
     this.keyEntries =
       Objects.requireNonNull(inKeyEntries, "keyEntries");
     this.certEntriesByAlias =
       Objects.requireNonNull(inCertEntriesByAlias, "certEntries");
+    this.certFileEntriesByAlias =
+      Objects.requireNonNull(inCertFileEntriesByAlias, "certFileEntries");
     this.certEntriesByCN =
       Objects.requireNonNull(inCertEntriesByCN, "certEntries");
     this.certificates =
       Objects.requireNonNull(inCertificates, "certificates");
+    this.keyDigests =
+      Objects.requireNonNull(inKeyDigests, "keyDigests");
+    this.certificateDigests =
+      Objects.requireNonNull(inCertificateDigests, "certificateDigests");
+    this.keyVersions =
+      Objects.requireNonNull(inKeyVersions, "keyVersions");
+    this.certificateVersions =
+      Objects.requireNonNull(inCertificateVersions, "certificateVersions");
+
+    final var newKeysByDigest =
+      new HashMap<CMKeyStoreEntryDigest, CMKeyStoreEntryKey>();
+    for (final var e : inKeyDigests.entrySet()) {
+      newKeysByDigest.put(e.getValue(), inKeyEntries.get(e.getKey()));
+    }
+    this.keysByDigest = Map.copyOf(newKeysByDigest);
+
+    final var newCertificatesByDigest =
+      new HashMap<CMKeyStoreEntryDigest, List<CMKeyStoreEntryCertificate>>();
+    for (final var e : inCertificateDigests.entrySet()) {
+      newCertificatesByDigest.put(
+        e.getValue(),
+        inCertFileEntriesByAlias.get(e.getKey())
+      );
+    }
+    this.certificatesByDigest = Map.copyOf(newCertificatesByDigest);
 
     for (final var c : inCertEntriesByAlias.values()) {
       if (!inCertificates.contains(c)) {
@@ -90,6 +150,14 @@ public final class CMKeyStoreInstance
         throw new IllegalStateException("All certificate entries must exist.");
       }
     }
+    for (final var cs : inCertFileEntriesByAlias.values()) {
+      for (final var c : cs) {
+        if (!inCertificates.contains(c)) {
+          throw new IllegalStateException(
+            "All certificate entries must exist.");
+        }
+      }
+    }
   }
 
   /**
@@ -102,12 +170,18 @@ public final class CMKeyStoreInstance
       Map.of(),
       Map.of(),
       Map.of(),
-      Set.of()
+      Map.of(),
+      Set.of(),
+      Map.of(),
+      Map.of(),
+      Map.of(),
+      Map.of()
     );
   }
 
   /**
-   * Create an instance from a description.
+   * Create an instance from a description, failing if any entry cannot be
+   * loaded.
    *
    * @param description The input description
    *
@@ -119,194 +193,1463 @@ public final class CMKeyStoreInstance
   public static CMKeyStoreInstance create(
     final CMKeyStoreDescription description)
     throws IOException
+  {
+    return load(description, empty(), CMKeyStoreLoadOptions.defaults())
+      .instance();
+  }
+
+  /**
+   * Create an instance from a description.
+   *
+   * @param description The input description
+   * @param previous    The previous instance, consulted for last-known-good
+   *                    entries according to the error policy
+   * @param options     The load options
+   *
+   * @return An instance
+   *
+   * @throws IOException On errors
+   */
+
+  public static CMKeyStoreLoadResult load(
+    final CMKeyStoreDescription description,
+    final CMKeyStoreInstance previous,
+    final CMKeyStoreLoadOptions options)
+    throws IOException
+  {
+    return load(description, previous, options, CMKeyStorePredecoded.empty());
+  }
+
+  /**
+   * Create an instance from a description, using already-decoded entries
+   * in place of decoding files where possible.
+   *
+   * @param description The input description
+   * @param previous    The previous instance, consulted for last-known-good
+   *                    entries according to the error policy
+   * @param options     The load options
+   * @param predecoded  The already-decoded entries
+   *
+   * @return An instance
+   *
+   * @throws IOException On errors
+   */
+
+  public static CMKeyStoreLoadResult load(
+    final CMKeyStoreDescription description,
+    final CMKeyStoreInstance previous,
+    final CMKeyStoreLoadOptions options,
+    final CMKeyStorePredecoded predecoded)
+    throws IOException
   {
     Objects.requireNonNull(description, "description");
+    Objects.requireNonNull(previous, "previous");
+    Objects.requireNonNull(options, "options");
+    Objects.requireNonNull(predecoded, "predecoded");
 
-    final var keyEntries =
-      new HashMap<String, CMKeyStoreEntryKey>();
-    final var certEntriesByAlias =
-      new HashMap<String, CMKeyStoreEntryCertificate>();
-    final var certEntriesByCN =
-      new HashMap<String, CMKeyStoreEntryCertificate>();
-    final var certEntries =
-      new HashSet<CMKeyStoreEntryCertificate>();
+    final var indexes = new Indexes();
+    final var loading = new Loading(previous, options, predecoded);
 
-    final var exceptions =
-      new ExceptionTracker<IOException>();
+    loading.loadAll(description);
+    return loading.finish(indexes);
+  }
 
-    for (final var e : description.keys().entrySet()) {
-      final var alias = e.getKey();
-      final var keyFile = e.getValue();
+  /**
+   * Start a streaming load. The returned load must be passed to the parser
+   * as an entry listener, and then finished with the parsed description.
+   *
+   * @param previous   The previous instance, consulted for last-known-good
+   *                   entries according to the error policy
+   * @param options    The load options
+   * @param predecoded The already-decoded entries
+   *
+   * @return A streaming load
+   *
+   * @see StreamingLoad
+   */
 
-      try {
-        final var privateKey =
-          loadPrivateKey(keyFile);
-        final var fileDate =
-          fileDate(keyFile);
-        final var entry =
-          new CMKeyStoreEntryKey(alias, keyFile, privateKey, fileDate);
+  public static StreamingLoad loadStreaming(
+    final CMKeyStoreInstance previous,
+    final CMKeyStoreLoadOptions options,
+    final CMKeyStorePredecoded predecoded)
+  {
+    Objects.requireNonNull(previous, "previous");
+    Objects.requireNonNull(options, "options");
+    Objects.requireNonNull(predecoded, "predecoded");
+    return new StreamingLoad(previous, options, predecoded);
+  }
 
-        LOG.trace("Private Key [{}]: {}", alias, keyFile);
-        keyEntries.put(alias, entry);
-      } catch (final IOException ex) {
-        exceptions.addException(ex);
+  /**
+   * <p>Create a new instance derived from this instance, reloading only the
+   * files of the given aliases. The files of all other aliases are not read,
+   * and the entries of all other aliases are shared with this instance.</p>
+   *
+   * <p>For each alias, the key and certificate files named in the given
+   * description are reloaded. If the description no longer names a key (or
+   * certificate) for the alias, the existing key (or certificate) entry
+   * is removed.</p>
+   *
+   * @param description The description from which this instance was created
+   * @param aliases     The aliases to reload
+   * @param options     The load options
+   *
+   * @return A new instance
+   *
+   * @throws IOException If any of the files cannot be loaded and the error
+   *                     policy does not permit partial results; this
+   *                     instance is unaffected
+   */
+
+  public CMKeyStoreLoadResult withReloadedAliases(
+    final CMKeyStoreDescription description,
+    final Set<String> aliases,
+    final CMKeyStoreLoadOptions options)
+    throws IOException
+  {
+    Objects.requireNonNull(description, "description");
+    Objects.requireNonNull(aliases, "aliases");
+    Objects.requireNonNull(options, "options");
+
+    final var bundles = openBundles(description, options.entrySource());
+    final var existing = this.aliases();
+    final var unknown = new TreeSet<String>();
+    for (final var alias : aliases) {
+      if (!description.keys().containsKey(alias)
+          && !description.certificates().containsKey(alias)
+          && bundleMember(bundles, KEY, alias).isEmpty()
+          && bundleMember(bundles, CERTIFICATE, alias).isEmpty()
+          && !existing.contains(alias)) {
+        unknown.add(alias);
       }
     }
+    if (!unknown.isEmpty()) {
+      throw new IllegalArgumentException(
+        "Aliases %s are not present in the keystore.".formatted(unknown)
+      );
+    }
 
-    for (final var e : description.certificates().entrySet()) {
-      final var alias = e.getKey();
-      final var certFile = e.getValue();
+    final var indexes = new Indexes(this);
+    final var loading =
+      new Loading(this, options, CMKeyStorePredecoded.empty());
 
-      try {
-        final var certificates =
-          loadCertificates(certFile);
-
-        {
-          final var certificate =
-            certificates.get(0);
-          final var name =
-            certificate.getSubjectX500Principal().getName();
-          final var fileDate =
-            fileDate(certFile);
-          final var entry =
-            new CMKeyStoreEntryCertificate(
-              alias,
-              certFile,
-              certificate,
-              fileDate
-            );
+    for (final var alias : aliases) {
+      final var keyFile = description.keys().get(alias);
+      final var keyMember = bundleMember(bundles, KEY, alias);
+      if (keyFile != null) {
+        loading.loadKey(
+          alias,
+          keyFile,
+          Optional.ofNullable(description.keyDigests().get(alias))
+        );
+      } else if (keyMember.isPresent()) {
+        loading.loadBundleMember(
+          keyMember.get().bundle(),
+          keyMember.get().member()
+        );
+      } else {
+        indexes.removeKey(alias);
+      }
+
+      final var certFile = description.certificates().get(alias);
+      final var certMember = bundleMember(bundles, CERTIFICATE, alias);
+      if (certFile != null) {
+        loading.loadCertificates(
+          alias,
+          certFile,
+          Optional.ofNullable(description.certificateDigests().get(alias))
+        );
+      } else if (certMember.isPresent()) {
+        loading.loadBundleMember(
+          certMember.get().bundle(),
+          certMember.get().member()
+        );
+      } else {
+        indexes.removeCertificates(alias);
+      }
+    }
+    return loading.finish(indexes);
+  }
+
+  private record BundleMember(
+    CMKeyStoreBundle bundle,
+    CMKeyStoreBundle.Member member)
+  {
+
+  }
+
+  private static Optional<BundleMember> bundleMember(
+    final List<CMKeyStoreBundle> bundles,
+    final CMKeyStoreEntryKind kind,
+    final String alias)
+  {
+    for (final var bundle : bundles) {
+      final var member = bundle.member(kind, alias);
+      if (member.isPresent()) {
+        return Optional.of(new BundleMember(bundle, member.get()));
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * <p>Create a new instance derived from this instance, reloading only the
+   * files of the given aliases, and failing if any of the files cannot be
+   * loaded.</p>
+   *
+   * @param description The description from which this instance was created
+   * @param aliases     The aliases to reload
+   *
+   * @return A new instance
+   *
+   * @throws IOException If any of the files cannot be loaded; this
+   *                     instance is unaffected
+   * @see #withReloadedAliases(CMKeyStoreDescription, Set, CMKeyStoreLoadOptions)
+   */
 
+  public CMKeyStoreInstance withReloadedAliases(
+    final CMKeyStoreDescription description,
+    final Set<String> aliases)
+    throws IOException
+  {
+    return this.withReloadedAliases(
+      description,
+      aliases,
+      CMKeyStoreLoadOptions.defaults()
+    ).instance();
+  }
+
+  private static PrivateKey decodePrivateKey(
+    final Path keyFile,
+    final byte[] data,
+    final Optional<char[]> password)
+    throws IOException
+  {
+    try {
+      return CMKeyStorePrivateKeys.decode(keyFile, data, password);
+    } finally {
+      password.ifPresent(p -> Arrays.fill(p, '\0'));
+    }
+  }
+
+  /**
+   * Load the certificates in the given file. The first certificate is
+   * given the alias; any subsequent certificates are named by their
+   * subject names.
+   */
+
+  private static List<CMKeyStoreEntryCertificate> loadCertificateEntries(
+    final String alias,
+    final Path certFile,
+    final byte[] data,
+    final OffsetDateTime fileDate)
+    throws IOException
+  {
+    try {
+      final var certificates =
+        loadCertificates(certFile, data);
+      final var entries =
+        new ArrayList<CMKeyStoreEntryCertificate>(certificates.size());
+
+      for (int index = 0; index < certificates.size(); ++index) {
+        final var certificate =
+          certificates.get(index);
+        final var name =
+          certificate.getSubjectX500Principal().getName();
+
+        if (index == 0) {
           LOG.trace("Certificate [{}]: {} ({})", alias, name, certFile);
-          certEntriesByAlias.put(alias, entry);
-          certEntriesByCN.put(name, entry);
-          certEntries.add(entry);
+          entries.add(
+            new CMKeyStoreEntryCertificate(alias, certFile, certificate, fileDate)
+          );
+        } else {
+          LOG.trace("Certificate [{}]: ({})", name, certFile);
+          entries.add(
+            new CMKeyStoreEntryCertificate(name, certFile, certificate, fileDate)
+          );
         }
+      }
+      return List.copyOf(entries);
+    } catch (final CertificateException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * Find the entries that were decoded from a file with the given digest,
+   * and rename them for the given job.
+   */
 
-        for (int index = 1; index < certificates.size(); ++index) {
-          final var certificate =
-            certificates.get(index);
-          final var fileDate =
-            fileDate(certFile);
+  private Optional<Decoded> decodedByDigest(
+    final Job job,
+    final CMKeyStoreEntryDigest digest,
+    final CMKeyStoreEntryVersion version)
+  {
+    return switch (job.kind) {
+      case KEY -> {
+        final var existing = this.keysByDigest.get(digest);
+        if (existing == null) {
+          yield Optional.empty();
+        }
 
-          final var name =
-            certificate.getSubjectX500Principal().getName();
-          final var entry =
+        LOG.trace("Private Key [{}]: {} (unchanged)", job.alias, job.file);
+        yield Optional.of(
+          new Decoded(
+            job,
+            new CMKeyStoreEntryKey(
+              job.alias,
+              job.file,
+              existing.key(),
+              version.creationDate()
+            ),
+            null,
+            null,
+            version
+          )
+        );
+      }
+      case CERTIFICATE -> {
+        final var existing = this.certificatesByDigest.get(digest);
+        if (existing == null) {
+          yield Optional.empty();
+        }
+
+        final var fileDate =
+          version.creationDate();
+        final var entries =
+          new ArrayList<CMKeyStoreEntryCertificate>(existing.size());
+
+        for (int index = 0; index < existing.size(); ++index) {
+          final var entry = existing.get(index);
+          entries.add(
             new CMKeyStoreEntryCertificate(
-              name,
-              certFile,
-              certificate,
+              index == 0 ? job.alias : entry.alias(),
+              job.file,
+              entry.certificate(),
               fileDate
-            );
-
-          LOG.trace("Certificate [{}]: ({})", name, certFile);
-          certEntriesByCN.put(name, entry);
-          certEntries.add(entry);
+            )
+          );
         }
 
-      } catch (final IOException ex) {
-        exceptions.addException(ex);
-      } catch (final CertificateException ex) {
-        exceptions.addException(new IOException(ex));
+        LOG.trace("Certificate [{}]: {} (unchanged)", job.alias, job.file);
+        yield Optional.of(
+          new Decoded(job, null, List.copyOf(entries), null, version)
+        );
       }
+    };
+  }
+
+  /**
+   * Find the entries that were decoded for the given job's alias from the
+   * same file, if the version of the data is unchanged since it was decoded.
+   * Entries are not reused if the index now expects a different digest.
+   */
+
+  private Optional<Decoded> decodedByVersion(
+    final Job job,
+    final CMKeyStoreEntryVersion version)
+  {
+    final var existingVersion =
+      switch (job.kind) {
+        case KEY -> this.keyVersions.get(job.alias);
+        case CERTIFICATE -> this.certificateVersions.get(job.alias);
+      };
+
+    if (existingVersion == null || !existingVersion.isUnchangedIn(version)) {
+      return Optional.empty();
     }
 
-    exceptions.throwIfNecessary();
-    return new CMKeyStoreInstance(
-      Map.copyOf(keyEntries),
-      Map.copyOf(certEntriesByAlias),
-      Map.copyOf(certEntriesByCN),
-      Set.copyOf(certEntries)
-    );
+    return switch (job.kind) {
+      case KEY -> {
+        final var existing = this.keyEntries.get(job.alias);
+        final var digest =
+          Optional.ofNullable(this.keyDigests.get(job.alias));
+        if (existing == null
+            || !existing.file().equals(job.file)
+            || !digestCompatible(job, digest)) {
+          yield Optional.empty();
+        }
+
+        LOG.trace("Private Key [{}]: {} (unmodified)", job.alias, job.file);
+        yield Optional.of(
+          new Decoded(job.withDigest(digest), existing, null, null, version)
+        );
+      }
+      case CERTIFICATE -> {
+        final var existing = this.certFileEntriesByAlias.get(job.alias);
+        final var digest =
+          Optional.ofNullable(this.certificateDigests.get(job.alias));
+        if (existing == null
+            || !existing.get(0).file().equals(job.file)
+            || !digestCompatible(job, digest)) {
+          yield Optional.empty();
+        }
+
+        LOG.trace("Certificate [{}]: {} (unmodified)", job.alias, job.file);
+        yield Optional.of(
+          new Decoded(job.withDigest(digest), null, existing, null, version)
+        );
+      }
+    };
   }
 
-  private static OffsetDateTime fileDate(
-    final Path file)
-    throws IOException
+  private static boolean digestCompatible(
+    final Job job,
+    final Optional<CMKeyStoreEntryDigest> digest)
   {
-    final var attributes =
-      Files.getFileAttributeView(file, BasicFileAttributeView.class);
+    return job.digest.isEmpty() || job.digest.equals(digest);
+  }
 
-    final var time =
-      attributes.readAttributes()
-        .creationTime()
-        .toInstant();
+  /**
+   * A single file (or bundle member) to be decoded as part of a load, and
+   * the source from which its data is obtained.
+   */
+
+  private record Job(
+    CMKeyStoreEntryKind kind,
+    String alias,
+    Path file,
+    Optional<CMKeyStoreEntryDigest> digest,
+    CMKeyStoreEntrySourceType source)
+  {
+    CMKeyStoreEntryVersion version()
+      throws IOException
+    {
+      return this.source.version(this.kind, this.alias, this.file);
+    }
+
+    byte[] read()
+      throws IOException
+    {
+      return this.source.read(this.kind, this.alias, this.file);
+    }
 
-    return OffsetDateTime.ofInstant(time, ZoneId.systemDefault());
+    Job withDigest(
+      final Optional<CMKeyStoreEntryDigest> newDigest)
+    {
+      if (this.digest.isPresent()) {
+        return this;
+      }
+      return new Job(this.kind, this.alias, this.file, newDigest, this.source);
+    }
   }
 
-  private static List<X509Certificate> loadCertificates(
-    final Path certFile)
-    throws CertificateException, IOException
+  /**
+   * The result of decoding a single file. Exactly one of the key, the
+   * certificates, or the failure is present. The version is present if the
+   * source was examined.
+   */
+
+  private record Decoded(
+    Job job,
+    CMKeyStoreEntryKey key,
+    List<CMKeyStoreEntryCertificate> certificates,
+    IOException failure,
+    CMKeyStoreEntryVersion version)
   {
-    final var results = new LinkedList<X509Certificate>();
-    try (var stream = Files.newInputStream(certFile)) {
-      final var factory =
-        CertificateFactory.getInstance("X.509");
+    static Decoded run(
+      final CMKeyStoreInstance previous,
+      final CMKeyStoreLoadOptions options,
+      final Job job)
+    {
+      final var policy = options.cachePolicy();
+      try {
+        final var version = job.version();
+        if (policy == CMKeyStoreCachePolicy.FILE_ATTRIBUTES) {
+          final var unmodified = previous.decodedByVersion(job, version);
+          if (unmodified.isPresent()) {
+            return unmodified.get();
+          }
+        }
+
+        final var data = job.read();
+
+        /*
+         * If the index provides a digest, then the file contents are checked
+         * against it. If the previous instance loaded a file with exactly the
+         * same digest, then the file cannot have changed, and the previously
+         * decoded entries are used instead of decoding the file again.
+         */
+
+        if (job.digest.isPresent()) {
+          final var digest = job.digest.get();
+          digest.check(job.file, data);
+
+          if (policy != CMKeyStoreCachePolicy.NONE) {
+            final var cached = previous.decodedByDigest(job, digest, version);
+            if (cached.isPresent()) {
+              return cached.get();
+            }
+          }
+        }
 
-      try (var reader = new PEMParser(new InputStreamReader(stream, UTF_8))) {
-        while (true) {
-          final var object = reader.readObject();
-          if (object == null) {
-            break;
+        return switch (job.kind) {
+          case KEY -> {
+            yield runKey(previous, options, job, version, data);
+          }
+          case CERTIFICATE -> {
+            yield new Decoded(
+              job,
+              null,
+              loadCertificateEntries(
+                job.alias,
+                job.file,
+                data,
+                version.creationDate()
+              ),
+              null,
+              version
+            );
           }
+        };
+      } catch (final IOException ex) {
+        return new Decoded(job, null, null, ex, null);
+      }
+    }
+
+    /**
+     * Decode a key. Deriving a key from a password is deliberately
+     * expensive, so if an encrypted key has no digest in the index, a digest
+     * is computed here. The decrypted key is then recorded against that
+     * digest, and an unchanged key file is not decrypted again by any
+     * subsequent load. Keys that are decoded lazily are treated in the same
+     * way, so that an unchanged key that has already been decoded is not
+     * decoded again.
+     */
+
+    private static Decoded runKey(
+      final CMKeyStoreInstance previous,
+      final CMKeyStoreLoadOptions options,
+      final Job job,
+      final CMKeyStoreEntryVersion version,
+      final byte[] data)
+      throws IOException
+    {
+      final var encrypted =
+        CMKeyStorePrivateKeys.isEncrypted(job.file, data);
+
+      var keyed = job;
+      if (job.digest.isEmpty() && (encrypted || options.lazyKeys())) {
+        final CMKeyStoreEntryDigest digest;
+        try {
+          digest = CMKeyStoreEntryDigest.of(
+            CMKeyStoreEntryDigest.DEFAULT_ALGORITHM,
+            data
+          );
+        } catch (final NoSuchAlgorithmException e) {
+          throw new IllegalStateException(e);
+        }
+
+        keyed = job.withDigest(Optional.of(digest));
+        if (options.cachePolicy() != CMKeyStoreCachePolicy.NONE) {
+          final var cached =
+            previous.decodedByDigest(keyed, digest, version);
+          if (cached.isPresent()) {
+            return cached.get();
+          }
+        }
+      }
+
+      final var alias = job.alias;
+      final var file = job.file;
+      final var passwords = options.passwords();
+
+      final CMKeyStoreLazyKey key;
+      if (options.lazyKeys()) {
+        LOG.trace("Private Key [{}]: {} (deferred)", alias, file);
+        key = CMKeyStoreLazyKey.deferred(keyed.digest.orElseThrow(), () -> {
+          return decodePrivateKey(
+            file,
+            data,
+            encrypted ? passwords.passwordFor(alias, file) : Optional.empty()
+          );
+        });
+      } else {
+        LOG.trace("Private Key [{}]: {}", alias, file);
+        key = CMKeyStoreLazyKey.of(
+          decodePrivateKey(
+            file,
+            data,
+            encrypted ? passwords.passwordFor(alias, file) : Optional.empty()
+          )
+        );
+      }
+
+      return new Decoded(
+        keyed,
+        new CMKeyStoreEntryKey(alias, file, key, version.creationDate()),
+        null,
+        null,
+        version
+      );
+    }
+  }
+
+  /**
+   * The state of a single load. Files are queued, decoded (possibly in
+   * parallel) when the load is finished, and then applied to the indexes
+   * in the order in which they were queued, applying the error policy to
+   * each failed entry.
+   */
+
+  private static final class Loading
+  {
+    private final CMKeyStoreInstance previous;
+    private final CMKeyStoreErrorPolicy errorPolicy;
+    private final int parallelism;
+    private final ExceptionTracker<IOException> exceptions;
+    private final ArrayList<CMKeyStoreLoadFailure> failures;
+    private final ArrayList<Job> jobs;
+    private final CMKeyStorePredecoded predecoded;
+    private final CMKeyStoreLoadOptions options;
+    private final CMKeyStoreEntrySourceType source;
+    private final HashMap<Job, Decoded> ready;
+
+    Loading(
+      final CMKeyStoreInstance inPrevious,
+      final CMKeyStoreLoadOptions options,
+      final CMKeyStorePredecoded inPredecoded)
+    {
+      this.predecoded = inPredecoded;
+      this.ready = new HashMap<>();
+      this.previous = inPrevious;
+      this.errorPolicy = options.errorPolicy();
+      this.parallelism = options.parallelism();
+      this.options = options;
+      this.source = options.entrySource();
+      this.exceptions = new ExceptionTracker<>();
+      this.failures = new ArrayList<>();
+      this.jobs = new ArrayList<>();
+    }
+
+    void loadAll(
+      final CMKeyStoreDescription description)
+      throws IOException
+    {
+      final var keyDigests = description.keyDigests();
+      for (final var e : description.keys().entrySet()) {
+        final var alias = e.getKey();
+        this.loadKey(
+          alias,
+          e.getValue(),
+          Optional.ofNullable(keyDigests.get(alias))
+        );
+      }
 
-          if (object instanceof X509CertificateHolder) {
-            final var certHolder = (X509CertificateHolder) object;
-            results.add(
-              (X509Certificate)
-                factory.generateCertificate(
-                  new ByteArrayInputStream(certHolder.getEncoded())
+      final var certificateDigests = description.certificateDigests();
+      for (final var e : description.certificates().entrySet()) {
+        final var alias = e.getKey();
+        this.loadCertificates(
+          alias,
+          e.getValue(),
+          Optional.ofNullable(certificateDigests.get(alias))
+        );
+      }
+
+      final var keys = new HashSet<>(description.keys().keySet());
+      final var certificates =
+        new HashSet<>(description.certificates().keySet());
+
+      for (final var bundle : openBundles(description, this.source)) {
+        for (final var member : bundle.members()) {
+          final var added =
+            switch (member.kind()) {
+              case KEY -> keys.add(member.alias());
+              case CERTIFICATE -> certificates.add(member.alias());
+            };
+          if (!added) {
+            throw new IOException(
+              "Bundle %s defines %s '%s', but the %s is already defined."
+                .formatted(
+                  bundle.file(),
+                  member.kind(),
+                  member.alias(),
+                  member.kind()
                 )
             );
-            continue;
           }
+          this.loadBundleMember(bundle, member);
+        }
+      }
+    }
+
+    void loadBundleMember(
+      final CMKeyStoreBundle bundle,
+      final CMKeyStoreBundle.Member member)
+    {
+      this.queue(
+        new Job(
+          member.kind(),
+          member.alias(),
+          bundle.file(),
+          Optional.of(member.digest()),
+          bundle
+        )
+      );
+    }
+
+    void loadKey(
+      final String alias,
+      final Path file,
+      final Optional<CMKeyStoreEntryDigest> digest)
+    {
+      this.queue(new Job(KEY, alias, file, digest, this.source));
+    }
+
+    void loadCertificates(
+      final String alias,
+      final Path file,
+      final Optional<CMKeyStoreEntryDigest> digest)
+    {
+      this.queue(new Job(CERTIFICATE, alias, file, digest, this.source));
+    }
+
+    private void queue(
+      final Job job)
+    {
+      this.jobs.add(job);
+
+      final var existing = this.predecodedFor(job);
+      if (existing != null) {
+        this.ready.put(job, existing);
+      }
+    }
+
+    Decoded decode(
+      final Job job)
+    {
+      return Decoded.run(this.previous, this.options, job);
+    }
+
+    /**
+     * Find the already-decoded entries for the given job, if they were
+     * decoded from the same file. Entries are not reused if the index now
+     * expects a different digest than the one they were checked against.
+     */
+
+    Decoded predecodedFor(
+      final Job job)
+    {
+      return switch (job.kind) {
+        case KEY -> {
+          final var existing = this.predecoded.keys().get(job.alias);
+          final var digest =
+            Optional.ofNullable(this.predecoded.keyDigests().get(job.alias));
+          if (existing != null
+              && existing.file().equals(job.file)
+              && digestCompatible(job, digest)) {
+            final var version = this.predecoded.keyVersions().get(job.alias);
+            yield new Decoded(
+              job.withDigest(digest), existing, null, null, version);
+          }
+          yield null;
+        }
+        case CERTIFICATE -> {
+          final var existing = this.predecoded.certificates().get(job.alias);
+          final var digest =
+            Optional.ofNullable(
+              this.predecoded.certificateDigests().get(job.alias));
+          if (existing != null
+              && existing.get(0).file().equals(job.file)
+              && digestCompatible(job, digest)) {
+            final var version =
+              this.predecoded.certificateVersions().get(job.alias);
+            yield new Decoded(
+              job.withDigest(digest), null, existing, null, version);
+          }
+          yield null;
+        }
+      };
+    }
+
+    private List<Decoded> decodeSequentially()
+      throws IOException
+    {
+      final var results = new ArrayList<Decoded>(this.jobs.size());
+      for (final var job : this.jobs) {
+        final var cached = this.ready.get(job);
+        if (cached != null) {
+          results.add(cached);
+          continue;
+        }
 
-          throw new IOException(
-            "Expected an X.509 certificate, received: %s".formatted(object)
+        final var decoded = this.decode(job);
+        if (decoded.failure != null && this.errorPolicy == FAIL_FAST) {
+          throw decoded.failure;
+        }
+        results.add(decoded);
+      }
+      return results;
+    }
+
+    /**
+     * Decode all files in parallel. The executor is scoped to this method:
+     * no decoding task outlives it. In fail-fast mode, the first failure
+     * cancels all outstanding tasks and is rethrown immediately.
+     */
+
+    private List<Decoded> decodeInParallel(
+      final List<Job> pending)
+      throws IOException
+    {
+      try (var executor = decoderPool(this.parallelism)) {
+        final var completion =
+          new ExecutorCompletionService<Decoded>(executor);
+        final var futures =
+          new HashMap<Job, Future<Decoded>>(pending.size());
+
+        for (final var job : pending) {
+          futures.put(
+            job,
+            completion.submit(() -> this.decode(job))
           );
         }
+
+        try {
+          for (int index = 0; index < futures.size(); ++index) {
+            final var decoded = completion.take().get();
+            if (decoded.failure != null && this.errorPolicy == FAIL_FAST) {
+              LOG.debug(
+                "Cancelling outstanding decoding tasks after failure: {} [{}]",
+                decoded.job.kind,
+                decoded.job.alias
+              );
+              executor.shutdownNow();
+              throw decoded.failure;
+            }
+          }
+
+          final var results = new ArrayList<Decoded>(this.jobs.size());
+          for (final var job : this.jobs) {
+            final var cached = this.ready.get(job);
+            if (cached != null) {
+              results.add(cached);
+            } else {
+              results.add(futures.get(job).get());
+            }
+          }
+          return results;
+        } catch (final InterruptedException e) {
+          throw interrupted(executor, e);
+        } catch (final ExecutionException e) {
+          throw decodingFailed(executor, e);
+        }
       }
     }
 
-    if (results.isEmpty()) {
-      throw new IOException(
-        "Could not load anything from file '%s'".formatted(certFile)
+    private void apply(
+      final Indexes indexes,
+      final Decoded decoded)
+    {
+      final var job = decoded.job;
+      if (decoded.failure == null) {
+        switch (job.kind) {
+          case KEY -> {
+            indexes.putKey(decoded.key, job.digest);
+          }
+          case CERTIFICATE -> {
+            indexes.removeCertificates(job.alias);
+            indexes.putCertificates(
+              job.alias,
+              decoded.certificates,
+              job.digest
+            );
+          }
+        }
+        indexes.putVersion(job.kind, job.alias, decoded.version);
+        return;
+      }
+
+      final var ex = decoded.failure;
+      this.exceptions.addException(ex);
+      indexes.putVersion(job.kind, job.alias, null);
+
+      var retained = false;
+      if (this.errorPolicy == KEEP_LAST_KNOWN_GOOD) {
+        switch (job.kind) {
+          case KEY -> {
+            final var existing = this.previous.keyEntries.get(job.alias);
+            if (existing != null) {
+              indexes.putKey(
+                existing,
+                Optional.ofNullable(this.previous.keyDigests.get(job.alias))
+              );
+              retained = true;
+            }
+          }
+          case CERTIFICATE -> {
+            final var existing =
+              this.previous.certFileEntriesByAlias.get(job.alias);
+            if (existing != null) {
+              indexes.removeCertificates(job.alias);
+              indexes.putCertificates(
+                job.alias,
+                existing,
+                Optional.ofNullable(
+                  this.previous.certificateDigests.get(job.alias))
+              );
+              retained = true;
+            }
+          }
+        }
+      }
+      this.failures.add(
+        new CMKeyStoreLoadFailure(job.alias, job.kind, job.file, retained, ex)
       );
     }
 
-    return List.copyOf(results);
+    CMKeyStoreLoadResult finish(
+      final Indexes indexes)
+      throws IOException
+    {
+      final var pending =
+        this.jobs.stream()
+          .filter(job -> !this.ready.containsKey(job))
+          .toList();
+
+      if (!this.ready.isEmpty()) {
+        LOG.debug(
+          "{} of {} files were already decoded",
+          Integer.valueOf(this.ready.size()),
+          Integer.valueOf(this.jobs.size())
+        );
+      }
+
+      final List<Decoded> decoded;
+      if (this.parallelism > 1 && pending.size() > 1) {
+        decoded = this.decodeInParallel(pending);
+      } else {
+        decoded = this.decodeSequentially();
+      }
+      return this.complete(indexes, decoded);
+    }
+
+    CMKeyStoreLoadResult complete(
+      final Indexes indexes,
+      final List<Decoded> decoded)
+      throws IOException
+    {
+      for (final var result : decoded) {
+        this.apply(indexes, result);
+      }
+
+      if (this.errorPolicy != KEEP_LAST_KNOWN_GOOD) {
+        this.exceptions.throwIfNecessary();
+      }
+
+      for (final var failure : this.failures) {
+        LOG.warn(
+          "Failed to load {} [{}] ({}); previous value retained: {}: {}",
+          failure.kind(),
+          failure.alias(),
+          failure.file(),
+          Boolean.valueOf(failure.retained()),
+          failure.exception().getMessage()
+        );
+      }
+
+      indexes.restoreShadowedNames();
+      return new CMKeyStoreLoadResult(indexes.build(), this.failures);
+    }
   }
 
-  private static PrivateKey loadPrivateKey(
-    final Path keyFile)
+  private static List<CMKeyStoreBundle> openBundles(
+    final CMKeyStoreDescription description,
+    final CMKeyStoreEntrySourceType source)
     throws IOException
   {
-    final var converter =
-      new JcaPEMKeyConverter();
+    final var bundles =
+      new ArrayList<CMKeyStoreBundle>(description.bundles().size());
+    for (final var file : description.bundles()) {
+      bundles.add(CMKeyStoreBundle.open(source.locate(file)));
+    }
+    return List.copyOf(bundles);
+  }
 
-    try (var stream = Files.newInputStream(keyFile)) {
-      try (var reader = new PEMParser(new InputStreamReader(stream, UTF_8))) {
-        final var object = reader.readObject();
-        if (object == null) {
-          throw new IOException(
-            "Could not load anything from file '%s'".formatted(keyFile)
-          );
+  private static ExecutorService decoderPool(
+    final int parallelism)
+  {
+    final var threads =
+      Thread.ofVirtual()
+        .name("com.io7m.canonmill.load-", 0L)
+        .factory();
+
+    return Executors.newFixedThreadPool(parallelism, threads);
+  }
+
+  private static InterruptedIOException interrupted(
+    final ExecutorService executor,
+    final InterruptedException e)
+  {
+    executor.shutdownNow();
+    Thread.currentThread().interrupt();
+    return new InterruptedIOException(e.getMessage());
+  }
+
+  private static RuntimeException decodingFailed(
+    final ExecutorService executor,
+    final ExecutionException e)
+  {
+    executor.shutdownNow();
+    final var cause = e.getCause();
+    if (cause instanceof final RuntimeException ex) {
+      return ex;
+    }
+    if (cause instanceof final Error ex) {
+      throw ex;
+    }
+    return new IllegalStateException(cause);
+  }
+
+  /**
+   * <p>A streaming load. The load receives the entries of an index as they
+   * are parsed, and hands each file to a pool of decoding threads as soon as
+   * its entry is received, so that parsing the index and decoding files
+   * overlap.</p>
+   *
+   * <p>At most {@link #STREAMING_QUEUE_PER_THREAD} files per decoding thread
+   * may be queued or in the process of being decoded at any given time. When
+   * the limit is reached, the parsing thread blocks until a file has been
+   * decoded.</p>
+   *
+   * <p>When the index has been parsed, {@link #finish(CMKeyStoreDescription)}
+   * must be called with the parsed description. Only the entries named in
+   * the description are used, and they are applied in the same order as
+   * {@link #load(CMKeyStoreDescription, CMKeyStoreInstance, CMKeyStoreLoadOptions, CMKeyStorePredecoded)},
+   * so the result is identical to that of a non-streaming load of the same
+   * description. Closing the load cancels any outstanding decoding, and so
+   * a load must be closed whether or not parsing succeeded.</p>
+   *
+   * @see #loadStreaming(CMKeyStoreInstance, CMKeyStoreLoadOptions, CMKeyStorePredecoded)
+   */
+
+  public static final class StreamingLoad
+    implements CMKeyStoreDescriptionListenerType, AutoCloseable
+  {
+    private final Loading loading;
+    private final boolean failFast;
+    private final ExecutorService executor;
+    private final Semaphore queue;
+    private final HashMap<Job, Future<Decoded>> submitted;
+    private final AtomicReference<Decoded> failure;
+
+    private StreamingLoad(
+      final CMKeyStoreInstance previous,
+      final CMKeyStoreLoadOptions options,
+      final CMKeyStorePredecoded predecoded)
+    {
+      this.loading =
+        new Loading(previous, options, predecoded);
+      this.failFast =
+        options.errorPolicy() == FAIL_FAST;
+      this.executor =
+        decoderPool(options.parallelism());
+      this.queue =
+        new Semaphore(options.parallelism() * STREAMING_QUEUE_PER_THREAD);
+      this.submitted =
+        new HashMap<>();
+      this.failure =
+        new AtomicReference<>();
+    }
+
+    @Override
+    public void onEntry(
+      final CMKeyStoreEntryKind kind,
+      final String alias,
+      final Path file,
+      final Optional<CMKeyStoreEntryDigest> digest)
+    {
+      final var job =
+        new Job(kind, alias, file, digest, this.loading.source);
+      if (this.submitted.containsKey(job)) {
+        return;
+      }
+      if (this.loading.predecodedFor(job) != null) {
+        return;
+      }
+
+      /*
+       * In fail-fast mode, there is no point decoding anything further once
+       * a file has failed. Any skipped files that are actually needed are
+       * decoded when the load is finished.
+       */
+
+      if (this.failFast && this.failure.get() != null) {
+        return;
+      }
+
+      try {
+        this.queue.acquire();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      this.submitted.put(job, this.executor.submit(() -> {
+        try {
+          return this.decode(job);
+        } finally {
+          this.queue.release();
         }
+      }));
+    }
+
+    private Decoded decode(
+      final Job job)
+    {
+      final var decoded = this.loading.decode(job);
+      if (decoded.failure != null) {
+        this.failure.compareAndSet(null, decoded);
+      }
+      return decoded;
+    }
+
+    /**
+     * Finish the load.
+     *
+     * @param description The parsed description
+     *
+     * @return The load result
+     *
+     * @throws IOException On errors
+     */
+
+    public CMKeyStoreLoadResult finish(
+      final CMKeyStoreDescription description)
+      throws IOException
+    {
+      Objects.requireNonNull(description, "description");
 
-        if (object instanceof final PEMKeyPair pair) {
-          final var keyPair = converter.getKeyPair(pair);
-          return keyPair.getPrivate();
+      this.loading.loadAll(description);
+
+      LOG.debug(
+        "{} of {} files were decoded during parsing",
+        Integer.valueOf(this.submitted.size()),
+        Integer.valueOf(this.loading.jobs.size())
+      );
+
+      return this.loading.complete(new Indexes(), this.collect());
+    }
+
+    private List<Decoded> collect()
+      throws IOException
+    {
+      final var jobs = this.loading.jobs;
+      final var results = new ArrayList<Decoded>(jobs.size());
+
+      /*
+       * Files that were not delivered during parsing (such as the members
+       * of bundles) are decoded in parallel now that parsing is finished.
+       */
+
+      for (final var job : jobs) {
+        if (this.failFast && this.failure.get() != null) {
+          break;
+        }
+        if (!this.loading.ready.containsKey(job)
+            && !this.submitted.containsKey(job)) {
+          this.submitted.put(job, this.executor.submit(() -> this.decode(job)));
         }
+      }
+
+      try {
+        for (final var job : jobs) {
+          final var cached = this.loading.ready.get(job);
+          if (cached != null) {
+            results.add(cached);
+            continue;
+          }
+
+          if (this.failFast && this.failure.get() != null) {
+            this.throwFirstFailure();
+          }
 
-        if (object instanceof final PrivateKeyInfo keyInfo) {
-          return converter.getPrivateKey(keyInfo);
+          final var future = this.submitted.get(job);
+          final var decoded =
+            future != null
+              ? future.get()
+              : this.loading.decode(job);
+          if (decoded.failure != null && this.failFast) {
+            this.executor.shutdownNow();
+            throw decoded.failure;
+          }
+          results.add(decoded);
         }
+        return results;
+      } catch (final InterruptedException e) {
+        throw interrupted(this.executor, e);
+      } catch (final ExecutionException e) {
+        throw decodingFailed(this.executor, e);
+      }
+    }
+
+    private void throwFirstFailure()
+      throws IOException
+    {
+      /*
+       * The failure is recorded before the future of the task that failed
+       * completes, and so it is thrown directly rather than searched for
+       * among the completed futures.
+       */
+
+      final var decoded = this.failure.get();
+      LOG.debug(
+        "Cancelling outstanding decoding tasks after failure: {} [{}]",
+        decoded.job.kind,
+        decoded.job.alias
+      );
+      this.executor.shutdownNow();
+      throw decoded.failure;
+    }
 
+    @Override
+    public void close()
+    {
+      this.executor.shutdownNow();
+      this.executor.close();
+    }
+  }
+
+  /**
+   * The mutable indexes used to construct an instance.
+   */
+
+  private static final class Indexes
+  {
+    private final HashMap<String, CMKeyStoreEntryKey> keyEntries;
+    private final HashMap<String, CMKeyStoreEntryCertificate> certEntriesByAlias;
+    private final HashMap<String, List<CMKeyStoreEntryCertificate>> certFileEntriesByAlias;
+    private final HashMap<String, CMKeyStoreEntryCertificate> certEntriesByCN;
+    private final HashSet<CMKeyStoreEntryCertificate> certEntries;
+    private final HashSet<String> removedNames;
+    private final HashMap<String, CMKeyStoreEntryDigest> keyDigests;
+    private final HashMap<String, CMKeyStoreEntryDigest> certificateDigests;
+    private final HashMap<String, CMKeyStoreEntryVersion> keyVersions;
+    private final HashMap<String, CMKeyStoreEntryVersion> certificateVersions;
+
+    Indexes()
+    {
+      this.keyEntries = new HashMap<>();
+      this.certEntriesByAlias = new HashMap<>();
+      this.certFileEntriesByAlias = new HashMap<>();
+      this.certEntriesByCN = new HashMap<>();
+      this.certEntries = new HashSet<>();
+      this.removedNames = new HashSet<>();
+      this.keyDigests = new HashMap<>();
+      this.certificateDigests = new HashMap<>();
+      this.keyVersions = new HashMap<>();
+      this.certificateVersions = new HashMap<>();
+    }
+
+    Indexes(
+      final CMKeyStoreInstance instance)
+    {
+      this.keyEntries =
+        new HashMap<>(instance.keyEntries);
+      this.certEntriesByAlias =
+        new HashMap<>(instance.certEntriesByAlias);
+      this.certFileEntriesByAlias =
+        new HashMap<>(instance.certFileEntriesByAlias);
+      this.certEntriesByCN =
+        new HashMap<>(instance.certEntriesByCN);
+      this.certEntries =
+        new HashSet<>(instance.certificates);
+      this.removedNames =
+        new HashSet<>();
+      this.keyDigests =
+        new HashMap<>(instance.keyDigests);
+      this.certificateDigests =
+        new HashMap<>(instance.certificateDigests);
+      this.keyVersions =
+        new HashMap<>(instance.keyVersions);
+      this.certificateVersions =
+        new HashMap<>(instance.certificateVersions);
+    }
+
+    void putVersion(
+      final CMKeyStoreEntryKind kind,
+      final String alias,
+      final CMKeyStoreEntryVersion version)
+    {
+      final var versions =
+        switch (kind) {
+          case KEY -> this.keyVersions;
+          case CERTIFICATE -> this.certificateVersions;
+        };
+
+      if (version != null) {
+        versions.put(alias, version);
+      } else {
+        versions.remove(alias);
+      }
+    }
+
+    void putKey(
+      final CMKeyStoreEntryKey entry,
+      final Optional<CMKeyStoreEntryDigest> digest)
+    {
+      this.keyEntries.put(entry.alias(), entry);
+      putDigest(this.keyDigests, entry.alias(), digest);
+    }
+
+    void removeKey(
+      final String alias)
+    {
+      this.keyEntries.remove(alias);
+      this.keyDigests.remove(alias);
+      this.keyVersions.remove(alias);
+    }
+
+    private static void putDigest(
+      final HashMap<String, CMKeyStoreEntryDigest> digests,
+      final String alias,
+      final Optional<CMKeyStoreEntryDigest> digest)
+    {
+      if (digest.isPresent()) {
+        digests.put(alias, digest.get());
+      } else {
+        digests.remove(alias);
+      }
+    }
+
+    void putCertificates(
+      final String alias,
+      final List<CMKeyStoreEntryCertificate> entries,
+      final Optional<CMKeyStoreEntryDigest> digest)
+    {
+      putDigest(this.certificateDigests, alias, digest);
+      this.certEntriesByAlias.put(alias, entries.get(0));
+      this.certFileEntriesByAlias.put(alias, entries);
+
+      for (final var entry : entries) {
+        final var name =
+          entry.certificate().getSubjectX500Principal().getName();
+        this.certEntriesByCN.put(name, entry);
+        this.certEntries.add(entry);
+        this.removedNames.remove(name);
+      }
+    }
+
+    void removeCertificates(
+      final String alias)
+    {
+      this.certEntriesByAlias.remove(alias);
+      this.certificateDigests.remove(alias);
+      this.certificateVersions.remove(alias);
+
+      final var existing = this.certFileEntriesByAlias.remove(alias);
+      if (existing == null) {
+        return;
+      }
+
+      for (final var entry : existing) {
+        final var name =
+          entry.certificate().getSubjectX500Principal().getName();
+        this.certEntries.remove(entry);
+        if (Objects.equals(this.certEntriesByCN.get(name), entry)) {
+          this.certEntriesByCN.remove(name);
+          this.removedNames.add(name);
+        }
+      }
+    }
+
+    /**
+     * If an entry was removed from the name index, and another alias's file
+     * also contains a certificate with the same subject name, then that
+     * certificate takes the place of the removed entry.
+     */
+
+    void restoreShadowedNames()
+    {
+      if (this.removedNames.isEmpty()) {
+        return;
+      }
+
+      for (final var entry : this.certEntries) {
+        final var name =
+          entry.certificate().getSubjectX500Principal().getName();
+        if (this.removedNames.contains(name)) {
+          this.certEntriesByCN.putIfAbsent(name, entry);
+        }
+      }
+      this.removedNames.clear();
+    }
+
+    CMKeyStoreInstance build()
+    {
+      return new CMKeyStoreInstance(
+        Map.copyOf(this.keyEntries),
+        Map.copyOf(this.certEntriesByAlias),
+        Map.copyOf(this.certFileEntriesByAlias),
+        Map.copyOf(this.certEntriesByCN),
+        Set.copyOf(this.certEntries),
+        Map.copyOf(this.keyDigests),
+        Map.copyOf(this.certificateDigests),
+        Map.copyOf(this.keyVersions),
+        Map.copyOf(this.certificateVersions)
+      );
+    }
+  }
+
+  private static List<X509Certificate> loadCertificates(
+    final Path certFile,
+    final byte[] data)
+    throws CertificateException, IOException
+  {
+    final var factory =
+      CertificateFactory.getInstance("X.509");
+
+    if (CMKeyStoreFileFormat.detect(certFile, data) == DER) {
+      return loadCertificatesDER(certFile, factory, data);
+    }
+
+    final var results = new ArrayList<X509Certificate>();
+    for (final var block : CMKeyStorePEM.blocks(certFile, data)) {
+      if (!"CERTIFICATE".equals(block.type())) {
         throw new IOException(
-          "Expected a private key, received: %s".formatted(object)
+          "Expected an X.509 certificate, received: %s".formatted(block)
         );
       }
+      results.add(
+        (X509Certificate)
+          factory.generateCertificate(new ByteArrayInputStream(block.data()))
+      );
+    }
+
+    if (results.isEmpty()) {
+      throw new IOException(
+        "Could not load anything from file '%s'".formatted(certFile)
+      );
+    }
+
+    return List.copyOf(results);
+  }
+
+  /**
+   * Load a sequence of concatenated DER-encoded certificates. The X.509
+   * certificate factory reads DER directly, so no text decoding is
+   * required.
+   */
+
+  private static List<X509Certificate> loadCertificatesDER(
+    final Path certFile,
+    final CertificateFactory factory,
+    final byte[] data)
+    throws CertificateException, IOException
+  {
+    final var results = new ArrayList<X509Certificate>();
+    try (var stream = new ByteArrayInputStream(data)) {
+      while (stream.available() > 0) {
+        results.add((X509Certificate) factory.generateCertificate(stream));
+      }
     }
+
+    if (results.isEmpty()) {
+      throw new IOException(
+        "Could not load anything from file '%s'".formatted(certFile)
+      );
+    }
+
+    return List.copyOf(results);
   }
 
   /**
@@ -327,6 +1670,36 @@ public final class CMKeyStoreInstance
     return this.certEntriesByAlias;
   }
 
+  /**
+   * @return A read-only view of all of the certificate entries loaded from
+   * the file of each alias, in the order that they appear in the file
+   */
+
+  public Map<String, List<CMKeyStoreEntryCertificate>> certFileEntriesByAlias()
+  {
+    return this.certFileEntriesByAlias;
+  }
+
+  /**
+   * @return The version of the data from which each key was decoded, for
+   * those keys whose data was examined
+   */
+
+  public Map<String, CMKeyStoreEntryVersion> keyVersions()
+  {
+    return this.keyVersions;
+  }
+
+  /**
+   * @return The version of the data from which each alias's certificates
+   * were decoded, for those aliases whose data was examined
+   */
+
+  public Map<String, CMKeyStoreEntryVersion> certificateVersions()
+  {
+    return this.certificateVersions;
+  }
+
   /**
    * @return A read-only view of the certificate entries by common name
    */
@@ -335,4 +1708,70 @@ public final class CMKeyStoreInstance
   {
     return this.certEntriesByCN;
   }
+
+  /**
+   * @return The set of all aliases (key and certificate) in the instance
+   */
+
+  public Set<String> aliases()
+  {
+    final var s = new HashSet<String>(this.keyEntries.keySet());
+    s.addAll(this.certEntriesByAlias.keySet());
+    return Set.copyOf(s);
+  }
+
+  /**
+   * Resolve the certificate chain for the given alias. The chain begins with
+   * the certificate associated with the alias, and is followed by issuer
+   * certificates (looked up by subject name) until a self-signed certificate
+   * is reached, or an issuer cannot be found.
+   *
+   * @param alias The alias
+   *
+   * @return The certificate chain, if the alias has a certificate
+   */
+
+  public Optional<List<X509Certificate>> certificateChain(
+    final String alias)
+  {
+    Objects.requireNonNull(alias, "alias");
+
+    final var e = this.certEntriesByAlias.get(alias);
+    if (e == null) {
+      return Optional.empty();
+    }
+
+    final var certificates = new ArrayList<X509Certificate>();
+    certificates.add(e.certificate());
+
+    var eNow = e;
+    while (true) {
+      final var issuerName =
+        eNow.certificate().getIssuerX500Principal().getName();
+      final var currentName =
+        eNow.certificate().getSubjectX500Principal().getName();
+
+      if (Objects.equals(issuerName, currentName)) {
+        break;
+      }
+
+      final var eIssuer = this.certEntriesByCN.get(issuerName);
+      if (eIssuer == null) {
+        break;
+      }
+
+      /*
+       * Guard against issuer cycles between distinct certificates.
+       */
+
+      if (certificates.contains(eIssuer.certificate())) {
+        break;
+      }
+
+      certificates.add(eIssuer.certificate());
+      eNow = eIssuer;
+    }
+
+    return Optional.of(List.copyOf(certificates));
+  }
 }
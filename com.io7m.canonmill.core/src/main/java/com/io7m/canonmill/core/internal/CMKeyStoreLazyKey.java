@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core.internal;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.PrivateKey;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * <p>A private key that may not yet have been decoded.</p>
+ *
+ * <p>A deferred key is decoded at most once, when it is first accessed,
+ * and the decoded key is then retained. A key that fails to decode is
+ * decoded again on the next access, so that a transient failure (such as a
+ * password provider being temporarily unavailable) is not permanent.</p>
+ */
+
+@ThreadSafe
+public final class CMKeyStoreLazyKey
+{
+  private final Optional<CMKeyStoreEntryDigest> digest;
+  private volatile PrivateKey key;
+  private DecoderType decoder;
+
+  private CMKeyStoreLazyKey(
+    final Optional<CMKeyStoreEntryDigest> inDigest,
+    final PrivateKey inKey,
+    final DecoderType inDecoder)
+  {
+    this.digest = Objects.requireNonNull(inDigest, "digest");
+    this.key = inKey;
+    this.decoder = inDecoder;
+  }
+
+  /**
+   * A function that decodes a key.
+   */
+
+  @FunctionalInterface
+  public interface DecoderType
+  {
+    /**
+     * @return The decoded key
+     *
+     * @throws IOException On errors
+     */
+
+    PrivateKey decode()
+      throws IOException;
+  }
+
+  /**
+   * @param key The key
+   *
+   * @return An already-decoded key
+   */
+
+  public static CMKeyStoreLazyKey of(
+    final PrivateKey key)
+  {
+    return new CMKeyStoreLazyKey(
+      Optional.empty(),
+      Objects.requireNonNull(key, "key"),
+      null
+    );
+  }
+
+  /**
+   * @param digest  The digest of the data from which the key will be decoded
+   * @param decoder The function that decodes the key
+   *
+   * @return A deferred key
+   */
+
+  public static CMKeyStoreLazyKey deferred(
+    final CMKeyStoreEntryDigest digest,
+    final DecoderType decoder)
+  {
+    return new CMKeyStoreLazyKey(
+      Optional.of(Objects.requireNonNull(digest, "digest")),
+      null,
+      Objects.requireNonNull(decoder, "decoder")
+    );
+  }
+
+  /**
+   * @return {@code true} if the key has been decoded
+   */
+
+  public boolean isDecoded()
+  {
+    return this.key != null;
+  }
+
+  /**
+   * Decode the key, if necessary.
+   *
+   * @return The key
+   *
+   * @throws UncheckedIOException If the key cannot be decoded
+   */
+
+  public PrivateKey get()
+  {
+    final var existing = this.key;
+    if (existing != null) {
+      return existing;
+    }
+
+    synchronized (this) {
+      if (this.key == null) {
+        try {
+          this.key = this.decoder.decode();
+          this.decoder = null;
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      return this.key;
+    }
+  }
+
+  /**
+   * Determine whether this key and the given key are the same. Deferred keys
+   * decoded from data with the same digest are the same without either
+   * being decoded; otherwise, the keys are decoded and compared.
+   *
+   * @param other The other key
+   *
+   * @return {@code true} if the keys are the same
+   */
+
+  public boolean isSameAs(
+    final CMKeyStoreLazyKey other)
+  {
+    if (this == other) {
+      return true;
+    }
+    if (this.digest.isPresent() && other.digest.isPresent()) {
+      return this.digest.equals(other.digest);
+    }
+    return this.get().equals(other.get());
+  }
+
+  /**
+   * Keys are equal if their decoded keys are equal, and so comparing
+   * deferred keys decodes them.
+   *
+   * @see #isSameAs(CMKeyStoreLazyKey)
+   */
+
+  @Override
+  public boolean equals(
+    final Object other)
+  {
+    if (this == other) {
+      return true;
+    }
+    if (other instanceof final CMKeyStoreLazyKey otherKey) {
+      return this.get().equals(otherKey.get());
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return this.get().hashCode();
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * <p>A minimal reader and writer of PEM files, using only the JDK.</p>
+ *
+ * <p>The reader splits a file into armoured blocks and decodes the Base64
+ * content of each block. Any text outside of blocks is ignored. The reader
+ * does not interpret the content of blocks, and does not handle encrypted
+ * blocks; blocks with RFC 1421 headers (such as {@code Proc-Type}) are
+ * reported as such so that callers can delegate them elsewhere.</p>
+ */
+
+public final class CMKeyStorePEM
+{
+  private static final String BEGIN = "-----BEGIN ";
+  private static final String END = "-----END ";
+  private static final String DASHES = "-----";
+
+  private CMKeyStorePEM()
+  {
+
+  }
+
+  /**
+   * A single PEM block.
+   *
+   * @param type       The block type, such as {@code CERTIFICATE}
+   * @param hasHeaders {@code true} if the block has RFC 1421 headers
+   * @param data       The decoded content of the block
+   */
+
+  public record Block(
+    String type,
+    boolean hasHeaders,
+    byte[] data)
+  {
+    /**
+     * A single PEM block.
+     *
+     * @param type       The block type, such as {@code CERTIFICATE}
+     * @param hasHeaders {@code true} if the block has RFC 1421 headers
+     * @param data       The decoded content of the block
+     */
+
+    public Block
+    {
+      Objects.requireNonNull(type, "type");
+      Objects.requireNonNull(data, "data");
+    }
+
+    @Override
+    public String toString()
+    {
+      return "%s block".formatted(this.type);
+    }
+  }
+
+  /**
+   * The start of a PEM block.
+   *
+   * @param type       The block type, such as {@code CERTIFICATE}
+   * @param hasHeaders {@code true} if the block has RFC 1421 headers
+   */
+
+  public record Preamble(
+    String type,
+    boolean hasHeaders)
+  {
+    /**
+     * The start of a PEM block.
+     *
+     * @param type       The block type, such as {@code CERTIFICATE}
+     * @param hasHeaders {@code true} if the block has RFC 1421 headers
+     */
+
+    public Preamble
+    {
+      Objects.requireNonNull(type, "type");
+    }
+  }
+
+  /**
+   * Read the start of the first PEM block in the given data, without
+   * decoding the content of the block.
+   *
+   * @param data The data
+   *
+   * @return The start of the first block, if there is one
+   */
+
+  public static Optional<Preamble> firstPreamble(
+    final byte[] data)
+  {
+    Objects.requireNonNull(data, "data");
+
+    final var lines =
+      new String(data, US_ASCII).lines().iterator();
+
+    while (lines.hasNext()) {
+      final var line = lines.next().strip();
+      if (line.startsWith(BEGIN) && line.endsWith(DASHES)) {
+        final var type =
+          line.substring(BEGIN.length(), line.length() - DASHES.length());
+        final var hasHeaders =
+          lines.hasNext() && lines.next().indexOf(':') != -1;
+        return Optional.of(new Preamble(type, hasHeaders));
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Read all the PEM blocks in the given data.
+   *
+   * @param file The file from which the data was read
+   * @param data The data
+   *
+   * @return The blocks, in the order that they appear
+   *
+   * @throws IOException If a block is unterminated or malformed
+   */
+
+  public static List<Block> blocks(
+    final Path file,
+    final byte[] data)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(data, "data");
+
+    final var lines =
+      new String(data, US_ASCII).lines().toList();
+    final var blocks =
+      new ArrayList<Block>();
+
+    int index = 0;
+    while (index < lines.size()) {
+      final var line = lines.get(index).strip();
+      ++index;
+
+      if (!line.startsWith(BEGIN) || !line.endsWith(DASHES)) {
+        continue;
+      }
+
+      final var type =
+        line.substring(BEGIN.length(), line.length() - DASHES.length());
+      final var end =
+        END + type + DASHES;
+
+      final var content = new StringBuilder(data.length);
+      var hasHeaders = false;
+      var terminated = false;
+      while (index < lines.size()) {
+        final var body = lines.get(index).strip();
+        ++index;
+
+        if (body.equals(end)) {
+          terminated = true;
+          break;
+        }
+        if (body.indexOf(':') != -1) {
+          hasHeaders = true;
+          continue;
+        }
+        content.append(body);
+      }
+
+      if (!terminated) {
+        throw new IOException(
+          "Unterminated %s block in file '%s'".formatted(type, file)
+        );
+      }
+
+      try {
+        blocks.add(
+          new Block(
+            type,
+            hasHeaders,
+            Base64.getMimeDecoder().decode(content.toString())
+          )
+        );
+      } catch (final IllegalArgumentException e) {
+        throw new IOException(
+          "Malformed %s block in file '%s': %s"
+            .formatted(type, file, e.getMessage()),
+          e
+        );
+      }
+    }
+    return List.copyOf(blocks);
+  }
+
+  /**
+   * Encode the given data as a PEM block.
+   *
+   * @param type The block type, such as {@code CERTIFICATE}
+   * @param data The content of the block
+   *
+   * @return The encoded block
+   */
+
+  public static String encode(
+    final String type,
+    final byte[] data)
+  {
+    Objects.requireNonNull(type, "type");
+    Objects.requireNonNull(data, "data");
+
+    final var encoder =
+      Base64.getMimeEncoder(64, new byte[]{'\n'});
+
+    return new StringBuilder(data.length * 2)
+      .append(BEGIN)
+      .append(type)
+      .append(DASHES)
+      .append('\n')
+      .append(encoder.encodeToString(data))
+      .append('\n')
+      .append(END)
+      .append(type)
+      .append(DASHES)
+      .append('\n')
+      .toString();
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import com.io7m.canonmill.core.CMKeyStoreSchemas;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A pool of validating XML parsers.</p>
+ *
+ * <p>The keystore schemas are compiled exactly once when the pool is
+ * created, and every parser produced by the pool validates against the
+ * compiled schemas. Parsers are not thread-safe, so each parse takes a
+ * parser from the pool and returns it afterwards; a bounded number of idle
+ * parsers are retained for reuse.</p>
+ *
+ * <p>The parsers are hardened: Document type declarations, external
+ * entities, and XInclude processing are all rejected.</p>
+ */
+
+public final class CMKeyStoreParserPool
+{
+  private static final int MAXIMUM_IDLE_PARSERS = 16;
+
+  private final Schema schema;
+  private final SAXParserFactory parsers;
+  private final ConcurrentLinkedQueue<SAXParser> idle;
+  private final AtomicInteger idleCount;
+
+  private CMKeyStoreParserPool(
+    final Schema inSchema,
+    final SAXParserFactory inParsers)
+  {
+    this.schema = inSchema;
+    this.parsers = inParsers;
+    this.idle = new ConcurrentLinkedQueue<>();
+    this.idleCount = new AtomicInteger(0);
+  }
+
+  private static final class Shared
+  {
+    private static final CMKeyStoreParserPool POOL = create();
+
+    private Shared()
+    {
+
+    }
+  }
+
+  /**
+   * @return The pool shared by all keystore parsers
+   */
+
+  public static CMKeyStoreParserPool shared()
+  {
+    return Shared.POOL;
+  }
+
+  /**
+   * Create a new pool, compiling the keystore schemas. Most code should use
+   * the {@link #shared()} pool.
+   *
+   * @return A new pool
+   */
+
+  public static CMKeyStoreParserPool create()
+  {
+    try {
+      final var schemas =
+        SchemaFactory.newDefaultInstance();
+
+      schemas.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      schemas.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+      schemas.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+
+      final var schema1 =
+        CMKeyStoreSchemas.schema1().location();
+      final var schema2 =
+        CMKeyStoreSchemas.schema2().location();
+      final var schema =
+        schemas.newSchema(new StreamSource[]{
+          new StreamSource(schema1.openStream(), schema1.toString()),
+          new StreamSource(schema2.openStream(), schema2.toString()),
+        });
+
+      final var parsers =
+        SAXParserFactory.newDefaultInstance();
+
+      parsers.setNamespaceAware(true);
+      parsers.setValidating(false);
+      parsers.setXIncludeAware(false);
+      parsers.setSchema(schema);
+      parsers.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      parsers.setFeature(
+        "http://apache.org/xml/features/disallow-doctype-decl", true);
+      parsers.setFeature(
+        "http://xml.org/sax/features/external-general-entities", false);
+      parsers.setFeature(
+        "http://xml.org/sax/features/external-parameter-entities", false);
+
+      return new CMKeyStoreParserPool(schema, parsers);
+    } catch (final SAXException
+                   | ParserConfigurationException
+                   | IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return The compiled keystore schemas
+   */
+
+  public Schema schema()
+  {
+    return this.schema;
+  }
+
+  /**
+   * Take a parser from the pool, creating one if no idle parser is
+   * available. The parser must be returned with {@link #release(SAXParser)}
+   * after use.
+   *
+   * @return A validating parser
+   *
+   * @throws SAXException On parser configuration errors
+   */
+
+  public SAXParser acquire()
+    throws SAXException
+  {
+    final var parser = this.idle.poll();
+    if (parser != null) {
+      this.idleCount.decrementAndGet();
+      return parser;
+    }
+
+    try {
+      return this.parsers.newSAXParser();
+    } catch (final ParserConfigurationException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  /**
+   * Return a parser to the pool.
+   *
+   * @param parser The parser
+   */
+
+  public void release(
+    final SAXParser parser)
+  {
+    parser.reset();
+    if (this.idleCount.incrementAndGet() <= MAXIMUM_IDLE_PARSERS) {
+      this.idle.offer(parser);
+    } else {
+      this.idleCount.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import com.io7m.canonmill.core.CMKeyStoreEntryVersion;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Entries that have already been decoded from files, such as those
+ * recovered from a snapshot. During a load, an already-decoded entry is used
+ * in place of decoding its file if it was decoded from the same file that
+ * the description names for its alias. The version of the data from which
+ * each entry was decoded is recorded alongside it, so that the entry can be
+ * reused by subsequent loads for exactly as long as the data is unchanged.
+ * The digest that the index expected for each entry's data, if any, is also
+ * recorded, and an entry is not used if the index now expects a different
+ * digest.
+ *
+ * @param keys                The key entries by alias
+ * @param certificates        The certificate entries by alias, in the order
+ *                            that they appear in their file
+ * @param keyVersions         The versions of the key data, by alias
+ * @param certificateVersions The versions of the certificate data, by alias
+ * @param keyDigests          The digests expected for the key data, by alias
+ * @param certificateDigests  The digests expected for the certificate data,
+ *                            by alias
+ */
+
+public record CMKeyStorePredecoded(
+  Map<String, CMKeyStoreEntryKey> keys,
+  Map<String, List<CMKeyStoreEntryCertificate>> certificates,
+  Map<String, CMKeyStoreEntryVersion> keyVersions,
+  Map<String, CMKeyStoreEntryVersion> certificateVersions,
+  Map<String, CMKeyStoreEntryDigest> keyDigests,
+  Map<String, CMKeyStoreEntryDigest> certificateDigests)
+{
+  private static final CMKeyStorePredecoded EMPTY =
+    new CMKeyStorePredecoded(
+      Map.of(),
+      Map.of(),
+      Map.of(),
+      Map.of(),
+      Map.of(),
+      Map.of()
+    );
+
+  /**
+   * Entries that have already been decoded from files.
+   *
+   * @param keys                The key entries by alias
+   * @param certificates        The certificate entries by alias
+   * @param keyVersions         The versions of the key data, by alias
+   * @param certificateVersions The versions of the certificate data, by
+   *                            alias
+   * @param keyDigests          The digests expected for the key data, by
+   *                            alias
+   * @param certificateDigests  The digests expected for the certificate
+   *                            data, by alias
+   */
+
+  public CMKeyStorePredecoded
+  {
+    keys = Map.copyOf(Objects.requireNonNull(keys, "keys"));
+    certificates =
+      Map.copyOf(Objects.requireNonNull(certificates, "certificates"));
+    keyVersions =
+      Map.copyOf(Objects.requireNonNull(keyVersions, "keyVersions"));
+    certificateVersions =
+      Map.copyOf(
+        Objects.requireNonNull(certificateVersions, "certificateVersions"));
+    keyDigests =
+      Map.copyOf(Objects.requireNonNull(keyDigests, "keyDigests"));
+    certificateDigests =
+      Map.copyOf(
+        Objects.requireNonNull(certificateDigests, "certificateDigests"));
+
+    if (!keyVersions.keySet().equals(keys.keySet())
+        || !certificateVersions.keySet().equals(certificates.keySet())) {
+      throw new IllegalArgumentException(
+        "Every entry must have a version.");
+    }
+
+    for (final var entries : certificates.values()) {
+      if (entries.isEmpty()) {
+        throw new IllegalArgumentException(
+          "Certificate entry lists must be non-empty.");
+      }
+    }
+  }
+
+  /**
+   * @return An empty set of entries
+   */
+
+  public static CMKeyStorePredecoded empty()
+  {
+    return EMPTY;
+  }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.EncryptedPrivateKeyInfo;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * <p>Functions to decode private keys.</p>
+ *
+ * <p>Unencrypted PKCS#8 keys ({@code BEGIN PRIVATE KEY} blocks, or DER),
+ * PKCS#1 RSA keys ({@code BEGIN RSA PRIVATE KEY}), and SEC1 EC keys with
+ * named curves ({@code BEGIN EC PRIVATE KEY}) are decoded using only the
+ * JDK's {@link KeyFactory}. Encrypted PKCS#8 keys
+ * ({@code BEGIN ENCRYPTED PRIVATE KEY} blocks, or DER) using PBES2 with
+ * PBKDF2 are decrypted using only the JDK. Any other kind of private key
+ * (including legacy OpenSSL encrypted keys with {@code Proc-Type} headers,
+ * and PKCS#8 keys encrypted using scrypt) is handed to Bouncy Castle, which
+ * is therefore only loaded if a keystore actually contains such a key.</p>
+ */
+
+public final class CMKeyStorePrivateKeys
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(CMKeyStorePrivateKeys.class);
+
+  private static final int TAG_INTEGER = 0x02;
+  private static final int TAG_OCTET_STRING = 0x04;
+  private static final int TAG_NULL = 0x05;
+  private static final int TAG_OID = 0x06;
+  private static final int TAG_SEQUENCE = 0x30;
+  private static final int TAG_CONTEXT_0 = 0xa0;
+
+  private static final String OID_RSA = "1.2.840.113549.1.1.1";
+  private static final String OID_EC = "1.2.840.10045.2.1";
+
+  private static final Map<String, String> ALGORITHMS =
+    Map.ofEntries(
+      Map.entry(OID_RSA, "RSA"),
+      Map.entry("1.2.840.113549.1.1.10", "RSASSA-PSS"),
+      Map.entry(OID_EC, "EC"),
+      Map.entry("1.2.840.10040.4.1", "DSA"),
+      Map.entry("1.3.101.110", "X25519"),
+      Map.entry("1.3.101.111", "X448"),
+      Map.entry("1.3.101.112", "Ed25519"),
+      Map.entry("1.3.101.113", "Ed448")
+    );
+
+  private CMKeyStorePrivateKeys()
+  {
+
+  }
+
+  /**
+   * Decode the unencrypted private key in the given file.
+   *
+   * @param file The file from which the data was read
+   * @param data The file data
+   *
+   * @return The private key
+   *
+   * @throws IOException If the file does not contain a private key
+   */
+
+  public static PrivateKey decode(
+    final Path file,
+    final byte[] data)
+    throws IOException
+  {
+    return decode(file, data, Optional.empty());
+  }
+
+  /**
+   * Determine whether the private key in the given file is encrypted. This
+   * is much cheaper than decrypting the key, and does not require a
+   * password.
+   *
+   * @param file The file from which the data was read
+   * @param data The file data
+   *
+   * @return {@code true} if the key is encrypted
+   */
+
+  public static boolean isEncrypted(
+    final Path file,
+    final byte[] data)
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(data, "data");
+
+    if (CMKeyStoreFileFormat.detect(file, data) == CMKeyStoreFileFormat.DER) {
+      return isEncryptedPKCS8(data);
+    }
+
+    /*
+     * The only RFC 1421 headers that appear on private keys are the
+     * Proc-Type and DEK-Info headers of legacy OpenSSL encrypted keys.
+     */
+
+    return CMKeyStorePEM.firstPreamble(data)
+      .map(p -> {
+        return Boolean.valueOf(
+          "ENCRYPTED PRIVATE KEY".equals(p.type()) || p.hasHeaders()
+        );
+      })
+      .orElse(Boolean.FALSE)
+      .booleanValue();
+  }
+
+  /**
+   * Decode the private key in the given file, decrypting it with the given
+   * password if the key is encrypted.
+   *
+   * @param file     The file from which the data was read
+   * @param data     The file data
+   * @param password The password, if any
+   *
+   * @return The private key
+   *
+   * @throws IOException If the file does not contain a private key, or the
+   *                     key is encrypted and cannot be decrypted
+   */
+
+  public static PrivateKey decode(
+    final Path file,
+    final byte[] data,
+    final Optional<char[]> password)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(data, "data");
+    Objects.requireNonNull(password, "password");
+
+    if (CMKeyStoreFileFormat.detect(file, data) == CMKeyStoreFileFormat.DER) {
+      if (isEncryptedPKCS8(data)) {
+        return decryptPKCS8(file, data, requirePassword(file, password));
+      }
+      final var key = decodePKCS8(data);
+      if (key.isPresent()) {
+        return key.get();
+      }
+      return CMKeyStoreBouncyCastle.decodePrivateKeyDER(file, data);
+    }
+
+    final var blocks = CMKeyStorePEM.blocks(file, data);
+    if (blocks.isEmpty()) {
+      throw new IOException(
+        "Could not load anything from file '%s'".formatted(file)
+      );
+    }
+
+    final var block = blocks.get(0);
+    if (!block.type().endsWith("PRIVATE KEY")) {
+      throw new IOException(
+        "Expected a private key, received: %s".formatted(block)
+      );
+    }
+
+    if ("ENCRYPTED PRIVATE KEY".equals(block.type())) {
+      return decryptPKCS8(file, block.data(), requirePassword(file, password));
+    }
+
+    if (block.hasHeaders()) {
+      LOG.debug("Delegating encrypted {} in {} to Bouncy Castle", block, file);
+      return CMKeyStoreBouncyCastle.decryptPrivateKeyPEM(
+        file,
+        data,
+        requirePassword(file, password)
+      );
+    }
+
+    final Optional<PrivateKey> key =
+      switch (block.type()) {
+        case "PRIVATE KEY" -> decodePKCS8(block.data());
+        case "RSA PRIVATE KEY" -> decodePKCS1(block.data());
+        case "EC PRIVATE KEY" -> decodeSEC1(block.data());
+        default -> Optional.empty();
+      };
+
+    if (key.isPresent()) {
+      return key.get();
+    }
+
+    LOG.debug("Delegating {} in {} to Bouncy Castle", block, file);
+    return CMKeyStoreBouncyCastle.decodePrivateKeyPEM(file, data);
+  }
+
+  private static char[] requirePassword(
+    final Path file,
+    final Optional<char[]> password)
+    throws IOException
+  {
+    return password.orElseThrow(() -> {
+      return new IOException(
+        "The private key in file '%s' is encrypted, but no password was provided."
+          .formatted(file)
+      );
+    });
+  }
+
+  /**
+   * An {@code EncryptedPrivateKeyInfo} begins with an algorithm identifier
+   * sequence, whereas a {@code PrivateKeyInfo} begins with a version number.
+   */
+
+  private static boolean isEncryptedPKCS8(
+    final byte[] data)
+  {
+    try {
+      final var info = DER.sequence(data, 0);
+      DER.next(data, info.start, TAG_SEQUENCE);
+      return true;
+    } catch (final IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Decrypt a PKCS#8 {@code EncryptedPrivateKeyInfo}. The JDK handles PBES1
+   * and PBES2 with PBKDF2; anything else (such as scrypt) is delegated to
+   * Bouncy Castle.
+   */
+
+  private static PrivateKey decryptPKCS8(
+    final Path file,
+    final byte[] data,
+    final char[] password)
+    throws IOException
+  {
+    final EncryptedPrivateKeyInfo info;
+    final SecretKeyFactory factory;
+    try {
+      info = new EncryptedPrivateKeyInfo(data);
+      factory = SecretKeyFactory.getInstance(info.getAlgName());
+    } catch (final IOException | NoSuchAlgorithmException e) {
+      LOG.debug(
+        "JDK could not decrypt key in {} ({}); delegating to Bouncy Castle",
+        file,
+        e.getMessage()
+      );
+      return CMKeyStoreBouncyCastle.decryptPrivateKeyPKCS8(
+        file, data, password);
+    }
+
+    final byte[] decrypted;
+    final var spec = new PBEKeySpec(password);
+    try {
+      decrypted =
+        info.getKeySpec(factory.generateSecret(spec)).getEncoded();
+    } catch (final GeneralSecurityException e) {
+      throw new IOException(
+        "Could not decrypt the private key in file '%s': %s"
+          .formatted(file, e.getMessage()),
+        e
+      );
+    } finally {
+      spec.clearPassword();
+    }
+
+    try {
+      final var key = decodePKCS8(decrypted);
+      if (key.isPresent()) {
+        return key.get();
+      }
+      return CMKeyStoreBouncyCastle.decodePrivateKeyDER(file, decrypted);
+    } finally {
+      Arrays.fill(decrypted, (byte) 0);
+    }
+  }
+
+  /**
+   * Decode an unencrypted PKCS#8 {@code PrivateKeyInfo}, if the JDK
+   * supports the key algorithm.
+   */
+
+  private static Optional<PrivateKey> decodePKCS8(
+    final byte[] data)
+  {
+    try {
+      final var info = DER.sequence(data, 0);
+      final var version = DER.next(data, info.start, TAG_INTEGER);
+      final var algorithm = DER.next(data, version.end, TAG_SEQUENCE);
+      final var oid = DER.next(data, algorithm.start, TAG_OID);
+      final var name = ALGORITHMS.get(DER.oid(data, oid));
+      if (name == null) {
+        return Optional.empty();
+      }
+      return generate(name, data);
+    } catch (final IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Decode a PKCS#1 {@code RSAPrivateKey} by wrapping it in a PKCS#8
+   * {@code PrivateKeyInfo}.
+   */
+
+  private static Optional<PrivateKey> decodePKCS1(
+    final byte[] data)
+  {
+    final var algorithm = new ByteArrayOutputStream();
+    DER.write(algorithm, TAG_OID, DER.encodeOID(OID_RSA));
+    DER.write(algorithm, TAG_NULL, new byte[0]);
+    return generate("RSA", wrapPKCS8(algorithm.toByteArray(), data));
+  }
+
+  /**
+   * Decode a SEC1 {@code ECPrivateKey} with a named curve by wrapping it in
+   * a PKCS#8 {@code PrivateKeyInfo}. Keys with explicit curve parameters,
+   * or without parameters, are not handled.
+   */
+
+  private static Optional<PrivateKey> decodeSEC1(
+    final byte[] data)
+  {
+    try {
+      final var key = DER.sequence(data, 0);
+      final var version = DER.next(data, key.start, TAG_INTEGER);
+      final var octets = DER.next(data, version.end, TAG_OCTET_STRING);
+      if (octets.end >= key.end) {
+        return Optional.empty();
+      }
+
+      final var parameters = DER.next(data, octets.end, TAG_CONTEXT_0);
+      final var curve = DER.next(data, parameters.start, TAG_OID);
+
+      final var algorithm = new ByteArrayOutputStream();
+      DER.write(algorithm, TAG_OID, DER.encodeOID(OID_EC));
+      algorithm.write(data, curve.offset, curve.end - curve.offset);
+      return generate("EC", wrapPKCS8(algorithm.toByteArray(), data));
+    } catch (final IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static byte[] wrapPKCS8(
+    final byte[] algorithmContent,
+    final byte[] privateKey)
+  {
+    final var content = new ByteArrayOutputStream();
+    DER.write(content, TAG_INTEGER, new byte[]{0});
+    DER.write(content, TAG_SEQUENCE, algorithmContent);
+    DER.write(content, TAG_OCTET_STRING, privateKey);
+
+    final var output = new ByteArrayOutputStream();
+    DER.write(output, TAG_SEQUENCE, content.toByteArray());
+    return output.toByteArray();
+  }
+
+  private static Optional<PrivateKey> generate(
+    final String algorithm,
+    final byte[] pkcs8)
+  {
+    try {
+      return Optional.of(
+        KeyFactory.getInstance(algorithm)
+          .generatePrivate(new PKCS8EncodedKeySpec(pkcs8))
+      );
+    } catch (final GeneralSecurityException e) {
+      LOG.debug("JDK could not decode {} key: {}", algorithm, e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * The minimal subset of DER required to locate key algorithms.
+   */
+
+  private static final class DER
+  {
+    private DER()
+    {
+
+    }
+
+    /**
+     * An encoded value.
+     *
+     * @param offset The offset of the tag
+     * @param start  The offset of the content
+     * @param end    The offset of the first byte after the content
+     */
+
+    private record Value(
+      int offset,
+      int start,
+      int end)
+    {
+
+    }
+
+    static Value sequence(
+      final byte[] data,
+      final int offset)
+    {
+      final var value = next(data, offset, TAG_SEQUENCE);
+      if (value.end != data.length) {
+        throw new IllegalArgumentException("Trailing data.");
+      }
+      return value;
+    }
+
+    static Value next(
+      final byte[] data,
+      final int offset,
+      final int tag)
+    {
+      if (offset + 2 > data.length || (data[offset] & 0xff) != tag) {
+        throw new IllegalArgumentException(
+          "Expected tag 0x%02x".formatted(Integer.valueOf(tag)));
+      }
+
+      final int first = data[offset + 1] & 0xff;
+      int start = offset + 2;
+      long length;
+      if (first < 0x80) {
+        length = first;
+      } else {
+        final int octets = first & 0x7f;
+        if (octets == 0 || octets > 4 || start + octets > data.length) {
+          throw new IllegalArgumentException("Unsupported length.");
+        }
+        length = 0L;
+        for (int index = 0; index < octets; ++index) {
+          length = (length << 8) | (data[start + index] & 0xff);
+        }
+        start += octets;
+      }
+
+      if (start + length > data.length) {
+        throw new IllegalArgumentException("Truncated value.");
+      }
+      return new Value(offset, start, (int) (start + length));
+    }
+
+    static String oid(
+      final byte[] data,
+      final Value value)
+    {
+      if (value.start == value.end) {
+        throw new IllegalArgumentException("Empty OID.");
+      }
+
+      final var text = new StringBuilder(32);
+      final int first = data[value.start] & 0xff;
+      text.append(Math.min(first / 40, 2));
+      text.append('.');
+      text.append(first - Math.min(first / 40, 2) * 40);
+
+      long component = 0L;
+      for (int index = value.start + 1; index < value.end; ++index) {
+        final int octet = data[index] & 0xff;
+        component = (component << 7) | (octet & 0x7f);
+        if ((octet & 0x80) == 0) {
+          text.append('.');
+          text.append(component);
+          component = 0L;
+        }
+      }
+      return text.toString();
+    }
+
+    static byte[] encodeOID(
+      final String oid)
+    {
+      final var parts =
+        Arrays.stream(oid.split("\\."))
+          .mapToLong(Long::parseLong)
+          .toArray();
+
+      final var output = new ByteArrayOutputStream();
+      output.write((int) (parts[0] * 40 + parts[1]));
+      for (int index = 2; index < parts.length; ++index) {
+        final var part = parts[index];
+        final var bytes = new ByteArrayOutputStream();
+        var shift = (63 - Long.numberOfLeadingZeros(part | 1L)) / 7 * 7;
+        while (shift > 0) {
+          bytes.write((int) (((part >>> shift) & 0x7f) | 0x80));
+          shift -= 7;
+        }
+        bytes.write((int) (part & 0x7f));
+        output.writeBytes(bytes.toByteArray());
+      }
+      return output.toByteArray();
+    }
+
+    static void write(
+      final ByteArrayOutputStream output,
+      final int tag,
+      final byte[] content)
+    {
+      output.write(tag);
+
+      final var length = content.length;
+      if (length < 0x80) {
+        output.write(length);
+      } else if (length <= 0xff) {
+        output.write(0x81);
+        output.write(length);
+      } else if (length <= 0xffff) {
+        output.write(0x82);
+        output.write(length >>> 8);
+        output.write(length);
+      } else if (length <= 0xffffff) {
+        output.write(0x83);
+        output.write(length >>> 16);
+        output.write(length >>> 8);
+        output.write(length);
+      } else {
+        output.write(0x84);
+        output.write(length >>> 24);
+        output.write(length >>> 16);
+        output.write(length >>> 8);
+        output.write(length);
+      }
+      output.writeBytes(content);
+    }
+  }
+}
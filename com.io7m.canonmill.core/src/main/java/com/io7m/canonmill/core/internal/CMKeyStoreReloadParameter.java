@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core.internal;
+
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A parameter that instructs a keystore to reload an index file using the
+ * keystore's current options and the password given to its most recent
+ * load, and to record the generation published by that load. Reading the
+ * keystore's generation after the load returns is not sufficient, as
+ * another load may have published a newer generation in the meantime.
+ *
+ * @param file       The index file
+ * @param generation The generation published by the load
+ */
+
+public record CMKeyStoreReloadParameter(
+  Path file,
+  AtomicReference<CMKeyStoreGeneration> generation)
+  implements KeyStore.LoadStoreParameter
+{
+  /**
+   * A parameter that instructs a keystore to reload an index file.
+   *
+   * @param file       The index file
+   * @param generation The generation published by the load
+   */
+
+  public CMKeyStoreReloadParameter
+  {
+    file = Objects.requireNonNull(file, "file").toAbsolutePath();
+    Objects.requireNonNull(generation, "generation");
+  }
+
+  @Override
+  public KeyStore.ProtectionParameter getProtectionParameter()
+  {
+    return null;
+  }
+}
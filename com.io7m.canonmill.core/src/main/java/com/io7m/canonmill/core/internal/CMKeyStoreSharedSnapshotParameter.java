@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Objects;
+
+/**
+ * A parameter that instructs a keystore to load the shared snapshot in the
+ * given file. The keystore is only reloaded if the sequence number of the
+ * snapshot differs from that of the snapshot that it most recently loaded.
+ *
+ * @param file The shared snapshot file
+ */
+
+public record CMKeyStoreSharedSnapshotParameter(
+  Path file)
+  implements KeyStore.LoadStoreParameter
+{
+  /**
+   * A parameter that instructs a keystore to load a shared snapshot.
+   *
+   * @param file The shared snapshot file
+   */
+
+  public CMKeyStoreSharedSnapshotParameter
+  {
+    file = Objects.requireNonNull(file, "file").toAbsolutePath();
+  }
+
+  @Override
+  public KeyStore.ProtectionParameter getProtectionParameter()
+  {
+    return null;
+  }
+}
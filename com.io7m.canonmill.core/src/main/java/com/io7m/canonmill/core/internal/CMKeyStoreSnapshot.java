@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The usable contents of a warm-start snapshot.
+ *
+ * @param description The description, present if the snapshot was written
+ *                    from the same index data as is being loaded
+ * @param entries     The entries whose files are unchanged since the
+ *                    snapshot was written
+ * @param current     {@code true} if the snapshot is entirely up-to-date and
+ *                    does not need to be rewritten
+ */
+
+public record CMKeyStoreSnapshot(
+  Optional<CMKeyStoreDescription> description,
+  CMKeyStorePredecoded entries,
+  boolean current)
+{
+  /**
+   * The usable contents of a warm-start snapshot.
+   *
+   * @param description The description, present if the snapshot was written
+   *                    from the same index data as is being loaded
+   * @param entries     The entries whose files are unchanged since the
+   *                    snapshot was written
+   * @param current     {@code true} if the snapshot is entirely up-to-date
+   *                    and does not need to be rewritten
+   */
+
+  public CMKeyStoreSnapshot
+  {
+    Objects.requireNonNull(description, "description");
+    Objects.requireNonNull(entries, "entries");
+  }
+}
@@ -0,0 +1,884 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.core.internal;
+
+import com.io7m.canonmill.core.CMKeyStoreEntryVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.io7m.canonmill.core.internal.CMKeyStoreAtomicFiles.FileKind.SECRET;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * <p>Functions to read and write warm-start snapshots.</p>
+ *
+ * <p>A snapshot is a compact binary file holding the decoded contents of a
+ * keystore: The DER encoding of every certificate, the PKCS#8 encoding of
+ * every private key (if permitted), the description, a digest of the index
+ * data from which the description was parsed, and the size, modification
+ * time, and expected digest (if any) of every file that was read. The size
+ * and modification time are those recorded when each entry was decoded.
+ * Snapshots are memory-mapped when read, and the entries of a file are only
+ * taken from a snapshot if the size and modification time of the file are
+ * unchanged since the entries were decoded.
+ * The description of an index that includes fragments depends on the
+ * fragments as well as the index, and so the fragments of such an index are
+ * always resolved, even if the index itself is unchanged.</p>
+ *
+ * <p>Snapshots are a cache: A snapshot that cannot be read for any reason
+ * is ignored, and the keystore is loaded as if the snapshot did not
+ * exist.</p>
+ *
+ * <p>A <i>shared</i> snapshot is a snapshot preceded by a fixed-size header
+ * holding a sequence number. Shared snapshots are compiled ahead of time,
+ * and are self-contained: The description held in the snapshot is used
+ * directly, and the index is not consulted. Shared snapshots are replaced
+ * atomically and are never modified in place, so any number of processes
+ * may map the same shared snapshot read-only, and a process can determine
+ * whether a new snapshot has been compiled by reading the sequence number
+ * in the header.</p>
+ */
+
+public final class CMKeyStoreSnapshots
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(CMKeyStoreSnapshots.class);
+
+  private static final int MAGIC = 0x434D534E;
+  private static final int VERSION = 5;
+  private static final int SHARED_MAGIC = 0x434D5353;
+  private static final int SHARED_VERSION = 1;
+  private static final int SHARED_HEADER_SIZE = 16;
+
+  /*
+   * File locks are held on behalf of the whole process, and so writers
+   * within this process must additionally exclude each other.
+   */
+
+  private static final ConcurrentHashMap<Path, Object> SHARED_WRITERS =
+    new ConcurrentHashMap<>();
+
+  private CMKeyStoreSnapshots()
+  {
+
+  }
+
+  /**
+   * Compute the digest of the given index data.
+   *
+   * @param data The index data
+   *
+   * @return The digest
+   */
+
+  public static byte[] digest(
+    final ByteBuffer data)
+  {
+    try {
+      final var digest = MessageDigest.getInstance("SHA-256");
+      digest.update(data.duplicate());
+      return digest.digest();
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Read the snapshot in the given file.
+   *
+   * @param file             The snapshot file
+   * @param indexDigest      The digest of the index data being loaded
+   * @param allowPrivateKeys {@code true} if private keys may be taken from
+   *                         the snapshot
+   *
+   * @return The usable contents of the snapshot, or nothing if the snapshot
+   * does not exist or cannot be read
+   */
+
+  public static Optional<CMKeyStoreSnapshot> read(
+    final Path file,
+    final byte[] indexDigest,
+    final boolean allowPrivateKeys)
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(indexDigest, "indexDigest");
+
+    try (var channel = FileChannel.open(file, READ)) {
+      final var buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+      return Optional.of(
+        new Reader(buffer, Optional.of(indexDigest), allowPrivateKeys).read()
+      );
+    } catch (final NoSuchFileException e) {
+      LOG.debug("No snapshot exists at {}", file);
+      return Optional.empty();
+    } catch (final IOException
+                   | BufferUnderflowException
+                   | DateTimeException
+                   | IllegalArgumentException e) {
+      LOG.debug("Ignoring unusable snapshot {}: {}", file, e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Atomically write a snapshot of the given instance to the given file.
+   *
+   * @param file               The snapshot file
+   * @param indexDigest        The digest of the index data from which the
+   *                           description was parsed
+   * @param description        The description
+   * @param instance           The instance loaded from the description
+   * @param includePrivateKeys {@code true} if private keys should be written
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void write(
+    final Path file,
+    final byte[] indexDigest,
+    final CMKeyStoreDescription description,
+    final CMKeyStoreInstance instance,
+    final boolean includePrivateKeys)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(indexDigest, "indexDigest");
+    Objects.requireNonNull(description, "description");
+    Objects.requireNonNull(instance, "instance");
+
+    writeAtomically(file, output -> {
+      writeSnapshot(
+        output,
+        indexDigest,
+        description,
+        instance,
+        includePrivateKeys
+      );
+    });
+    LOG.debug("Wrote snapshot {}", file);
+  }
+
+  /**
+   * Read the sequence number of the shared snapshot in the given file. Only
+   * the header of the file is read.
+   *
+   * @param file The shared snapshot file
+   *
+   * @return The sequence number
+   *
+   * @throws IOException On I/O errors, or if the file is not a shared
+   *                     snapshot
+   */
+
+  public static long readSharedSequence(
+    final Path file)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+
+    try (var channel = FileChannel.open(file, READ)) {
+      final var header = ByteBuffer.allocate(SHARED_HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header) == -1) {
+          throw new IOException("Shared snapshot header is truncated.");
+        }
+      }
+      header.flip();
+      return checkSharedHeader(header);
+    }
+  }
+
+  private static long checkSharedHeader(
+    final ByteBuffer header)
+    throws IOException
+  {
+    if (header.getInt() != SHARED_MAGIC) {
+      throw new IOException("Unrecognized shared snapshot format.");
+    }
+    final var version = header.getInt();
+    if (version != SHARED_VERSION) {
+      throw new IOException(
+        "Unsupported shared snapshot version %d".formatted(version));
+    }
+    return header.getLong();
+  }
+
+  /**
+   * Read the shared snapshot in the given file. The file is memory-mapped
+   * read-only.
+   *
+   * @param file             The shared snapshot file
+   * @param allowPrivateKeys {@code true} if private keys may be taken from
+   *                         the snapshot
+   *
+   * @return The contents of the snapshot
+   *
+   * @throws IOException On I/O errors, or if the file is not a shared
+   *                     snapshot
+   */
+
+  public static CMKeyStoreSharedSnapshot readShared(
+    final Path file,
+    final boolean allowPrivateKeys)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+
+    try (var channel = FileChannel.open(file, READ)) {
+      final var buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+      final var sequence =
+        checkSharedHeader(buffer);
+      final var snapshot =
+        new Reader(buffer.slice(), Optional.empty(), allowPrivateKeys)
+          .read();
+
+      LOG.debug("Read shared snapshot {} (sequence {})", file, sequence);
+      return new CMKeyStoreSharedSnapshot(sequence, snapshot);
+    } catch (final BufferUnderflowException
+                   | DateTimeException
+                   | IllegalArgumentException e) {
+      throw new IOException(
+        "Shared snapshot %s is corrupt: %s".formatted(file, e.getMessage()),
+        e
+      );
+    }
+  }
+
+  /**
+   * Atomically write a shared snapshot of the given instance to the given
+   * file. The sequence number of the new snapshot is one greater than the
+   * sequence number of the existing snapshot, if there is one. If the
+   * existing file is not a readable shared snapshot, it is replaced, and the
+   * sequence number of the new snapshot is {@code 1}.
+   *
+   * <p>The sequence number is read, incremented, and written while holding
+   * an exclusive lock on a lock file alongside the snapshot (the name of
+   * the snapshot file with the suffix {@code .lock}), so concurrent writers,
+   * including writers in other processes, always produce distinct sequence
+   * numbers. The lock file is left in place.</p>
+   *
+   * @param file               The shared snapshot file
+   * @param indexDigest        The digest of the index data from which the
+   *                           description was parsed
+   * @param description        The description
+   * @param instance           The instance loaded from the description
+   * @param includePrivateKeys {@code true} if private keys should be written
+   *
+   * @return The sequence number of the new snapshot
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static long writeShared(
+    final Path file,
+    final byte[] indexDigest,
+    final CMKeyStoreDescription description,
+    final CMKeyStoreInstance instance,
+    final boolean includePrivateKeys)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(indexDigest, "indexDigest");
+    Objects.requireNonNull(description, "description");
+    Objects.requireNonNull(instance, "instance");
+
+    final var lockFile =
+      file.resolveSibling(file.getFileName() + ".lock")
+        .toAbsolutePath()
+        .normalize();
+
+    synchronized (SHARED_WRITERS.computeIfAbsent(lockFile, k -> new Object())) {
+      try (var channel = FileChannel.open(lockFile, CREATE, WRITE)) {
+        // The lock is released when the channel is closed.
+        channel.lock();
+        return writeSharedLocked(
+          file,
+          indexDigest,
+          description,
+          instance,
+          includePrivateKeys
+        );
+      }
+    }
+  }
+
+  private static long writeSharedLocked(
+    final Path file,
+    final byte[] indexDigest,
+    final CMKeyStoreDescription description,
+    final CMKeyStoreInstance instance,
+    final boolean includePrivateKeys)
+    throws IOException
+  {
+    long sequence = 1L;
+    try {
+      sequence = readSharedSequence(file) + 1L;
+    } catch (final NoSuchFileException e) {
+      // No existing snapshot.
+    } catch (final IOException e) {
+      LOG.debug("Replacing unusable shared snapshot {}: {}", file, e.getMessage());
+    }
+
+    final var newSequence = sequence;
+    writeAtomically(file, output -> {
+      output.writeInt(SHARED_MAGIC);
+      output.writeInt(SHARED_VERSION);
+      output.writeLong(newSequence);
+      writeSnapshot(
+        output,
+        indexDigest,
+        description,
+        instance,
+        includePrivateKeys
+      );
+    });
+
+    LOG.debug("Wrote shared snapshot {} (sequence {})", file, newSequence);
+    return newSequence;
+  }
+
+  private interface WriterType
+  {
+    void write(DataOutputStream output)
+      throws IOException;
+  }
+
+  private static void writeAtomically(
+    final Path file,
+    final WriterType writer)
+    throws IOException
+  {
+    CMKeyStoreAtomicFiles.write(file, SECRET, stream -> {
+      final var output = new DataOutputStream(stream);
+      writer.write(output);
+      output.flush();
+    });
+  }
+
+  private static void writeSnapshot(
+    final DataOutputStream output,
+    final byte[] indexDigest,
+    final CMKeyStoreDescription description,
+    final CMKeyStoreInstance instance,
+    final boolean includePrivateKeys)
+    throws IOException
+  {
+    output.writeInt(MAGIC);
+    output.writeInt(VERSION);
+    writeBytes(output, indexDigest);
+    output.writeBoolean(includePrivateKeys);
+    writeString(output, description.baseDirectory().toString());
+
+    final var keys = description.keys();
+    output.writeInt(keys.size());
+    for (final var entry : keys.entrySet()) {
+      final var alias = entry.getKey();
+      final var key = instance.keyEntries().get(alias);
+      if (key == null) {
+        throw new IllegalStateException(
+          "No key entry for alias %s".formatted(alias));
+      }
+
+      writeString(output, alias);
+      writeFile(
+        output,
+        entry.getValue(),
+        key.creationTime(),
+        instance.keyVersions().get(alias)
+      );
+      writeDigest(output, description.keyDigests().get(alias));
+
+      /*
+       * Keys that are being decoded lazily are not decoded just to write
+       * them to the snapshot.
+       */
+
+      final var encodable =
+        includePrivateKeys
+          && key.key().isDecoded()
+          && "PKCS#8".equals(key.privateKey().getFormat());
+
+      output.writeBoolean(encodable);
+      if (encodable) {
+        final var privateKey = key.privateKey();
+        writeString(output, privateKey.getAlgorithm());
+        writeBytes(output, privateKey.getEncoded());
+      }
+    }
+
+    final var certificates = description.certificates();
+    output.writeInt(certificates.size());
+    for (final var entry : certificates.entrySet()) {
+      final var alias = entry.getKey();
+      final var entries = instance.certFileEntriesByAlias().get(alias);
+      if (entries == null) {
+        throw new IllegalStateException(
+          "No certificate entry for alias %s".formatted(alias));
+      }
+
+      writeString(output, alias);
+      writeFile(
+        output,
+        entry.getValue(),
+        entries.get(0).creationTime(),
+        instance.certificateVersions().get(alias)
+      );
+      writeDigest(output, description.certificateDigests().get(alias));
+
+      output.writeInt(entries.size());
+      for (final var certificate : entries) {
+        try {
+          writeBytes(output, certificate.certificate().getEncoded());
+        } catch (final GeneralSecurityException e) {
+          throw new IOException(e);
+        }
+      }
+    }
+
+    final var includes = description.includes();
+    output.writeInt(includes.size());
+    for (final var include : includes) {
+      writeString(output, include.toString());
+    }
+
+    final var bundles = description.bundles();
+    output.writeInt(bundles.size());
+    for (final var bundle : bundles) {
+      writeString(output, bundle.toString());
+    }
+
+    output.writeInt(MAGIC);
+  }
+
+  /**
+   * Write the version of a file. The version is the one recorded when the
+   * entry was decoded, and not the current version of the file, so that a
+   * file that changed after it was decoded is never paired with the entry
+   * decoded from its previous contents. An entry whose version is unknown
+   * is written with a size of {@code -1}, which no file matches.
+   */
+
+  private static void writeFile(
+    final DataOutputStream output,
+    final Path file,
+    final OffsetDateTime creationTime,
+    final CMKeyStoreEntryVersion version)
+    throws IOException
+  {
+    final var created =
+      creationTime.toInstant();
+
+    writeString(output, file.toString());
+    if (version != null) {
+      output.writeLong(version.size());
+      output.writeLong(version.lastModified().getEpochSecond());
+      output.writeInt(version.lastModified().getNano());
+    } else {
+      output.writeLong(-1L);
+      output.writeLong(0L);
+      output.writeInt(0);
+    }
+    output.writeLong(created.getEpochSecond());
+    output.writeInt(created.getNano());
+  }
+
+  private static void writeDigest(
+    final DataOutputStream output,
+    final CMKeyStoreEntryDigest digest)
+    throws IOException
+  {
+    writeString(output, digest != null ? digest.toString() : "");
+  }
+
+  private static void writeString(
+    final DataOutputStream output,
+    final String text)
+    throws IOException
+  {
+    writeBytes(output, text.getBytes(UTF_8));
+  }
+
+  private static void writeBytes(
+    final DataOutputStream output,
+    final byte[] data)
+    throws IOException
+  {
+    output.writeInt(data.length);
+    output.write(data);
+  }
+
+  /**
+   * The state of a single snapshot read.
+   */
+
+  private static final class Reader
+  {
+    private final ByteBuffer buffer;
+    private final Optional<byte[]> indexDigest;
+    private final boolean allowPrivateKeys;
+    private final CertificateFactory certificates;
+    private boolean current;
+
+    Reader(
+      final ByteBuffer inBuffer,
+      final Optional<byte[]> inIndexDigest,
+      final boolean inAllowPrivateKeys)
+    {
+      this.buffer = inBuffer;
+      this.indexDigest = inIndexDigest;
+      this.allowPrivateKeys = inAllowPrivateKeys;
+      this.current = true;
+
+      try {
+        this.certificates = CertificateFactory.getInstance("X.509");
+      } catch (final GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    CMKeyStoreSnapshot read()
+      throws IOException
+    {
+      if (this.buffer.getInt() != MAGIC) {
+        throw new IOException("Unrecognized snapshot format.");
+      }
+      final var version = this.buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException(
+          "Unsupported snapshot version %d".formatted(version));
+      }
+
+      final var storedDigest = this.bytes();
+      final var sameIndex =
+        this.indexDigest
+          .map(digest -> Boolean.valueOf(Arrays.equals(storedDigest, digest)))
+          .orElse(Boolean.TRUE)
+          .booleanValue();
+      final var hasPrivateKeys = this.buffer.get() != 0;
+      if (!sameIndex || hasPrivateKeys != this.allowPrivateKeys) {
+        this.current = false;
+      }
+
+      final var baseDirectory =
+        Path.of(this.string());
+
+      final var keyFiles = new HashMap<String, Path>();
+      final var keyDigests = new HashMap<String, CMKeyStoreEntryDigest>();
+      final var keys = new HashMap<String, CMKeyStoreEntryKey>();
+      final var keyVersions = new HashMap<String, CMKeyStoreEntryVersion>();
+      final var keyCount = this.count();
+      for (int index = 0; index < keyCount; ++index) {
+        final var alias = this.string();
+        final var file = this.file();
+        keyFiles.put(alias, file.path);
+        this.digest().ifPresent(digest -> keyDigests.put(alias, digest));
+
+        if (this.buffer.get() != 0) {
+          final var algorithm = this.string();
+          final var encoded = this.bytes();
+          if (file.unchanged() && this.allowPrivateKeys) {
+            this.decodeKey(alias, file, algorithm, encoded)
+              .ifPresent(key -> {
+                keys.put(alias, key);
+                keyVersions.put(alias, file.version().orElseThrow());
+              });
+          }
+        }
+      }
+
+      final var certFiles = new HashMap<String, Path>();
+      final var certDigests = new HashMap<String, CMKeyStoreEntryDigest>();
+      final var certs = new HashMap<String, List<CMKeyStoreEntryCertificate>>();
+      final var certVersions = new HashMap<String, CMKeyStoreEntryVersion>();
+      final var certCount = this.count();
+      for (int index = 0; index < certCount; ++index) {
+        final var alias = this.string();
+        final var file = this.file();
+        certFiles.put(alias, file.path);
+        this.digest().ifPresent(digest -> certDigests.put(alias, digest));
+
+        final var count = this.count();
+        final var encoded = new ArrayList<byte[]>(count);
+        for (int c = 0; c < count; ++c) {
+          encoded.add(this.bytes());
+        }
+        if (file.unchanged()) {
+          this.decodeCertificates(alias, file, encoded)
+            .ifPresent(entries -> {
+              certs.put(alias, entries);
+              certVersions.put(alias, file.version().orElseThrow());
+            });
+        }
+      }
+
+      final var includeCount = this.count();
+      final var includes = new ArrayList<Path>(includeCount);
+      for (int index = 0; index < includeCount; ++index) {
+        includes.add(Path.of(this.string()));
+      }
+
+      final var bundleCount = this.count();
+      final var bundles = new ArrayList<Path>(bundleCount);
+      for (int index = 0; index < bundleCount; ++index) {
+        bundles.add(Path.of(this.string()));
+      }
+
+      if (this.buffer.getInt() != MAGIC) {
+        throw new IOException("Snapshot is truncated.");
+      }
+
+      final Optional<CMKeyStoreDescription> description;
+      if (sameIndex) {
+        description = Optional.of(
+          new CMKeyStoreDescription(
+            baseDirectory,
+            keyFiles,
+            certFiles,
+            keyDigests,
+            certDigests,
+            includes,
+            bundles
+          )
+        );
+      } else {
+        description = Optional.empty();
+      }
+
+      return new CMKeyStoreSnapshot(
+        description,
+        new CMKeyStorePredecoded(
+          keys,
+          certs,
+          keyVersions,
+          certVersions,
+          keyDigests,
+          certDigests
+        ),
+        this.current
+      );
+    }
+
+    private Optional<CMKeyStoreEntryKey> decodeKey(
+      final String alias,
+      final SnapshotFile file,
+      final String algorithm,
+      final byte[] encoded)
+    {
+      try {
+        final var key =
+          KeyFactory.getInstance(algorithm)
+            .generatePrivate(new PKCS8EncodedKeySpec(encoded));
+        return Optional.of(
+          new CMKeyStoreEntryKey(alias, file.path, key, file.creationTime)
+        );
+      } catch (final GeneralSecurityException e) {
+        LOG.debug(
+          "Snapshot key [{}] could not be decoded: {}", alias, e.getMessage());
+        this.current = false;
+        return Optional.empty();
+      }
+    }
+
+    private Optional<List<CMKeyStoreEntryCertificate>> decodeCertificates(
+      final String alias,
+      final SnapshotFile file,
+      final List<byte[]> encoded)
+    {
+      try {
+        final var entries =
+          new ArrayList<CMKeyStoreEntryCertificate>(encoded.size());
+
+        for (int index = 0; index < encoded.size(); ++index) {
+          final var certificate =
+            (X509Certificate) this.certificates.generateCertificate(
+              new ByteArrayInputStream(encoded.get(index))
+            );
+          final var name =
+            index == 0
+              ? alias
+              : certificate.getSubjectX500Principal().getName();
+
+          entries.add(
+            new CMKeyStoreEntryCertificate(
+              name, file.path, certificate, file.creationTime)
+          );
+        }
+        return Optional.of(List.copyOf(entries));
+      } catch (final GeneralSecurityException | ClassCastException e) {
+        LOG.debug(
+          "Snapshot certificate [{}] could not be decoded: {}",
+          alias,
+          e.getMessage()
+        );
+        this.current = false;
+        return Optional.empty();
+      }
+    }
+
+    private SnapshotFile file()
+      throws IOException
+    {
+      final var path =
+        Path.of(this.string());
+      final var size =
+        this.buffer.getLong();
+      final var modifiedSeconds =
+        this.buffer.getLong();
+      final var modifiedNanos =
+        this.buffer.getInt();
+      final var seconds =
+        this.buffer.getLong();
+      final var nanos =
+        this.buffer.getInt();
+
+      final Instant modified;
+      final OffsetDateTime created;
+      try {
+        modified = Instant.ofEpochSecond(modifiedSeconds, modifiedNanos);
+        created = OffsetDateTime.ofInstant(
+          Instant.ofEpochSecond(seconds, nanos),
+          ZoneId.systemDefault()
+        );
+      } catch (final DateTimeException | ArithmeticException e) {
+        throw new IOException(
+          "Invalid timestamps for %s".formatted(path), e);
+      }
+
+      CMKeyStoreEntryVersion version = null;
+      if (size >= 0L) {
+        try {
+          final var attributes =
+            Files.readAttributes(path, BasicFileAttributes.class);
+          if (attributes.size() == size
+              && attributes.lastModifiedTime().toInstant().equals(modified)) {
+            version = new CMKeyStoreEntryVersion(
+              Optional.ofNullable(attributes.fileKey()),
+              size,
+              modified,
+              created.toInstant()
+            );
+          }
+        } catch (final IOException e) {
+          LOG.debug(
+            "Snapshot file {} cannot be read: {}", path, e.getMessage());
+        }
+      }
+
+      if (version == null) {
+        LOG.debug("File {} has changed since it was decoded", path);
+        this.current = false;
+      }
+
+      return new SnapshotFile(path, created, Optional.ofNullable(version));
+    }
+
+    private Optional<CMKeyStoreEntryDigest> digest()
+      throws IOException
+    {
+      final var text = this.string();
+      if (text.isEmpty()) {
+        return Optional.empty();
+      }
+
+      try {
+        return Optional.of(CMKeyStoreEntryDigest.parse(text));
+      } catch (final IllegalArgumentException e) {
+        throw new IOException(e);
+      }
+    }
+
+    /**
+     * Read the number of elements in a sequence. Every element occupies at
+     * least four bytes, and so a count that could not possibly fit in the
+     * rest of the snapshot is rejected before anything is allocated for it.
+     */
+
+    private int count()
+      throws IOException
+    {
+      final var count = this.buffer.getInt();
+      if (count < 0 || count > this.buffer.remaining() / 4) {
+        throw new IOException(
+          "Invalid element count %d".formatted(Integer.valueOf(count)));
+      }
+      return count;
+    }
+
+    private String string()
+    {
+      return new String(this.bytes(), UTF_8);
+    }
+
+    private byte[] bytes()
+    {
+      final var length = this.buffer.getInt();
+      if (length < 0 || length > this.buffer.remaining()) {
+        throw new IllegalArgumentException(
+          "Invalid length %d".formatted(Integer.valueOf(length)));
+      }
+      final var data = new byte[length];
+      this.buffer.get(data);
+      return data;
+    }
+  }
+
+  private record SnapshotFile(
+    Path path,
+    OffsetDateTime creationTime,
+    Optional<CMKeyStoreEntryVersion> version)
+  {
+    boolean unchanged()
+    {
+      return this.version.isPresent();
+    }
+  }
+}
@@ -14,7 +14,6 @@
  * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
  */
 
-
 package com.io7m.canonmill.core.internal.v1;
 
 import com.io7m.blackthorne.core.BTElementHandlerConstructorType;
@@ -24,12 +23,19 @@ import com.io7m.blackthorne.core.BTQualifiedName;
 import com.io7m.blackthorne.core.Blackthorne;
 import com.io7m.canonmill.core.CMKeyStoreSchemas;
 import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionListenerType;
 import org.xml.sax.Attributes;
 
+import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.CERTIFICATE;
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.KEY;
 
 /**
  * A parser for v1 keystores.
@@ -38,19 +44,30 @@ import java.util.Map;
 public final class CM1KeystoreParser
   implements BTElementHandlerType<Object, CMKeyStoreDescription>
 {
+  private final URI source;
+  private final CMKeyStoreDescriptionListenerType listener;
   private final HashMap<String, Path> keys;
   private final HashMap<String, Path> certificates;
   private Path baseDirectory;
 
   /**
-   * A parser for v1 keystores.
+   * A parser for v1 keystores that delivers entries to the given listener
+   * as they are parsed.
    *
-   * @param context The parse context
+   * @param inSource   The source URI
+   * @param inListener The entry listener
+   * @param context    The parse context
    */
 
   public CM1KeystoreParser(
+    final URI inSource,
+    final CMKeyStoreDescriptionListenerType inListener,
     final BTElementParsingContextType context)
   {
+    this.source =
+      Objects.requireNonNull(inSource, "source");
+    this.listener =
+      Objects.requireNonNull(inListener, "listener");
     this.keys =
       new HashMap<>();
     this.certificates =
@@ -63,8 +80,10 @@ public final class CM1KeystoreParser
     final Attributes attributes)
   {
     this.baseDirectory =
-      Paths.get(attributes.getValue("BaseDirectory"))
-        .toAbsolutePath();
+      CMKeyStoreDescription.resolveBaseDirectory(
+        this.source,
+        attributes.getValue("BaseDirectory")
+      );
   }
 
   private record Key(
@@ -121,10 +140,22 @@ public final class CM1KeystoreParser
   {
     if (result instanceof final Key key) {
       this.keys.put(key.name, key.file);
+      this.listener.onEntry(
+        KEY,
+        key.name,
+        this.baseDirectory.resolve(key.file).toAbsolutePath(),
+        Optional.empty()
+      );
       return;
     }
     if (result instanceof final Certificate certificate) {
       this.certificates.put(certificate.name, certificate.file);
+      this.listener.onEntry(
+        CERTIFICATE,
+        certificate.name,
+        this.baseDirectory.resolve(certificate.file).toAbsolutePath(),
+        Optional.empty()
+      );
       return;
     }
 
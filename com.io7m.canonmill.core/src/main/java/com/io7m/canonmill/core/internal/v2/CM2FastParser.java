@@ -0,0 +1,304 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core.internal.v2;
+
+import com.io7m.anethum.api.ParseSeverity;
+import com.io7m.anethum.api.ParseStatus;
+import com.io7m.canonmill.core.CMKeyStoreEntryKind;
+import com.io7m.canonmill.core.CMKeyStoreSchemas;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionListenerType;
+import com.io7m.canonmill.core.internal.CMKeyStoreEntryDigest;
+import com.io7m.jlexing.core.LexicalPosition;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.CERTIFICATE;
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.KEY;
+
+/**
+ * A non-validating parser for v2 keystores. The parser reads the index with
+ * a plain StAX reader and performs only the checks required to construct a
+ * description: the root element must be a v2 {@code Keystore} element, and
+ * the attributes that the schema marks as required must be present. Anything
+ * else that the schema would reject is silently ignored. The parser is
+ * intended for index files produced by trusted tooling, and yields the same
+ * descriptions as {@link CM2KeystoreParser} for any valid index.
+ */
+
+public final class CM2FastParser
+{
+  private static final String NAMESPACE =
+    CMKeyStoreSchemas.schema2().namespace().toString();
+
+  private final URI source;
+  private final HashMap<String, Path> keys;
+  private final HashMap<String, Path> certificates;
+  private final HashMap<String, CMKeyStoreEntryDigest> keyDigests;
+  private final HashMap<String, CMKeyStoreEntryDigest> certificateDigests;
+  private final ArrayList<ParseStatus> errors;
+  private final ArrayList<Path> includes;
+  private final ArrayList<Path> bundles;
+  private final CMKeyStoreDescriptionListenerType listener;
+  private Path baseDirectory;
+
+  /**
+   * A non-validating parser for v2 keystores.
+   *
+   * @param inSource The source URI
+   */
+
+  public CM2FastParser(
+    final URI inSource)
+  {
+    this(inSource, CMKeyStoreDescriptionListenerType.IGNORE);
+  }
+
+  /**
+   * A non-validating parser for v2 keystores that delivers entries to the
+   * given listener as they are parsed.
+   *
+   * @param inSource   The source URI
+   * @param inListener The entry listener
+   */
+
+  public CM2FastParser(
+    final URI inSource,
+    final CMKeyStoreDescriptionListenerType inListener)
+  {
+    this.source =
+      Objects.requireNonNull(inSource, "source");
+    this.listener =
+      Objects.requireNonNull(inListener, "listener");
+    this.keys =
+      new HashMap<>();
+    this.certificates =
+      new HashMap<>();
+    this.keyDigests =
+      new HashMap<>();
+    this.certificateDigests =
+      new HashMap<>();
+    this.errors =
+      new ArrayList<>();
+    this.includes =
+      new ArrayList<>();
+    this.bundles =
+      new ArrayList<>();
+  }
+
+  /**
+   * Parse the document that the given reader is reading. The reader must be
+   * positioned at the root element. Any errors are available from
+   * {@link #errors()} afterwards.
+   *
+   * @param reader The reader
+   */
+
+  public void parse(
+    final XMLStreamReader reader)
+  {
+    Objects.requireNonNull(reader, "reader");
+
+    try {
+      this.parseDocument(reader);
+    } catch (final XMLStreamException e) {
+      this.errors.add(status(this.source, e.getLocation(), e.getMessage()));
+    }
+  }
+
+  private void parseDocument(
+    final XMLStreamReader reader)
+    throws XMLStreamException
+  {
+    if (!this.isElement(reader, "Keystore")) {
+      this.errors.add(
+        status(
+          this.source,
+          reader.getLocation(),
+          "Expected a root element {%s}Keystore but received {%s}%s."
+            .formatted(
+              NAMESPACE,
+              reader.getNamespaceURI(),
+              reader.getLocalName()
+            )
+        )
+      );
+      return;
+    }
+
+    final var base = this.attribute(reader, "BaseDirectory");
+    if (base != null) {
+      this.baseDirectory =
+        CMKeyStoreDescription.resolveBaseDirectory(this.source, base);
+    }
+
+    while (reader.hasNext()) {
+      if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+
+      if (this.isElement(reader, "Key")) {
+        this.entry(reader, KEY, this.keys, this.keyDigests);
+      } else if (this.isElement(reader, "Include")) {
+        final var file = this.attribute(reader, "File");
+        if (file != null) {
+          this.includes.add(Paths.get(file));
+        }
+      } else if (this.isElement(reader, "Bundle")) {
+        final var file = this.attribute(reader, "File");
+        if (file != null) {
+          this.bundles.add(Paths.get(file));
+        }
+      } else if (this.isElement(reader, "Certificate")) {
+        this.entry(
+          reader,
+          CERTIFICATE,
+          this.certificates,
+          this.certificateDigests
+        );
+      }
+    }
+  }
+
+  private void entry(
+    final XMLStreamReader reader,
+    final CMKeyStoreEntryKind kind,
+    final HashMap<String, Path> entries,
+    final HashMap<String, CMKeyStoreEntryDigest> digests)
+  {
+    final var name = this.attribute(reader, "Name");
+    final var file = this.attribute(reader, "File");
+    if (name == null || file == null) {
+      return;
+    }
+
+    final Optional<CMKeyStoreEntryDigest> digest;
+    try {
+      digest = Optional.ofNullable(reader.getAttributeValue(null, "Digest"))
+        .map(CMKeyStoreEntryDigest::parse);
+    } catch (final IllegalArgumentException e) {
+      this.errors.add(
+        status(this.source, reader.getLocation(), e.getMessage())
+      );
+      return;
+    }
+
+    final var path = Paths.get(file);
+    entries.put(name, path);
+    digest.ifPresent(d -> digests.put(name, d));
+
+    if (this.baseDirectory != null) {
+      this.listener.onEntry(
+        kind,
+        name,
+        this.baseDirectory.resolve(path).toAbsolutePath(),
+        digest
+      );
+    }
+  }
+
+  private boolean isElement(
+    final XMLStreamReader reader,
+    final String localName)
+  {
+    return NAMESPACE.equals(reader.getNamespaceURI())
+      && localName.equals(reader.getLocalName());
+  }
+
+  private String attribute(
+    final XMLStreamReader reader,
+    final String name)
+  {
+    final var value = reader.getAttributeValue(null, name);
+    if (value == null) {
+      this.errors.add(
+        status(
+          this.source,
+          reader.getLocation(),
+          "Element %s is missing the required attribute %s."
+            .formatted(reader.getLocalName(), name)
+        )
+      );
+    }
+    return value;
+  }
+
+  private static ParseStatus status(
+    final URI source,
+    final Location location,
+    final String message)
+  {
+    final int line;
+    final int column;
+    if (location != null) {
+      line = Math.max(0, location.getLineNumber());
+      column = Math.max(0, location.getColumnNumber());
+    } else {
+      line = 0;
+      column = 0;
+    }
+
+    return ParseStatus.builder("parse-error", String.valueOf(message))
+      .withSeverity(ParseSeverity.PARSE_ERROR)
+      .withLexical(LexicalPosition.of(line, column, Optional.of(source)))
+      .build();
+  }
+
+  /**
+   * @return The errors encountered during parsing
+   */
+
+  public List<ParseStatus> errors()
+  {
+    return List.copyOf(this.errors);
+  }
+
+  /**
+   * @return The parsed description, if parsing produced no errors
+   */
+
+  public Optional<CMKeyStoreDescription> result()
+  {
+    if (!this.errors.isEmpty() || this.baseDirectory == null) {
+      return Optional.empty();
+    }
+
+    return Optional.of(
+      new CMKeyStoreDescription(
+        this.baseDirectory,
+        Map.copyOf(this.keys),
+        Map.copyOf(this.certificates),
+        Map.copyOf(this.keyDigests),
+        Map.copyOf(this.certificateDigests),
+        List.copyOf(this.includes),
+        List.copyOf(this.bundles)
+      )
+    );
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.canonmill.core.internal.v2;
+
+import com.io7m.blackthorne.core.BTElementHandlerConstructorType;
+import com.io7m.blackthorne.core.BTElementHandlerType;
+import com.io7m.blackthorne.core.BTElementParsingContextType;
+import com.io7m.blackthorne.core.BTQualifiedName;
+import com.io7m.blackthorne.core.Blackthorne;
+import com.io7m.canonmill.core.CMKeyStoreEntryKind;
+import com.io7m.canonmill.core.CMKeyStoreSchemas;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionListenerType;
+import com.io7m.canonmill.core.internal.CMKeyStoreEntryDigest;
+import org.xml.sax.Attributes;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.CERTIFICATE;
+import static com.io7m.canonmill.core.CMKeyStoreEntryKind.KEY;
+
+/**
+ * A parser for v2 keystores.
+ */
+
+public final class CM2KeystoreParser
+  implements BTElementHandlerType<Object, CMKeyStoreDescription>
+{
+  private final URI source;
+  private final CMKeyStoreDescriptionListenerType listener;
+  private final HashMap<String, Path> keys;
+  private final HashMap<String, Path> certificates;
+  private final HashMap<String, CMKeyStoreEntryDigest> keyDigests;
+  private final HashMap<String, CMKeyStoreEntryDigest> certificateDigests;
+  private final ArrayList<Path> includes;
+  private final ArrayList<Path> bundles;
+  private Path baseDirectory;
+
+  /**
+   * A parser for v2 keystores that delivers entries to the given listener
+   * as they are parsed.
+   *
+   * @param inSource   The source URI
+   * @param inListener The entry listener
+   * @param context    The parse context
+   */
+
+  public CM2KeystoreParser(
+    final URI inSource,
+    final CMKeyStoreDescriptionListenerType inListener,
+    final BTElementParsingContextType context)
+  {
+    this.source =
+      Objects.requireNonNull(inSource, "source");
+    this.listener =
+      Objects.requireNonNull(inListener, "listener");
+    this.keys =
+      new HashMap<>();
+    this.certificates =
+      new HashMap<>();
+    this.keyDigests =
+      new HashMap<>();
+    this.certificateDigests =
+      new HashMap<>();
+    this.includes =
+      new ArrayList<>();
+    this.bundles =
+      new ArrayList<>();
+  }
+
+  @Override
+  public void onElementStart(
+    final BTElementParsingContextType context,
+    final Attributes attributes)
+  {
+    this.baseDirectory =
+      CMKeyStoreDescription.resolveBaseDirectory(
+        this.source,
+        attributes.getValue("BaseDirectory")
+      );
+  }
+
+  private record Entry(
+    CMKeyStoreEntryKind kind,
+    String name,
+    Path file,
+    Optional<CMKeyStoreEntryDigest> digest)
+  {
+
+  }
+
+  private record Include(
+    Path file)
+  {
+
+  }
+
+  private record Bundle(
+    Path file)
+  {
+
+  }
+
+  private static Entry entry(
+    final CMKeyStoreEntryKind kind,
+    final Attributes attributes)
+  {
+    return new Entry(
+      kind,
+      attributes.getValue("Name"),
+      Paths.get(attributes.getValue("File")),
+      Optional.ofNullable(attributes.getValue("Digest"))
+        .map(CMKeyStoreEntryDigest::parse)
+    );
+  }
+
+  @Override
+  public Map<BTQualifiedName, BTElementHandlerConstructorType<?, ?>>
+  onChildHandlersRequested(
+    final BTElementParsingContextType context)
+  {
+    return Map.ofEntries(
+      Map.entry(
+        element("Key"),
+        Blackthorne.forScalarAttribute(
+          element("Key"),
+          (c, a) -> entry(KEY, a)
+        )
+      ),
+      Map.entry(
+        element("Certificate"),
+        Blackthorne.forScalarAttribute(
+          element("Certificate"),
+          (c, a) -> entry(CERTIFICATE, a)
+        )
+      ),
+      Map.entry(
+        element("Include"),
+        Blackthorne.forScalarAttribute(
+          element("Include"),
+          (c, a) -> new Include(Paths.get(a.getValue("File")))
+        )
+      ),
+      Map.entry(
+        element("Bundle"),
+        Blackthorne.forScalarAttribute(
+          element("Bundle"),
+          (c, a) -> new Bundle(Paths.get(a.getValue("File")))
+        )
+      )
+    );
+  }
+
+  @Override
+  public void onChildValueProduced(
+    final BTElementParsingContextType context,
+    final Object result)
+  {
+    if (result instanceof final Entry entry) {
+      switch (entry.kind) {
+        case KEY -> {
+          this.keys.put(entry.name, entry.file);
+          entry.digest.ifPresent(d -> this.keyDigests.put(entry.name, d));
+        }
+        case CERTIFICATE -> {
+          this.certificates.put(entry.name, entry.file);
+          entry.digest.ifPresent(
+            d -> this.certificateDigests.put(entry.name, d));
+        }
+      }
+      this.listener.onEntry(
+        entry.kind,
+        entry.name,
+        this.baseDirectory.resolve(entry.file).toAbsolutePath(),
+        entry.digest
+      );
+      return;
+    }
+    if (result instanceof final Include include) {
+      this.includes.add(include.file);
+      return;
+    }
+    if (result instanceof final Bundle bundle) {
+      this.bundles.add(bundle.file);
+      return;
+    }
+
+    throw new IllegalStateException(
+      "Unrecognized result: %s".formatted(result)
+    );
+  }
+
+  @Override
+  public CMKeyStoreDescription onElementFinished(
+    final BTElementParsingContextType context)
+  {
+    return new CMKeyStoreDescription(
+      this.baseDirectory,
+      Map.copyOf(this.keys),
+      Map.copyOf(this.certificates),
+      Map.copyOf(this.keyDigests),
+      Map.copyOf(this.certificateDigests),
+      List.copyOf(this.includes),
+      List.copyOf(this.bundles)
+    );
+  }
+
+  /**
+   * The element with the given name.
+   *
+   * @param localName The local name
+   *
+   * @return The qualified name
+   */
+
+  public static BTQualifiedName element(
+    final String localName)
+  {
+    return BTQualifiedName.of(
+      CMKeyStoreSchemas.schema2().namespace().toString(),
+      localName
+    );
+  }
+}
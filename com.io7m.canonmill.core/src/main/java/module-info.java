@@ -29,10 +29,10 @@ module com.io7m.canonmill.core
 
   requires com.io7m.anethum.api;
   requires com.io7m.blackthorne.core;
-  requires com.io7m.blackthorne.jxe;
   requires com.io7m.jcip.annotations;
   requires com.io7m.jdeferthrow.core;
   requires com.io7m.jxe.core;
+  requires java.xml;
   requires org.bouncycastle.pkix;
   requires org.bouncycastle.provider;
   requires org.slf4j;
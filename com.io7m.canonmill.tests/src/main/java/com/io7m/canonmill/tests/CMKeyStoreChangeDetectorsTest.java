@@ -0,0 +1,512 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.tests;
+
+import com.io7m.canonmill.core.CMKeyStoreChangeDetectorType;
+import com.io7m.canonmill.core.CMKeyStoreChangeDetectors;
+import com.io7m.canonmill.core.CMKeyStoreEntryKind;
+import com.io7m.canonmill.core.CMKeyStoreEntrySourceType;
+import com.io7m.canonmill.core.CMKeyStoreEntrySources;
+import com.io7m.canonmill.core.CMKeyStoreEntryVersion;
+import com.io7m.canonmill.core.CMKeyStoreHandle;
+import com.io7m.canonmill.core.CMKeyStoreLoadOptions;
+import com.io7m.canonmill.core.CMKeyStoreLoadParameter;
+import com.io7m.canonmill.core.CMKeyStoreProvider;
+import com.io7m.canonmill.core.CMKeyStores;
+import com.io7m.canonmill.core.internal.CMKeyStoreBundle;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8EncryptorBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static com.io7m.canonmill.tests.CMGenerateKeys.generateCertificate;
+import static com.io7m.canonmill.tests.CMGenerateKeys.generateKeyPair;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class CMKeyStoreChangeDetectorsTest
+{
+  private Path directory;
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.directory =
+      CMTestDirectories.createTempDirectory();
+  }
+
+  private void swapLink(
+    final Path link,
+    final String target)
+    throws IOException
+  {
+    final var temporary = link.resolveSibling("..data_tmp");
+    Files.createSymbolicLink(temporary, Path.of(target));
+    Files.move(temporary, link, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Test
+  public void testSymlinkSwap()
+    throws Exception
+  {
+    final var generation0 =
+      Files.createDirectories(this.directory.resolve("..2026_01"));
+    final var kp0 =
+      generateKeyPair("k0", generation0);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), generation0, "c0");
+
+    final var generation1 =
+      Files.createDirectories(this.directory.resolve("..2026_02"));
+    final var kp1 =
+      generateKeyPair("k0", generation1);
+    final var c1 =
+      generateCertificate(kp1.keyPair(), generation1, "c0");
+
+    final var link = this.directory.resolve("..data");
+    Files.createSymbolicLink(link, generation0.getFileName());
+
+    final var file = this.directory.resolve("keystore.cmks");
+    Files.writeString(
+      file,
+      """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:2"
+                BaseDirectory="..data">
+        <Key Name="k0" File="k0.sec"/>
+        <Certificate Name="c0" File="c0.pem"/>
+      </Keystore>
+      """
+    );
+
+    final var ks =
+      CMKeyStores.handle(
+        CMKeyStores.openKeyStore(file, new CMKeyStoreProvider())
+      );
+    final var detector =
+      CMKeyStoreChangeDetectors.symlinkSwap(ks, file, link);
+
+    assertTrue(detector.check());
+    assertEquals(kp0.keyPair().getPrivate(), ks.getKey("k0", new char[0]));
+    assertEquals(c0.certificate(), ks.getCertificate("c0"));
+
+    /*
+     * Nothing is reloaded while the link is unchanged.
+     */
+
+    final var generation = ks.generation();
+    assertFalse(detector.check());
+    assertEquals(generation, ks.generation());
+
+    /*
+     * Swapping the link reloads everything from the new directory.
+     */
+
+    this.swapLink(link, generation1.getFileName().toString());
+    assertTrue(detector.check());
+    assertEquals(kp1.keyPair().getPrivate(), ks.getKey("k0", new char[0]));
+    assertEquals(c1.certificate(), ks.getCertificate("c0"));
+    assertFalse(detector.check());
+  }
+
+  private static void writeGeneration(
+    final Path directory,
+    final CMGenerateKeys.SerializedKeyPair keyPair,
+    final CMGenerateKeys.SerializedCertificate certificate)
+    throws IOException
+  {
+    Files.writeString(
+      directory.resolve("fragment.cmks"),
+      """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:2"
+                BaseDirectory=".">
+        <Certificate Name="c0" File="%s"/>
+      </Keystore>
+      """.formatted(certificate.certificateFile().getFileName())
+    );
+
+    CMKeyStoreBundle.write(
+      directory.resolve("keys.cmb"),
+      Map.of("k0", Files.readAllBytes(keyPair.secretKeyFile())),
+      Map.of()
+    );
+  }
+
+  @Test
+  public void testSymlinkSwapFragmentsAndBundles()
+    throws Exception
+  {
+    final var generations = new ArrayList<Path>();
+    final var keyPairs = new ArrayList<CMGenerateKeys.SerializedKeyPair>();
+    final var certificates =
+      new ArrayList<CMGenerateKeys.SerializedCertificate>();
+
+    for (final var name : List.of("..2026_01", "..2026_02", "..2026_03")) {
+      final var directory =
+        Files.createDirectories(this.directory.resolve(name));
+      final var kp =
+        generateKeyPair("k0", directory);
+      final var c =
+        generateCertificate(kp.keyPair(), directory, "c0");
+      writeGeneration(directory, kp, c);
+      generations.add(directory);
+      keyPairs.add(kp);
+      certificates.add(c);
+    }
+
+    final var link = this.directory.resolve("..data");
+    Files.createSymbolicLink(link, generations.get(0).getFileName());
+
+    final var file = this.directory.resolve("keystore.cmks");
+    Files.writeString(
+      file,
+      """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:2"
+                BaseDirectory="..data">
+        <Include File="fragment.cmks"/>
+        <Bundle File="keys.cmb"/>
+      </Keystore>
+      """
+    );
+
+    /*
+     * The source swaps the link again, once armed, as soon as the first
+     * fragment or bundle is located; this simulates a swap that happens
+     * while the keystore is being reloaded.
+     */
+
+    final var armed = new AtomicBoolean(false);
+    final var filesystem = CMKeyStoreEntrySources.filesystem();
+    final var swapping = new CMKeyStoreEntrySourceType()
+    {
+      @Override
+      public CMKeyStoreEntryVersion version(
+        final CMKeyStoreEntryKind kind,
+        final String alias,
+        final Path path)
+        throws IOException
+      {
+        return filesystem.version(kind, alias, path);
+      }
+
+      @Override
+      public byte[] read(
+        final CMKeyStoreEntryKind kind,
+        final String alias,
+        final Path path)
+        throws IOException
+      {
+        return filesystem.read(kind, alias, path);
+      }
+
+      @Override
+      public Path locate(
+        final Path path)
+      {
+        if (armed.compareAndSet(true, false)) {
+          try {
+            CMKeyStoreChangeDetectorsTest.this.swapLink(
+              link,
+              generations.get(2).getFileName().toString()
+            );
+          } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+        return path;
+      }
+    };
+
+    final var ks =
+      CMKeyStores.handle(CMKeyStores.createKeyStore(new CMKeyStoreProvider()));
+    ks.load(new CMKeyStoreLoadParameter(
+      file,
+      CMKeyStoreLoadOptions.builder()
+        .setEntrySource(swapping)
+        .build()
+    ));
+
+    final var detector =
+      CMKeyStoreChangeDetectors.symlinkSwap(ks, file, link);
+
+    assertTrue(detector.check());
+    assertEquals(
+      keyPairs.get(0).keyPair().getPrivate(),
+      ks.getKey("k0", new char[0])
+    );
+    assertEquals(certificates.get(0).certificate(), ks.getCertificate("c0"));
+
+    /*
+     * The fragment and the bundle are read from the target that was
+     * resolved when the check began, even though the link is swapped again
+     * during the load.
+     */
+
+    this.swapLink(link, generations.get(1).getFileName().toString());
+    armed.set(true);
+    assertTrue(detector.check());
+    assertFalse(armed.get());
+    assertEquals(
+      keyPairs.get(1).keyPair().getPrivate(),
+      ks.getKey("k0", new char[0])
+    );
+    assertEquals(certificates.get(1).certificate(), ks.getCertificate("c0"));
+
+    /*
+     * The second swap is seen by the next check.
+     */
+
+    assertTrue(detector.check());
+    assertEquals(
+      keyPairs.get(2).keyPair().getPrivate(),
+      ks.getKey("k0", new char[0])
+    );
+    assertEquals(certificates.get(2).certificate(), ks.getCertificate("c0"));
+  }
+
+  @Test
+  public void testAttributes()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+
+    final var file = this.directory.resolve("keystore.cmks");
+    Files.writeString(
+      file,
+      """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:2"
+                BaseDirectory=".">
+        <Key Name="k0" File="k0.sec"/>
+        <Certificate Name="c0" File="c0.pem"/>
+      </Keystore>
+      """
+    );
+
+    final var ks =
+      CMKeyStores.handle(
+        CMKeyStores.openKeyStore(file, new CMKeyStoreProvider())
+      );
+    final var detector =
+      CMKeyStoreChangeDetectors.attributes(ks, file);
+
+    assertTrue(detector.check());
+    assertEquals(c0.certificate(), ks.getCertificate("c0"));
+
+    final var generation = ks.generation();
+    assertFalse(detector.check());
+    assertEquals(generation, ks.generation());
+
+    /*
+     * Replacing a file is detected.
+     */
+
+    final var c1 =
+      generateCertificate(kp0.keyPair(), this.directory, "c1");
+    Files.move(
+      c1.certificateFile(),
+      c0.certificateFile(),
+      StandardCopyOption.REPLACE_EXISTING
+    );
+
+    assertTrue(detector.check());
+    assertEquals(c1.certificate(), ks.getCertificate("c0"));
+    assertFalse(detector.check());
+
+    /*
+     * Deleting a file is detected. The failed load is not repeated until a
+     * file changes again.
+     */
+
+    final var generationBefore = ks.generation();
+    Files.delete(c0.certificateFile());
+    assertThrows(IOException.class, detector::check);
+    assertFalse(detector.check());
+    assertEquals(generationBefore, ks.generation());
+    assertEquals(c1.certificate(), ks.getCertificate("c0"));
+
+    final var c2 =
+      generateCertificate(kp0.keyPair(), this.directory, "c2");
+    Files.move(c2.certificateFile(), c0.certificateFile());
+
+    assertTrue(detector.check());
+    assertEquals(c2.certificate(), ks.getCertificate("c0"));
+    assertFalse(detector.check());
+  }
+
+  @Test
+  public void testAttributesPassword()
+    throws Exception
+  {
+    final var key =
+      KeyPairGenerator.getInstance("RSA").generateKeyPair().getPrivate();
+    final var password =
+      "password".toCharArray();
+
+    final var keyFile = this.directory.resolve("k0.key");
+    writeEncrypted(keyFile, key, password);
+
+    final var file = this.directory.resolve("keystore.cmks");
+    Files.writeString(
+      file,
+      """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:2"
+                BaseDirectory=".">
+        <Key Name="k0" File="k0.key"/>
+      </Keystore>
+      """
+    );
+
+    final var ks =
+      CMKeyStores.handle(CMKeyStores.createKeyStore(new CMKeyStoreProvider()));
+    ks.load(
+      new CMKeyStoreLoadParameter(
+        file,
+        Optional.empty(),
+        Optional.of(new KeyStore.PasswordProtection(password))
+      )
+    );
+
+    final var detector =
+      CMKeyStoreChangeDetectors.attributes(ks, file);
+
+    assertTrue(detector.check());
+    assertEquals(key, ks.getKey("k0", password));
+
+    /*
+     * Reloads use the password given to the keystore's load.
+     */
+
+    final var keyNew =
+      KeyPairGenerator.getInstance("RSA").generateKeyPair().getPrivate();
+    final var keyNewFile = this.directory.resolve("k1.key");
+    writeEncrypted(keyNewFile, keyNew, password);
+    Files.move(keyNewFile, keyFile, StandardCopyOption.REPLACE_EXISTING);
+
+    assertTrue(detector.check());
+    assertEquals(keyNew, ks.getKey("k0", password));
+  }
+
+  private static void writeEncrypted(
+    final Path file,
+    final PrivateKey key,
+    final char[] password)
+    throws Exception
+  {
+    try (var writer = new JcaPEMWriter(Files.newBufferedWriter(file))) {
+      writer.writeObject(
+        new JcaPKCS8Generator(
+          key,
+          new JceOpenSSLPKCS8EncryptorBuilder(PKCS8Generator.AES_256_CBC)
+            .setProvider(new BouncyCastleProvider())
+            .setPassword(password)
+            .build()
+        )
+      );
+    }
+  }
+
+  @Test
+  public void testPollerAdapts()
+    throws Exception
+  {
+    final var checks = new AtomicInteger();
+    final var changes = new AtomicBoolean();
+    final var detector = new CMKeyStoreChangeDetectorType()
+    {
+      @Override
+      public CMKeyStoreHandle keystore()
+      {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public boolean check()
+      {
+        checks.incrementAndGet();
+        return changes.getAndSet(false);
+      }
+    };
+
+    final var minimum = Duration.ofMillis(1L);
+    final var maximum = Duration.ofMillis(256L);
+
+    try (var poller =
+           CMKeyStoreChangeDetectors.poll(detector, minimum, maximum)) {
+      waitFor(() -> poller.interval().equals(maximum));
+
+      /*
+       * A change shortens the interval, which then grows back to the
+       * maximum while nothing changes.
+       */
+
+      changes.set(true);
+      waitFor(() -> poller.interval().compareTo(maximum) < 0);
+      assertFalse(changes.get());
+      waitFor(() -> poller.interval().equals(maximum));
+    }
+
+    final var count = checks.get();
+    Thread.sleep(50L);
+    assertEquals(count, checks.get());
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      CMKeyStoreChangeDetectors.poll(detector, maximum, minimum);
+    });
+  }
+
+  private static void waitFor(
+    final BooleanSupplier condition)
+    throws InterruptedException
+  {
+    final var deadline = System.nanoTime() + 10_000_000_000L;
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Timed out");
+      Thread.sleep(1L);
+    }
+  }
+}
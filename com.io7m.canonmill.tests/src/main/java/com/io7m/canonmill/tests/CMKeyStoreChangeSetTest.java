@@ -0,0 +1,392 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.tests;
+
+import com.io7m.canonmill.core.CMKeyStoreChangeSet;
+import com.io7m.canonmill.core.CMKeyStoreIndex;
+import com.io7m.canonmill.core.CMKeyStoreProvider;
+import com.io7m.canonmill.core.CMKeyStores;
+import com.io7m.canonmill.core.internal.CMKeyStoreChangeSets;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionSerializers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.io7m.canonmill.tests.CMGenerateKeys.generateCertificate;
+import static com.io7m.canonmill.tests.CMGenerateKeys.generateKeyPair;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class CMKeyStoreChangeSetTest
+{
+  private Path directory;
+  private CMKeyStoreDescriptionSerializers serializers;
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.directory =
+      CMTestDirectories.createTempDirectory();
+    this.serializers =
+      new CMKeyStoreDescriptionSerializers();
+  }
+
+  @Test
+  public void testChanges()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+    final var c1 =
+      generateCertificate(kp0.keyPair(), this.directory, "c1");
+    final var c2 =
+      generateCertificate(kp0.keyPair(), this.directory, "c2");
+
+    final var file = this.directory.resolve("keystore.xml");
+    this.serializers.serializeFile(
+      file,
+      new CMKeyStoreDescription(
+        this.directory,
+        Map.of("k0", kp0.secretKeyFile()),
+        Map.ofEntries(
+          Map.entry("c0", c0.certificateFile()),
+          Map.entry("c1", c1.certificateFile()),
+          Map.entry("c2", c2.certificateFile())
+        )
+      )
+    );
+
+    final var ks =
+      CMKeyStores.openKeyStore(file, new CMKeyStoreProvider());
+    final var subscriber =
+      new QueueSubscriber();
+
+    CMKeyStores.handle(ks).changes().subscribe(subscriber);
+
+    /*
+     * Reloading an unchanged keystore publishes nothing.
+     */
+
+    CMKeyStores.reloadKeystoreFromFile(ks, file);
+    assertNull(subscriber.queue.poll(250L, TimeUnit.MILLISECONDS));
+
+    /*
+     * Replace c1, remove c0, and add c3.
+     */
+
+    generateCertificate(kp0.keyPair(), this.directory, "c1");
+    final var c3 =
+      generateCertificate(kp0.keyPair(), this.directory, "c3");
+
+    this.serializers.serializeFile(
+      file,
+      new CMKeyStoreDescription(
+        this.directory,
+        Map.of("k0", kp0.secretKeyFile()),
+        Map.ofEntries(
+          Map.entry("c1", c1.certificateFile()),
+          Map.entry("c2", c2.certificateFile()),
+          Map.entry("c3", c3.certificateFile())
+        )
+      )
+    );
+
+    CMKeyStores.reloadKeystoreFromFile(ks, file);
+
+    final var changes = subscriber.queue.poll(5L, TimeUnit.SECONDS);
+    assertNotNull(changes);
+    assertEquals(Set.of("c3"), changes.added());
+    assertEquals(Set.of("c0"), changes.removed());
+    assertEquals(Set.of("c1"), changes.changed());
+  }
+
+  @Test
+  public void testReloadAliases()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+    final var c1 =
+      generateCertificate(kp0.keyPair(), this.directory, "c1");
+
+    final var file = this.directory.resolve("keystore.xml");
+    this.serializers.serializeFile(
+      file,
+      new CMKeyStoreDescription(
+        this.directory,
+        Map.of("k0", kp0.secretKeyFile()),
+        Map.ofEntries(
+          Map.entry("c0", c0.certificateFile()),
+          Map.entry("c1", c1.certificateFile())
+        )
+      )
+    );
+
+    final var ks =
+      CMKeyStores.openKeyStore(file, new CMKeyStoreProvider());
+    final var subscriber =
+      new QueueSubscriber();
+
+    CMKeyStores.handle(ks).changes().subscribe(subscriber);
+
+    final var c0New =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+    final var c1New =
+      generateCertificate(kp0.keyPair(), this.directory, "c1");
+
+    CMKeyStores.reloadAliases(ks, Set.of("c0"));
+
+    assertEquals(c0New.certificate(), ks.getCertificate("c0"));
+    assertEquals(c1.certificate(), ks.getCertificate("c1"));
+    assertNotEquals(c1New.certificate(), ks.getCertificate("c1"));
+
+    final var changes = subscriber.queue.poll(5L, TimeUnit.SECONDS);
+    assertNotNull(changes);
+    assertEquals(Set.of(), changes.added());
+    assertEquals(Set.of(), changes.removed());
+    assertEquals(Set.of("c0"), changes.changed());
+  }
+
+  @Test
+  public void testStalledSubscriber()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+    final var c1 =
+      generateCertificate(kp0.keyPair(), this.directory, "c1");
+    final var c2 =
+      generateCertificate(kp0.keyPair(), this.directory, "c2");
+
+    final var index0 =
+      CMKeyStoreIndex.builder(this.directory)
+        .addCertificate("c0", c0.certificateFile())
+        .build();
+    final var index1 =
+      CMKeyStoreIndex.builder(this.directory)
+        .addCertificate("c0", c0.certificateFile())
+        .addCertificate("c1", c1.certificateFile())
+        .build();
+    final var index2 =
+      CMKeyStoreIndex.builder(this.directory)
+        .addCertificate("c1", c1.certificateFile())
+        .addCertificate("c2", c2.certificateFile())
+        .build();
+
+    final var handle =
+      CMKeyStores.handle(CMKeyStores.createKeyStore(new CMKeyStoreProvider()));
+    handle.loadIndex(index0);
+
+    final var stalled =
+      new StalledSubscriber();
+    final var subscriber =
+      new QueueSubscriber();
+
+    handle.changes().subscribe(stalled);
+    handle.changes().subscribe(subscriber);
+    assertTrue(stalled.subscribed.await(5L, TimeUnit.SECONDS));
+
+    /*
+     * A subscriber that requests nothing cannot stall loads.
+     */
+
+    final var count = Flow.defaultBufferSize() + 8;
+    assertTimeoutPreemptively(Duration.ofSeconds(30L), () -> {
+      for (int index = 0; index < count; ++index) {
+        handle.loadIndex(index % 2 == 0 ? index1 : index0);
+      }
+      handle.loadIndex(index2);
+    });
+
+    /*
+     * Change sets that were not requested are merged rather than dropped:
+     * c1 was added and removed many times and then added again, c0 was
+     * removed, and c2 was added.
+     */
+
+    final var expected =
+      new CMKeyStoreChangeSet(Set.of("c1", "c2"), Set.of("c0"), Set.of());
+
+    stalled.subscription.request(1L);
+    assertEquals(expected, stalled.queue.poll(5L, TimeUnit.SECONDS));
+    assertNull(stalled.queue.poll(250L, TimeUnit.MILLISECONDS));
+
+    /*
+     * A subscriber that keeps up observes the same changes, although some
+     * of them may also have been merged.
+     */
+
+    var received = subscriber.queue.poll(5L, TimeUnit.SECONDS);
+    assertNotNull(received);
+    while (!received.equals(expected)) {
+      final var next = subscriber.queue.poll(5L, TimeUnit.SECONDS);
+      assertNotNull(next);
+      received = CMKeyStoreChangeSets.merge(received, next);
+    }
+
+    /*
+     * Closing the publisher completes subscribers, and the keystore remains
+     * usable.
+     */
+
+    handle.closeChanges();
+    assertTrue(subscriber.completed.await(5L, TimeUnit.SECONDS));
+    assertTrue(stalled.completed.await(5L, TimeUnit.SECONDS));
+
+    handle.loadIndex(index1);
+    assertEquals(c0.certificate(), handle.getCertificate("c0"));
+    assertNull(subscriber.queue.poll(250L, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testMerge()
+  {
+    final var first =
+      new CMKeyStoreChangeSet(
+        Set.of("a", "b"),
+        Set.of("c", "d"),
+        Set.of("e", "f")
+      );
+    final var second =
+      new CMKeyStoreChangeSet(
+        Set.of("c", "g"),
+        Set.of("a", "e"),
+        Set.of("b", "f", "h")
+      );
+
+    assertEquals(
+      new CMKeyStoreChangeSet(
+        Set.of("b", "g"),
+        Set.of("d", "e"),
+        Set.of("c", "f", "h")
+      ),
+      CMKeyStoreChangeSets.merge(first, second)
+    );
+  }
+
+  @Test
+  public void testHandleForeignKeyStore()
+    throws Exception
+  {
+    final var ks =
+      KeyStore.getInstance("PKCS12");
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      CMKeyStores.handle(ks);
+    });
+  }
+
+  private static final class StalledSubscriber
+    implements Flow.Subscriber<CMKeyStoreChangeSet>
+  {
+    private final LinkedBlockingQueue<CMKeyStoreChangeSet> queue =
+      new LinkedBlockingQueue<>();
+    private final CountDownLatch subscribed =
+      new CountDownLatch(1);
+    private final CountDownLatch completed =
+      new CountDownLatch(1);
+    private volatile Flow.Subscription subscription;
+
+    @Override
+    public void onSubscribe(
+      final Flow.Subscription inSubscription)
+    {
+      this.subscription = inSubscription;
+      this.subscribed.countDown();
+    }
+
+    @Override
+    public void onNext(
+      final CMKeyStoreChangeSet item)
+    {
+      this.queue.add(item);
+    }
+
+    @Override
+    public void onError(
+      final Throwable throwable)
+    {
+
+    }
+
+    @Override
+    public void onComplete()
+    {
+      this.completed.countDown();
+    }
+  }
+
+  private static final class QueueSubscriber
+    implements Flow.Subscriber<CMKeyStoreChangeSet>
+  {
+    private final LinkedBlockingQueue<CMKeyStoreChangeSet> queue =
+      new LinkedBlockingQueue<>();
+    private final CountDownLatch completed =
+      new CountDownLatch(1);
+
+    @Override
+    public void onSubscribe(
+      final Flow.Subscription subscription)
+    {
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(
+      final CMKeyStoreChangeSet item)
+    {
+      this.queue.add(item);
+    }
+
+    @Override
+    public void onError(
+      final Throwable throwable)
+    {
+
+    }
+
+    @Override
+    public void onComplete()
+    {
+      this.completed.countDown();
+    }
+  }
+}
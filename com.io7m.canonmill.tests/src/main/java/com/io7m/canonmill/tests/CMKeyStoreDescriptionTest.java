@@ -16,10 +16,14 @@
 
 package com.io7m.canonmill.tests;
 
+import com.io7m.anethum.api.ParseSeverity;
 import com.io7m.anethum.api.ParsingException;
 import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
 import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionParsers;
 import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionSerializers;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionListenerType;
+import com.io7m.canonmill.core.internal.CMKeyStoreEntryDigest;
+import com.io7m.canonmill.core.internal.CMKeyStoreFragments;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -29,13 +33,21 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 import static com.io7m.canonmill.tests.CMGenerateKeys.generateCertificate;
 import static com.io7m.canonmill.tests.CMGenerateKeys.generateKeyPair;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public final class CMKeyStoreDescriptionTest
 {
@@ -85,6 +97,449 @@ public final class CMKeyStoreDescriptionTest
     });
   }
 
+  @Test
+  public void testErrorsLexical()
+    throws Exception
+  {
+    final var stream =
+      this.resource("empty-invalid.xml");
+
+    final var ex =
+      assertThrows(ParsingException.class, () -> {
+        this.parsers.parse(URI.create("urn:in"), stream);
+      });
+
+    final var status = ex.statusValues().get(0);
+    assertEquals(ParseSeverity.PARSE_ERROR, status.severity());
+    assertEquals(3, status.lexical().line());
+    assertEquals(Optional.of(URI.create("urn:in")), status.lexical().file());
+  }
+
+  @Test
+  public void testErrorsLexicalV2()
+    throws Exception
+  {
+    final var stream =
+      this.resource("digest-invalid.xml");
+
+    final var ex =
+      assertThrows(ParsingException.class, () -> {
+        this.parsers.parse(URI.create("urn:in"), stream);
+      });
+
+    final var status = ex.statusValues().get(0);
+    assertEquals(ParseSeverity.PARSE_ERROR, status.severity());
+    assertEquals(5, status.lexical().line());
+    assertTrue(status.lexical().column() > 0);
+    assertEquals(Optional.of(URI.create("urn:in")), status.lexical().file());
+  }
+
+  @Test
+  public void testErrorsLexicalTruncated()
+    throws Exception
+  {
+    final var text = """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:2"
+                BaseDirectory="/nonexistent">
+        <Key Name="www" File="www.sec"/>
+      """;
+
+    final var ex =
+      assertThrows(ParsingException.class, () -> {
+        this.parsers.parse(
+          URI.create("urn:in"),
+          new ByteArrayInputStream(text.getBytes(UTF_8))
+        );
+      });
+
+    final var status = ex.statusValues().get(0);
+    assertEquals(ParseSeverity.PARSE_ERROR, status.severity());
+    assertTrue(status.lexical().line() >= 4);
+  }
+
+  @Test
+  public void testParsersReused()
+    throws Exception
+  {
+    final var basic =
+      this.resource("basic.xml").readAllBytes();
+    final var wrong =
+      this.resource("base-wrong-schema.xml").readAllBytes();
+
+    for (int index = 0; index < 100; ++index) {
+      final var description =
+        this.parsers.parse(
+          URI.create("urn:in"),
+          new ByteArrayInputStream(basic)
+        );
+      assertEquals(2, description.keys().size());
+      assertEquals(3, description.certificates().size());
+
+      assertThrows(ParsingException.class, () -> {
+        this.parsers.parse(
+          URI.create("urn:in"),
+          new ByteArrayInputStream(wrong)
+        );
+      });
+    }
+  }
+
+  @Test
+  public void testNonValidatingCorpus()
+    throws Exception
+  {
+    final var fast =
+      CMKeyStoreDescriptionParsers.nonValidating();
+
+    final var names = List.of(
+      "base-not-absolute.xml",
+      "base-wrong-schema.xml",
+      "basic-v2.xml",
+      "basic.xml",
+      "digest-invalid.xml",
+      "empty-invalid.xml",
+      "empty.xml"
+    );
+
+    for (final var name : names) {
+      final var data =
+        this.resource(name).readAllBytes();
+
+      ParsingException expectedError = null;
+      CMKeyStoreDescription expected = null;
+      try {
+        expected = this.parsers.parse(
+          URI.create("urn:in"),
+          new ByteArrayInputStream(data)
+        );
+      } catch (final ParsingException e) {
+        expectedError = e;
+      }
+
+      if (expectedError != null) {
+        assertThrows(ParsingException.class, () -> {
+          fast.parse(URI.create("urn:in"), new ByteArrayInputStream(data));
+        }, name);
+      } else {
+        assertEquals(
+          expected,
+          fast.parse(URI.create("urn:in"), new ByteArrayInputStream(data)),
+          name
+        );
+      }
+    }
+  }
+
+  @Test
+  public void testBasicV2()
+    throws Exception
+  {
+    final var description =
+      this.parsers.parse(URI.create("urn:in"), this.resource("basic-v2.xml"));
+
+    assertEquals(2, description.keys().size());
+    assertEquals(3, description.certificates().size());
+    assertEquals(
+      Map.of(
+        "www",
+        new CMKeyStoreEntryDigest(
+          "SHA-256",
+          "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08"
+        )
+      ),
+      description.keyDigests()
+    );
+    assertEquals(
+      Map.of(
+        "www",
+        new CMKeyStoreEntryDigest(
+          "SHA-256",
+          "60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752"
+        )
+      ),
+      description.certificateDigests()
+    );
+
+    this.roundTrip(description);
+  }
+
+  @Test
+  public void testDigestInvalid()
+    throws Exception
+  {
+    final var stream =
+      this.resource("digest-invalid.xml");
+
+    assertThrows(ParsingException.class, () -> {
+      this.parsers.parse(URI.create("urn:in"), stream);
+    });
+  }
+
+  @Test
+  public void testDigestsSerializedV2()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+
+    final var plain =
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of("k0", kp0.secretKeyFile().getFileName()),
+        Map.of("c0", c0.certificateFile().getFileName())
+      );
+    final var digested =
+      plain.withComputedDigests();
+
+    assertEquals(
+      Set.of("k0"),
+      digested.keyDigests().keySet()
+    );
+    assertEquals(
+      Set.of("c0"),
+      digested.certificateDigests().keySet()
+    );
+
+    final var plainText = new ByteArrayOutputStream();
+    this.serializers.serialize(URI.create("urn:out"), plainText, plain);
+    assertTrue(
+      plainText.toString(UTF_8).contains("urn:com.io7m.canonmill.keystore:1")
+    );
+
+    final var digestedText = new ByteArrayOutputStream();
+    this.serializers.serialize(URI.create("urn:out"), digestedText, digested);
+    assertTrue(
+      digestedText.toString(UTF_8).contains("urn:com.io7m.canonmill.keystore:2")
+    );
+
+    this.roundTrip(plain);
+    this.roundTrip(digested);
+  }
+
+  @Test
+  public void testFragmentsAndBundlesSerializedV2()
+    throws Exception
+  {
+    final var description =
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of("k0", Path.of("k0.key")),
+        Map.of(),
+        Map.of(),
+        Map.of(),
+        List.of(Path.of("tenant-a", "index.xml")),
+        List.of(Path.of("bundles", "tenant-b.cmb"))
+      );
+
+    assertEquals(
+      List.of(this.directory.resolve("tenant-a/index.xml").toAbsolutePath()),
+      description.includes()
+    );
+
+    final var text = new ByteArrayOutputStream();
+    this.serializers.serialize(URI.create("urn:out"), text, description);
+    assertTrue(
+      text.toString(UTF_8).contains("urn:com.io7m.canonmill.keystore:2")
+    );
+
+    this.roundTrip(description);
+  }
+
+  @Test
+  public void testFragmentsMerged()
+    throws Exception
+  {
+    final var tenantA = this.directory.resolve("tenant-a");
+    final var tenantB = this.directory.resolve("tenant-b");
+    Files.createDirectories(tenantA);
+    Files.createDirectories(tenantB);
+
+    final var fragmentA = tenantA.resolve("index.xml");
+    final var fragmentB = tenantB.resolve("index.xml");
+    this.serializers.serializeFile(
+      fragmentA,
+      new CMKeyStoreDescription(
+        tenantA,
+        Map.of("ka", Path.of("ka.key")),
+        Map.of("ca", Path.of("ca.crt"))
+      )
+    );
+    this.serializers.serializeFile(
+      fragmentB,
+      new CMKeyStoreDescription(
+        tenantB,
+        Map.of("kb", Path.of("kb.key")),
+        Map.of("cb", Path.of("cb.crt"))
+      )
+    );
+
+    final var index =
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of("k0", Path.of("k0.key")),
+        Map.of(),
+        Map.of(),
+        Map.of(),
+        List.of(Path.of("tenant-a/index.xml"), Path.of("tenant-b/index.xml"))
+      );
+
+    final var fragments = new CMKeyStoreFragments();
+    final var merged =
+      fragments.merge(
+        index,
+        this.parsers,
+        CMKeyStoreDescriptionListenerType.IGNORE
+      );
+
+    assertEquals(
+      Map.of(
+        "k0", this.directory.resolve("k0.key"),
+        "ka", tenantA.resolve("ka.key"),
+        "kb", tenantB.resolve("kb.key")
+      ),
+      merged.keys()
+    );
+    assertEquals(
+      Map.of(
+        "ca", tenantA.resolve("ca.crt"),
+        "cb", tenantB.resolve("cb.crt")
+      ),
+      merged.certificates()
+    );
+    assertEquals(index.includes(), merged.includes());
+    assertEquals(index, fragments.unmerge(merged, this.parsers));
+
+    /*
+     * Unchanged fragments are not parsed again.
+     */
+
+    final var parsedA = fragments.cached(fragmentA).orElseThrow();
+    final var parsedB = fragments.cached(fragmentB).orElseThrow();
+    assertEquals(
+      merged,
+      fragments.merge(
+        index,
+        this.parsers,
+        CMKeyStoreDescriptionListenerType.IGNORE
+      )
+    );
+    assertSame(parsedA, fragments.cached(fragmentA).orElseThrow());
+    assertSame(parsedB, fragments.cached(fragmentB).orElseThrow());
+
+    /*
+     * Only the changed fragment is parsed again.
+     */
+
+    this.serializers.serializeFile(
+      fragmentB,
+      new CMKeyStoreDescription(
+        tenantB,
+        Map.of("kb", Path.of("kb.key")),
+        Map.of("cb", Path.of("cb.crt"), "cc", Path.of("cc.crt"))
+      )
+    );
+
+    final var remerged =
+      fragments.merge(
+        index,
+        this.parsers,
+        CMKeyStoreDescriptionListenerType.IGNORE
+      );
+
+    assertEquals(Set.of("ca", "cb", "cc"), remerged.certificates().keySet());
+    assertSame(parsedA, fragments.cached(fragmentA).orElseThrow());
+    assertNotSame(parsedB, fragments.cached(fragmentB).orElseThrow());
+
+    /*
+     * Fragments that are no longer included are evicted.
+     */
+
+    fragments.merge(
+      index.withIncludes(List.of(Path.of("tenant-a/index.xml"))),
+      this.parsers,
+      CMKeyStoreDescriptionListenerType.IGNORE
+    );
+    assertEquals(Optional.empty(), fragments.cached(fragmentB));
+  }
+
+  @Test
+  public void testFragmentsDuplicateAlias()
+    throws Exception
+  {
+    final var tenantA = this.directory.resolve("tenant-a");
+    Files.createDirectories(tenantA);
+
+    this.serializers.serializeFile(
+      tenantA.resolve("index.xml"),
+      new CMKeyStoreDescription(
+        tenantA,
+        Map.of("k0", Path.of("k0.key")),
+        Map.of()
+      )
+    );
+
+    final var index =
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of("k0", Path.of("k0.key")),
+        Map.of(),
+        Map.of(),
+        Map.of(),
+        List.of(Path.of("tenant-a/index.xml"))
+      );
+
+    final var ex =
+      assertThrows(IOException.class, () -> {
+        new CMKeyStoreFragments().merge(
+          index,
+          this.parsers,
+          CMKeyStoreDescriptionListenerType.IGNORE
+        );
+      });
+    assertTrue(ex.getMessage().contains("k0"));
+  }
+
+  @Test
+  public void testFragmentsNested()
+    throws Exception
+  {
+    final var tenantA = this.directory.resolve("tenant-a");
+    Files.createDirectories(tenantA);
+
+    this.serializers.serializeFile(
+      tenantA.resolve("index.xml"),
+      new CMKeyStoreDescription(
+        tenantA,
+        Map.of(),
+        Map.of(),
+        Map.of(),
+        Map.of(),
+        List.of(Path.of("other.xml"))
+      )
+    );
+
+    final var index =
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of(),
+        Map.of(),
+        Map.of(),
+        Map.of(),
+        List.of(Path.of("tenant-a/index.xml"))
+      );
+
+    assertThrows(IOException.class, () -> {
+      new CMKeyStoreFragments().merge(
+        index,
+        this.parsers,
+        CMKeyStoreDescriptionListenerType.IGNORE
+      );
+    });
+  }
+
   @Test
   public void testEmpty()
     throws Exception
@@ -174,6 +629,14 @@ public final class CMKeyStoreDescriptionTest
       );
 
     assertEquals(description, result);
+
+    final var resultFast =
+      CMKeyStoreDescriptionParsers.nonValidating()
+        .parse(
+          URI.create("urn:out"), new ByteArrayInputStream(output.toByteArray())
+        );
+
+    assertEquals(description, resultFast);
   }
 
   private InputStream resource(
@@ -0,0 +1,244 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.tests;
+
+import com.io7m.canonmill.core.CMKeyStoreImportFormat;
+import com.io7m.canonmill.core.CMKeyStoreImporter;
+import com.io7m.canonmill.core.CMKeyStoreProvider;
+import com.io7m.canonmill.core.CMKeyStores;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.io7m.canonmill.tests.CMGenerateKeys.generateCertificate;
+import static com.io7m.canonmill.tests.CMGenerateKeys.generateKeyPair;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class CMKeyStoreImporterTest
+{
+  private static final char[] PASSWORD = "password".toCharArray();
+
+  private Path directory;
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.directory =
+      CMTestDirectories.createTempDirectory();
+  }
+
+  private static Set<String> aliases(
+    final KeyStore keyStore)
+    throws Exception
+  {
+    return Set.copyOf(Collections.list(keyStore.aliases()));
+  }
+
+  private static long fileCount(
+    final Path directory)
+    throws IOException
+  {
+    try (var files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+  @Test
+  public void testImportSharedChains()
+    throws Exception
+  {
+    final var generated =
+      Files.createDirectories(this.directory.resolve("generated"));
+
+    final var kp0 = generateKeyPair("k0", generated);
+    final var c0 = generateCertificate(kp0.keyPair(), generated, "c0");
+    final var kp1 = generateKeyPair("k1", generated);
+    final var c1 = generateCertificate(kp1.keyPair(), generated, "c1");
+    final var kp2 = generateKeyPair("k2", generated);
+    final var c2 = generateCertificate(kp2.keyPair(), generated, "c2");
+    final var kp3 = generateKeyPair("k3", generated);
+    final var c3 = generateCertificate(kp3.keyPair(), generated, "c3");
+
+    /*
+     * c0 is both a trusted certificate and part of the chain of k1, and c3
+     * only appears in the chains of k1 and k2. The generated certificates
+     * are all self-signed, and so a JKS keystore is used, as the PKCS#12
+     * implementation rejects chains in which the issuers do not match.
+     */
+
+    final var source = KeyStore.getInstance("JKS");
+    source.load(null, null);
+    source.setKeyEntry(
+      "k0",
+      kp0.keyPair().getPrivate(),
+      PASSWORD,
+      new Certificate[]{c0.certificate()}
+    );
+    source.setKeyEntry(
+      "k1",
+      kp1.keyPair().getPrivate(),
+      PASSWORD,
+      new Certificate[]{c1.certificate(), c0.certificate(), c3.certificate()}
+    );
+    source.setKeyEntry(
+      "k2",
+      kp2.keyPair().getPrivate(),
+      PASSWORD,
+      new Certificate[]{c2.certificate(), c3.certificate()}
+    );
+    source.setCertificateEntry("ca", c0.certificate());
+
+    final var output = this.directory.resolve("output");
+    final var indexFile = this.directory.resolve("keystore.xml");
+    final var index =
+      CMKeyStoreImporter.builder(source, output, indexFile)
+        .setPassword(PASSWORD)
+        .setParallelism(4)
+        .build()
+        .execute();
+
+    /*
+     * Each certificate is written once, and c3 receives an alias of its
+     * own so that the index refers to it.
+     */
+
+    assertEquals(3 + 4, fileCount(output));
+    assertEquals(Set.of("k0", "k1", "k2"), index.keys().keySet());
+
+    final var chainAliases =
+      index.certificates()
+        .keySet()
+        .stream()
+        .filter(alias -> alias.startsWith("chain-"))
+        .collect(Collectors.toSet());
+    assertEquals(1, chainAliases.size());
+
+    final var imported =
+      CMKeyStores.openKeyStore(indexFile, new CMKeyStoreProvider());
+
+    assertEquals(aliases(source), aliases(imported).stream()
+      .filter(alias -> !chainAliases.contains(alias))
+      .collect(Collectors.toSet()));
+
+    for (final var alias : Set.of("k0", "k1", "k2")) {
+      assertEquals(
+        source.getKey(alias, PASSWORD),
+        imported.getKey(alias, new char[0])
+      );
+      assertEquals(
+        source.getCertificate(alias),
+        imported.getCertificate(alias)
+      );
+    }
+    assertEquals(c0.certificate(), imported.getCertificate("ca"));
+    assertEquals(
+      c3.certificate(),
+      imported.getCertificate(chainAliases.iterator().next())
+    );
+
+    /*
+     * Importing again writes nothing new.
+     */
+
+    CMKeyStoreImporter.builder(source, output, indexFile)
+      .setPassword(PASSWORD)
+      .build()
+      .execute();
+    assertEquals(3 + 4, fileCount(output));
+  }
+
+  @Test
+  public void testImportDER()
+    throws Exception
+  {
+    final var kp0 = generateKeyPair("k0", this.directory);
+    final var c0 = generateCertificate(kp0.keyPair(), this.directory, "c0");
+
+    final var source = KeyStore.getInstance("PKCS12");
+    source.load(null, null);
+    source.setKeyEntry(
+      "k0",
+      kp0.keyPair().getPrivate(),
+      PASSWORD,
+      new Certificate[]{c0.certificate()}
+    );
+
+    final var output = this.directory.resolve("output");
+    final var indexFile = output.resolve("keystore.xml");
+    final var index =
+      CMKeyStoreImporter.builder(source, output, indexFile)
+        .setPassword(PASSWORD)
+        .setFormat(CMKeyStoreImportFormat.DER)
+        .build()
+        .execute();
+
+    assertTrue(index.keys().get("k0").toString().endsWith(".pk8"));
+    assertTrue(index.certificates().get("k0").toString().endsWith(".der"));
+
+    final var imported = CMKeyStores.openKeyStore(index);
+    assertEquals(kp0.keyPair().getPrivate(), imported.getKey("k0", null));
+    assertEquals(c0.certificate(), imported.getCertificate("k0"));
+  }
+
+  @Test
+  public void testImportSecretKeyFails()
+    throws Exception
+  {
+    final var kp0 = generateKeyPair("k0", this.directory);
+    final var c0 = generateCertificate(kp0.keyPair(), this.directory, "c0");
+
+    final var source = KeyStore.getInstance("PKCS12");
+    source.load(null, null);
+    source.setKeyEntry(
+      "k0",
+      kp0.keyPair().getPrivate(),
+      PASSWORD,
+      new Certificate[]{c0.certificate()}
+    );
+    source.setEntry(
+      "secret",
+      new KeyStore.SecretKeyEntry(new SecretKeySpec(new byte[16], "AES")),
+      new KeyStore.PasswordProtection(PASSWORD)
+    );
+
+    final var output = this.directory.resolve("output");
+    final var indexFile = this.directory.resolve("keystore.xml");
+    final var ex =
+      assertThrows(IOException.class, () -> {
+        CMKeyStoreImporter.builder(source, output, indexFile)
+          .setPassword(PASSWORD)
+          .build()
+          .execute();
+      });
+
+    assertTrue(ex.getMessage().contains("secret"), ex.getMessage());
+    assertTrue(Files.notExists(indexFile));
+  }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.tests;
+
+import com.io7m.canonmill.core.CMKeyStoreHandle;
+import com.io7m.canonmill.core.CMKeyStoreLoadOptions;
+import com.io7m.canonmill.core.CMKeyStoreProvider;
+import com.io7m.canonmill.core.CMKeyStoreSnapshotCompiler;
+import com.io7m.canonmill.core.CMKeyStores;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionParsers;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionSerializers;
+import com.io7m.canonmill.core.internal.CMKeyStoreInstance;
+import com.io7m.canonmill.core.internal.CMKeyStoreSnapshots;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static com.io7m.canonmill.tests.CMGenerateKeys.generateCertificate;
+import static com.io7m.canonmill.tests.CMGenerateKeys.generateKeyPair;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class CMKeyStoreSnapshotTest
+{
+  private Path directory;
+  private CMKeyStoreDescriptionSerializers serializers;
+  private CMGenerateKeys.SerializedKeyPair kp0;
+  private CMGenerateKeys.SerializedCertificate c0;
+  private Path file;
+  private Path snapshot;
+
+  @BeforeEach
+  public void setup()
+    throws Exception
+  {
+    this.directory =
+      CMTestDirectories.createTempDirectory();
+    this.serializers =
+      new CMKeyStoreDescriptionSerializers();
+
+    this.kp0 =
+      generateKeyPair("k0", this.directory);
+    this.c0 =
+      generateCertificate(this.kp0.keyPair(), this.directory, "c0");
+
+    this.file = this.directory.resolve("keystore.xml");
+    this.snapshot = this.directory.resolve("keystore.xml.snapshot");
+
+    this.serializers.serializeFile(
+      this.file,
+      new CMKeyStoreDescription(
+        this.directory,
+        Map.of("k0", this.kp0.secretKeyFile()),
+        Map.of("c0", this.c0.certificateFile())
+      )
+    );
+  }
+
+  private CMKeyStoreHandle open(
+    final boolean privateKeys)
+    throws Exception
+  {
+    final var ks =
+      CMKeyStores.handle(CMKeyStores.createKeyStore(new CMKeyStoreProvider()));
+
+    ks.setLoadOptions(
+      CMKeyStoreLoadOptions.builder()
+        .setSnapshotFileNextTo(this.file)
+        .setSnapshotPrivateKeys(privateKeys)
+        .build()
+    );
+
+    CMKeyStores.reloadKeystoreFromFile(ks, this.file);
+    return ks;
+  }
+
+  /**
+   * Overwrite a file with garbage of the same size, preserving the
+   * modification time. The change is invisible to the snapshot fingerprints.
+   */
+
+  private static void corruptPreservingFingerprint(
+    final Path target)
+    throws IOException
+  {
+    final var time = Files.getLastModifiedTime(target);
+    final var size = Files.size(target);
+    final var garbage = new byte[(int) size];
+    Arrays.fill(garbage, (byte) 'x');
+    Files.write(target, garbage);
+    Files.setLastModifiedTime(target, time);
+  }
+
+  @Test
+  public void testSnapshotUsedWhenUnchanged()
+    throws Exception
+  {
+    this.open(false);
+    assertTrue(Files.isRegularFile(this.snapshot));
+
+    corruptPreservingFingerprint(this.c0.certificateFile());
+
+    final var ks = this.open(false);
+    assertEquals(this.c0.certificate(), ks.getCertificate("c0"));
+    assertEquals(
+      this.kp0.keyPair().getPrivate(),
+      ks.getKey("k0", new char[0])
+    );
+  }
+
+  @Test
+  public void testSnapshotIgnoredWhenChanged()
+    throws Exception
+  {
+    this.open(false);
+
+    corruptPreservingFingerprint(this.c0.certificateFile());
+    Files.setLastModifiedTime(
+      this.c0.certificateFile(),
+      FileTime.fromMillis(0L)
+    );
+
+    assertThrows(IOException.class, () -> this.open(false));
+  }
+
+  @Test
+  public void testSnapshotRecordsDecodedVersions()
+    throws Exception
+  {
+    final var data =
+      Files.readAllBytes(this.file);
+    final var indexDigest =
+      CMKeyStoreSnapshots.digest(ByteBuffer.wrap(data));
+    final var description =
+      new CMKeyStoreDescriptionParsers()
+        .parse(this.file.toUri(), new ByteArrayInputStream(data));
+    final var instance =
+      CMKeyStoreInstance.create(description);
+
+    /*
+     * The certificate changes after it has been decoded, but before the
+     * snapshot is written. The snapshot must not pair the old certificate
+     * with the new file.
+     */
+
+    final var c1 =
+      generateCertificate(this.kp0.keyPair(), this.directory, "c0");
+    Files.setLastModifiedTime(
+      this.c0.certificateFile(),
+      FileTime.fromMillis(1_000_000L)
+    );
+
+    CMKeyStoreSnapshots.write(
+      this.snapshot, indexDigest, description, instance, false);
+
+    final var snapshot =
+      CMKeyStoreSnapshots.read(this.snapshot, indexDigest, false)
+        .orElseThrow();
+
+    assertFalse(snapshot.current());
+    assertFalse(snapshot.entries().certificates().containsKey("c0"));
+
+    final var ks = this.open(false);
+    assertEquals(c1.certificate(), ks.getCertificate("c0"));
+  }
+
+  @Test
+  public void testSnapshotIgnoredWhenDigestChanged()
+    throws Exception
+  {
+    final var description =
+      new CMKeyStoreDescription(
+        this.directory,
+        Map.of("k0", this.kp0.secretKeyFile()),
+        Map.of("c0", this.c0.certificateFile())
+      ).withComputedDigests();
+
+    this.serializers.serializeFile(this.file, description);
+    this.open(false);
+    assertTrue(Files.isRegularFile(this.snapshot));
+
+    /*
+     * The index now expects a digest that the unchanged certificate file
+     * does not have, so the entry in the snapshot cannot be used, and the
+     * file is checked against the new digest.
+     */
+
+    this.serializers.serializeFile(
+      this.file,
+      new CMKeyStoreDescription(
+        description.baseDirectory(),
+        description.keys(),
+        description.certificates(),
+        description.keyDigests(),
+        Map.of("c0", description.keyDigests().get("k0")),
+        List.of(),
+        List.of()
+      )
+    );
+
+    assertThrows(IOException.class, () -> this.open(false));
+  }
+
+  @Test
+  public void testSnapshotPrivateKeys()
+    throws Exception
+  {
+    final var encoded =
+      this.kp0.keyPair().getPrivate().getEncoded();
+
+    this.open(false);
+    assertFalse(contains(Files.readAllBytes(this.snapshot), encoded));
+
+    this.open(true);
+    assertTrue(contains(Files.readAllBytes(this.snapshot), encoded));
+
+    corruptPreservingFingerprint(this.kp0.secretKeyFile());
+
+    final var ks = this.open(true);
+    assertEquals(
+      this.kp0.keyPair().getPrivate(),
+      ks.getKey("k0", new char[0])
+    );
+
+    /*
+     * Private keys are never taken from a snapshot unless permitted.
+     */
+
+    assertThrows(IOException.class, () -> this.open(false));
+  }
+
+  @Test
+  public void testSnapshotCorrupt()
+    throws Exception
+  {
+    Files.writeString(this.snapshot, "Not a snapshot.");
+
+    final var ks = this.open(false);
+    assertEquals(this.c0.certificate(), ks.getCertificate("c0"));
+    assertTrue(Files.size(this.snapshot) > 16L);
+  }
+
+  @Test
+  public void testSnapshotCorruptCreationTime()
+    throws Exception
+  {
+    this.open(false);
+
+    final var data = Files.readAllBytes(this.snapshot);
+    final var offset = endOf(data, this.kp0.secretKeyFile()) + 16;
+    ByteBuffer.wrap(data).putLong(offset, Long.MAX_VALUE);
+    Files.write(this.snapshot, data);
+
+    final var ks = this.open(false);
+    assertEquals(this.c0.certificate(), ks.getCertificate("c0"));
+  }
+
+  @Test
+  public void testSnapshotCorruptCount()
+    throws Exception
+  {
+    this.open(false);
+
+    final var data = Files.readAllBytes(this.snapshot);
+    final var offset = endOf(data, this.c0.certificateFile()) + 32;
+    ByteBuffer.wrap(data).putInt(offset, Integer.MAX_VALUE - 8);
+    Files.write(this.snapshot, data);
+
+    final var ks = this.open(false);
+    assertEquals(this.c0.certificate(), ks.getCertificate("c0"));
+  }
+
+  /**
+   * Find the offset immediately following the given file name in a
+   * snapshot.
+   */
+
+  private static int endOf(
+    final byte[] data,
+    final Path file)
+  {
+    final var name = file.toString().getBytes(UTF_8);
+    final var index = indexOf(data, name);
+    assertTrue(index >= 0);
+    return index + name.length;
+  }
+
+  @Test
+  public void testSharedSnapshot()
+    throws Exception
+  {
+    final var shared =
+      this.directory.resolve("keystore.shared");
+
+    assertEquals(1L, CMKeyStoreSnapshotCompiler.compile(this.file, shared, false));
+    corruptPreservingFingerprint(this.c0.certificateFile());
+
+    final var ks =
+      CMKeyStores.openSharedSnapshot(shared, new CMKeyStoreProvider());
+
+    assertEquals(this.c0.certificate(), ks.getCertificate("c0"));
+    assertEquals(
+      this.kp0.keyPair().getPrivate(),
+      ks.getKey("k0", new char[0])
+    );
+    assertFalse(ks.refreshFromSharedSnapshot(shared));
+
+    final var c1 =
+      generateCertificate(this.kp0.keyPair(), this.directory, "c0");
+
+    assertEquals(2L, CMKeyStoreSnapshotCompiler.compile(this.file, shared, false));
+    assertTrue(ks.refreshFromSharedSnapshot(shared));
+    assertEquals(c1.certificate(), ks.getCertificate("c0"));
+    assertFalse(ks.refreshFromSharedSnapshot(shared));
+  }
+
+  @Test
+  public void testSharedSnapshotCorrupt()
+    throws Exception
+  {
+    final var shared =
+      this.directory.resolve("keystore.shared");
+
+    Files.writeString(shared, "Not a snapshot.");
+    assertThrows(IOException.class, () -> {
+      CMKeyStores.openSharedSnapshot(shared, new CMKeyStoreProvider());
+    });
+
+    assertEquals(1L, CMKeyStoreSnapshotCompiler.compile(this.file, shared, false));
+  }
+
+  @Test
+  public void testSharedSnapshotConcurrent()
+    throws Exception
+  {
+    final var shared =
+      this.directory.resolve("keystore.shared");
+
+    final var count = 8;
+    final var barrier = new CyclicBarrier(count);
+    final var executor = Executors.newFixedThreadPool(count);
+    try {
+      final var futures = new ArrayList<Future<Long>>();
+      for (int index = 0; index < count; ++index) {
+        futures.add(executor.submit(() -> {
+          barrier.await();
+          return Long.valueOf(
+            CMKeyStoreSnapshotCompiler.compile(this.file, shared, false)
+          );
+        }));
+      }
+
+      final var sequences = new HashSet<Long>();
+      for (final var future : futures) {
+        sequences.add(future.get(30L, TimeUnit.SECONDS));
+      }
+
+      assertEquals(
+        LongStream.rangeClosed(1L, count)
+          .boxed()
+          .collect(Collectors.toSet()),
+        sequences
+      );
+    } finally {
+      executor.shutdown();
+    }
+
+    final var ks =
+      CMKeyStores.openSharedSnapshot(shared, new CMKeyStoreProvider());
+    assertEquals(this.c0.certificate(), ks.getCertificate("c0"));
+  }
+
+  private static boolean contains(
+    final byte[] data,
+    final byte[] search)
+  {
+    return indexOf(data, search) >= 0;
+  }
+
+  private static int indexOf(
+    final byte[] data,
+    final byte[] search)
+  {
+    outer:
+    for (int index = 0; index <= data.length - search.length; ++index) {
+      for (int k = 0; k < search.length; ++k) {
+        if (data[index + k] != search[k]) {
+          continue outer;
+        }
+      }
+      return index;
+    }
+    return -1;
+  }
+}
@@ -16,26 +16,64 @@
 
 package com.io7m.canonmill.tests;
 
+import com.io7m.canonmill.core.CMKeyStoreCachePolicy;
+import com.io7m.canonmill.core.CMKeyStoreEntryKind;
+import com.io7m.canonmill.core.CMKeyStoreEntrySourceType;
+import com.io7m.canonmill.core.CMKeyStoreEntrySources;
+import com.io7m.canonmill.core.CMKeyStoreEntryVersion;
+import com.io7m.canonmill.core.CMKeyStoreIndex;
+import com.io7m.canonmill.core.CMKeyStoreLoadOptions;
+import com.io7m.canonmill.core.CMKeyStoreLoadParameter;
 import com.io7m.canonmill.core.CMKeyStoreProvider;
+import com.io7m.canonmill.core.CMKeyStores;
+import com.io7m.canonmill.core.internal.CMKeyStore;
 import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionFastParser;
 import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionParsers;
 import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionSerializers;
+import com.io7m.canonmill.core.internal.CMKeyStoreEntryDigest;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8EncryptorBuilder;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyPairGenerator;
 import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Spliterators;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -44,8 +82,12 @@ import static com.io7m.canonmill.tests.CMGenerateKeys.generateCertificate;
 import static com.io7m.canonmill.tests.CMGenerateKeys.generateKeyPair;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public final class CMKeyStoreTest
 {
@@ -220,6 +262,1029 @@ public final class CMKeyStoreTest
     );
   }
 
+  @Test
+  public void testEncryptedKeyStorePassword()
+    throws Exception
+  {
+    final var key =
+      KeyPairGenerator.getInstance("RSA").generateKeyPair().getPrivate();
+    final var password =
+      "password".toCharArray();
+
+    try (var writer = new JcaPEMWriter(
+      Files.newBufferedWriter(this.directory.resolve("k0.key")))) {
+      writer.writeObject(
+        new JcaPKCS8Generator(
+          key,
+          new JceOpenSSLPKCS8EncryptorBuilder(PKCS8Generator.AES_256_CBC)
+            .setPassword(password)
+            .build()
+        )
+      );
+    }
+
+    final var description =
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of("k0", Path.of("k0.key")),
+        Map.of()
+      );
+
+    final var file = this.directory.resolve("keystore.cmks");
+    this.serializers.serializeFile(file, description);
+
+    final var ks =
+      KeyStore.getInstance(providerName(), new CMKeyStoreProvider());
+
+    try (var stream = Files.newInputStream(file)) {
+      assertThrows(IOException.class, () -> ks.load(stream, null));
+    }
+    try (var stream = Files.newInputStream(file)) {
+      ks.load(stream, password);
+    }
+
+    assertEquals(key, ks.getKey("k0", password));
+  }
+
+  @Test
+  public void testLoadParameter()
+    throws Exception
+  {
+    final var keys =
+      Files.createDirectories(this.directory.resolve("keys"));
+    final var kp0 =
+      generateKeyPair("k0", keys);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), keys, "c0");
+
+    Files.writeString(keys.resolve("k1.key"), "Not a key.");
+
+    /*
+     * A relative base directory is resolved against the directory that
+     * contains the index.
+     */
+
+    final var file = this.directory.resolve("keystore.cmks");
+    Files.writeString(
+      file,
+      """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:2"
+                BaseDirectory="keys">
+        <Key Name="k0" File="%s"/>
+        <Key Name="k1" File="k1.key"/>
+        <Certificate Name="c0" File="%s"/>
+      </Keystore>
+      """.formatted(
+        kp0.secretKeyFile().getFileName(),
+        c0.certificateFile().getFileName()
+      )
+    );
+
+    final var ks =
+      KeyStore.getInstance(providerName(), new CMKeyStoreProvider());
+
+    ks.load(new CMKeyStoreLoadParameter(
+      file,
+      CMKeyStoreLoadOptions.builder()
+        .setLazyKeys(true)
+        .setCachePolicy(CMKeyStoreCachePolicy.FILE_ATTRIBUTES)
+        .build()
+    ));
+
+    assertEquals(kp0.keyPair().getPrivate(), ks.getKey("k0", new char[0]));
+    assertEquals(c0.certificate(), ks.getCertificate("c0"));
+
+    /*
+     * A key that cannot be decoded fails when it is used.
+     */
+
+    assertThrows(UnrecoverableKeyException.class, () -> {
+      ks.getKey("k1", new char[0]);
+    });
+
+    /*
+     * Reloading an unchanged index reuses everything that was loaded.
+     */
+
+    final var certificate = ks.getCertificate("c0");
+    ks.load(new CMKeyStoreLoadParameter(file));
+    assertSame(certificate, ks.getCertificate("c0"));
+
+    /*
+     * Errors name the index file.
+     */
+
+    Files.writeString(file, "<Keystore/>");
+    final var ex =
+      assertThrows(IOException.class, () -> {
+        ks.load(new CMKeyStoreLoadParameter(file));
+      });
+    assertTrue(ex.getMessage().contains(file.toString()), ex.getMessage());
+    assertEquals(c0.certificate(), ks.getCertificate("c0"));
+  }
+
+  @Test
+  public void testRelativeBaseDirectory()
+    throws Exception
+  {
+    final var keys =
+      Files.createDirectories(this.directory.resolve("keys"));
+    final var kp0 =
+      generateKeyPair("k0", keys);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), keys, "c0");
+
+    final var text =
+      """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:2"
+                BaseDirectory="%s">
+        <Key Name="k0" File="%s"/>
+        <Certificate Name="c0" File="%s"/>
+      </Keystore>
+      """;
+
+    /*
+     * Loaded from a file, a relative base directory is resolved against the
+     * directory that contains the index.
+     */
+
+    final var file = this.directory.resolve("keystore.cmks");
+    Files.writeString(
+      file,
+      text.formatted(
+        "keys",
+        kp0.secretKeyFile().getFileName(),
+        c0.certificateFile().getFileName()
+      )
+    );
+
+    final var byPath =
+      KeyStore.getInstance(providerName(), new CMKeyStoreProvider());
+    byPath.load(new CMKeyStoreLoadParameter(file));
+    assertEquals(kp0.keyPair().getPrivate(), byPath.getKey("k0", new char[0]));
+    assertEquals(c0.certificate(), byPath.getCertificate("c0"));
+
+    /*
+     * Loaded from a stream, the same index is resolved against the current
+     * working directory, which does not contain the files.
+     */
+
+    final var byStream =
+      KeyStore.getInstance(providerName(), new CMKeyStoreProvider());
+    try (var stream = Files.newInputStream(file)) {
+      assertThrows(IOException.class, () -> byStream.load(stream, null));
+    }
+
+    /*
+     * An index whose base directory is relative to the current working
+     * directory loads the same entries from a stream.
+     */
+
+    final var relative =
+      Path.of("").toAbsolutePath().relativize(keys.toAbsolutePath());
+    assertFalse(relative.isAbsolute());
+
+    Files.writeString(
+      file,
+      text.formatted(
+        relative,
+        kp0.secretKeyFile().getFileName(),
+        c0.certificateFile().getFileName()
+      )
+    );
+
+    try (var stream = Files.newInputStream(file)) {
+      byStream.load(stream, null);
+    }
+    assertEquals(
+      byPath.getKey("k0", new char[0]),
+      byStream.getKey("k0", new char[0])
+    );
+    assertEquals(byPath.getCertificate("c0"), byStream.getCertificate("c0"));
+  }
+
+  @Test
+  public void testIndex()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+    final var c1 =
+      generateCertificate(kp0.keyPair(), this.directory, "c1");
+
+    final var c0Digest =
+      CMKeyStoreEntryDigest.ofFile(c0.certificateFile()).toString();
+
+    final var index =
+      CMKeyStoreIndex.builder(this.directory)
+        .addKey("k0", kp0.secretKeyFile().getFileName())
+        .addCertificate("c0", c0.certificateFile().getFileName(), c0Digest)
+        .addCertificate("c1", c1.certificateFile())
+        .build();
+
+    assertEquals(
+      Map.of("k0", kp0.secretKeyFile().toAbsolutePath()),
+      index.keys()
+    );
+
+    final var ks =
+      CMKeyStores.openKeyStore(index, new CMKeyStoreProvider());
+
+    assertEquals(Set.of("k0", "c0", "c1"), enumerationToSet(ks.aliases()));
+    assertEquals(kp0.keyPair().getPrivate(), ks.getKey("k0", new char[0]));
+    assertEquals(c0.certificate(), ks.getCertificate("c0"));
+    assertEquals(c1.certificate(), ks.getCertificate("c1"));
+
+    /*
+     * A keystore loaded from an in-memory index can still be stored as XML.
+     */
+
+    final var output = new ByteArrayOutputStream();
+    ks.store(output, new char[0]);
+    final var ks2 =
+      KeyStore.getInstance(providerName(), new CMKeyStoreProvider());
+    ks2.load(new ByteArrayInputStream(output.toByteArray()), null);
+    assertEquals(
+      enumerationToSet(ks.aliases()),
+      enumerationToSet(ks2.aliases())
+    );
+
+    /*
+     * Digests are checked.
+     */
+
+    Files.copy(
+      c1.certificateFile(),
+      c0.certificateFile(),
+      StandardCopyOption.REPLACE_EXISTING
+    );
+    assertThrows(IOException.class, () -> {
+      CMKeyStores.handle(ks).loadIndex(index);
+    });
+    assertEquals(c0.certificate(), ks.getCertificate("c0"));
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      CMKeyStoreIndex.builder(this.directory)
+        .addKey("k0", kp0.secretKeyFile(), "not a digest");
+    });
+  }
+
+  @Test
+  public void testWritable()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+    final var kp1 =
+      generateKeyPair("k1", this.directory);
+    final var c1 =
+      generateCertificate(kp1.keyPair(), this.directory, "c1");
+
+    final var file = this.directory.resolve("keystore.cmks");
+    Files.writeString(
+      file,
+      """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:2"
+                BaseDirectory=".">
+        <Key Name="k0" File="k0.sec"/>
+        <Certificate Name="c0" File="c0.pem"/>
+      </Keystore>
+      """
+    );
+
+    final var ks =
+      CMKeyStores.handle(CMKeyStores.createKeyStore());
+    ks.load(new CMKeyStoreLoadParameter(
+      file,
+      CMKeyStoreLoadOptions.builder()
+        .setWritable(true)
+        .build()
+    ));
+
+    /*
+     * Modifications are not visible until they are committed.
+     */
+
+    ks.setKeyEntry(
+      "k1",
+      kp1.keyPair().getPrivate(),
+      new char[0],
+      new Certificate[]{c1.certificate()}
+    );
+    ks.setCertificateEntry("c2", c1.certificate());
+    ks.deleteEntry("c0");
+
+    final var ex =
+      assertThrows(NullPointerException.class, () -> {
+        ks.setKeyEntry(
+          "k2",
+          null,
+          new char[0],
+          new Certificate[]{c1.certificate()}
+        );
+      });
+    assertEquals("key", ex.getMessage());
+
+    assertEquals(3, ks.pendingChanges());
+    assertEquals(Set.of("k0", "c0"), enumerationToSet(ks.aliases()));
+
+    final var generation = ks.generation();
+    ks.commit();
+    assertEquals(0, ks.pendingChanges());
+    assertEquals(generation + 1L, ks.generation());
+
+    assertEquals(Set.of("k0", "k1", "c2"), enumerationToSet(ks.aliases()));
+    assertEquals(kp1.keyPair().getPrivate(), ks.getKey("k1", new char[0]));
+    assertEquals(c1.certificate(), ks.getCertificate("k1"));
+    assertEquals(c1.certificate(), ks.getCertificate("c2"));
+
+    /*
+     * The index was rewritten, and names the new files.
+     */
+
+    final var reopened =
+      CMKeyStores.openKeyStore(file, new CMKeyStoreProvider());
+    assertEquals(
+      enumerationToSet(ks.aliases()),
+      enumerationToSet(reopened.aliases())
+    );
+    assertEquals(kp1.keyPair().getPrivate(), reopened.getKey("k1", new char[0]));
+    assertEquals(c1.certificate(), reopened.getCertificate("c2"));
+
+    /*
+     * Keystores are read-only unless they are explicitly made writable, and
+     * only keystores loaded from an index file can commit changes.
+     */
+
+    assertThrows(UnsupportedOperationException.class, () -> {
+      reopened.deleteEntry("k0");
+    });
+
+    final var streamed =
+      CMKeyStores.handle(CMKeyStores.createKeyStore());
+    streamed.setLoadOptions(
+      CMKeyStoreLoadOptions.builder()
+        .setWritable(true)
+        .build()
+    );
+    try (var stream = Files.newInputStream(file)) {
+      streamed.load(stream, null);
+    }
+    streamed.deleteEntry("k0");
+    assertThrows(IOException.class, streamed::commit);
+    assertEquals(1, streamed.pendingChanges());
+  }
+
+  @Test
+  public void testConcurrentLoads()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+
+    final var description =
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of("k0", kp0.secretKeyFile().getFileName()),
+        Map.of("c0", c0.certificateFile().getFileName())
+      );
+
+    final var file = this.directory.resolve("keystore.cmks");
+    this.serializers.serializeFile(file, description);
+
+    final var ks =
+      KeyStore.getInstance(providerName(), new CMKeyStoreProvider());
+
+    final var threadCount = 16;
+    final var barrier = new CyclicBarrier(threadCount);
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      final var futures = new ArrayList<Future<?>>();
+      for (int index = 0; index < threadCount; ++index) {
+        futures.add(executor.submit(() -> {
+          barrier.await();
+          try (var stream = Files.newInputStream(file)) {
+            ks.load(stream, new char[0]);
+          }
+          assertEquals(Set.of("k0", "c0"), enumerationToSet(ks.aliases()));
+          return null;
+        }));
+      }
+      for (final var future : futures) {
+        future.get();
+      }
+    }
+
+    assertEquals(kp0.keyPair().getPrivate(), ks.getKey("k0", new char[0]));
+    assertEquals(c0.certificate(), ks.getCertificate("c0"));
+  }
+
+  @Test
+  public void testReloadAsync()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+
+    final var description =
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of("k0", kp0.secretKeyFile().getFileName()),
+        Map.of("c0", c0.certificateFile().getFileName())
+      );
+
+    final var file = this.directory.resolve("keystore.cmks");
+    this.serializers.serializeFile(file, description);
+
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      final var opened =
+        CMKeyStores.openKeyStoreAsync(file, new CMKeyStoreProvider(), executor)
+          .get();
+
+      final var ks = opened.keyStore();
+      assertEquals(1L, opened.generation());
+      assertEquals(List.of(), opened.failures());
+      assertEquals(kp0.keyPair().getPrivate(), ks.getKey("k0", new char[0]));
+      assertEquals(c0.certificate(), ks.getCertificate("c0"));
+
+      final var swapped = new AtomicReference<SSLContext>();
+      final var context =
+        CMKeyStores.reloadSSLContextAsync(
+          ks, file, ks, "TLSv1.3", swapped::set, executor
+        ).get();
+
+      assertSame(context, swapped.get());
+      assertEquals(2L, ks.generation());
+
+      Files.writeString(c0.certificateFile(), "");
+
+      final var failed =
+        assertThrows(ExecutionException.class, () -> {
+          CMKeyStores.reloadKeystoreFromFileAsync(ks, file, executor).get();
+        });
+
+      assertInstanceOf(IOException.class, failed.getCause());
+      assertEquals(2L, ks.generation());
+      assertEquals(c0.certificate(), ks.getCertificate("c0"));
+    }
+  }
+
+  @Test
+  public void testReloadAsyncEncrypted()
+    throws Exception
+  {
+    final var password =
+      "password".toCharArray();
+    final var keyFile =
+      this.directory.resolve("k0.key");
+    final var key0 =
+      writeEncryptedKey(keyFile, password);
+
+    final var file = this.directory.resolve("keystore.cmks");
+    this.serializers.serializeFile(
+      file,
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of("k0", Path.of("k0.key")),
+        Map.of()
+      )
+    );
+
+    final var ks =
+      CMKeyStores.handle(CMKeyStores.createKeyStore(new CMKeyStoreProvider()));
+    try (var stream = Files.newInputStream(file)) {
+      ks.load(stream, password);
+    }
+    assertEquals(key0, ks.getKey("k0", password));
+
+    /*
+     * The reload decrypts the replaced key with the password given to the
+     * original load.
+     */
+
+    final var key1 =
+      writeEncryptedKey(keyFile, password);
+
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      final var result = ks.reloadAsync(file, executor).get();
+      assertEquals(List.of(), result.failures());
+    }
+    assertEquals(key1, ks.getKey("k0", password));
+  }
+
+  @Test
+  public void testReloadFromFileEncrypted()
+    throws Exception
+  {
+    final var password =
+      "password".toCharArray();
+    final var keyFile =
+      this.directory.resolve("k0.key");
+    final var key0 =
+      writeEncryptedKey(keyFile, password);
+
+    final var file = this.directory.resolve("keystore.cmks");
+    this.serializers.serializeFile(
+      file,
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of("k0", Path.of("k0.key")),
+        Map.of()
+      )
+    );
+
+    final var ks = CMKeyStores.createKeyStore(new CMKeyStoreProvider());
+    try (var stream = Files.newInputStream(file)) {
+      ks.load(stream, password);
+    }
+    assertEquals(key0, ks.getKey("k0", password));
+
+    final var key1 =
+      writeEncryptedKey(keyFile, password);
+
+    CMKeyStores.reloadKeystoreFromFile(ks, file);
+    assertEquals(key1, ks.getKey("k0", password));
+  }
+
+  private static PrivateKey writeEncryptedKey(
+    final Path file,
+    final char[] password)
+    throws Exception
+  {
+    final var key =
+      KeyPairGenerator.getInstance("RSA").generateKeyPair().getPrivate();
+
+    try (var writer = new JcaPEMWriter(Files.newBufferedWriter(file))) {
+      writer.writeObject(
+        new JcaPKCS8Generator(
+          key,
+          new JceOpenSSLPKCS8EncryptorBuilder(PKCS8Generator.AES_256_CBC)
+            .setProvider(new BouncyCastleProvider())
+            .setPassword(password)
+            .build()
+        )
+      );
+    }
+    return key;
+  }
+
+  @Test
+  public void testFragments()
+    throws Exception
+  {
+    final var tenantA = this.directory.resolve("tenant-a");
+    final var tenantB = this.directory.resolve("tenant-b");
+    Files.createDirectories(tenantA);
+    Files.createDirectories(tenantB);
+
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var kpa =
+      generateKeyPair("ka", tenantA);
+    final var ca =
+      generateCertificate(kpa.keyPair(), tenantA, "ca");
+    final var cb =
+      generateCertificate(kp0.keyPair(), tenantB, "cb");
+    final var cc =
+      generateCertificate(kp0.keyPair(), tenantB, "cc");
+
+    this.serializers.serializeFile(
+      tenantA.resolve("index.xml"),
+      new CMKeyStoreDescription(
+        tenantA,
+        Map.of("ka", kpa.secretKeyFile().getFileName()),
+        Map.of("ca", ca.certificateFile().getFileName())
+      )
+    );
+    this.serializers.serializeFile(
+      tenantB.resolve("index.xml"),
+      new CMKeyStoreDescription(
+        tenantB,
+        Map.of(),
+        Map.of("cb", cb.certificateFile().getFileName())
+      )
+    );
+
+    final var description =
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of("k0", kp0.secretKeyFile().getFileName()),
+        Map.of(),
+        Map.of(),
+        Map.of(),
+        List.of(Path.of("tenant-a/index.xml"), Path.of("tenant-b/index.xml"))
+      );
+
+    final var file = this.directory.resolve("keystore.cmks");
+    this.serializers.serializeFile(file, description);
+
+    final var ks =
+      KeyStore.getInstance(providerName(), new CMKeyStoreProvider());
+
+    try (var stream = Files.newInputStream(file)) {
+      ks.load(stream, new char[0]);
+    }
+
+    assertEquals(Set.of("k0", "ka", "ca", "cb"), enumerationToSet(ks.aliases()));
+    assertEquals(kpa.keyPair().getPrivate(), ks.getKey("ka", new char[0]));
+    assertEquals(cb.certificate(), ks.getCertificate("cb"));
+
+    /*
+     * Storing the keystore writes the index alone, not the merged fragments.
+     */
+
+    final var stored = new ByteArrayOutputStream();
+    ks.store(stored, new char[0]);
+    assertEquals(
+      description,
+      this.descriptions.parse(
+        URI.create("urn:stored"),
+        new ByteArrayInputStream(stored.toByteArray())
+      )
+    );
+
+    /*
+     * A change to a fragment is observed even though the index is unchanged.
+     */
+
+    this.serializers.serializeFile(
+      tenantB.resolve("index.xml"),
+      new CMKeyStoreDescription(
+        tenantB,
+        Map.of(),
+        Map.of(
+          "cb", cb.certificateFile().getFileName(),
+          "cc", cc.certificateFile().getFileName()
+        )
+      )
+    );
+
+    try (var stream = Files.newInputStream(file)) {
+      ks.load(stream, new char[0]);
+    }
+
+    assertEquals(
+      Set.of("k0", "ka", "ca", "cb", "cc"),
+      enumerationToSet(ks.aliases())
+    );
+    assertEquals(cc.certificate(), ks.getCertificate("cc"));
+  }
+
+  @Test
+  public void testConcurrentLoadsDifferentOptions()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+
+    final var description =
+      new CMKeyStoreDescription(
+        this.directory.toAbsolutePath(),
+        Map.of(),
+        Map.of("c0", c0.certificateFile().getFileName())
+      );
+
+    final var file = this.directory.resolve("keystore.cmks");
+    this.serializers.serializeFile(file, description);
+
+    /*
+     * The first load blocks inside its own entry source. A concurrent load
+     * of the same index with different options must not join it.
+     */
+
+    final var entered = new CountDownLatch(1);
+    final var release = new CountDownLatch(1);
+    final var filesystem = CMKeyStoreEntrySources.filesystem();
+    final var blocking = new CMKeyStoreEntrySourceType()
+    {
+      @Override
+      public CMKeyStoreEntryVersion version(
+        final CMKeyStoreEntryKind kind,
+        final String alias,
+        final Path path)
+        throws IOException
+      {
+        return filesystem.version(kind, alias, path);
+      }
+
+      @Override
+      public byte[] read(
+        final CMKeyStoreEntryKind kind,
+        final String alias,
+        final Path path)
+        throws IOException
+      {
+        entered.countDown();
+        try {
+          release.await();
+        } catch (final InterruptedException e) {
+          throw new IOException(e);
+        }
+        return filesystem.read(kind, alias, path);
+      }
+    };
+
+    final var ks =
+      CMKeyStores.handle(CMKeyStores.createKeyStore(new CMKeyStoreProvider()));
+
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      final var first = executor.submit(() -> {
+        ks.load(new CMKeyStoreLoadParameter(
+          file,
+          CMKeyStoreLoadOptions.builder()
+            .setEntrySource(blocking)
+            .build()
+        ));
+        return null;
+      });
+
+      assertTrue(entered.await(10L, TimeUnit.SECONDS));
+
+      final var second = executor.submit(() -> {
+        ks.load(new CMKeyStoreLoadParameter(
+          file,
+          CMKeyStoreLoadOptions.builder()
+            .build()
+        ));
+        return null;
+      });
+
+      try {
+        second.get(10L, TimeUnit.SECONDS);
+        assertEquals(c0.certificate(), ks.getCertificate("c0"));
+      } finally {
+        release.countDown();
+      }
+      first.get(10L, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testCommitWaitsForLoads()
+    throws Exception
+  {
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+
+    final var file = this.directory.resolve("keystore.cmks");
+    Files.writeString(
+      file,
+      """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:2"
+                BaseDirectory=".">
+        <Key Name="k0" File="k0.sec"/>
+        <Certificate Name="c0" File="c0.pem"/>
+      </Keystore>
+      """
+    );
+
+    final var ks =
+      CMKeyStores.handle(CMKeyStores.createKeyStore(new CMKeyStoreProvider()));
+    ks.load(new CMKeyStoreLoadParameter(
+      file,
+      CMKeyStoreLoadOptions.builder()
+        .setWritable(true)
+        .build()
+    ));
+
+    /*
+     * A reload blocks inside its entry source after reading the index. A
+     * commit made meanwhile must wait for it; otherwise, the reload would
+     * publish the index as it was before the commit rewrote it.
+     */
+
+    final var blocked = new AtomicBoolean(false);
+    final var entered = new CountDownLatch(1);
+    final var release = new CountDownLatch(1);
+    final var filesystem = CMKeyStoreEntrySources.filesystem();
+    final var blocking = new CMKeyStoreEntrySourceType()
+    {
+      @Override
+      public CMKeyStoreEntryVersion version(
+        final CMKeyStoreEntryKind kind,
+        final String alias,
+        final Path path)
+        throws IOException
+      {
+        if (alias.equals("c0") && blocked.compareAndSet(false, true)) {
+          entered.countDown();
+          try {
+            release.await();
+          } catch (final InterruptedException e) {
+            throw new IOException(e);
+          }
+        }
+        return filesystem.version(kind, alias, path);
+      }
+
+      @Override
+      public byte[] read(
+        final CMKeyStoreEntryKind kind,
+        final String alias,
+        final Path path)
+        throws IOException
+      {
+        return filesystem.read(kind, alias, path);
+      }
+    };
+
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      final var reload = executor.submit(() -> {
+        ks.load(new CMKeyStoreLoadParameter(
+          file,
+          CMKeyStoreLoadOptions.builder()
+            .setWritable(true)
+            .setCachePolicy(CMKeyStoreCachePolicy.NONE)
+            .setEntrySource(blocking)
+            .build()
+        ));
+        return null;
+      });
+
+      assertTrue(entered.await(10L, TimeUnit.SECONDS));
+
+      ks.setCertificateEntry("c1", c0.certificate());
+      final var commit = executor.submit(() -> {
+        ks.commit();
+        return null;
+      });
+
+      try {
+        assertThrows(TimeoutException.class, () -> {
+          commit.get(500L, TimeUnit.MILLISECONDS);
+        });
+      } finally {
+        release.countDown();
+      }
+
+      reload.get(10L, TimeUnit.SECONDS);
+      commit.get(10L, TimeUnit.SECONDS);
+    }
+
+    assertEquals(Set.of("k0", "c0", "c1"), enumerationToSet(ks.aliases()));
+  }
+
+  @Test
+  public void testWritablePermissions()
+    throws Exception
+  {
+    assumeTrue(
+      this.directory.getFileSystem()
+        .supportedFileAttributeViews()
+        .contains("posix")
+    );
+
+    final var kp0 =
+      generateKeyPair("k0", this.directory);
+    final var c0 =
+      generateCertificate(kp0.keyPair(), this.directory, "c0");
+
+    final var file = this.directory.resolve("keystore.cmks");
+    Files.writeString(
+      file,
+      """
+      <?xml version="1.0" encoding="UTF-8" ?>
+      <Keystore xmlns="urn:com.io7m.canonmill.keystore:1"
+                BaseDirectory=".">
+        <Certificate Name="c0" File="c0.pem"/>
+      </Keystore>
+      """
+    );
+
+    final var indexPermissions =
+      PosixFilePermissions.fromString("rw-r-----");
+    Files.setPosixFilePermissions(file, indexPermissions);
+
+    final var ks =
+      CMKeyStores.handle(CMKeyStores.createKeyStore());
+    ks.load(new CMKeyStoreLoadParameter(
+      file,
+      CMKeyStoreLoadOptions.builder()
+        .setWritable(true)
+        .build()
+    ));
+
+    ks.setKeyEntry(
+      "k0",
+      kp0.keyPair().getPrivate(),
+      new char[0],
+      new Certificate[]{c0.certificate()}
+    );
+    ks.commit();
+
+    /*
+     * The index keeps its permissions, key files are private to the owner,
+     * and the index has been upgraded to the version 2 format.
+     */
+
+    assertEquals(indexPermissions, Files.getPosixFilePermissions(file));
+
+    try (var files = Files.list(this.directory)) {
+      final var keyFiles =
+        files.filter(f -> f.getFileName().toString().endsWith(".key"))
+          .toList();
+
+      assertEquals(1, keyFiles.size());
+      assertEquals(
+        PosixFilePermissions.fromString("rw-------"),
+        Files.getPosixFilePermissions(keyFiles.get(0))
+      );
+    }
+
+    assertTrue(
+      Files.readString(file)
+        .contains("urn:com.io7m.canonmill.keystore:2")
+    );
+  }
+
+  @Test
+  public void testProbe()
+    throws Exception
+  {
+    final var spi = new CMKeyStore();
+
+    final var v1 =
+      CMTestDirectories.resourceOf(
+        CMKeyStoreTest.class, this.directory, "basic.xml");
+    final var v2 =
+      CMTestDirectories.resourceOf(
+        CMKeyStoreTest.class, this.directory, "basic-v2.xml");
+
+    try (var stream = Files.newInputStream(v1)) {
+      assertTrue(spi.engineProbe(stream));
+    }
+    try (var stream = Files.newInputStream(v2)) {
+      assertTrue(spi.engineProbe(stream));
+    }
+
+    assertFalse(probeText(spi, "<a xmlns=\"urn:x\"/>"));
+    assertFalse(probeText(spi, "<Keystore/>"));
+    assertFalse(probeText(spi, "not xml at all"));
+    assertFalse(probeText(spi, ""));
+
+    /*
+     * A root element that begins beyond the probed prefix is not seen.
+     */
+
+    assertFalse(probeText(
+      spi,
+      "<!--" + "x".repeat(CMKeyStoreDescriptionFastParser.PROBE_SIZE) + "-->"
+        + "<Keystore xmlns=\"urn:com.io7m.canonmill.keystore:2\"/>"
+    ));
+
+    /*
+     * Only the prefix is consumed.
+     */
+
+    final var large = new byte[CMKeyStoreDescriptionFastParser.PROBE_SIZE * 4];
+    final var stream = new ByteArrayInputStream(large);
+    assertFalse(spi.engineProbe(stream));
+    assertEquals(
+      large.length - CMKeyStoreDescriptionFastParser.PROBE_SIZE,
+      stream.available()
+    );
+
+    /*
+     * The keystore type is detected by the JDK when the provider is
+     * installed.
+     */
+
+    final var description =
+      new CMKeyStoreDescription(this.directory, Map.of(), Map.of());
+    final var file = this.directory.resolve("keystore.xml");
+    this.serializers.serializeFile(file, description);
+
+    Security.addProvider(new CMKeyStoreProvider());
+
+    final var ks = KeyStore.getInstance(file.toFile(), new char[0]);
+    assertEquals(providerName(), ks.getType());
+    assertEquals(0, ks.size());
+  }
+
+  private static boolean probeText(
+    final CMKeyStore spi,
+    final String text)
+    throws IOException
+  {
+    final var bytes = text.getBytes(StandardCharsets.UTF_8);
+    return spi.engineProbe(new ByteArrayInputStream(bytes));
+  }
+
   private static Date fileTime(
     final Path file)
     throws IOException
@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2026 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.canonmill.tests;
+
+import com.io7m.canonmill.core.internal.CMKeyStoreDescription;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionParsers;
+import com.io7m.canonmill.core.internal.CMKeyStoreDescriptionSerializers;
+import com.io7m.canonmill.core.internal.CMKeyStoreParserPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+/**
+ * <p>A benchmark of per-reload index parse latency.</p>
+ *
+ * <p>The {@code uncached} mode compiles the schema and creates a new parser
+ * for every parse, which is equivalent to the behaviour of parsers prior to
+ * the introduction of {@link CMKeyStoreParserPool}. The {@code pooled} mode
+ * uses the shared pool. The {@code fast} mode uses the non-validating
+ * parsers.</p>
+ *
+ * <p>Usage: {@code CMParseBenchmark [entries] [iterations]}</p>
+ */
+
+public final class CMParseBenchmark
+{
+  private CMParseBenchmark()
+  {
+
+  }
+
+  /**
+   * The main entry point.
+   *
+   * @param args The command-line arguments
+   *
+   * @throws Exception On errors
+   */
+
+  public static void main(
+    final String[] args)
+    throws Exception
+  {
+    final var entries =
+      args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    final var iterations =
+      args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+    final var index = index(entries);
+
+    run("uncached", index, iterations, () -> {
+      return new CMKeyStoreDescriptionParsers(CMKeyStoreParserPool.create());
+    });
+
+    final var pooled = new CMKeyStoreDescriptionParsers();
+    run("pooled", index, iterations, () -> pooled);
+
+    final var fast = CMKeyStoreDescriptionParsers.nonValidating();
+    run("fast", index, iterations, () -> fast);
+  }
+
+  private static byte[] index(
+    final int entries)
+    throws Exception
+  {
+    final var keys = new HashMap<String, Path>();
+    final var certificates = new HashMap<String, Path>();
+    for (int index = 0; index < entries; ++index) {
+      keys.put("k%d".formatted(index), Path.of("k%d.sec".formatted(index)));
+      certificates.put("c%d".formatted(index), Path.of("c%d.pem".formatted(index)));
+    }
+
+    final var output = new ByteArrayOutputStream();
+    new CMKeyStoreDescriptionSerializers()
+      .serialize(
+        URI.create("urn:benchmark"),
+        output,
+        new CMKeyStoreDescription(Path.of("/nonexistent"), keys, certificates)
+      );
+    return output.toByteArray();
+  }
+
+  private static void run(
+    final String name,
+    final byte[] index,
+    final int iterations,
+    final Supplier<CMKeyStoreDescriptionParsers> parsers)
+    throws Exception
+  {
+    final var source = URI.create("urn:benchmark");
+
+    /*
+     * Warm up.
+     */
+
+    for (int iteration = 0; iteration < iterations; ++iteration) {
+      parsers.get().parse(source, new ByteArrayInputStream(index));
+    }
+
+    final var times = new long[iterations];
+    for (int iteration = 0; iteration < iterations; ++iteration) {
+      final var timeThen = System.nanoTime();
+      parsers.get().parse(source, new ByteArrayInputStream(index));
+      times[iteration] = System.nanoTime() - timeThen;
+    }
+
+    Arrays.sort(times);
+    System.out.printf(
+      "%-10s median %8.1f us  p99 %8.1f us%n",
+      name,
+      Double.valueOf(times[iterations / 2] / 1000.0),
+      Double.valueOf(times[(int) (iterations * 0.99)] / 1000.0)
+    );
+  }
+}